@@ -0,0 +1,121 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.gradle.internal.work;
+
+import org.gradle.concurrent.ParallelismConfiguration;
+import org.gradle.internal.concurrent.DefaultParallelismConfiguration;
+import org.gradle.internal.concurrent.ParallelismConfigurationListener;
+import org.gradle.internal.concurrent.ParallelismConfigurationManager;
+import org.gradle.internal.resources.DefaultResourceLockCoordinationService;
+import org.gradle.internal.resources.ResourceLock;
+import org.gradle.util.Path;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Many threads competing for few worker leases and project locks, like the workers of a large parallel build do.
+ */
+@Fork(1)
+@Threads(32)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@State(Scope.Benchmark)
+public class WorkerLeaseChurnBenchmark {
+    private static final Path BUILD_PATH = Path.path(":");
+    private static final Runnable WORK = new Runnable() {
+        @Override
+        public void run() {
+            Blackhole.consumeCPU(100);
+        }
+    };
+
+    @Param({"4", "16"})
+    int maxWorkers;
+
+    private DefaultResourceLockCoordinationService coordinationService;
+    private DefaultWorkerLeaseService workerLeaseService;
+    private ResourceLock[] projectLocks;
+
+    @Setup
+    public void setup() {
+        coordinationService = new DefaultResourceLockCoordinationService();
+        workerLeaseService = new DefaultWorkerLeaseService(coordinationService, new FixedParallelismConfigurationManager(new DefaultParallelismConfiguration(true, maxWorkers)));
+        projectLocks = new ResourceLock[8];
+        for (int i = 0; i < projectLocks.length; i++) {
+            projectLocks[i] = workerLeaseService.getProjectLock(BUILD_PATH, BUILD_PATH.child("project" + i));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        workerLeaseService.stop();
+        System.out.println();
+        System.out.println("Resource lock contention: " + coordinationService.getContentionStatistics());
+    }
+
+    @Benchmark
+    public void acquireAndReleaseWorkerLease() {
+        ResourceLock workerLease = workerLeaseService.getWorkerLease();
+        workerLeaseService.withLocks(Collections.singleton(workerLease), WORK);
+    }
+
+    @Benchmark
+    public void acquireAndReleaseWorkerLeaseAndProjectLock() {
+        ResourceLock workerLease = workerLeaseService.getWorkerLease();
+        ResourceLock projectLock = projectLocks[(int) (Thread.currentThread().getId() % projectLocks.length)];
+        workerLeaseService.withLocks(Arrays.asList(workerLease, projectLock), WORK);
+    }
+
+    private static class FixedParallelismConfigurationManager implements ParallelismConfigurationManager {
+        private final ParallelismConfiguration parallelismConfiguration;
+
+        FixedParallelismConfigurationManager(ParallelismConfiguration parallelismConfiguration) {
+            this.parallelismConfiguration = parallelismConfiguration;
+        }
+
+        @Override
+        public ParallelismConfiguration getParallelismConfiguration() {
+            return parallelismConfiguration;
+        }
+
+        @Override
+        public void setParallelismConfiguration(ParallelismConfiguration parallelismConfiguration) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void addListener(ParallelismConfigurationListener listener) {
+        }
+
+        @Override
+        public void removeListener(ParallelismConfigurationListener listener) {
+        }
+    }
+}
@@ -21,6 +21,7 @@ import com.google.common.base.Preconditions;
 import org.gradle.internal.io.BufferCaster;
 import org.gradle.internal.io.NullOutputStream;
 
+import javax.annotation.Nullable;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
@@ -38,7 +39,24 @@ public class Hashing {
 
     private static final HashFunction SHA1 = MessageDigestHashFunction.of("SHA-1");
 
-    private static final HashFunction DEFAULT = MD5;
+    private static final HashFunction MURMUR3 = new Murmur3HashFunction();
+
+    /**
+     * System property to select the default hash function, see {@link #defaultFunction()}.
+     */
+    public static final String DEFAULT_FUNCTION_PROPERTY = "org.gradle.internal.hash.function";
+
+    private static final HashFunction DEFAULT = selectDefaultFunction(System.getProperty(DEFAULT_FUNCTION_PROPERTY));
+
+    static HashFunction selectDefaultFunction(@Nullable String name) {
+        if (name == null || name.equals(MD5.toString())) {
+            return MD5;
+        }
+        if (name.equals(MURMUR3.toString())) {
+            return MURMUR3;
+        }
+        throw new IllegalArgumentException(String.format("Unknown hash function '%s' specified by system property '%s', supported functions are '%s' and '%s'.", name, DEFAULT_FUNCTION_PROPERTY, MD5, MURMUR3));
+    }
 
     /**
      * Returns a new {@link Hasher} based on the default hashing implementation.
@@ -101,6 +119,9 @@ public class Hashing {
 
     /**
      * The default hashing function.
+     *
+     * This is MD5, unless {@value #DEFAULT_FUNCTION_PROPERTY} selects another 128-bit function when the JVM starts.
+     * Use {@link HashFunction#toString()} to identify the function in persistent caches which store hashes.
      */
     public static HashFunction defaultFunction() {
         return DEFAULT;
@@ -120,6 +141,13 @@ public class Hashing {
         return SHA1;
     }
 
+    /**
+     * Non-cryptographic 128-bit MurmurHash3 (x64 variant) hashing function.
+     */
+    public static HashFunction murmur3() {
+        return MURMUR3;
+    }
+
     private static abstract class MessageDigestHashFunction implements HashFunction {
         public static MessageDigestHashFunction of(String algorithm) {
             MessageDigest prototype;
@@ -130,12 +158,18 @@ public class Hashing {
             }
             try {
                 prototype.clone();
-                return new CloningMessageDigestHashFunction(prototype);
+                return new CloningMessageDigestHashFunction(algorithm, prototype);
             } catch (CloneNotSupportedException e) {
                 return new RegularMessageDigestHashFunction(algorithm);
             }
         }
 
+        private final String algorithm;
+
+        protected MessageDigestHashFunction(String algorithm) {
+            this.algorithm = algorithm;
+        }
+
         @Override
         public PrimitiveHasher newPrimitiveHasher() {
             MessageDigest digest = createDigest();
@@ -162,12 +196,18 @@ public class Hashing {
         }
 
         protected abstract MessageDigest createDigest();
+
+        @Override
+        public String toString() {
+            return algorithm;
+        }
     }
 
     private static class CloningMessageDigestHashFunction extends MessageDigestHashFunction {
         private final MessageDigest prototype;
 
-        public CloningMessageDigestHashFunction(MessageDigest prototype) {
+        public CloningMessageDigestHashFunction(String algorithm, MessageDigest prototype) {
+            super(algorithm);
             this.prototype = prototype;
         }
 
@@ -182,16 +222,14 @@ public class Hashing {
     }
 
     private static class RegularMessageDigestHashFunction extends MessageDigestHashFunction {
-        private final String algorithm;
-
         public RegularMessageDigestHashFunction(String algorithm) {
-            this.algorithm = algorithm;
+            super(algorithm);
         }
 
         @Override
         protected MessageDigest createDigest() {
             try {
-                return MessageDigest.getInstance(algorithm);
+                return MessageDigest.getInstance(toString());
             } catch (NoSuchAlgorithmException e) {
                 throw new AssertionError(e);
             }
@@ -279,6 +317,222 @@ public class Hashing {
         }
     }
 
+    private static class Murmur3HashFunction implements HashFunction {
+        @Override
+        public PrimitiveHasher newPrimitiveHasher() {
+            return new Murmur3Hasher();
+        }
+
+        @Override
+        public Hasher newHasher() {
+            return new DefaultHasher(newPrimitiveHasher());
+        }
+
+        @Override
+        public HashCode hashBytes(byte[] bytes) {
+            PrimitiveHasher hasher = newPrimitiveHasher();
+            hasher.putBytes(bytes);
+            return hasher.hash();
+        }
+
+        @Override
+        public HashCode hashString(CharSequence string) {
+            PrimitiveHasher hasher = newPrimitiveHasher();
+            hasher.putString(string);
+            return hasher.hash();
+        }
+
+        @Override
+        public String toString() {
+            return "MURMUR3";
+        }
+    }
+
+    /**
+     * Streaming implementation of MurmurHash3_x64_128 with a seed of 0, producing the same hashes as Guava's {@code Hashing.murmur3_128()}.
+     */
+    private static class Murmur3Hasher implements PrimitiveHasher {
+        private static final int BLOCK_SIZE = 16;
+        private static final long C1 = 0x87c37b91114253d5L;
+        private static final long C2 = 0x4cf5ad432745937fL;
+
+        private final byte[] pending = new byte[BLOCK_SIZE];
+        private final ByteBuffer buffer = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        private int pendingLength;
+        private long length;
+        private long h1;
+        private long h2;
+        private boolean done;
+
+        private void checkNotDone() {
+            if (done) {
+                throw new IllegalStateException("Cannot reuse hasher");
+            }
+        }
+
+        @Override
+        public void putByte(byte b) {
+            checkNotDone();
+            length++;
+            pending[pendingLength++] = b;
+            if (pendingLength == BLOCK_SIZE) {
+                mixBlock(pending, 0);
+                pendingLength = 0;
+            }
+        }
+
+        @Override
+        public void putBytes(byte[] bytes) {
+            putBytes(bytes, 0, bytes.length);
+        }
+
+        @Override
+        public void putBytes(byte[] bytes, int off, int len) {
+            checkNotDone();
+            length += len;
+            int pos = off;
+            int end = off + len;
+            if (pendingLength > 0) {
+                int toCopy = Math.min(BLOCK_SIZE - pendingLength, len);
+                System.arraycopy(bytes, pos, pending, pendingLength, toCopy);
+                pendingLength += toCopy;
+                pos += toCopy;
+                if (pendingLength < BLOCK_SIZE) {
+                    return;
+                }
+                mixBlock(pending, 0);
+                pendingLength = 0;
+            }
+            while (end - pos >= BLOCK_SIZE) {
+                mixBlock(bytes, pos);
+                pos += BLOCK_SIZE;
+            }
+            pendingLength = end - pos;
+            System.arraycopy(bytes, pos, pending, 0, pendingLength);
+        }
+
+        private void mixBlock(byte[] bytes, int offset) {
+            long k1 = getLongLittleEndian(bytes, offset);
+            long k2 = getLongLittleEndian(bytes, offset + 8);
+
+            h1 ^= mixK1(k1);
+            h1 = Long.rotateLeft(h1, 27);
+            h1 += h2;
+            h1 = h1 * 5 + 0x52dce729;
+
+            h2 ^= mixK2(k2);
+            h2 = Long.rotateLeft(h2, 31);
+            h2 += h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+
+        @Override
+        public HashCode hash() {
+            checkNotDone();
+            done = true;
+            long k1 = 0;
+            long k2 = 0;
+            for (int i = pendingLength - 1; i >= 8; i--) {
+                k2 ^= (pending[i] & 0xFFL) << ((i - 8) * 8);
+            }
+            for (int i = Math.min(pendingLength, 8) - 1; i >= 0; i--) {
+                k1 ^= (pending[i] & 0xFFL) << (i * 8);
+            }
+            if (pendingLength > 8) {
+                h2 ^= mixK2(k2);
+            }
+            if (pendingLength > 0) {
+                h1 ^= mixK1(k1);
+            }
+
+            h1 ^= length;
+            h2 ^= length;
+            h1 += h2;
+            h2 += h1;
+            h1 = fmix64(h1);
+            h2 = fmix64(h2);
+            h1 += h2;
+            h2 += h1;
+
+            ByteBuffer result = ByteBuffer.allocate(BLOCK_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            result.putLong(h1);
+            result.putLong(h2);
+            return HashCode.fromBytesNoCopy(result.array());
+        }
+
+        private static long getLongLittleEndian(byte[] bytes, int offset) {
+            return (bytes[offset] & 0xFFL)
+                | (bytes[offset + 1] & 0xFFL) << 8
+                | (bytes[offset + 2] & 0xFFL) << 16
+                | (bytes[offset + 3] & 0xFFL) << 24
+                | (bytes[offset + 4] & 0xFFL) << 32
+                | (bytes[offset + 5] & 0xFFL) << 40
+                | (bytes[offset + 6] & 0xFFL) << 48
+                | (bytes[offset + 7] & 0xFFL) << 56;
+        }
+
+        private static long mixK1(long k1) {
+            k1 *= C1;
+            k1 = Long.rotateLeft(k1, 31);
+            k1 *= C2;
+            return k1;
+        }
+
+        private static long mixK2(long k2) {
+            k2 *= C2;
+            k2 = Long.rotateLeft(k2, 33);
+            k2 *= C1;
+            return k2;
+        }
+
+        private static long fmix64(long k) {
+            k ^= k >>> 33;
+            k *= 0xff51afd7ed558ccdL;
+            k ^= k >>> 33;
+            k *= 0xc4ceb9fe1a85ec53L;
+            k ^= k >>> 33;
+            return k;
+        }
+
+        private void update(int length) {
+            putBytes(buffer.array(), 0, length);
+            BufferCaster.cast(buffer).clear();
+        }
+
+        @Override
+        public void putInt(int value) {
+            buffer.putInt(value);
+            update(4);
+        }
+
+        @Override
+        public void putLong(long value) {
+            buffer.putLong(value);
+            update(8);
+        }
+
+        @Override
+        public void putDouble(double value) {
+            long longValue = Double.doubleToRawLongBits(value);
+            putLong(longValue);
+        }
+
+        @Override
+        public void putBoolean(boolean value) {
+            putByte((byte) (value ? 1 : 0));
+        }
+
+        @Override
+        public void putString(CharSequence value) {
+            putBytes(value.toString().getBytes(Charsets.UTF_8));
+        }
+
+        @Override
+        public void putHash(HashCode hashCode) {
+            putBytes(hashCode.getBytes());
+        }
+    }
+
     private static class DefaultHasher implements Hasher {
         private final PrimitiveHasher hasher;
         private String invalidReason;
@@ -82,6 +82,14 @@ public abstract class AbstractTrackedResourceLock implements ResourceLock {
         }
     }
 
+    /**
+     * Returns the resource which has to be released before a failed attempt to acquire this lock can succeed. Threads waiting for
+     * this lock are woken up whenever a lock for the same resource is released.
+     */
+    protected Object getContendedResource() {
+        return this;
+    }
+
     abstract protected boolean acquireLock();
 
     abstract protected void releaseLock();
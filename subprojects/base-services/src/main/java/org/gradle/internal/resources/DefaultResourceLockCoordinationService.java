@@ -17,16 +17,31 @@
 package org.gradle.internal.resources;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import org.gradle.api.Transformer;
 import org.gradle.internal.UncheckedException;
 
+import javax.annotation.Nullable;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * Coordinates changes to resource locks, so that only one thread at a time changes the state of the locks.
+ *
+ * A thread which has to wait for a state change is only woken up when a state change happened which may allow it to proceed.
+ * Threads blocked in {@link #lock(Iterable)} wait for the specific lock they failed to acquire to be released. All other threads
+ * wait for any lock to be released or for {@link #notifyStateChange()} to be called, since it is not known what they wait for.
+ */
 public class DefaultResourceLockCoordinationService implements ResourceLockCoordinationService {
-    private final Object lock = new Object();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition anyStateChange = lock.newCondition();
+    private final Map<Object, ResourceWaiters> waitersByResource = Maps.newHashMap();
     private final ThreadLocal<List<ResourceLockState>> currentState = new ThreadLocal<List<ResourceLockState>>() {
         @Override
         protected List<ResourceLockState> initialValue() {
@@ -34,12 +49,19 @@ public class DefaultResourceLockCoordinationService implements ResourceLockCoord
         }
     };
 
+    private final AtomicLong waits = new AtomicLong();
+    private final AtomicLong targetedWaits = new AtomicLong();
+    private final AtomicLong futileWakeUps = new AtomicLong();
+    private final AtomicLong waitTimeNanos = new AtomicLong();
+
     @Override
     public boolean withStateLock(Transformer<ResourceLockState.Disposition, ResourceLockState> stateLockAction) {
+        boolean wokenUp = false;
         while (true) {
             DefaultResourceLockState resourceLockState = new DefaultResourceLockState();
             ResourceLockState.Disposition disposition;
-            synchronized (lock) {
+            lock.lock();
+            try {
                 try {
                     currentState.get().add(resourceLockState);
                     disposition = stateLockAction.transform(resourceLockState);
@@ -47,11 +69,11 @@ public class DefaultResourceLockCoordinationService implements ResourceLockCoord
                     switch (disposition) {
                         case RETRY:
                             resourceLockState.releaseLocks();
-                            try {
-                                lock.wait();
-                            } catch (InterruptedException e) {
-                                throw UncheckedException.throwAsUncheckedException(e);
+                            if (wokenUp) {
+                                futileWakeUps.incrementAndGet();
                             }
+                            awaitStateChange(resourceLockState.blockingLock);
+                            wokenUp = true;
                             break;
                         case FINISHED:
                             maybeNotifyStateChange(resourceLockState);
@@ -68,10 +90,49 @@ public class DefaultResourceLockCoordinationService implements ResourceLockCoord
                 } finally {
                     currentState.get().remove(resourceLockState);
                 }
+            } finally {
+                lock.unlock();
             }
         }
     }
 
+    private void awaitStateChange(@Nullable ResourceLock blockingLock) {
+        waits.incrementAndGet();
+        long startTime = System.nanoTime();
+        try {
+            if (blockingLock == null) {
+                anyStateChange.await();
+            } else {
+                targetedWaits.incrementAndGet();
+                Object resource = resourceOf(blockingLock);
+                ResourceWaiters waiters = waitersByResource.get(resource);
+                if (waiters == null) {
+                    waiters = new ResourceWaiters(lock.newCondition());
+                    waitersByResource.put(resource, waiters);
+                }
+                waiters.count++;
+                try {
+                    waiters.released.await();
+                } finally {
+                    if (--waiters.count == 0) {
+                        waitersByResource.remove(resource);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            throw UncheckedException.throwAsUncheckedException(e);
+        } finally {
+            waitTimeNanos.addAndGet(System.nanoTime() - startTime);
+        }
+    }
+
+    private static Object resourceOf(ResourceLock resourceLock) {
+        if (resourceLock instanceof AbstractTrackedResourceLock) {
+            return ((AbstractTrackedResourceLock) resourceLock).getContendedResource();
+        }
+        return resourceLock;
+    }
+
     @Override
     public ResourceLockState getCurrent() {
         if (!currentState.get().isEmpty()) {
@@ -84,19 +145,48 @@ public class DefaultResourceLockCoordinationService implements ResourceLockCoord
 
     private void maybeNotifyStateChange(DefaultResourceLockState resourceLockState) {
         if (resourceLockState.hasUnlockedResources()) {
-            notifyStateChange();
+            for (ResourceLock unlockedResource : resourceLockState.unlockedResources) {
+                ResourceWaiters waiters = waitersByResource.get(resourceOf(unlockedResource));
+                if (waiters != null) {
+                    waiters.released.signalAll();
+                }
+            }
+            anyStateChange.signalAll();
         }
     }
 
     public void notifyStateChange() {
-        synchronized (lock) {
-            lock.notifyAll();
+        lock.lock();
+        try {
+            for (ResourceWaiters waiters : waitersByResource.values()) {
+                waiters.released.signalAll();
+            }
+            anyStateChange.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns statistics about the threads which had to wait for a resource lock state change.
+     */
+    public ResourceLockContentionStatistics getContentionStatistics() {
+        return new ResourceLockContentionStatistics(waits.get(), targetedWaits.get(), futileWakeUps.get(), waitTimeNanos.get() / 1000000);
+    }
+
+    private static class ResourceWaiters {
+        final Condition released;
+        int count;
+
+        ResourceWaiters(Condition released) {
+            this.released = released;
         }
     }
 
     private static class DefaultResourceLockState implements ResourceLockState {
         private Set<ResourceLock> lockedResources;
         private Set<ResourceLock> unlockedResources;
+        private ResourceLock blockingLock;
         boolean rollback;
 
         @Override
@@ -119,6 +209,13 @@ public class DefaultResourceLockCoordinationService implements ResourceLockCoord
             }
         }
 
+        /**
+         * Records that the transform can only make progress once the given lock has been released.
+         */
+        void waitFor(ResourceLock resourceLock) {
+            blockingLock = resourceLock;
+        }
+
         boolean hasUnlockedResources() {
             return unlockedResources != null && !unlockedResources.isEmpty();
         }
@@ -194,7 +291,13 @@ public class DefaultResourceLockCoordinationService implements ResourceLockCoord
         public ResourceLockState.Disposition transform(ResourceLockState resourceLockState) {
             for (ResourceLock resourceLock : resourceLocks) {
                 if (!resourceLock.tryLock()) {
-                    return blocking ? ResourceLockState.Disposition.RETRY : ResourceLockState.Disposition.FAILED;
+                    if (!blocking) {
+                        return ResourceLockState.Disposition.FAILED;
+                    }
+                    if (resourceLockState instanceof DefaultResourceLockState) {
+                        ((DefaultResourceLockState) resourceLockState).waitFor(resourceLock);
+                    }
+                    return ResourceLockState.Disposition.RETRY;
                 }
             }
             return ResourceLockState.Disposition.FINISHED;
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.gradle.internal.resources;
+
+/**
+ * Statistics about the threads which had to wait for a change of the resource lock state.
+ */
+public class ResourceLockContentionStatistics {
+    private final long waits;
+    private final long targetedWaits;
+    private final long futileWakeUps;
+    private final long waitTimeMillis;
+
+    public ResourceLockContentionStatistics(long waits, long targetedWaits, long futileWakeUps, long waitTimeMillis) {
+        this.waits = waits;
+        this.targetedWaits = targetedWaits;
+        this.futileWakeUps = futileWakeUps;
+        this.waitTimeMillis = waitTimeMillis;
+    }
+
+    /**
+     * The number of times a thread had to wait for a state change.
+     */
+    public long getWaits() {
+        return waits;
+    }
+
+    /**
+     * The number of times a thread waited for a specific resource to be released, instead of any state change.
+     */
+    public long getTargetedWaits() {
+        return targetedWaits;
+    }
+
+    /**
+     * The number of times a thread was woken up, but still could not make progress.
+     */
+    public long getFutileWakeUps() {
+        return futileWakeUps;
+    }
+
+    public long getWaitTimeMillis() {
+        return waitTimeMillis;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s waits (%s for a specific resource), %s futile wake-ups, %sms waiting", waits, targetedWaits, futileWakeUps, waitTimeMillis);
+    }
+}
@@ -141,6 +141,9 @@ public class DefaultWorkerLeaseService implements WorkerLeaseService, Parallelis
 
         if (projectLockStatistics.isEnabled()) {
             LOGGER.warn("Time spent waiting on project locks: " + projectLockStatistics.getTotalWaitTimeMillis() + "ms");
+            if (coordinationService instanceof DefaultResourceLockCoordinationService) {
+                LOGGER.warn("Resource lock contention: " + ((DefaultResourceLockCoordinationService) coordinationService).getContentionStatistics());
+            }
         }
     }
 
@@ -367,6 +370,12 @@ public class DefaultWorkerLeaseService implements WorkerLeaseService, Parallelis
             this.ownerThread = ownerThread;
         }
 
+        @Override
+        protected Object getContendedResource() {
+            // All leases are granted from the same pool of workers
+            return root;
+        }
+
         @Override
         protected boolean doIsLocked() {
             return active;
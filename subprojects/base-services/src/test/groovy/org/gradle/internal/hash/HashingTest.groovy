@@ -40,6 +40,47 @@ class HashingTest extends Specification {
         hashStrings(["abc", "de"]) != hashStrings(["ab", "cde"])
     }
 
+    def 'murmur3 produces the reference MurmurHash3_x64_128 hashes'() {
+        expect:
+        Hashing.murmur3().hashString(input) == HashCode.fromString(expected)
+
+        where:
+        input                                         | expected
+        ""                                            | "00000000000000000000000000000000"
+        "hell"                                        | "67f8103e694299624753ebba820bdb92"
+        "The quick brown fox jumps over the lazy dog" | "6c1b07bc7bbc4be347939ac4a93c437a"
+    }
+
+    def 'murmur3 hashes the same bytes to the same hash regardless of how they are fed in'() {
+        def bytes = (0..<100).collect { it as byte } as byte[]
+        def chunked = Hashing.murmur3().newPrimitiveHasher()
+
+        when:
+        chunked.putByte(bytes[0])
+        chunked.putBytes(bytes, 1, 14)
+        chunked.putBytes(bytes, 15, 30)
+        chunked.putBytes(bytes, 45, 55)
+
+        then:
+        chunked.hash() == Hashing.murmur3().hashBytes(bytes)
+    }
+
+    def 'can select the default hash function'() {
+        expect:
+        Hashing.selectDefaultFunction(null) == Hashing.md5()
+        Hashing.selectDefaultFunction("MD5") == Hashing.md5()
+        Hashing.selectDefaultFunction("MURMUR3") == Hashing.murmur3()
+    }
+
+    def 'fails on unknown default hash function'() {
+        when:
+        Hashing.selectDefaultFunction("CRC32")
+
+        then:
+        def e = thrown(IllegalArgumentException)
+        e.message == "Unknown hash function 'CRC32' specified by system property 'org.gradle.internal.hash.function', supported functions are 'MD5' and 'MURMUR3'."
+    }
+
     def hashKey(String value) {
         def hasher = Hashing.newHasher()
         hasher.putString(value)
@@ -317,6 +317,105 @@ class DefaultResourceLockCoordinationServiceTest extends ConcurrentSpec {
         false       | false       | FINISHED
     }
 
+    def "only wakes up threads waiting for a released lock"() {
+        def lock1 = resourceLock("lock1", true)
+        def lock2 = resourceLock("lock2", true)
+
+        when:
+        async {
+            start {
+                coordinationService.withStateLock(lock(lock1))
+                instant.acquired1
+            }
+            start {
+                coordinationService.withStateLock(lock(lock2))
+                instant.acquired2
+            }
+
+            ConcurrentTestUtil.poll {
+                assert coordinationService.contentionStatistics.waits == 2
+            }
+
+            release(lock1)
+            thread.blockUntil.acquired1
+
+            assert coordinationService.contentionStatistics.waits == 2
+            assert coordinationService.contentionStatistics.futileWakeUps == 0
+
+            release(lock2)
+            thread.blockUntil.acquired2
+        }
+
+        then:
+        lock1.doIsLockedByCurrentThread()
+        lock2.doIsLockedByCurrentThread()
+
+        and:
+        def statistics = coordinationService.contentionStatistics
+        statistics.waits == 2
+        statistics.targetedWaits == 2
+        statistics.futileWakeUps == 0
+    }
+
+    def "threads waiting for any state change are woken up when any lock is released"() {
+        def lock1 = resourceLock("lock1", true)
+        def lock2 = resourceLock("lock2", true)
+        def finished = false
+
+        when:
+        async {
+            start {
+                coordinationService.withStateLock(lock(lock1))
+                instant.acquired
+            }
+            start {
+                coordinationService.withStateLock(new Transformer<ResourceLockState.Disposition, ResourceLockState>() {
+                    @Override
+                    ResourceLockState.Disposition transform(ResourceLockState resourceLockState) {
+                        return finished ? FINISHED : RETRY
+                    }
+                })
+                instant.finished
+            }
+
+            ConcurrentTestUtil.poll {
+                assert coordinationService.contentionStatistics.waits == 2
+            }
+
+            release(lock2)
+            ConcurrentTestUtil.poll {
+                assert coordinationService.contentionStatistics.futileWakeUps == 1
+            }
+
+            finished = true
+            coordinationService.notifyStateChange()
+            thread.blockUntil.finished
+
+            release(lock1)
+            thread.blockUntil.acquired
+        }
+
+        then:
+        lock1.doIsLockedByCurrentThread()
+
+        and:
+        def statistics = coordinationService.contentionStatistics
+        statistics.waits == 4
+        statistics.targetedWaits == 2
+        statistics.futileWakeUps == 2
+    }
+
+    private void release(TestTrackedResourceLock resourceLock) {
+        coordinationService.withStateLock(new Transformer<ResourceLockState.Disposition, ResourceLockState>() {
+            @Override
+            ResourceLockState.Disposition transform(ResourceLockState resourceLockState) {
+                resourceLock.lockedState = false
+                resourceLockState.registerUnlocked(resourceLock)
+                return FINISHED
+            }
+        })
+    }
+
     TestTrackedResourceLock resourceLock(String displayName, boolean locked, boolean hasLock=false) {
         return new TestTrackedResourceLock(displayName, coordinationService, Mock(Action), Mock(Action), locked, hasLock)
     }
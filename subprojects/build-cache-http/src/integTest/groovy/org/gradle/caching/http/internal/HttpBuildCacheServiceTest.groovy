@@ -26,7 +26,9 @@ import org.gradle.caching.BuildCacheService
 import org.gradle.caching.BuildCacheServiceFactory
 import org.gradle.caching.http.HttpBuildCache
 import org.gradle.internal.hash.HashCode
+import org.gradle.internal.resource.transport.http.DefaultHttpSettings
 import org.gradle.internal.resource.transport.http.DefaultSslContextFactory
+import org.gradle.internal.resource.transport.http.HttpClientHelper
 import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
 import org.gradle.test.fixtures.server.http.AuthScheme
 import org.gradle.test.fixtures.server.http.HttpResourceInteraction
@@ -37,6 +39,8 @@ import spock.lang.Specification
 
 import javax.servlet.http.HttpServletRequest
 import javax.servlet.http.HttpServletResponse
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
 
 class HttpBuildCacheServiceTest extends Specification {
     public static final List<Integer> FATAL_HTTP_ERROR_CODES = [
@@ -142,6 +146,33 @@ class HttpBuildCacheServiceTest extends Specification {
         receivedInput == "Data"
     }
 
+    def "reuses a bounded number of connections for concurrent requests"() {
+        def srcFile = tempDir.file("cached.zip")
+        srcFile.text = "Data"
+        server.allowGetOrHead("/cache/${key.hashCode}", srcFile)
+        def httpClientHelper = new HttpClientHelper(DefaultHttpSettings.builder()
+            .withAuthenticationSettings([])
+            .withSslContextFactory(new DefaultSslContextFactory())
+            .maxConnections(2)
+            .build())
+        def pooledCache = new HttpBuildCacheService(httpClientHelper, server.uri.resolve("/cache/"))
+        def executor = Executors.newFixedThreadPool(8)
+
+        when:
+        def loads = (1..40).collect {
+            executor.submit({ pooledCache.load(key) { input -> input.text } } as Callable<Boolean>)
+        }
+
+        then:
+        loads*.get().every()
+        httpClientHelper.requestCount == 40
+        httpClientHelper.connectionCount <= 2
+
+        cleanup:
+        executor.shutdownNow()
+        pooledCache.close()
+    }
+
     def "loading from cache does not follow redirects"() {
         def srcFile = tempDir.file("cached.zip")
         srcFile.text = "Data"
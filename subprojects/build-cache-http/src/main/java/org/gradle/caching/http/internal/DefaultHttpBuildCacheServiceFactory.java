@@ -39,6 +39,11 @@ import java.util.Collections;
  */
 public class DefaultHttpBuildCacheServiceFactory implements BuildCacheServiceFactory<HttpBuildCache> {
 
+    /**
+     * The maximum number of connections kept open to the build cache. Requests beyond that wait for a connection to become available instead of opening new ones.
+     */
+    public static final String MAX_CONNECTIONS_PROPERTY = "org.gradle.caching.http.max-connections";
+
     private final SslContextFactory sslContextFactory;
 
     @Inject
@@ -70,7 +75,8 @@ public class DefaultHttpBuildCacheServiceFactory implements BuildCacheServiceFac
         boolean allowUntrustedServer = configuration.isAllowUntrustedServer();
         DefaultHttpSettings.Builder builder = DefaultHttpSettings.builder()
             .withAuthenticationSettings(authentications)
-            .followRedirects(false);
+            .followRedirects(false)
+            .maxConnections(Integer.getInteger(MAX_CONNECTIONS_PROPERTY, DefaultHttpSettings.DEFAULT_MAX_CONNECTIONS));
         if (allowUntrustedServer) {
             builder.allowUntrustedConnections();
         } else {
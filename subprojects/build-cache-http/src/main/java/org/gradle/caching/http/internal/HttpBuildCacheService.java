@@ -210,6 +210,9 @@ public class HttpBuildCacheService implements BuildCacheService {
 
     @Override
     public void close() throws IOException {
+        if (LOGGER.isInfoEnabled() && httpClientHelper.getRequestCount() > 0) {
+            LOGGER.info("HTTP build cache at {} received {} requests over {} connections.", safeUri(root), httpClientHelper.getRequestCount(), httpClientHelper.getConnectionCount());
+        }
         httpClientHelper.close();
     }
 
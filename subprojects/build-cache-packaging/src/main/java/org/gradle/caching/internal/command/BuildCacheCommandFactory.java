@@ -22,6 +22,7 @@ import org.gradle.caching.BuildCacheKey;
 import org.gradle.caching.internal.CacheableEntity;
 import org.gradle.caching.internal.controller.BuildCacheLoadCommand;
 import org.gradle.caching.internal.controller.BuildCacheStoreCommand;
+import org.gradle.caching.internal.controller.InMemoryBuildCacheEntry;
 import org.gradle.caching.internal.origin.OriginMetadata;
 import org.gradle.caching.internal.origin.OriginMetadataFactory;
 import org.gradle.caching.internal.packaging.BuildCacheEntryPacker;
@@ -31,6 +32,7 @@ import org.gradle.internal.fingerprint.FingerprintingStrategy;
 import org.gradle.internal.fingerprint.impl.AbsolutePathFingerprintingStrategy;
 import org.gradle.internal.fingerprint.impl.DefaultCurrentFileCollectionFingerprint;
 import org.gradle.internal.nativeintegration.filesystem.DefaultFileMetadata;
+import org.gradle.internal.nativeplatform.filesystem.FileSystem;
 import org.gradle.internal.snapshot.FileSystemLocationSnapshot;
 import org.gradle.internal.snapshot.FileSystemMirror;
 import org.gradle.internal.snapshot.FileSystemSnapshot;
@@ -38,6 +40,7 @@ import org.gradle.internal.snapshot.MissingFileSnapshot;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -53,12 +56,21 @@ public class BuildCacheCommandFactory {
     private final OriginMetadataFactory originMetadataFactory;
     private final FileSystemMirror fileSystemMirror;
     private final StringInterner stringInterner;
+    private final FileSystem fileSystem;
 
     public BuildCacheCommandFactory(BuildCacheEntryPacker packer, OriginMetadataFactory originMetadataFactory, FileSystemMirror fileSystemMirror, StringInterner stringInterner) {
+        this(packer, originMetadataFactory, fileSystemMirror, stringInterner, null);
+    }
+
+    /**
+     * Creates a factory whose load commands can keep the loaded outputs in memory, using the given file system to capture and restore file permissions.
+     */
+    public BuildCacheCommandFactory(BuildCacheEntryPacker packer, OriginMetadataFactory originMetadataFactory, FileSystemMirror fileSystemMirror, StringInterner stringInterner, @Nullable FileSystem fileSystem) {
         this.packer = packer;
         this.originMetadataFactory = originMetadataFactory;
         this.fileSystemMirror = fileSystemMirror;
         this.stringInterner = stringInterner;
+        this.fileSystem = fileSystem;
     }
 
     public BuildCacheLoadCommand<LoadMetadata> createLoad(BuildCacheKey cacheKey, CacheableEntity entity) {
@@ -92,14 +104,38 @@ public class BuildCacheCommandFactory {
         @Override
         public BuildCacheLoadCommand.Result<LoadMetadata> load(InputStream input) throws IOException {
             BuildCacheEntryPacker.UnpackResult unpackResult = packer.unpack(entity, input, originMetadataFactory.createReader(entity));
-            ImmutableSortedMap<String, CurrentFileCollectionFingerprint> snapshots = snapshotUnpackedData(unpackResult.getSnapshots());
             LOGGER.info("Unpacked trees for {} from cache.", entity.getDisplayName());
+            return toResult(unpackResult);
+        }
+
+        @Nullable
+        @Override
+        public BuildCacheLoadCommand.Result<LoadMetadata> restore(InMemoryBuildCacheEntry entry) throws IOException {
+            if (fileSystem == null || !(entry instanceof RetainedOutputs)) {
+                return null;
+            }
+            BuildCacheEntryPacker.UnpackResult unpackResult = ((RetainedOutputs) entry).restore(entity, fileSystem);
+            if (unpackResult == null) {
+                return null;
+            }
+            LOGGER.info("Restored trees for {} from memory.", entity.getDisplayName());
+            return toResult(unpackResult);
+        }
+
+        private BuildCacheLoadCommand.Result<LoadMetadata> toResult(BuildCacheEntryPacker.UnpackResult unpackResult) {
+            ImmutableSortedMap<String, CurrentFileCollectionFingerprint> snapshots = snapshotUnpackedData(unpackResult.getSnapshots());
             return new Result<LoadMetadata>() {
                 @Override
                 public long getArtifactEntryCount() {
                     return unpackResult.getEntries();
                 }
 
+                @Nullable
+                @Override
+                public InMemoryBuildCacheEntry retain(long maxSize) throws IOException {
+                    return fileSystem == null ? null : RetainedOutputs.capture(entity, unpackResult, fileSystem, maxSize);
+                }
+
                 @Override
                 public LoadMetadata getMetadata() {
                     return new LoadMetadata() {
@@ -182,6 +218,11 @@ public class BuildCacheCommandFactory {
                 public long getArtifactEntryCount() {
                     return packResult.getEntries();
                 }
+
+                @Override
+                public long getUncompressedSize() {
+                    return packResult.getUncompressedSize();
+                }
             };
         }
     }
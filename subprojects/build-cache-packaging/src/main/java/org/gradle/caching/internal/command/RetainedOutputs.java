@@ -0,0 +1,218 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.gradle.caching.internal.command;
+
+import com.google.common.collect.ImmutableMap;
+import org.apache.commons.io.FileUtils;
+import org.gradle.api.UncheckedIOException;
+import org.gradle.caching.internal.CacheableEntity;
+import org.gradle.caching.internal.controller.InMemoryBuildCacheEntry;
+import org.gradle.caching.internal.origin.OriginMetadata;
+import org.gradle.caching.internal.packaging.BuildCacheEntryPacker;
+import org.gradle.internal.file.FileType;
+import org.gradle.internal.file.TreeType;
+import org.gradle.internal.nativeplatform.filesystem.FileSystem;
+import org.gradle.internal.snapshot.DirectorySnapshot;
+import org.gradle.internal.snapshot.FileSystemLocationSnapshot;
+import org.gradle.internal.snapshot.FileSystemSnapshotVisitor;
+import org.gradle.internal.snapshot.MerkleDirectorySnapshotBuilder;
+import org.gradle.internal.snapshot.RegularFileSnapshot;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.gradle.caching.internal.packaging.impl.PackerDirectoryUtil.ensureDirectoryForTree;
+import static org.gradle.caching.internal.packaging.impl.PackerDirectoryUtil.makeDirectory;
+
+/**
+ * The unpacked outputs of a build cache entry, kept in memory together with their snapshots.
+ *
+ * Restoring the outputs only needs to write the files, since the contents are neither compressed nor need to be hashed again.
+ */
+class RetainedOutputs implements InMemoryBuildCacheEntry {
+    // Rough estimate of the memory taken by the snapshot, the path and the map entries of a file
+    private static final int OVERHEAD_PER_FILE = 256;
+
+    private final OriginMetadata originMetadata;
+    private final long entries;
+    private final ImmutableMap<String, RetainedTree> trees;
+    private final Map<String, byte[]> contents;
+    private final Map<String, Integer> modes;
+    private final long size;
+
+    private RetainedOutputs(OriginMetadata originMetadata, long entries, ImmutableMap<String, RetainedTree> trees, Map<String, byte[]> contents, Map<String, Integer> modes, long size) {
+        this.originMetadata = originMetadata;
+        this.entries = entries;
+        this.trees = trees;
+        this.contents = contents;
+        this.modes = modes;
+        this.size = size;
+    }
+
+    @Override
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Reads the outputs which have just been unpacked back into memory, or returns {@code null} if they take more than {@code maxSize} bytes.
+     */
+    @Nullable
+    static RetainedOutputs capture(CacheableEntity entity, BuildCacheEntryPacker.UnpackResult unpackResult, final FileSystem fileSystem, final long maxSize) throws IOException {
+        Map<String, ? extends FileSystemLocationSnapshot> snapshots = unpackResult.getSnapshots();
+        ImmutableMap.Builder<String, RetainedTree> treesBuilder = ImmutableMap.builder();
+        entity.visitOutputTrees((name, type, root) -> treesBuilder.put(name, new RetainedTree(type, root.getAbsolutePath(), snapshots.get(name))));
+        ImmutableMap<String, RetainedTree> trees = treesBuilder.build();
+
+        Map<String, byte[]> contents = new HashMap<>();
+        Map<String, Integer> modes = new HashMap<>();
+        long[] size = {0};
+        try {
+            for (RetainedTree tree : trees.values()) {
+                if (tree.snapshot == null) {
+                    continue;
+                }
+                tree.snapshot.accept(new FileSystemSnapshotVisitor() {
+                    @Override
+                    public boolean preVisitDirectory(DirectorySnapshot directorySnapshot) {
+                        size[0] += OVERHEAD_PER_FILE;
+                        modes.put(directorySnapshot.getAbsolutePath(), fileSystem.getUnixMode(new File(directorySnapshot.getAbsolutePath())));
+                        return size[0] <= maxSize;
+                    }
+
+                    @Override
+                    public void visit(FileSystemLocationSnapshot fileSnapshot) {
+                        File file = new File(fileSnapshot.getAbsolutePath());
+                        size[0] += OVERHEAD_PER_FILE + file.length();
+                        if (size[0] > maxSize) {
+                            return;
+                        }
+                        try {
+                            contents.put(fileSnapshot.getAbsolutePath(), Files.readAllBytes(file.toPath()));
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                        modes.put(fileSnapshot.getAbsolutePath(), fileSystem.getUnixMode(file));
+                    }
+
+                    @Override
+                    public void postVisitDirectory(DirectorySnapshot directorySnapshot) {
+                    }
+                });
+            }
+        } catch (UncheckedIOException e) {
+            throw (IOException) e.getCause();
+        }
+        if (size[0] > maxSize) {
+            return null;
+        }
+        return new RetainedOutputs(unpackResult.getOriginMetadata(), unpackResult.getEntries(), trees, contents, modes, size[0]);
+    }
+
+    /**
+     * Writes the outputs back to disk, or returns {@code null} if the outputs of the entity are not where they were when they were captured.
+     */
+    @Nullable
+    BuildCacheEntryPacker.UnpackResult restore(CacheableEntity entity, FileSystem fileSystem) throws IOException {
+        Map<String, File> roots = new HashMap<>();
+        entity.visitOutputTrees((name, type, root) -> roots.put(name, root));
+        if (roots.size() != trees.size()) {
+            return null;
+        }
+        for (Map.Entry<String, RetainedTree> entry : trees.entrySet()) {
+            File root = roots.get(entry.getKey());
+            if (root == null || !root.getAbsolutePath().equals(entry.getValue().rootPath)) {
+                return null;
+            }
+        }
+
+        Map<String, FileSystemLocationSnapshot> snapshots = new HashMap<>();
+        for (Map.Entry<String, RetainedTree> entry : trees.entrySet()) {
+            RetainedTree tree = entry.getValue();
+            File root = new File(tree.rootPath);
+            if (tree.snapshot == null) {
+                if (!makeDirectory(root.getParentFile()) && root.exists()) {
+                    FileUtils.forceDelete(root);
+                }
+                continue;
+            }
+            ensureDirectoryForTree(tree.type, root);
+            snapshots.put(entry.getKey(), restoreTree(tree.snapshot, fileSystem));
+        }
+        return new BuildCacheEntryPacker.UnpackResult(originMetadata, entries, snapshots);
+    }
+
+    private FileSystemLocationSnapshot restoreTree(FileSystemLocationSnapshot snapshot, FileSystem fileSystem) throws IOException {
+        // Directory hashes only depend on the contents, but the snapshots of the files need the new modification times
+        MerkleDirectorySnapshotBuilder builder = MerkleDirectorySnapshotBuilder.noSortingRequired();
+        try {
+            snapshot.accept(new FileSystemSnapshotVisitor() {
+                @Override
+                public boolean preVisitDirectory(DirectorySnapshot directorySnapshot) {
+                    File directory = new File(directorySnapshot.getAbsolutePath());
+                    try {
+                        FileUtils.forceMkdir(directory);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    fileSystem.chmod(directory, modes.get(directorySnapshot.getAbsolutePath()));
+                    return builder.preVisitDirectory(directorySnapshot);
+                }
+
+                @Override
+                public void visit(FileSystemLocationSnapshot fileSnapshot) {
+                    if (fileSnapshot.getType() != FileType.RegularFile) {
+                        throw new IllegalStateException(String.format("Unexpected %s in retained outputs: %s", fileSnapshot.getType(), fileSnapshot.getAbsolutePath()));
+                    }
+                    File file = new File(fileSnapshot.getAbsolutePath());
+                    try {
+                        Files.write(file.toPath(), contents.get(fileSnapshot.getAbsolutePath()));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    fileSystem.chmod(file, modes.get(fileSnapshot.getAbsolutePath()));
+                    builder.visit(new RegularFileSnapshot(fileSnapshot.getAbsolutePath(), fileSnapshot.getName(), fileSnapshot.getHash(), file.lastModified()));
+                }
+
+                @Override
+                public void postVisitDirectory(DirectorySnapshot directorySnapshot) {
+                    builder.postVisitDirectory();
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw (IOException) e.getCause();
+        }
+        return builder.getResult();
+    }
+
+    private static class RetainedTree {
+        private final TreeType type;
+        private final String rootPath;
+        private final FileSystemLocationSnapshot snapshot;
+
+        RetainedTree(TreeType type, String rootPath, @Nullable FileSystemLocationSnapshot snapshot) {
+            this.type = type;
+            this.rootPath = rootPath;
+            this.snapshot = snapshot;
+        }
+    }
+}
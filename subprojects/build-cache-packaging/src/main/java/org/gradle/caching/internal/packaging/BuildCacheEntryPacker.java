@@ -33,14 +33,27 @@ public interface BuildCacheEntryPacker {
 
     class PackResult {
         private final long entries;
+        private final long uncompressedSize;
 
         public PackResult(long entries) {
+            this(entries, -1);
+        }
+
+        public PackResult(long entries, long uncompressedSize) {
             this.entries = entries;
+            this.uncompressedSize = uncompressedSize;
         }
 
         public long getEntries() {
             return entries;
         }
+
+        /**
+         * The size of the entry before compression, or -1 if not known.
+         */
+        public long getUncompressedSize() {
+            return uncompressedSize;
+        }
     }
 
     UnpackResult unpack(CacheableEntity entity, InputStream input, OriginReader readOrigin) throws IOException;
@@ -0,0 +1,32 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.gradle.caching.internal.packaging.impl;
+
+import java.io.IOException;
+
+/**
+ * Implemented by input streams whose whole contents are protected by a checksum, like the CRC of a gzip stream.
+ *
+ * Readers can rely on metadata recorded within such a stream, as long as they verify the checksum before making use of the data they read.
+ */
+interface ChecksummedInput {
+    /**
+     * Reads the rest of the stream and fails if the checksum does not match its contents.
+     */
+    void verifyChecksum() throws IOException;
+}
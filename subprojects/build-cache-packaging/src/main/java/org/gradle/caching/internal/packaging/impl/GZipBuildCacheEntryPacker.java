@@ -16,37 +16,118 @@
 
 package org.gradle.caching.internal.packaging.impl;
 
+import com.google.common.io.ByteStreams;
 import org.gradle.caching.internal.CacheableEntity;
+import org.gradle.caching.internal.LinkedBlobs;
 import org.gradle.caching.internal.origin.OriginReader;
 import org.gradle.caching.internal.origin.OriginWriter;
 import org.gradle.caching.internal.packaging.BuildCacheEntryPacker;
 import org.gradle.internal.fingerprint.CurrentFileCollectionFingerprint;
 
+import javax.annotation.Nullable;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.Map;
+import java.util.zip.Deflater;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
 public class GZipBuildCacheEntryPacker implements BuildCacheEntryPacker {
+    public static final String COMPRESSION_LEVEL_PROPERTY = "org.gradle.caching.compression.level";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
     private final BuildCacheEntryPacker delegate;
+    private final int compressionLevel;
 
     public GZipBuildCacheEntryPacker(BuildCacheEntryPacker delegate) {
+        this(delegate, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Creates a packer compressing entries with the given {@link Deflater} level.
+     * The level does not change the format of the entries, so entries packed with different levels can be unpacked by any version.
+     */
+    public GZipBuildCacheEntryPacker(BuildCacheEntryPacker delegate, int compressionLevel) {
+        if (compressionLevel != Deflater.DEFAULT_COMPRESSION && (compressionLevel < Deflater.NO_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION)) {
+            throw new IllegalArgumentException(String.format("Invalid build cache compression level %d, must be between %d and %d.", compressionLevel, Deflater.NO_COMPRESSION, Deflater.BEST_COMPRESSION));
+        }
         this.delegate = delegate;
+        this.compressionLevel = compressionLevel;
     }
 
     @Override
     public PackResult pack(CacheableEntity entity, Map<String, CurrentFileCollectionFingerprint> fingerprints, OutputStream output, OriginWriter writeOrigin) throws IOException {
-        try (GZIPOutputStream gzipOutput = new GZIPOutputStream(output)) {
+        try (SelectiveGZIPOutputStream gzipOutput = new SelectiveGZIPOutputStream(output, compressionLevel)) {
             return delegate.pack(entity, fingerprints, gzipOutput, writeOrigin);
         }
     }
 
     @Override
     public UnpackResult unpack(CacheableEntity entity, InputStream input, OriginReader readOrigin) throws IOException {
-        try (GZIPInputStream gzipInput = new GZIPInputStream(input)) {
+        try (ChecksummedGZIPInputStream gzipInput = input instanceof LinkedBlobs
+            ? new LinkedGZIPInputStream(input, (LinkedBlobs) input)
+            : new ChecksummedGZIPInputStream(input)) {
             return delegate.unpack(entity, gzipInput, readOrigin);
         }
     }
+
+    private static class ChecksummedGZIPInputStream extends GZIPInputStream implements ChecksummedInput {
+        ChecksummedGZIPInputStream(InputStream input) throws IOException {
+            super(input, BUFFER_SIZE);
+        }
+
+        @Override
+        public void verifyChecksum() throws IOException {
+            // The CRC of the uncompressed data is compared to the trailer once the end of the stream has been reached
+            ByteStreams.exhaust(this);
+        }
+    }
+
+    private static class LinkedGZIPInputStream extends ChecksummedGZIPInputStream implements LinkedBlobs {
+        private final LinkedBlobs blobs;
+
+        LinkedGZIPInputStream(InputStream input, LinkedBlobs blobs) throws IOException {
+            super(input);
+            this.blobs = blobs;
+        }
+
+        @Nullable
+        @Override
+        public File getBlob(String name) {
+            return blobs.getBlob(name);
+        }
+    }
+
+    private static class SelectiveGZIPOutputStream extends GZIPOutputStream implements SelectiveCompression {
+        private final int compressionLevel;
+        private boolean compressing = true;
+
+        SelectiveGZIPOutputStream(OutputStream output, int compressionLevel) throws IOException {
+            super(output, BUFFER_SIZE);
+            this.compressionLevel = compressionLevel;
+            def.setLevel(compressionLevel);
+        }
+
+        @Override
+        public boolean isCompressing() {
+            return compressing;
+        }
+
+        @Override
+        public void setCompressing(boolean compressing) throws IOException {
+            if (this.compressing == compressing) {
+                return;
+            }
+            this.compressing = compressing;
+            def.setLevel(compressing ? compressionLevel : Deflater.NO_COMPRESSION);
+            // The deflater only switches levels on its next invocation, so make sure that happens before any more data is written
+            int length;
+            while ((length = def.deflate(buf, 0, buf.length)) > 0) {
+                out.write(buf, 0, length);
+            }
+        }
+    }
 }
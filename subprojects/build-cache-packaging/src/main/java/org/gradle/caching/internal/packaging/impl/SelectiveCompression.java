@@ -0,0 +1,36 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.gradle.caching.internal.packaging.impl;
+
+import java.io.IOException;
+
+/**
+ * Implemented by compressing output streams which can store data that does not benefit from compression, like the contents of jar files or images, as is.
+ */
+interface SelectiveCompression {
+    /**
+     * Whether the data written next to the stream is compressed.
+     */
+    boolean isCompressing();
+
+    /**
+     * Changes whether the data written next to the stream is compressed.
+     * Streams buffering data in front of this stream should be flushed first, otherwise the change applies to the buffered data as well.
+     */
+    void setCompressing(boolean compressing) throws IOException;
+}
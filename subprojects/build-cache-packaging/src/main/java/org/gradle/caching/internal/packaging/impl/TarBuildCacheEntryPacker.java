@@ -18,26 +18,32 @@ package org.gradle.caching.internal.packaging.impl;
 
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.Uninterruptibles;
 import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
 import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
-import org.apache.commons.io.input.CloseShieldInputStream;
 import org.gradle.api.GradleException;
 import org.gradle.api.UncheckedIOException;
 import org.gradle.api.internal.cache.StringInterner;
 import org.gradle.caching.internal.CacheableEntity;
+import org.gradle.caching.internal.LinkedBlobs;
 import org.gradle.caching.internal.origin.OriginMetadata;
 import org.gradle.caching.internal.origin.OriginReader;
 import org.gradle.caching.internal.origin.OriginWriter;
 import org.gradle.caching.internal.packaging.BuildCacheEntryPacker;
 import org.gradle.internal.IoActions;
 import org.gradle.internal.MutableLong;
+import org.gradle.internal.UncheckedException;
 import org.gradle.internal.file.FileType;
 import org.gradle.internal.file.TreeType;
 import org.gradle.internal.fingerprint.CurrentFileCollectionFingerprint;
 import org.gradle.internal.hash.HashCode;
+import org.gradle.internal.hash.Hasher;
+import org.gradle.internal.hash.Hashing;
 import org.gradle.internal.hash.StreamHasher;
 import org.gradle.internal.nativeplatform.filesystem.FileSystem;
 import org.gradle.internal.snapshot.DirectorySnapshot;
@@ -46,12 +52,17 @@ import org.gradle.internal.snapshot.FileSystemSnapshotVisitor;
 import org.gradle.internal.snapshot.MerkleDirectorySnapshotBuilder;
 import org.gradle.internal.snapshot.RegularFileSnapshot;
 import org.gradle.internal.snapshot.RelativePathStringTracker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -59,8 +70,21 @@ import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
 import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -71,6 +95,17 @@ import static org.gradle.caching.internal.packaging.impl.PackerDirectoryUtil.mak
  * Packages build cache entries to a POSIX TAR file.
  */
 public class TarBuildCacheEntryPacker implements BuildCacheEntryPacker {
+    public static final String UNPACK_CONCURRENCY_PROPERTY = "org.gradle.caching.unpack.concurrency";
+    public static final int DEFAULT_UNPACK_CONCURRENCY = Math.min(4, Runtime.getRuntime().availableProcessors());
+    /**
+     * Records the content hash of a file as hashed when packing the entry.
+     */
+    public static final String CONTENT_HASH_PAX_HEADER = "GRADLE.hash";
+    /**
+     * Records a hash of the paths and content hashes of all files in the entry as an additional property of the origin metadata.
+     */
+    public static final String CONTENTS_HASH_METADATA_KEY = "contentsHash";
+
     @SuppressWarnings("OctalInteger")
     private interface UnixPermissions {
         int FILE_FLAG =         0100000;
@@ -78,30 +113,55 @@ public class TarBuildCacheEntryPacker implements BuildCacheEntryPacker {
         int DIR_FLAG =           040000;
         int DEFAULT_DIR_PERM =     0755;
         int PERM_MASK           = 07777;
+        int EXECUTE_MASK        = 00111;
     }
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(TarBuildCacheEntryPacker.class);
+
     private static final String METADATA_PATH = "METADATA";
     private static final Pattern TREE_PATH = Pattern.compile("(missing-)?tree-([^/]+)(?:/(.*))?");
     private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MIN_FILES_FOR_PARALLEL_UNPACK = 100;
+    private static final int MAX_PARALLEL_UNPACK_FILE_SIZE = 1024 * 1024;
+    private static final int MAX_PENDING_UNPACK_BYTES = 32 * 1024 * 1024;
+    private static final boolean SUPPORTS_LINK_COUNT = FileSystems.getDefault().supportedFileAttributeViews().contains("unix");
     private static final ThreadLocal<byte[]> COPY_BUFFERS = new ThreadLocal<byte[]>() {
         @Override
         protected byte[] initialValue() {
             return new byte[BUFFER_SIZE];
         }
     };
+    // Compressing these again costs time without making the entry noticeably smaller
+    private static final Set<String> COMPRESSED_FILE_EXTENSIONS = ImmutableSet.of(
+        "jar", "war", "ear", "aar", "apk", "zip", "gz", "tgz", "bz2", "xz", "zst", "lz4", "7z",
+        "png", "jpg", "jpeg", "gif", "webp", "woff", "woff2", "mp3", "mp4"
+    );
 
     private final FileSystem fileSystem;
     private final StreamHasher streamHasher;
     private final StringInterner stringInterner;
+    private final ExecutorService unpackExecutor;
+    // Shared by all entries unpacked at the same time, so that they don't hold more than this in memory together
+    private final Semaphore pendingUnpackBytes = new Semaphore(MAX_PENDING_UNPACK_BYTES);
 
     public TarBuildCacheEntryPacker(FileSystem fileSystem, StreamHasher streamHasher, StringInterner stringInterner) {
+        this(fileSystem, streamHasher, stringInterner, null);
+    }
+
+    /**
+     * Creates a packer which writes and hashes the files of large entries using the given executor while unpacking.
+     * The executor is shared by all entries being unpacked, and is not stopped by the packer.
+     */
+    public TarBuildCacheEntryPacker(FileSystem fileSystem, StreamHasher streamHasher, StringInterner stringInterner, @Nullable ExecutorService unpackExecutor) {
         this.fileSystem = fileSystem;
         this.streamHasher = streamHasher;
         this.stringInterner = stringInterner;
+        this.unpackExecutor = unpackExecutor;
     }
 
     @Override
     public PackResult pack(CacheableEntity entity, Map<String, CurrentFileCollectionFingerprint> fingerprints, OutputStream output, OriginWriter writeOrigin) throws IOException {
+        SelectiveCompression compression = output instanceof SelectiveCompression ? (SelectiveCompression) output : null;
         BufferedOutputStream bufferedOutput;
         if (output instanceof BufferedOutputStream) {
             bufferedOutput = (BufferedOutputStream) output;
@@ -112,26 +172,44 @@ public class TarBuildCacheEntryPacker implements BuildCacheEntryPacker {
             tarOutput.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
             tarOutput.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
             tarOutput.setAddPaxHeadersForNonAsciiNames(true);
-            packMetadata(writeOrigin, tarOutput);
-            long entryCount = pack(entity, fingerprints, tarOutput);
-            return new PackResult(entryCount + 1);
+            Map<String, HashCode> contentHashes = new HashMap<>();
+            HashCode contentsHash = hashContents(entity, fingerprints, contentHashes);
+            packMetadata(writeOrigin, contentsHash, tarOutput);
+            long entryCount = pack(entity, fingerprints, contentHashes, tarOutput, compression);
+            tarOutput.finish();
+            return new PackResult(entryCount + 1, tarOutput.getBytesWritten());
         }
     }
 
-    private void packMetadata(OriginWriter writeMetadata, TarArchiveOutputStream tarOutput) throws IOException {
+    /**
+     * Hashes the files to pack, so that the hashes can be recorded ahead of their contents.
+     * Files are hashed again while they are packed, and packing fails if they have changed in the meantime.
+     */
+    private HashCode hashContents(CacheableEntity entity, Map<String, CurrentFileCollectionFingerprint> fingerprints, Map<String, HashCode> contentHashes) {
+        Hasher contentsHasher = Hashing.newHasher();
+        entity.visitOutputTrees((treeName, type, root) -> {
+            CurrentFileCollectionFingerprint fingerprint = fingerprints.get(treeName);
+            fingerprint.accept(new ContentHashingVisitor(treeName, contentsHasher, contentHashes));
+        });
+        return contentsHasher.hash();
+    }
+
+    private void packMetadata(OriginWriter writeMetadata, HashCode contentsHash, TarArchiveOutputStream tarOutput) throws IOException {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         writeMetadata.execute(baos);
+        // Readers of the origin metadata ignore properties they don't know about
+        baos.write((CONTENTS_HASH_METADATA_KEY + "=" + contentsHash + "\n").getBytes(StandardCharsets.ISO_8859_1));
         createTarEntry(METADATA_PATH, baos.size(), UnixPermissions.FILE_FLAG | UnixPermissions.DEFAULT_FILE_PERM, tarOutput);
         tarOutput.write(baos.toByteArray());
         tarOutput.closeArchiveEntry();
     }
 
-    private long pack(CacheableEntity entity, Map<String, CurrentFileCollectionFingerprint> fingerprints, TarArchiveOutputStream tarOutput) {
+    private long pack(CacheableEntity entity, Map<String, CurrentFileCollectionFingerprint> fingerprints, Map<String, HashCode> contentHashes, TarArchiveOutputStream tarOutput, @Nullable SelectiveCompression compression) {
         MutableLong entries = new MutableLong();
         entity.visitOutputTrees((treeName, type, root) -> {
             CurrentFileCollectionFingerprint fingerprint = fingerprints.get(treeName);
             try {
-                entries.increment(packTree(treeName, type, fingerprint, tarOutput));
+                entries.increment(packTree(treeName, type, fingerprint, contentHashes, tarOutput, compression));
             } catch (Exception ex) {
                 throw new GradleException(String.format("Could not pack tree '%s': %s", treeName, ex.getMessage()), ex);
             }
@@ -139,8 +217,8 @@ public class TarBuildCacheEntryPacker implements BuildCacheEntryPacker {
         return entries.get();
     }
 
-    private long packTree(String name, TreeType type, CurrentFileCollectionFingerprint fingerprint, TarArchiveOutputStream tarOutput) {
-        PackingVisitor packingVisitor = new PackingVisitor(tarOutput, name, type, fileSystem);
+    private long packTree(String name, TreeType type, CurrentFileCollectionFingerprint fingerprint, Map<String, HashCode> contentHashes, TarArchiveOutputStream tarOutput, @Nullable SelectiveCompression compression) {
+        PackingVisitor packingVisitor = new PackingVisitor(tarOutput, compression, name, type, fileSystem, streamHasher, contentHashes);
         fingerprint.accept(packingVisitor);
         return packingVisitor.finish();
     }
@@ -154,12 +232,21 @@ public class TarBuildCacheEntryPacker implements BuildCacheEntryPacker {
 
     @Override
     public UnpackResult unpack(CacheableEntity entity, InputStream input, OriginReader readOrigin) throws IOException {
-        try (TarArchiveInputStream tarInput = new TarArchiveInputStream(input)) {
-            return unpack(entity, tarInput, readOrigin);
+        // The hashes recorded when packing can only be trusted if the whole entry is verified against a checksum
+        ChecksummedInput checksummedInput = input instanceof ChecksummedInput ? (ChecksummedInput) input : null;
+        // Files may only be restored from blobs when the entry has been loaded from the local build cache holding them
+        LinkedBlobs linkedBlobs = input instanceof LinkedBlobs ? (LinkedBlobs) input : null;
+        try (TarArchiveInputStream tarInput = new TarArchiveInputStream(input); FileUnpacker fileUnpacker = new FileUnpacker(checksummedInput != null, linkedBlobs)) {
+            UnpackResult result = unpack(entity, tarInput, readOrigin, fileUnpacker);
+            fileUnpacker.verifyContentsHash();
+            if (checksummedInput != null) {
+                checksummedInput.verifyChecksum();
+            }
+            return result;
         }
     }
 
-    private UnpackResult unpack(CacheableEntity entity, TarArchiveInputStream tarInput, OriginReader readOriginAction) throws IOException {
+    private UnpackResult unpack(CacheableEntity entity, TarArchiveInputStream tarInput, OriginReader readOriginAction, FileUnpacker fileUnpacker) throws IOException {
         ImmutableMap.Builder<String, CacheableTree> treesBuilder = ImmutableMap.builder();
         entity.visitOutputTrees((name, type, root) -> {
             treesBuilder.put(name, new CacheableTree(type, root));
@@ -178,7 +265,11 @@ public class TarBuildCacheEntryPacker implements BuildCacheEntryPacker {
 
             if (path.equals(METADATA_PATH)) {
                 // handle origin metadata
-                originMetadata = readOriginAction.execute(new CloseShieldInputStream(tarInput));
+                byte[] metadata = IOUtils.toByteArray(tarInput);
+                Properties metadataProperties = new Properties();
+                metadataProperties.load(new ByteArrayInputStream(metadata));
+                fileUnpacker.expectContentsHash(metadataProperties.getProperty(CONTENTS_HASH_METADATA_KEY));
+                originMetadata = readOriginAction.execute(new ByteArrayInputStream(metadata));
                 tarEntry = tarInput.getNextTarEntry();
             } else {
                 // handle tree
@@ -195,7 +286,7 @@ public class TarBuildCacheEntryPacker implements BuildCacheEntryPacker {
 
                 boolean missing = matcher.group(1) != null;
                 String childPath = matcher.group(3);
-                tarEntry = unpackTree(treeName, tree.getType(), tree.getRoot(), tarInput, tarEntry, childPath, missing, snapshots, entries);
+                tarEntry = unpackTree(treeName, tree.getType(), tree.getRoot(), tarInput, tarEntry, childPath, missing, snapshots, entries, fileUnpacker);
             }
         }
         if (originMetadata == null) {
@@ -224,7 +315,7 @@ public class TarBuildCacheEntryPacker implements BuildCacheEntryPacker {
     }
 
     @Nullable
-    private TarArchiveEntry unpackTree(String treeName, TreeType treeType, File treeRoot, TarArchiveInputStream input, TarArchiveEntry rootEntry, String childPath, boolean missing, Map<String, FileSystemLocationSnapshot> snapshots, MutableLong entries) throws IOException {
+    private TarArchiveEntry unpackTree(String treeName, TreeType treeType, File treeRoot, TarArchiveInputStream input, TarArchiveEntry rootEntry, String childPath, boolean missing, Map<String, FileSystemLocationSnapshot> snapshots, MutableLong entries, FileUnpacker fileUnpacker) throws IOException {
         boolean isDirEntry = rootEntry.isDirectory();
         boolean root = Strings.isNullOrEmpty(childPath);
         if (!root) {
@@ -241,7 +332,7 @@ public class TarBuildCacheEntryPacker implements BuildCacheEntryPacker {
             if (isDirEntry) {
                 throw new IllegalStateException("Should be a file: " + treeName);
             }
-            RegularFileSnapshot fileSnapshot = unpackFile(input, rootEntry, treeRoot, treeRoot.getName());
+            RegularFileSnapshot fileSnapshot = getUnpackedFile(fileUnpacker.unpack(input, rootEntry, treeRoot, treeRoot.getName()));
             snapshots.put(treeName, fileSnapshot);
             return input.getNextTarEntry();
         }
@@ -251,7 +342,7 @@ public class TarBuildCacheEntryPacker implements BuildCacheEntryPacker {
         }
         chmodUnpackedFile(rootEntry, treeRoot);
 
-        return unpackDirectoryTree(input, rootEntry, snapshots, entries, treeRoot, treeName);
+        return unpackDirectoryTree(input, rootEntry, snapshots, entries, treeRoot, treeName, fileUnpacker);
     }
 
     private void unpackMissingFile(File treeRoot) throws IOException {
@@ -263,29 +354,75 @@ public class TarBuildCacheEntryPacker implements BuildCacheEntryPacker {
         }
     }
 
-    private RegularFileSnapshot unpackFile(TarArchiveInputStream input, TarArchiveEntry entry, File file, String fileName) throws IOException {
-        OutputStream output = new FileOutputStream(file);
+    private RegularFileSnapshot unpackFile(InputStream input, TarArchiveEntry entry, File file, String fileName, boolean trustContentHash, @Nullable LinkedBlobs linkedBlobs) throws IOException {
+        String blobName = linkedBlobs == null ? null : entry.getExtraPaxHeader(LinkedBlobs.BLOB_PAX_HEADER);
+        String packedHash = trustContentHash ? entry.getExtraPaxHeader(CONTENT_HASH_PAX_HEADER) : null;
         HashCode hash;
-        try {
-            hash = streamHasher.hashCopy(input, output);
-            chmodUnpackedFile(entry, file);
-        } finally {
-            IoActions.closeQuietly(output);
+        if (blobName != null) {
+            File blob = linkedBlobs.getBlob(blobName);
+            if (blob == null) {
+                throw new FileNotFoundException(String.format("Cached entry refers to missing blob '%s'.", blobName));
+            }
+            hash = unpackFileFromBlob(blob, entry, file, packedHash);
+        } else {
+            OutputStream output = new FileOutputStream(file);
+            try {
+                if (packedHash != null) {
+                    IOUtils.copyLarge(input, output, COPY_BUFFERS.get());
+                    hash = HashCode.fromString(packedHash);
+                } else {
+                    hash = streamHasher.hashCopy(input, output);
+                }
+                chmodUnpackedFile(entry, file);
+            } finally {
+                IoActions.closeQuietly(output);
+            }
         }
         String internedAbsolutePath = stringInterner.intern(file.getAbsolutePath());
         String internedFileName = stringInterner.intern(fileName);
         return new RegularFileSnapshot(internedAbsolutePath, internedFileName, hash, file.lastModified());
     }
 
+    /**
+     * Restores a file from a read-only blob of the local build cache, linking to the blob where possible.
+     *
+     * Links are only created where the number of links to a file can be queried, so they can be broken again before the outputs are changed.
+     */
+    private HashCode unpackFileFromBlob(File blob, TarArchiveEntry entry, File file, @Nullable String packedHash) throws IOException {
+        HashCode hash;
+        if (packedHash != null) {
+            hash = HashCode.fromString(packedHash);
+        } else {
+            try (InputStream blobInput = new FileInputStream(blob)) {
+                hash = streamHasher.hash(blobInput);
+            }
+        }
+
+        Files.deleteIfExists(file.toPath());
+        // Linked files share the permissions of the read-only blob, so only files which don't need to be executable are linked
+        if (SUPPORTS_LINK_COUNT && (entry.getMode() & UnixPermissions.EXECUTE_MASK) == 0) {
+            try {
+                Files.createLink(file.toPath(), blob.toPath());
+                return hash;
+            } catch (IOException | UnsupportedOperationException e) {
+                LOGGER.debug("Could not link {} to {}, copying it instead.", file, blob, e);
+            }
+        }
+        Files.copy(blob.toPath(), file.toPath());
+        chmodUnpackedFile(entry, file);
+        return hash;
+    }
+
     @Nullable
-    private TarArchiveEntry unpackDirectoryTree(TarArchiveInputStream input, TarArchiveEntry rootEntry, Map<String, FileSystemLocationSnapshot> snapshots, MutableLong entries, File treeRoot, String treeName) throws IOException {
+    private TarArchiveEntry unpackDirectoryTree(TarArchiveInputStream input, TarArchiveEntry rootEntry, Map<String, FileSystemLocationSnapshot> snapshots, MutableLong entries, File treeRoot, String treeName, FileUnpacker fileUnpacker) throws IOException {
         RelativePathParser parser = new RelativePathParser();
         parser.rootPath(rootEntry.getName());
 
-        MerkleDirectorySnapshotBuilder builder = MerkleDirectorySnapshotBuilder.noSortingRequired();
+        // Files may still be written in the background, so record the steps to build the snapshot and replay them once all files are done
+        List<Consumer<MerkleDirectorySnapshotBuilder>> snapshotSteps = new ArrayList<>();
         String rootPath = stringInterner.intern(treeRoot.getAbsolutePath());
         String rootDirName = stringInterner.intern(treeRoot.getName());
-        builder.preVisitDirectory(rootPath, rootDirName);
+        snapshotSteps.add(builder -> builder.preVisitDirectory(rootPath, rootDirName));
 
         TarArchiveEntry entry;
 
@@ -293,7 +430,7 @@ public class TarBuildCacheEntryPacker implements BuildCacheEntryPacker {
             boolean isDir = entry.isDirectory();
             int directoriesLeft = parser.nextPath(entry.getName(), isDir);
             for (int i = 0; i < directoriesLeft; i++) {
-                builder.postVisitDirectory();
+                snapshotSteps.add(MerkleDirectorySnapshotBuilder::postVisitDirectory);
             }
             if (parser.getDepth() == 0) {
                 break;
@@ -306,21 +443,129 @@ public class TarBuildCacheEntryPacker implements BuildCacheEntryPacker {
                 chmodUnpackedFile(entry, file);
                 String internedAbsolutePath = stringInterner.intern(file.getAbsolutePath());
                 String internedDirName = stringInterner.intern(parser.getName());
-                builder.preVisitDirectory(internedAbsolutePath, internedDirName);
+                snapshotSteps.add(builder -> builder.preVisitDirectory(internedAbsolutePath, internedDirName));
             } else {
-                RegularFileSnapshot fileSnapshot = unpackFile(input, entry, file, parser.getName());
-                builder.visit(fileSnapshot);
+                Future<RegularFileSnapshot> fileSnapshot = fileUnpacker.unpack(input, entry, file, parser.getName());
+                snapshotSteps.add(builder -> builder.visit(getUnpackedFile(fileSnapshot)));
             }
         }
 
         for (int i = 0; i < parser.getDepth(); i++) {
-            builder.postVisitDirectory();
+            snapshotSteps.add(MerkleDirectorySnapshotBuilder::postVisitDirectory);
         }
 
+        MerkleDirectorySnapshotBuilder builder = MerkleDirectorySnapshotBuilder.noSortingRequired();
+        for (Consumer<MerkleDirectorySnapshotBuilder> snapshotStep : snapshotSteps) {
+            snapshotStep.accept(builder);
+        }
         snapshots.put(treeName, builder.getResult());
         return entry;
     }
 
+    private static RegularFileSnapshot getUnpackedFile(Future<RegularFileSnapshot> fileSnapshot) {
+        try {
+            return fileSnapshot.get();
+        } catch (InterruptedException e) {
+            throw UncheckedException.throwAsUncheckedException(e);
+        } catch (ExecutionException e) {
+            throw UncheckedException.throwAsUncheckedException(e.getCause());
+        }
+    }
+
+    /**
+     * Unpacks files on the current thread until an entry turns out to contain many files.
+     * After that, small files are read into memory and written to disk and hashed by the shared unpack executor,
+     * while the current thread continues to decompress the rest of the entry.
+     *
+     * Once all files are unpacked, their hashes are checked against the contents hash recorded in the metadata of the entry.
+     */
+    private class FileUnpacker implements Closeable {
+        private final boolean checksummed;
+        private final LinkedBlobs linkedBlobs;
+        private final List<String> paths = new ArrayList<>();
+        private final List<Future<RegularFileSnapshot>> unpacked = new ArrayList<>();
+        private final List<Future<RegularFileSnapshot>> submitted = new ArrayList<>();
+        private HashCode expectedContentsHash;
+        private int filesUnpacked;
+
+        FileUnpacker(boolean checksummed, @Nullable LinkedBlobs linkedBlobs) {
+            this.checksummed = checksummed;
+            this.linkedBlobs = linkedBlobs;
+        }
+
+        void expectContentsHash(@Nullable String contentsHash) {
+            this.expectedContentsHash = contentsHash == null ? null : HashCode.fromString(contentsHash);
+        }
+
+        Future<RegularFileSnapshot> unpack(TarArchiveInputStream input, TarArchiveEntry entry, File file, String fileName) throws IOException {
+            Future<RegularFileSnapshot> fileSnapshot = unpackFile(input, entry, file, fileName);
+            paths.add(entry.getName());
+            unpacked.add(fileSnapshot);
+            return fileSnapshot;
+        }
+
+        private Future<RegularFileSnapshot> unpackFile(TarArchiveInputStream input, TarArchiveEntry entry, File file, String fileName) throws IOException {
+            filesUnpacked++;
+            // The recorded hashes are only used when the entry can be checked against the contents hash recorded before them
+            boolean trustContentHashes = checksummed && expectedContentsHash != null;
+            boolean parallel = unpackExecutor != null
+                && filesUnpacked > MIN_FILES_FOR_PARALLEL_UNPACK
+                && entry.getSize() <= MAX_PARALLEL_UNPACK_FILE_SIZE;
+            if (!parallel) {
+                return Futures.immediateFuture(TarBuildCacheEntryPacker.this.unpackFile(input, entry, file, fileName, trustContentHashes, linkedBlobs));
+            }
+            int size = (int) entry.getSize();
+            pendingUnpackBytes.acquireUninterruptibly(size);
+            byte[] content = new byte[size];
+            try {
+                IOUtils.readFully(input, content);
+            } catch (IOException e) {
+                pendingUnpackBytes.release(size);
+                throw e;
+            }
+            Future<RegularFileSnapshot> fileSnapshot = unpackExecutor.submit(() -> {
+                try {
+                    return TarBuildCacheEntryPacker.this.unpackFile(new ByteArrayInputStream(content), entry, file, fileName, trustContentHashes, linkedBlobs);
+                } finally {
+                    pendingUnpackBytes.release(size);
+                }
+            });
+            submitted.add(fileSnapshot);
+            return fileSnapshot;
+        }
+
+        /**
+         * Fails if the unpacked files don't match the contents hash recorded in the metadata. Entries without a recorded contents hash are not checked.
+         */
+        void verifyContentsHash() {
+            if (expectedContentsHash == null) {
+                return;
+            }
+            Hasher contentsHasher = Hashing.newHasher();
+            for (int i = 0; i < paths.size(); i++) {
+                contentsHasher.putString(paths.get(i));
+                contentsHasher.putHash(getUnpackedFile(unpacked.get(i)).getHash());
+            }
+            if (!contentsHasher.hash().equals(expectedContentsHash)) {
+                throw new IllegalStateException("Cached entry format error, the contents don't match the hash recorded in the metadata.");
+            }
+        }
+
+        /**
+         * Waits for the files of this entry which are still being written, so that none are written after unpacking has failed.
+         */
+        @Override
+        public void close() {
+            for (Future<RegularFileSnapshot> fileSnapshot : submitted) {
+                try {
+                    Uninterruptibles.getUninterruptibly(fileSnapshot);
+                } catch (ExecutionException ignored) {
+                    // Reported when the snapshot of the file is requested
+                }
+            }
+        }
+    }
+
     private void chmodUnpackedFile(TarArchiveEntry entry, File file) {
         fileSystem.chmod(file, entry.getMode() & UnixPermissions.PERM_MASK);
     }
@@ -344,19 +589,25 @@ public class TarBuildCacheEntryPacker implements BuildCacheEntryPacker {
     private static class PackingVisitor implements FileSystemSnapshotVisitor {
         private final RelativePathStringTracker relativePathStringTracker;
         private final TarArchiveOutputStream tarOutput;
+        private final SelectiveCompression compression;
         private final String treePath;
         private final String treeRoot;
         private final FileSystem fileSystem;
+        private final StreamHasher streamHasher;
+        private final Map<String, HashCode> contentHashes;
         private final TreeType type;
 
         private long entries;
 
-        public PackingVisitor(TarArchiveOutputStream tarOutput, String treeName, TreeType type, FileSystem fileSystem) {
+        public PackingVisitor(TarArchiveOutputStream tarOutput, @Nullable SelectiveCompression compression, String treeName, TreeType type, FileSystem fileSystem, StreamHasher streamHasher, Map<String, HashCode> contentHashes) {
             this.tarOutput = tarOutput;
-            this.treePath = "tree-" + escape(treeName);
+            this.compression = compression;
+            this.treePath = treePath(treeName);
             this.treeRoot = treePath + "/";
             this.type = type;
             this.fileSystem = fileSystem;
+            this.streamHasher = streamHasher;
+            this.contentHashes = contentHashes;
             this.relativePathStringTracker = new RelativePathStringTracker();
         }
 
@@ -383,7 +634,7 @@ public class TarBuildCacheEntryPacker implements BuildCacheEntryPacker {
                 assertCorrectType(root, fileSnapshot);
                 File file = new File(fileSnapshot.getAbsolutePath());
                 int mode = fileSystem.getUnixMode(file);
-                storeFileEntry(file, targetPath, file.length(), mode, tarOutput);
+                storeFileEntry(file, targetPath, file.length(), mode, contentHashes.get(targetPath), tarOutput);
             }
             relativePathStringTracker.leave();
             entries++;
@@ -446,19 +697,93 @@ public class TarBuildCacheEntryPacker implements BuildCacheEntryPacker {
             }
         }
 
-        private void storeFileEntry(File inputFile, String path, long size, int mode, TarArchiveOutputStream tarOutput) {
+        private void storeFileEntry(File inputFile, String path, long size, int mode, HashCode hash, TarArchiveOutputStream tarOutput) {
             try {
-                createTarEntry(path, size, UnixPermissions.FILE_FLAG | mode, tarOutput);
+                TarArchiveEntry entry = new TarArchiveEntry(path, true);
+                entry.setSize(size);
+                entry.setMode(UnixPermissions.FILE_FLAG | mode);
+                entry.addPaxHeader(CONTENT_HASH_PAX_HEADER, hash.toString());
+                tarOutput.putArchiveEntry(entry);
+                if (compression != null) {
+                    boolean compressible = !isAlreadyCompressed(inputFile.getName());
+                    if (compression.isCompressing() != compressible) {
+                        tarOutput.flush();
+                        compression.setCompressing(compressible);
+                    }
+                }
+                HashCode packedHash;
                 FileInputStream input = new FileInputStream(inputFile);
                 try {
-                    IOUtils.copyLarge(input, tarOutput, COPY_BUFFERS.get());
+                    packedHash = streamHasher.hashCopy(input, tarOutput);
                 } finally {
                     IoActions.closeQuietly(input);
                 }
+                if (!packedHash.equals(hash)) {
+                    throw new IllegalStateException(String.format("File '%s' has changed while it was being packed.", inputFile));
+                }
                 tarOutput.closeArchiveEntry();
             } catch (IOException e) {
                 throw new UncheckedIOException(e);
             }
         }
+
+        private static boolean isAlreadyCompressed(String fileName) {
+            int extensionStart = fileName.lastIndexOf('.');
+            if (extensionStart < 0) {
+                return false;
+            }
+            String extension = fileName.substring(extensionStart + 1).toLowerCase(Locale.ROOT);
+            return COMPRESSED_FILE_EXTENSIONS.contains(extension);
+        }
+    }
+
+    private static String treePath(String treeName) {
+        return "tree-" + escape(treeName);
+    }
+
+    /**
+     * Hashes the regular files of a tree by the path they are packed at, and adds them to the hash of the whole contents in packing order.
+     */
+    private class ContentHashingVisitor implements FileSystemSnapshotVisitor {
+        private final RelativePathStringTracker relativePathStringTracker = new RelativePathStringTracker();
+        private final String treePath;
+        private final Hasher contentsHasher;
+        private final Map<String, HashCode> contentHashes;
+
+        ContentHashingVisitor(String treeName, Hasher contentsHasher, Map<String, HashCode> contentHashes) {
+            this.treePath = treePath(treeName);
+            this.contentsHasher = contentsHasher;
+            this.contentHashes = contentHashes;
+        }
+
+        @Override
+        public boolean preVisitDirectory(DirectorySnapshot directorySnapshot) {
+            relativePathStringTracker.enter(directorySnapshot);
+            return true;
+        }
+
+        @Override
+        public void visit(FileSystemLocationSnapshot fileSnapshot) {
+            boolean root = relativePathStringTracker.isRoot();
+            relativePathStringTracker.enter(fileSnapshot);
+            if (fileSnapshot.getType() == FileType.RegularFile) {
+                String targetPath = root ? treePath : treePath + "/" + relativePathStringTracker.getRelativePathString();
+                HashCode hash;
+                try (InputStream input = new FileInputStream(fileSnapshot.getAbsolutePath())) {
+                    hash = streamHasher.hash(input);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                contentHashes.put(targetPath, hash);
+                contentsHasher.putString(targetPath);
+                contentsHasher.putHash(hash);
+            }
+            relativePathStringTracker.leave();
+        }
+
+        @Override
+        public void postVisitDirectory(DirectorySnapshot directorySnapshot) {
+            relativePathStringTracker.leave();
+        }
     }
 }
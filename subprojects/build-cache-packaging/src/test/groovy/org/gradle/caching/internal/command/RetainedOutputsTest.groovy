@@ -0,0 +1,167 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.gradle.caching.internal.command
+
+import com.google.common.collect.ImmutableList
+import org.gradle.caching.internal.CacheableEntity
+import org.gradle.caching.internal.TestCacheableTree
+import org.gradle.caching.internal.origin.OriginMetadata
+import org.gradle.caching.internal.packaging.BuildCacheEntryPacker
+import org.gradle.internal.file.TreeType
+import org.gradle.internal.hash.HashCode
+import org.gradle.internal.nativeplatform.filesystem.FileSystem
+import org.gradle.internal.snapshot.DirectorySnapshot
+import org.gradle.internal.snapshot.RegularFileSnapshot
+import org.gradle.test.fixtures.file.CleanupTestDirectory
+import org.gradle.test.fixtures.file.TestFile
+import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
+import org.gradle.testing.internal.util.Specification
+import org.junit.Rule
+
+import static org.gradle.internal.file.TreeType.DIRECTORY
+import static org.gradle.internal.file.TreeType.FILE
+
+@CleanupTestDirectory
+class RetainedOutputsTest extends Specification {
+    @Rule TestNameTestDirectoryProvider temporaryFolder = new TestNameTestDirectoryProvider()
+
+    def fileSystem = Mock(FileSystem)
+    def originMetadata = Mock(OriginMetadata)
+
+    TestFile outputDir
+    TestFile subDir
+    TestFile dataFile
+    TestFile outputFile
+    DirectorySnapshot outputDirSnapshot
+    RegularFileSnapshot outputFileSnapshot
+
+    def setup() {
+        outputDir = temporaryFolder.file("outputDir")
+        subDir = outputDir.file("subdir")
+        dataFile = subDir.file("data.txt")
+        dataFile.text = "data"
+        outputFile = temporaryFolder.file("output.txt")
+        outputFile.text = "output"
+        def subDirSnapshot = new DirectorySnapshot(subDir.absolutePath, subDir.name, ImmutableList.of(snapshot(dataFile, 123)), HashCode.fromInt(456))
+        outputDirSnapshot = new DirectorySnapshot(outputDir.absolutePath, outputDir.name, ImmutableList.of(subDirSnapshot), HashCode.fromInt(789))
+        outputFileSnapshot = snapshot(outputFile, 234)
+    }
+
+    def "restores captured outputs"() {
+        def entity = entity(prop("outputDir", DIRECTORY, outputDir), prop("outputFile", FILE, outputFile))
+
+        when:
+        def retained = capture(entity, [outputDir: outputDirSnapshot, outputFile: outputFileSnapshot], 10000)
+
+        then:
+        retained.size == 4 * 256 + "data".length() + "output".length()
+        1 * fileSystem.getUnixMode(outputDir) >> 0755
+        1 * fileSystem.getUnixMode(subDir) >> 0700
+        1 * fileSystem.getUnixMode(dataFile) >> 0644
+        1 * fileSystem.getUnixMode(outputFile) >> 0600
+        0 * _
+
+        when:
+        outputDir.deleteDir()
+        outputFile.delete()
+        def result = retained.restore(entity, fileSystem)
+
+        then:
+        dataFile.text == "data"
+        outputFile.text == "output"
+        1 * fileSystem.chmod(outputDir, 0755)
+        1 * fileSystem.chmod(subDir, 0700)
+        1 * fileSystem.chmod(dataFile, 0644)
+        1 * fileSystem.chmod(outputFile, 0600)
+        0 * _
+
+        and:
+        result.originMetadata == originMetadata
+        result.entries == 5
+        result.snapshots.keySet() == ["outputDir", "outputFile"] as Set
+        result.snapshots["outputDir"].hash == outputDirSnapshot.hash
+        result.snapshots["outputDir"].children*.name == ["subdir"]
+        result.snapshots["outputFile"].hash == outputFileSnapshot.hash
+        result.snapshots["outputFile"].lastModified == outputFile.lastModified()
+    }
+
+    def "removes output which was missing when captured"() {
+        def missingDir = temporaryFolder.file("missing")
+        def entity = entity(prop("outputFile", FILE, outputFile), prop("missing", DIRECTORY, missingDir))
+        _ * fileSystem.getUnixMode(_) >> 0644
+        def retained = capture(entity, [outputFile: outputFileSnapshot], 10000)
+        missingDir.file("stale.txt").text = "stale"
+
+        when:
+        def result = retained.restore(entity, fileSystem)
+
+        then:
+        !missingDir.exists()
+        outputFile.text == "output"
+        result.snapshots.keySet() == ["outputFile"] as Set
+    }
+
+    def "does not restore outputs to other locations than they were captured from"() {
+        def movedDir = temporaryFolder.file("moved")
+        _ * fileSystem.getUnixMode(_) >> 0644
+        def retained = capture(entity(prop("outputDir", DIRECTORY, outputDir)), [outputDir: outputDirSnapshot], 10000)
+
+        when:
+        def result = retained.restore(entity(prop("outputDir", DIRECTORY, movedDir)), fileSystem)
+
+        then:
+        result == null
+        !movedDir.exists()
+        0 * fileSystem.chmod(_, _)
+
+        when:
+        result = retained.restore(entity(prop("outputDir", DIRECTORY, outputDir), prop("outputFile", FILE, outputFile)), fileSystem)
+
+        then:
+        result == null
+        0 * fileSystem.chmod(_, _)
+    }
+
+    def "does not capture outputs larger than the maximum size"() {
+        def entity = entity(prop("outputDir", DIRECTORY, outputDir))
+        _ * fileSystem.getUnixMode(_) >> 0644
+
+        expect:
+        capture(entity, [outputDir: outputDirSnapshot], 3 * 256) == null
+    }
+
+    private RetainedOutputs capture(CacheableEntity entity, Map<String, ?> snapshots, long maxSize) {
+        RetainedOutputs.capture(entity, new BuildCacheEntryPacker.UnpackResult(originMetadata, 5, snapshots), fileSystem, maxSize)
+    }
+
+    private static RegularFileSnapshot snapshot(File file, int hash) {
+        new RegularFileSnapshot(file.absolutePath, file.name, HashCode.fromInt(hash), file.lastModified())
+    }
+
+    def entity(TestCacheableTree... trees) {
+        return Stub(CacheableEntity) {
+            visitOutputTrees(_) >> { CacheableEntity.CacheableTreeVisitor visitor ->
+                trees.each { visitor.visitOutputTree(it.name, it.type, it.root) }
+            }
+        }
+    }
+
+    TestCacheableTree prop(String name, TreeType type, File root) {
+        new TestCacheableTree(name, type, root)
+    }
+}
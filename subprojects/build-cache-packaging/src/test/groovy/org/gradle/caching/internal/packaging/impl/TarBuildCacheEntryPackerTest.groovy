@@ -16,12 +16,16 @@
 
 package org.gradle.caching.internal.packaging.impl
 
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream
 import org.gradle.api.internal.cache.StringInterner
 import org.gradle.api.internal.file.TestFiles
 import org.gradle.caching.internal.CacheableEntity
+import org.gradle.caching.internal.LinkedBlobs
 import org.gradle.caching.internal.TestCacheableTree
 import org.gradle.caching.internal.origin.OriginReader
 import org.gradle.caching.internal.origin.OriginWriter
+import org.gradle.internal.concurrent.DefaultExecutorFactory
 import org.gradle.internal.file.TreeType
 import org.gradle.internal.fingerprint.CurrentFileCollectionFingerprint
 import org.gradle.internal.fingerprint.FingerprintingStrategy
@@ -41,6 +45,9 @@ import org.gradle.util.TestPrecondition
 import org.junit.Rule
 import spock.lang.Unroll
 
+import java.nio.file.Files
+import java.util.zip.ZipException
+
 import static org.gradle.internal.file.TreeType.DIRECTORY
 import static org.gradle.internal.file.TreeType.FILE
 
@@ -324,6 +331,229 @@ class TarBuildCacheEntryPackerTest extends Specification {
         0 * _
     }
 
+    def "unpacks entry with many files in parallel"() {
+        def sourceOutputDir = temporaryFolder.file("source").createDir()
+        200.times { dirIndex ->
+            def sourceSubDir = sourceOutputDir.file("dir-${dirIndex % 10}").createDir()
+            sourceSubDir.file("file-${dirIndex}.txt") << "output ${dirIndex}"
+        }
+        def sequentialTargetDir = temporaryFolder.file("sequential").createDir()
+        def parallelTargetDir = temporaryFolder.file("parallel").createDir()
+        def unpackExecutor = new DefaultExecutorFactory().create("unpacker", 4)
+        def parallelPacker = new TarBuildCacheEntryPacker(fileSystem, streamHasher, stringInterner, unpackExecutor)
+        def output = new ByteArrayOutputStream()
+        _ * fileSystem._ >> 0644
+
+        when:
+        pack output, prop(DIRECTORY, sourceOutputDir)
+        def sequentialResult = unpack new ByteArrayInputStream(output.toByteArray()), prop(DIRECTORY, sequentialTargetDir)
+        def parallelResult = parallelPacker.unpack(entity(prop(DIRECTORY, parallelTargetDir)), new ByteArrayInputStream(output.toByteArray()), readOrigin)
+        unpackExecutor.stop()
+
+        then:
+        parallelResult.entries == sequentialResult.entries
+        parallelResult.snapshots["test"].hash == sequentialResult.snapshots["test"].hash
+        200.times { dirIndex ->
+            assert parallelTargetDir.file("dir-${dirIndex % 10}/file-${dirIndex}.txt").text == "output ${dirIndex}"
+        }
+    }
+
+    @Requires(TestPrecondition.UNIX_DERIVATIVE)
+    def "restores files stored as local build cache blobs by linking to them"() {
+        def blob = temporaryFolder.file("cache/1234.blob")
+        blob.text = "output"
+        def targetOutputDir = temporaryFolder.file("target").createDir()
+        def input = tarWithBlobs("tree-test/data.txt": "1234.blob")
+
+        when:
+        unpack new LinkedTarInput(input, ["1234.blob": blob]), prop(DIRECTORY, targetOutputDir)
+
+        then:
+        1 * fileSystem.chmod(targetOutputDir, 0755)
+        0 * _
+        Files.isSameFile(targetOutputDir.file("data.txt").toPath(), blob.toPath())
+    }
+
+    @Requires(TestPrecondition.UNIX_DERIVATIVE)
+    def "copies executable files stored as local build cache blobs"() {
+        def blob = temporaryFolder.file("cache/1234.blob")
+        blob.text = "output"
+        def targetOutputDir = temporaryFolder.file("target").createDir()
+        def input = tarWithBlobs(["tree-test/run.sh": "1234.blob"], 0100755)
+
+        when:
+        unpack new LinkedTarInput(input, ["1234.blob": blob]), prop(DIRECTORY, targetOutputDir)
+
+        then:
+        1 * fileSystem.chmod(targetOutputDir, 0755)
+        1 * fileSystem.chmod(targetOutputDir.file("run.sh"), 0755)
+        0 * _
+        targetOutputDir.file("run.sh").text == "output"
+        !Files.isSameFile(targetOutputDir.file("run.sh").toPath(), blob.toPath())
+    }
+
+    def "ignores blob references in entries not loaded from a local build cache"() {
+        def blob = temporaryFolder.file("cache/1234.blob")
+        blob.text = "output"
+        def targetOutputDir = temporaryFolder.file("target").createDir()
+        def input = tarWithBlobs("tree-test/data.txt": blob.absolutePath)
+
+        when:
+        unpack new ByteArrayInputStream(input), prop(DIRECTORY, targetOutputDir)
+
+        then:
+        1 * fileSystem.chmod(targetOutputDir, 0755)
+        1 * fileSystem.chmod(targetOutputDir.file("data.txt"), 0644)
+        0 * _
+        targetOutputDir.file("data.txt").text == ""
+        !Files.isSameFile(targetOutputDir.file("data.txt").toPath(), blob.toPath())
+    }
+
+    def "fails when a referenced blob is not available"() {
+        def targetOutputDir = temporaryFolder.file("target").createDir()
+        def input = tarWithBlobs("tree-test/data.txt": "1234.blob")
+
+        when:
+        unpack new LinkedTarInput(input, [:]), prop(DIRECTORY, targetOutputDir)
+
+        then:
+        _ * fileSystem.chmod(_, _)
+        def ex = thrown FileNotFoundException
+        ex.message.contains("1234.blob")
+        !targetOutputDir.file("data.txt").exists()
+    }
+
+    def "does not compress already compressed files again"() {
+        def sourceOutputDir = temporaryFolder.file("source").createDir()
+        def sourceJarFile = sourceOutputDir.file("lib.jar")
+        sourceJarFile.bytes = new byte[100_000]
+        def sourceTextFile = sourceOutputDir.file("data.txt")
+        sourceTextFile.bytes = new byte[100_000]
+        def targetOutputDir = temporaryFolder.file("target").createDir()
+        def output = new ByteArrayOutputStream()
+        packer = new GZipBuildCacheEntryPacker(packer)
+
+        when:
+        pack output, prop(DIRECTORY, sourceOutputDir)
+
+        then:
+        _ * fileSystem.getUnixMode(_) >> 0644
+        output.size() > 100_000
+        output.size() < 110_000
+
+        when:
+        unpack new ByteArrayInputStream(output.toByteArray()), prop(DIRECTORY, targetOutputDir)
+
+        then:
+        _ * fileSystem.chmod(_, _)
+        targetOutputDir.file("lib.jar").bytes == sourceJarFile.bytes
+        targetOutputDir.file("data.txt").bytes == sourceTextFile.bytes
+    }
+
+    def "uses content hashes recorded when packing for checksummed entries"() {
+        def sourceOutputFile = temporaryFolder.file("source.txt")
+        sourceOutputFile << "output"
+        def output = new ByteArrayOutputStream()
+        def countingHasher = Spy(DefaultStreamHasher)
+        packer = new TarBuildCacheEntryPacker(fileSystem, countingHasher, stringInterner)
+        _ * fileSystem._ >> 0644
+
+        when:
+        pack output, prop(FILE, sourceOutputFile)
+
+        then:
+        // Hashed ahead of packing, and again while packing
+        1 * countingHasher.hash(_)
+        1 * countingHasher.hashCopy(_, _)
+
+        when:
+        def unchecksummedResult = unpack new ByteArrayInputStream(output.toByteArray()), prop(FILE, temporaryFolder.file("unchecksummed.txt"))
+
+        then:
+        1 * countingHasher.hashCopy(_, _)
+        unchecksummedResult.snapshots["test"].hash == streamHasher.hash(new ByteArrayInputStream("output".bytes))
+
+        when:
+        output.reset()
+        packer = new GZipBuildCacheEntryPacker(packer)
+        pack output, prop(FILE, sourceOutputFile)
+        def checksummedResult = unpack new ByteArrayInputStream(output.toByteArray()), prop(FILE, temporaryFolder.file("checksummed.txt"))
+
+        then:
+        1 * countingHasher.hash(_)
+        1 * countingHasher.hashCopy(_, _)
+        checksummedResult.snapshots["test"].hash == streamHasher.hash(new ByteArrayInputStream("output".bytes))
+        temporaryFolder.file("checksummed.txt").text == "output"
+    }
+
+    def "fails to unpack entries whose contents don't match the hash recorded in the metadata"() {
+        def sourceOutputFile = temporaryFolder.file("source.txt")
+        sourceOutputFile << "output"
+        def output = new ByteArrayOutputStream()
+        _ * fileSystem._ >> 0644
+
+        when:
+        pack output, prop(FILE, sourceOutputFile)
+        def corrupted = output.toByteArray()
+        corrupted[new String(corrupted, "ISO-8859-1").indexOf("output")] = (byte) 'O'
+        unpack new ByteArrayInputStream(corrupted), prop(FILE, temporaryFolder.file("target.txt"))
+
+        then:
+        def ex = thrown IllegalStateException
+        ex.message.contains("don't match the hash recorded in the metadata")
+    }
+
+    def "fails to unpack entries which do not match their checksum"() {
+        def sourceOutputFile = temporaryFolder.file("source.txt")
+        sourceOutputFile << "output"
+        def output = new ByteArrayOutputStream()
+        packer = new GZipBuildCacheEntryPacker(packer)
+        _ * fileSystem._ >> 0644
+
+        when:
+        pack output, prop(FILE, sourceOutputFile)
+        def corrupted = output.toByteArray()
+        // Flip a bit of the CRC in the gzip trailer
+        corrupted[corrupted.length - 8] ^= 1
+        unpack new ByteArrayInputStream(corrupted), prop(FILE, temporaryFolder.file("target.txt"))
+
+        then:
+        thrown ZipException
+    }
+
+    private static byte[] tarWithBlobs(Map<String, String> blobNames, int mode = 0100644) {
+        def output = new ByteArrayOutputStream()
+        new TarArchiveOutputStream(output, "utf-8").withCloseable { tarOutput ->
+            def entries = [new TarArchiveEntry("METADATA", true), new TarArchiveEntry("tree-test/", true)]
+            entries[1].mode = 040755
+            blobNames.each { path, blobName ->
+                def entry = new TarArchiveEntry(path, true)
+                entry.mode = mode
+                entry.addPaxHeader(LinkedBlobs.BLOB_PAX_HEADER, blobName)
+                entries << entry
+            }
+            entries.each { entry ->
+                tarOutput.putArchiveEntry(entry)
+                tarOutput.closeArchiveEntry()
+            }
+        }
+        return output.toByteArray()
+    }
+
+    private static class LinkedTarInput extends ByteArrayInputStream implements LinkedBlobs {
+        private final Map<String, File> blobs
+
+        LinkedTarInput(byte[] tar, Map<String, File> blobs) {
+            super(tar)
+            this.blobs = blobs
+        }
+
+        @Override
+        File getBlob(String name) {
+            return blobs[name]
+        }
+    }
+
     def pack(OutputStream output, OriginWriter writeOrigin = this.writeOrigin, TreeDefinition... treeDefs) {
         Map<String, CurrentFileCollectionFingerprint> fingerprints = treeDefs.collectEntries { treeDef ->
             return [(treeDef.tree.name): treeDef.fingerprint()]
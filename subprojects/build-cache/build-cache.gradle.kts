@@ -33,6 +33,7 @@ dependencies {
     implementation(project(":resources"))
     implementation(project(":logging"))
 
+    implementation(library("commons_compress"))
     implementation(library("commons_io"))
 
     jmh(library("ant")) {
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal;
+
+import javax.annotation.Nullable;
+import java.io.File;
+
+/**
+ * Blobs of a local build cache, which build cache entries loaded from that cache can refer to instead of containing the contents of files.
+ *
+ * Such files are stored as empty tar entries with a {@value #BLOB_PAX_HEADER} header naming the blob holding their contents.
+ * The header is only honored for entries read from an input stream implementing this interface,
+ * so entries from other sources cannot make restored outputs refer to arbitrary local files.
+ */
+public interface LinkedBlobs {
+    String BLOB_PAX_HEADER = "GRADLE.blob";
+
+    /**
+     * Returns the blob with the given name, or {@code null} if the cache contains no such blob.
+     */
+    @Nullable
+    File getBlob(String name);
+}
@@ -29,6 +29,7 @@ import org.gradle.caching.internal.FinalizeBuildCacheConfigurationBuildOperation
 import org.gradle.caching.internal.controller.service.BuildCacheServiceRole;
 import org.gradle.caching.internal.controller.service.BuildCacheServicesConfiguration;
 import org.gradle.internal.Cast;
+import org.gradle.internal.concurrent.ExecutorFactory;
 import org.gradle.internal.operations.BuildOperationContext;
 import org.gradle.internal.operations.BuildOperationDescriptor;
 import org.gradle.internal.operations.BuildOperationExecutor;
@@ -46,6 +47,19 @@ import java.util.Map;
 
 public final class BuildCacheControllerFactory {
 
+    /**
+     * The number of entries stored in the remote build cache concurrently in the background. Set to 0 to store entries on the thread producing them.
+     */
+    public static final String REMOTE_STORE_CONCURRENCY_PROPERTY = "org.gradle.caching.remote.store.concurrency";
+
+    /**
+     * The number of entries waiting to be stored in the remote build cache in the background, in addition to the ones currently being stored.
+     */
+    public static final String REMOTE_STORE_QUEUE_SIZE_PROPERTY = "org.gradle.caching.remote.store.queue-size";
+
+    private static final int DEFAULT_REMOTE_STORE_CONCURRENCY = 2;
+    private static final int DEFAULT_REMOTE_STORE_QUEUE_SIZE = 16;
+
     private static final Logger LOGGER = LoggerFactory.getLogger(BuildCacheControllerFactory.class);
 
     public enum BuildCacheMode {
@@ -65,7 +79,9 @@ public final class BuildCacheControllerFactory {
         final RemoteAccessMode remoteAccessMode,
         final boolean logStackTraces,
         final boolean emitDebugLogging,
-        final Instantiator instantiator
+        final Instantiator instantiator,
+        final ExecutorFactory executorFactory,
+        final InMemoryBuildCache inMemoryBuildCache
     ) {
         return buildOperationExecutor.call(new CallableBuildOperation<BuildCacheController>() {
             @Override
@@ -116,7 +132,11 @@ public final class BuildCacheControllerFactory {
                         buildOperationExecutor,
                         gradleUserHomeDir,
                         logStackTraces,
-                        emitDebugLogging
+                        emitDebugLogging,
+                        executorFactory,
+                        Integer.getInteger(REMOTE_STORE_CONCURRENCY_PROPERTY, DEFAULT_REMOTE_STORE_CONCURRENCY),
+                        Integer.getInteger(REMOTE_STORE_QUEUE_SIZE_PROPERTY, DEFAULT_REMOTE_STORE_QUEUE_SIZE),
+                        inMemoryBuildCache
                     );
                 }
             }
@@ -18,6 +18,7 @@ package org.gradle.caching.internal.controller;
 
 import org.gradle.caching.BuildCacheKey;
 
+import javax.annotation.Nullable;
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -32,6 +33,16 @@ public interface BuildCacheLoadCommand<T> {
      */
     Result<T> load(InputStream inputStream) throws IOException;
 
+    /**
+     * Restores the outputs kept in memory by {@link Result#retain(long)} for an earlier load of the same key.
+     *
+     * Returns {@code null} when the entry can't be restored for this command, e.g. because the outputs have moved since.
+     */
+    @Nullable
+    default Result<T> restore(InMemoryBuildCacheEntry entry) throws IOException {
+        return null;
+    }
+
     interface Result<T> {
 
         /**
@@ -50,6 +61,16 @@ public interface BuildCacheLoadCommand<T> {
          * Value may not be null.
          */
         T getMetadata();
+
+        /**
+         * Captures the loaded outputs in memory, so that they can be restored via {@link #restore(InMemoryBuildCacheEntry)} later.
+         *
+         * Returns {@code null} when this is not supported or when the outputs would take more than {@code maxSize} bytes of memory.
+         */
+        @Nullable
+        default InMemoryBuildCacheEntry retain(long maxSize) throws IOException {
+            return null;
+        }
     }
 
 }
@@ -44,6 +44,13 @@ public interface BuildCacheStoreCommand {
          */
         long getArtifactEntryCount();
 
+        /**
+         * The size of the stored artifact before compression, or -1 if not known.
+         */
+        default long getUncompressedSize() {
+            return -1;
+        }
+
     }
 
 }
@@ -22,6 +22,7 @@ import org.gradle.api.GradleException;
 import org.gradle.api.UncheckedIOException;
 import org.gradle.caching.BuildCacheKey;
 import org.gradle.caching.BuildCacheService;
+import org.gradle.caching.internal.LinkedBlobs;
 import org.gradle.caching.internal.controller.operations.PackOperationDetails;
 import org.gradle.caching.internal.controller.operations.PackOperationResult;
 import org.gradle.caching.internal.controller.operations.UnpackOperationDetails;
@@ -39,16 +40,22 @@ import org.gradle.caching.internal.controller.service.OpFiringBuildCacheServiceH
 import org.gradle.caching.internal.controller.service.StoreTarget;
 import org.gradle.caching.local.internal.BuildCacheTempFileStore;
 import org.gradle.caching.local.internal.DefaultBuildCacheTempFileStore;
+import org.gradle.caching.local.internal.LinkedEntryReader;
 import org.gradle.caching.local.internal.LocalBuildCacheService;
 import org.gradle.internal.UncheckedException;
 import org.gradle.internal.concurrent.CompositeStoppable;
+import org.gradle.internal.concurrent.ExecutorFactory;
 import org.gradle.internal.operations.BuildOperationContext;
 import org.gradle.internal.operations.BuildOperationDescriptor;
 import org.gradle.internal.operations.BuildOperationExecutor;
 import org.gradle.internal.operations.RunnableBuildOperation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -56,6 +63,8 @@ import java.util.Optional;
 
 public class DefaultBuildCacheController implements BuildCacheController {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(DefaultBuildCacheController.class);
+
     @VisibleForTesting
     final BuildCacheServiceHandle legacyLocal;
 
@@ -68,6 +77,8 @@ public class DefaultBuildCacheController implements BuildCacheController {
     private final BuildCacheTempFileStore tmp;
     private final BuildOperationExecutor buildOperationExecutor;
     private final boolean emitDebugLogging;
+    private final RemoteStoreQueue remoteStores;
+    private final InMemoryBuildCache inMemory;
 
     private boolean closed;
 
@@ -77,6 +88,39 @@ public class DefaultBuildCacheController implements BuildCacheController {
         File gradleUserHomeDir,
         boolean logStackTraces,
         boolean emitDebugLogging
+    ) {
+        this(config, buildOperationExecutor, gradleUserHomeDir, logStackTraces, emitDebugLogging, null, 0, 0);
+    }
+
+    /**
+     * Creates a controller which stores entries in the remote cache in the background when {@code maxConcurrentRemoteStores} is positive.
+     */
+    public DefaultBuildCacheController(
+        BuildCacheServicesConfiguration config,
+        BuildOperationExecutor buildOperationExecutor,
+        File gradleUserHomeDir,
+        boolean logStackTraces,
+        boolean emitDebugLogging,
+        @Nullable ExecutorFactory executorFactory,
+        int maxConcurrentRemoteStores,
+        int maxQueuedRemoteStores
+    ) {
+        this(config, buildOperationExecutor, gradleUserHomeDir, logStackTraces, emitDebugLogging, executorFactory, maxConcurrentRemoteStores, maxQueuedRemoteStores, null);
+    }
+
+    /**
+     * Creates a controller which additionally keeps the outputs of loaded entries in the given in-memory cache and restores them from there.
+     */
+    public DefaultBuildCacheController(
+        BuildCacheServicesConfiguration config,
+        BuildOperationExecutor buildOperationExecutor,
+        File gradleUserHomeDir,
+        boolean logStackTraces,
+        boolean emitDebugLogging,
+        @Nullable ExecutorFactory executorFactory,
+        int maxConcurrentRemoteStores,
+        int maxQueuedRemoteStores,
+        @Nullable InMemoryBuildCache inMemory
     ) {
         this.buildOperationExecutor = buildOperationExecutor;
         this.emitDebugLogging = emitDebugLogging;
@@ -93,6 +137,10 @@ public class DefaultBuildCacheController implements BuildCacheController {
         }
 
         this.remote = toHandle(config.remote, config.remotePush, BuildCacheServiceRole.REMOTE, buildOperationExecutor, logStackTraces);
+        this.remoteStores = executorFactory != null && maxConcurrentRemoteStores > 0 && remote.canStore()
+            ? new RemoteStoreQueue(remote, executorFactory, maxConcurrentRemoteStores, maxQueuedRemoteStores)
+            : null;
+        this.inMemory = inMemory != null && inMemory.getMaxSize() > 0 ? inMemory : null;
     }
 
     @Override
@@ -109,6 +157,21 @@ public class DefaultBuildCacheController implements BuildCacheController {
     public <T> Optional<T> load(final BuildCacheLoadCommand<T> command) {
         final Unpack<T> unpack = new Unpack<T>(command);
 
+        if (inMemory != null) {
+            InMemoryBuildCacheEntry retained = inMemory.get(command.getKey());
+            if (retained != null) {
+                try {
+                    unpack.restore(retained);
+                } catch (Exception e) {
+                    inMemory.remove(command.getKey());
+                    throw new GradleException("Build cache entry " + command.getKey().getHashCode() + " from in-memory build cache is invalid", e);
+                }
+                if (unpack.result != null) {
+                    return Optional.of(unpack.result.getMetadata());
+                }
+            }
+        }
+
         if (local.canLoad()) {
             try {
                 local.load(command.getKey(), unpack);
@@ -117,6 +180,7 @@ public class DefaultBuildCacheController implements BuildCacheController {
             }
 
             if (unpack.result != null) {
+                retain(command.getKey(), unpack.result);
                 return Optional.of(unpack.result.getMetadata());
             }
         }
@@ -138,15 +202,8 @@ public class DefaultBuildCacheController implements BuildCacheController {
                     }
 
                     if (loadTarget.isLoaded()) {
-                        try {
-                            unpack.execute(file);
-                        } catch (Exception e) {
-                            @SuppressWarnings("ConstantConditions") String roleDisplayName = loadedRole.getDisplayName();
-                            throw new GradleException("Build cache entry " + command.getKey().getHashCode() + " from " + roleDisplayName + " build cache is invalid", e);
-                        }
-                        if (local.canStore()) {
-                            local.store(command.getKey(), file);
-                        }
+                        //noinspection ConstantConditions
+                        unpackAndStoreLocally(command, unpack, file, loadedRole);
                     }
                 }
             });
@@ -160,7 +217,33 @@ public class DefaultBuildCacheController implements BuildCacheController {
         }
     }
 
-    private class Unpack<T> implements Action<File> {
+    private <T> void unpackAndStoreLocally(BuildCacheLoadCommand<T> command, Unpack<T> unpack, File file, BuildCacheServiceRole loadedRole) {
+        try {
+            unpack.execute(file);
+        } catch (Exception e) {
+            throw new GradleException("Build cache entry " + command.getKey().getHashCode() + " from " + loadedRole.getDisplayName() + " build cache is invalid", e);
+        }
+        if (local.canStore()) {
+            local.store(command.getKey(), file);
+        }
+        retain(command.getKey(), unpack.result);
+    }
+
+    private void retain(BuildCacheKey key, BuildCacheLoadCommand.Result<?> result) {
+        if (inMemory == null) {
+            return;
+        }
+        try {
+            InMemoryBuildCacheEntry retained = result.retain(inMemory.getMaxSize());
+            if (retained != null) {
+                inMemory.put(key, retained);
+            }
+        } catch (IOException e) {
+            LOGGER.debug("Could not keep build cache entry {} in memory.", key.getHashCode(), e);
+        }
+    }
+
+    private class Unpack<T> implements LinkedEntryReader {
         private final BuildCacheLoadCommand<T> command;
 
         private BuildCacheLoadCommand.Result<T> result;
@@ -171,10 +254,19 @@ public class DefaultBuildCacheController implements BuildCacheController {
 
         @Override
         public void execute(final File file) {
+            unpack(file, null);
+        }
+
+        @Override
+        public void executeLinked(File file, LinkedBlobs blobs) {
+            unpack(file, blobs);
+        }
+
+        private void unpack(final File file, @Nullable final LinkedBlobs blobs) {
             buildOperationExecutor.run(new RunnableBuildOperation() {
                 @Override
                 public void run(BuildOperationContext context) {
-                    try (InputStream input = new FileInputStream(file)) {
+                    try (InputStream input = blobs == null ? new FileInputStream(file) : new LinkedEntryInputStream(file, blobs)) {
                         result = command.load(input);
                     } catch (IOException e) {
                         throw new UncheckedIOException(e);
@@ -192,6 +284,44 @@ public class DefaultBuildCacheController implements BuildCacheController {
                 }
             });
         }
+
+        private void restore(final InMemoryBuildCacheEntry entry) {
+            buildOperationExecutor.run(new RunnableBuildOperation() {
+                @Override
+                public void run(BuildOperationContext context) {
+                    try {
+                        result = command.restore(entry);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    context.setResult(new UnpackOperationResult(
+                        result == null ? 0 : result.getArtifactEntryCount()
+                    ));
+                }
+
+                @Override
+                public BuildOperationDescriptor.Builder description() {
+                    return BuildOperationDescriptor.displayName("Restore build cache entry " + command.getKey().getHashCode() + " from memory")
+                        .details(new UnpackOperationDetails(command.getKey(), entry.getSize()))
+                        .progressDisplayName("Restoring build cache entry");
+                }
+            });
+        }
+    }
+
+    private static class LinkedEntryInputStream extends FileInputStream implements LinkedBlobs {
+        private final LinkedBlobs blobs;
+
+        private LinkedEntryInputStream(File file, LinkedBlobs blobs) throws FileNotFoundException {
+            super(file);
+            this.blobs = blobs;
+        }
+
+        @Nullable
+        @Override
+        public File getBlob(String name) {
+            return blobs.getBlob(name);
+        }
     }
 
     @Override
@@ -214,7 +344,11 @@ public class DefaultBuildCacheController implements BuildCacheController {
                 }
 
                 if (remote.canStore()) {
-                    remote.store(key, new StoreTarget(file));
+                    if (remoteStores != null) {
+                        remoteStores.store(key, file);
+                    } else {
+                        remote.store(key, new StoreTarget(file));
+                    }
                 }
 
                 if (local.canStore()) {
@@ -241,7 +375,8 @@ public class DefaultBuildCacheController implements BuildCacheController {
                         BuildCacheStoreCommand.Result result = command.store(new FileOutputStream(file));
                         context.setResult(new PackOperationResult(
                             result.getArtifactEntryCount(),
-                            file.length()
+                            file.length(),
+                            result.getUncompressedSize()
                         ));
                     } catch (IOException e) {
                         throw UncheckedException.throwAsUncheckedException(e);
@@ -262,7 +397,8 @@ public class DefaultBuildCacheController implements BuildCacheController {
     public void close() {
         if (!closed) {
             closed = true;
-            CompositeStoppable.stoppable(legacyLocal, local, remote).stop();
+            // Finish pending uploads before closing the remote cache
+            CompositeStoppable.stoppable(remoteStores, legacyLocal, local, remote).stop();
         }
     }
 
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.gradle.caching.internal.controller;
+
+import org.gradle.caching.BuildCacheKey;
+
+import javax.annotation.Nullable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the outputs of recently loaded build cache entries in memory, so that they can be restored again without decompressing and hashing them.
+ *
+ * The cache lives as long as the daemon and is bounded by a byte budget, evicting the least recently used entries first.
+ * It is disabled as long as the budget is 0.
+ */
+public class InMemoryBuildCache {
+    /**
+     * The number of megabytes to keep in memory. Defaults to 0, which disables the in-memory cache.
+     */
+    public static final String MAX_SIZE_PROPERTY = "org.gradle.caching.memory.max-size";
+
+    private final Map<String, InMemoryBuildCacheEntry> entries = new LinkedHashMap<String, InMemoryBuildCacheEntry>(16, 0.75f, true);
+    private long maxSize;
+    private long size;
+
+    public synchronized long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Changes the byte budget of the cache, evicting entries if necessary.
+     */
+    public synchronized void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+        evict();
+    }
+
+    public synchronized long getSize() {
+        return size;
+    }
+
+    @Nullable
+    public synchronized InMemoryBuildCacheEntry get(BuildCacheKey key) {
+        return entries.get(key.getHashCode());
+    }
+
+    public synchronized void put(BuildCacheKey key, InMemoryBuildCacheEntry entry) {
+        if (entry.getSize() > maxSize) {
+            return;
+        }
+        InMemoryBuildCacheEntry previous = entries.put(key.getHashCode(), entry);
+        if (previous != null) {
+            size -= previous.getSize();
+        }
+        size += entry.getSize();
+        evict();
+    }
+
+    public synchronized void remove(BuildCacheKey key) {
+        InMemoryBuildCacheEntry previous = entries.remove(key.getHashCode());
+        if (previous != null) {
+            size -= previous.getSize();
+        }
+    }
+
+    private void evict() {
+        Iterator<InMemoryBuildCacheEntry> iterator = entries.values().iterator();
+        while (size > maxSize && iterator.hasNext()) {
+            size -= iterator.next().getSize();
+            iterator.remove();
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.gradle.caching.internal.controller;
+
+import org.gradle.caching.BuildCacheKey;
+import org.gradle.caching.internal.controller.service.BuildCacheServiceHandle;
+import org.gradle.caching.internal.controller.service.StoreTarget;
+import org.gradle.caching.local.internal.BuildCacheTempFileStore;
+import org.gradle.internal.concurrent.ExecutorFactory;
+import org.gradle.internal.concurrent.ManagedExecutor;
+import org.gradle.internal.concurrent.Stoppable;
+import org.gradle.util.GFileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Stores entries in the remote build cache in the background, so that the work producing an entry does not have to wait for its upload.
+ *
+ * At most {@code maxConcurrentStores} entries are uploaded at the same time, and at most {@code maxQueuedStores} more wait for their turn.
+ * When the queue is full, the entry is stored on the calling thread, which limits the rate of producing entries to the rate of uploading them.
+ * Stopping the queue waits for all pending uploads to finish.
+ */
+class RemoteStoreQueue implements Stoppable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(RemoteStoreQueue.class);
+
+    private final BuildCacheServiceHandle remote;
+    private final ManagedExecutor executor;
+    private final Semaphore capacity;
+
+    RemoteStoreQueue(BuildCacheServiceHandle remote, ExecutorFactory executorFactory, int maxConcurrentStores, int maxQueuedStores) {
+        this.remote = remote;
+        this.executor = executorFactory.create("Remote build cache store", maxConcurrentStores);
+        this.capacity = new Semaphore(maxConcurrentStores + maxQueuedStores);
+    }
+
+    /**
+     * Schedules storing the given packed entry. The file is only used until this method returns, so the caller is free to delete or move it afterwards.
+     */
+    void store(final BuildCacheKey key, File packedEntry) {
+        if (!capacity.tryAcquire()) {
+            LOGGER.debug("Remote build cache store queue is full, storing entry {} directly", key.getDisplayName());
+            remote.store(key, new StoreTarget(packedEntry));
+            return;
+        }
+        final File entryToUpload;
+        try {
+            entryToUpload = linkOrCopy(key, packedEntry);
+        } catch (IOException e) {
+            capacity.release();
+            LOGGER.debug("Could not keep entry {} for uploading in the background, storing it directly", key.getDisplayName(), e);
+            remote.store(key, new StoreTarget(packedEntry));
+            return;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    // The remote cache may have been disabled due to an error while this entry was queued
+                    if (remote.canStore()) {
+                        remote.store(key, new StoreTarget(entryToUpload));
+                    }
+                } finally {
+                    GFileUtils.deleteQuietly(entryToUpload);
+                    capacity.release();
+                }
+            }
+        });
+    }
+
+    private static File linkOrCopy(BuildCacheKey key, File packedEntry) throws IOException {
+        File entryToUpload = File.createTempFile(key.getHashCode() + "-", BuildCacheTempFileStore.PARTIAL_FILE_SUFFIX, packedEntry.getParentFile());
+        try {
+            Files.delete(entryToUpload.toPath());
+            try {
+                Files.createLink(entryToUpload.toPath(), packedEntry.toPath());
+            } catch (IOException | UnsupportedOperationException e) {
+                Files.copy(packedEntry.toPath(), entryToUpload.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            return entryToUpload;
+        } catch (IOException e) {
+            GFileUtils.deleteQuietly(entryToUpload);
+            throw e;
+        }
+    }
+
+    @Override
+    public void stop() {
+        executor.stop();
+    }
+}
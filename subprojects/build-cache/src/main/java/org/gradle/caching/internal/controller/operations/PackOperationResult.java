@@ -22,10 +22,12 @@ public class PackOperationResult implements BuildCacheArchivePackBuildOperationT
 
     private final long archiveEntryCount;
     private final long archiveSize;
+    private final long uncompressedSize;
 
-    public PackOperationResult(long archiveEntryCount, long archiveSize) {
+    public PackOperationResult(long archiveEntryCount, long archiveSize, long uncompressedSize) {
         this.archiveEntryCount = archiveEntryCount;
         this.archiveSize = archiveSize;
+        this.uncompressedSize = uncompressedSize;
     }
 
     @Override
@@ -37,4 +39,9 @@ public class PackOperationResult implements BuildCacheArchivePackBuildOperationT
     public long getArchiveEntryCount() {
         return archiveEntryCount;
     }
+
+    @Override
+    public long getUncompressedSize() {
+        return uncompressedSize;
+    }
 }
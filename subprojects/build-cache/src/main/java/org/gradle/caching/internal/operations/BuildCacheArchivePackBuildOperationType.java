@@ -17,6 +17,7 @@
 package org.gradle.caching.internal.operations;
 
 import org.gradle.internal.operations.BuildOperationType;
+import org.gradle.internal.scan.NotUsedByScanPlugin;
 import org.gradle.internal.scan.UsedByScanPlugin;
 
 public final class BuildCacheArchivePackBuildOperationType implements BuildOperationType<BuildCacheArchivePackBuildOperationType.Details, BuildCacheArchivePackBuildOperationType.Result> {
@@ -38,6 +39,12 @@ public final class BuildCacheArchivePackBuildOperationType implements BuildOpera
 
         long getArchiveEntryCount();
 
+        /**
+         * The size of the archive before compression, or -1 if not known.
+         */
+        @NotUsedByScanPlugin("used by the build cache report")
+        long getUncompressedSize();
+
     }
 
 }
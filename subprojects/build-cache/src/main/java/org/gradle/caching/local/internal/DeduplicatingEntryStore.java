@@ -0,0 +1,334 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.gradle.caching.local.internal;
+
+import com.google.common.collect.ImmutableList;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.io.IOUtils;
+import org.gradle.caching.internal.LinkedBlobs;
+import org.gradle.internal.hash.Hashing;
+import org.gradle.internal.hash.HashingOutputStream;
+import org.gradle.internal.resource.local.LocallyAvailableResource;
+import org.gradle.internal.resource.local.PathKeyFileStore;
+import org.gradle.util.GFileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Stores build cache entries in a {@link PathKeyFileStore} so that files which appear in many entries, like library jars, only take up space once.
+ *
+ * Entries are expected to be gzip compressed tar archives. Each entry is split into a small manifest, which holds the tar headers and the contents of small files,
+ * and blobs for the contents of all larger files. Blobs are named after the hash of their contents, so entries with the same file share its blob.
+ * Loading an entry assembles an uncompressed archive from its manifest and blobs again.
+ *
+ * Blobs are marked as accessed whenever an entry referencing them is, so least recently used cleanup removes blobs together with the last entry referencing them.
+ *
+ * When linking is enabled, blobs are kept read-only and archives assembled for readers which can link do not contain the contents of files stored as blobs.
+ * Instead, such files are empty and carry a {@value LinkedBlobs#BLOB_PAX_HEADER} header with the name of the blob, so they can be restored by linking to the blob.
+ * Since restored files share the blob, they are read-only as well, which prevents later changes to the outputs from corrupting the cache.
+ *
+ * Content hashes recorded in the entries are dropped when assembling them, since the checksum of the assembled archive does not vouch for the contents of the blobs.
+ * Readers hash the files instead, and can check them against the hash of the whole contents recorded in the metadata of the entry.
+ */
+public class DeduplicatingEntryStore implements LinkedBlobs {
+    public static final String MANIFEST_SUFFIX = ".manifest";
+    public static final String BLOB_SUFFIX = ".blob";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DeduplicatingEntryStore.class);
+    private static final int MANIFEST_MAGIC = 0x47424d46;
+    private static final int MANIFEST_VERSION = 2;
+    private static final int MIN_BLOB_SIZE = 4 * 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // Recorded by the packer for each file, see TarBuildCacheEntryPacker
+    private static final String CONTENT_HASH_PAX_HEADER = "GRADLE.hash";
+    private static final Pattern BLOB_NAME = Pattern.compile("[0-9a-f]+" + Pattern.quote(BLOB_SUFFIX));
+
+    private final PathKeyFileStore fileStore;
+    private final File tempDir;
+    private final boolean linkBlobs;
+
+    public DeduplicatingEntryStore(PathKeyFileStore fileStore, File tempDir) {
+        this(fileStore, tempDir, false);
+    }
+
+    public DeduplicatingEntryStore(PathKeyFileStore fileStore, File tempDir, boolean linkBlobs) {
+        this.fileStore = fileStore;
+        this.tempDir = tempDir;
+        this.linkBlobs = linkBlobs;
+    }
+
+    /**
+     * Writes the manifest for the given entry and stores the blobs it references.
+     *
+     * @return the blobs referenced by the manifest, or {@code null} if the entry is not a tar archive which can be split.
+     */
+    @Nullable
+    public ImmutableList<File> split(File entry, File manifest) {
+        ImmutableList.Builder<File> blobs = ImmutableList.builder();
+        try (
+            TarArchiveInputStream tarInput = new TarArchiveInputStream(new GZIPInputStream(new FileInputStream(entry), BUFFER_SIZE), "utf-8");
+            DataOutputStream manifestOutput = openManifestForWriting(manifest)
+        ) {
+            TarArchiveEntry tarEntry;
+            while ((tarEntry = tarInput.getNextTarEntry()) != null) {
+                if (!tarEntry.isFile() && !tarEntry.isDirectory()) {
+                    LOGGER.debug("Not splitting build cache entry {} as it contains {} which is neither a file nor a directory.", entry, tarEntry.getName());
+                    return null;
+                }
+                manifestOutput.writeBoolean(true);
+                manifestOutput.writeUTF(tarEntry.getName());
+                manifestOutput.writeInt(tarEntry.getMode());
+                manifestOutput.writeLong(tarEntry.getSize());
+                Map<String, String> paxHeaders = tarEntry.getExtraPaxHeaders();
+                manifestOutput.writeInt(paxHeaders.size());
+                for (Map.Entry<String, String> paxHeader : paxHeaders.entrySet()) {
+                    manifestOutput.writeUTF(paxHeader.getKey());
+                    manifestOutput.writeUTF(paxHeader.getValue());
+                }
+                boolean storedAsBlob = tarEntry.getSize() >= MIN_BLOB_SIZE;
+                manifestOutput.writeBoolean(storedAsBlob);
+                if (storedAsBlob) {
+                    LocallyAvailableResource blob = storeBlob(tarInput);
+                    manifestOutput.writeUTF(blob.getFile().getName());
+                    blobs.add(blob.getFile());
+                } else {
+                    IOUtils.copy(tarInput, manifestOutput);
+                }
+            }
+            manifestOutput.writeBoolean(false);
+        } catch (IOException e) {
+            LOGGER.debug("Could not split build cache entry {}.", entry, e);
+            return null;
+        }
+        return blobs.build();
+    }
+
+    private LocallyAvailableResource storeBlob(InputStream content) throws IOException {
+        File tempFile = File.createTempFile("blob-", BuildCacheTempFileStore.PARTIAL_FILE_SUFFIX, tempDir);
+        try {
+            HashingOutputStream output = Hashing.primitiveStreamHasher(new BufferedOutputStream(new FileOutputStream(tempFile), BUFFER_SIZE));
+            try {
+                IOUtils.copyLarge(content, output);
+            } finally {
+                output.close();
+            }
+            String blobName = output.hash() + BLOB_SUFFIX;
+            LocallyAvailableResource existingBlob = fileStore.get(blobName);
+            if (existingBlob != null) {
+                return existingBlob;
+            }
+            if (linkBlobs) {
+                makeReadOnly(tempFile);
+            }
+            return fileStore.move(blobName, tempFile);
+        } finally {
+            GFileUtils.deleteQuietly(tempFile);
+        }
+    }
+
+    public boolean isLinkingBlobs() {
+        return linkBlobs;
+    }
+
+    @Nullable
+    @Override
+    public File getBlob(String name) {
+        // Only accept plain blob names, so the returned file is always inside the store
+        if (!BLOB_NAME.matcher(name).matches()) {
+            return null;
+        }
+        LocallyAvailableResource blob = fileStore.get(name);
+        return blob == null ? null : blob.getFile();
+    }
+
+    /**
+     * Assembles the entry described by the given manifest, with the contents of all files.
+     *
+     * @return the blobs referenced by the manifest, or {@code null} if some of them are not available anymore or the manifest was written in an older format.
+     */
+    @Nullable
+    public ImmutableList<File> join(File manifest, File entry) throws IOException {
+        return join(manifest, entry, false);
+    }
+
+    /**
+     * Assembles the entry described by the given manifest.
+     * When linking is enabled and {@code referToBlobs} is set, files stored as blobs refer to their blob instead of containing their contents.
+     *
+     * @return the blobs referenced by the manifest, or {@code null} if some of them are not available anymore or the manifest was written in an older format.
+     */
+    @Nullable
+    public ImmutableList<File> join(File manifest, File entry, boolean referToBlobs) throws IOException {
+        DataInputStream manifestReader = openManifestForReading(manifest);
+        if (manifestReader == null) {
+            return null;
+        }
+        ImmutableList.Builder<File> blobs = ImmutableList.builder();
+        try (
+            DataInputStream manifestInput = manifestReader;
+            TarArchiveOutputStream tarOutput = new TarArchiveOutputStream(new BufferedOutputStream(new StoredGZIPOutputStream(new FileOutputStream(entry)), BUFFER_SIZE), "utf-8")
+        ) {
+            tarOutput.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+            tarOutput.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+            tarOutput.setAddPaxHeadersForNonAsciiNames(true);
+            while (manifestInput.readBoolean()) {
+                TarArchiveEntry tarEntry = new TarArchiveEntry(manifestInput.readUTF(), true);
+                tarEntry.setMode(manifestInput.readInt());
+                tarEntry.setSize(manifestInput.readLong());
+                int paxHeaderCount = manifestInput.readInt();
+                for (int i = 0; i < paxHeaderCount; i++) {
+                    String name = manifestInput.readUTF();
+                    String value = manifestInput.readUTF();
+                    if (!name.equals(CONTENT_HASH_PAX_HEADER)) {
+                        tarEntry.addPaxHeader(name, value);
+                    }
+                }
+                if (manifestInput.readBoolean()) {
+                    // Look up the blob before adding the tar entry, since an archive with an unfinished entry cannot be closed anymore
+                    LocallyAvailableResource blob = fileStore.get(manifestInput.readUTF());
+                    if (blob == null) {
+                        return null;
+                    }
+                    File blobFile = blob.getFile();
+                    blobs.add(blobFile);
+                    if (linkBlobs && referToBlobs) {
+                        if (!hasExpectedContents(blobFile, tarEntry.getSize())) {
+                            // Changed through a link on a file system which ignores the read-only flag, so the contents are lost
+                            LOGGER.debug("Removing build cache blob {} as its contents do not match its name.", blobFile);
+                            GFileUtils.deleteQuietly(blobFile);
+                            return null;
+                        }
+                        makeReadOnly(blobFile);
+                        tarEntry.setSize(0);
+                        tarEntry.addPaxHeader(BLOB_PAX_HEADER, blobFile.getName());
+                        tarOutput.putArchiveEntry(tarEntry);
+                    } else {
+                        InputStream blobInput = openBlob(blobFile);
+                        if (blobInput == null) {
+                            return null;
+                        }
+                        try {
+                            tarOutput.putArchiveEntry(tarEntry);
+                            IOUtils.copyLarge(blobInput, tarOutput);
+                        } finally {
+                            blobInput.close();
+                        }
+                    }
+                } else {
+                    tarOutput.putArchiveEntry(tarEntry);
+                    IOUtils.copyLarge(manifestInput, tarOutput, 0, tarEntry.getSize());
+                }
+                tarOutput.closeArchiveEntry();
+            }
+        }
+        return blobs.build();
+    }
+
+    /**
+     * Checks the blob against the hash it is named after, since outputs linked to it are not read again before they are used.
+     */
+    private static boolean hasExpectedContents(File blob, long size) throws IOException {
+        if (blob.length() != size) {
+            return false;
+        }
+        InputStream blobInput = openBlob(blob);
+        if (blobInput == null) {
+            return false;
+        }
+        HashingOutputStream hasher = Hashing.primitiveStreamHasher();
+        try {
+            IOUtils.copyLarge(blobInput, hasher);
+        } finally {
+            blobInput.close();
+        }
+        return blob.getName().equals(hasher.hash() + BLOB_SUFFIX);
+    }
+
+    @Nullable
+    private static InputStream openBlob(File blob) {
+        try {
+            return new FileInputStream(blob);
+        } catch (FileNotFoundException e) {
+            // Removed by a cleanup in the meantime
+            return null;
+        }
+    }
+
+    private static void makeReadOnly(File blob) throws IOException {
+        if (blob.canWrite() && !blob.setReadOnly()) {
+            throw new IOException(String.format("Could not make %s read-only.", blob));
+        }
+    }
+
+    private static DataOutputStream openManifestForWriting(File manifest) throws IOException {
+        OutputStream output = new FileOutputStream(manifest);
+        DataOutputStream header = new DataOutputStream(output);
+        header.writeInt(MANIFEST_MAGIC);
+        header.writeInt(MANIFEST_VERSION);
+        return new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(output, BUFFER_SIZE), BUFFER_SIZE));
+    }
+
+    @Nullable
+    private static DataInputStream openManifestForReading(File manifest) throws IOException {
+        InputStream input = new FileInputStream(manifest);
+        try {
+            DataInputStream header = new DataInputStream(input);
+            if (header.readInt() != MANIFEST_MAGIC) {
+                throw new IOException(String.format("Unsupported build cache entry manifest %s.", manifest));
+            }
+            if (header.readInt() != MANIFEST_VERSION) {
+                input.close();
+                return null;
+            }
+            return new DataInputStream(new BufferedInputStream(new GZIPInputStream(input, BUFFER_SIZE), BUFFER_SIZE));
+        } catch (IOException e) {
+            input.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Assembled entries are read right away from local disk, so compressing them again is not worth the time.
+     */
+    private static class StoredGZIPOutputStream extends GZIPOutputStream {
+        StoredGZIPOutputStream(OutputStream output) throws IOException {
+            super(output, BUFFER_SIZE);
+            def.setLevel(Deflater.NO_COMPRESSION);
+        }
+    }
+}
@@ -32,10 +32,12 @@ import org.gradle.internal.resource.local.PathKeyFileStore;
 import org.gradle.util.GFileUtils;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.List;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -46,14 +48,20 @@ public class DirectoryBuildCacheService implements LocalBuildCacheService, Build
     private final BuildCacheTempFileStore tempFileStore;
     private final FileAccessTracker fileAccessTracker;
     private final String failedFileSuffix;
+    private final DeduplicatingEntryStore deduplicatingEntryStore;
     private final ReadWriteLock lock = new ReentrantReadWriteLock();
 
     public DirectoryBuildCacheService(PathKeyFileStore fileStore, PersistentCache persistentCache, BuildCacheTempFileStore tempFileStore, FileAccessTracker fileAccessTracker, String failedFileSuffix) {
+        this(fileStore, persistentCache, tempFileStore, fileAccessTracker, failedFileSuffix, null);
+    }
+
+    public DirectoryBuildCacheService(PathKeyFileStore fileStore, PersistentCache persistentCache, BuildCacheTempFileStore tempFileStore, FileAccessTracker fileAccessTracker, String failedFileSuffix, @Nullable DeduplicatingEntryStore deduplicatingEntryStore) {
         this.fileStore = fileStore;
         this.persistentCache = persistentCache;
         this.tempFileStore = tempFileStore;
         this.fileAccessTracker = fileAccessTracker;
         this.failedFileSuffix = failedFileSuffix;
+        this.deduplicatingEntryStore = deduplicatingEntryStore;
     }
 
     private static class LoadAction implements Action<File> {
@@ -105,6 +113,14 @@ public class DirectoryBuildCacheService implements LocalBuildCacheService, Build
     }
 
     private void loadInsideLock(BuildCacheKey key, Action<? super File> reader) {
+        if (deduplicatingEntryStore != null) {
+            LocallyAvailableResource manifest = fileStore.get(key.getHashCode() + DeduplicatingEntryStore.MANIFEST_SUFFIX);
+            if (manifest != null) {
+                loadFromManifest(key, manifest.getFile(), reader);
+                return;
+            }
+        }
+
         LocallyAvailableResource resource = fileStore.get(key.getHashCode());
         if (resource == null) {
             return;
@@ -113,15 +129,52 @@ public class DirectoryBuildCacheService implements LocalBuildCacheService, Build
         File file = resource.getFile();
         fileAccessTracker.markAccessed(file);
 
+        read(file, file, reader);
+    }
+
+    private void loadFromManifest(BuildCacheKey key, final File manifest, final Action<? super File> reader) {
+        fileAccessTracker.markAccessed(manifest);
+        tempFileStore.withTempFile(key, new Action<File>() {
+            @Override
+            public void execute(@Nonnull File file) {
+                // Only readers which know how to restore files from linked blobs get entries referring to them
+                final boolean referToBlobs = reader instanceof LinkedEntryReader;
+                List<File> blobs;
+                try {
+                    blobs = deduplicatingEntryStore.join(manifest, file, referToBlobs);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                if (blobs == null) {
+                    // Some of the contents have been removed from the cache already, or the manifest is outdated, so treat the entry as missing
+                    GFileUtils.deleteQuietly(manifest);
+                    return;
+                }
+                fileAccessTracker.markAccessed(blobs);
+                if (referToBlobs && deduplicatingEntryStore.isLinkingBlobs()) {
+                    read(file, manifest, new Action<File>() {
+                        @Override
+                        public void execute(@Nonnull File entry) {
+                            ((LinkedEntryReader) reader).executeLinked(entry, deduplicatingEntryStore);
+                        }
+                    });
+                } else {
+                    read(file, manifest, reader);
+                }
+            }
+        });
+    }
+
+    private void read(File file, File storedFile, Action<? super File> reader) {
         try {
             reader.execute(file);
         } catch (Exception e) {
             // Try to move the file out of the way in case its permanently corrupt
             // Don't delete, so that it can be potentially used for debugging
-            File failedFile = new File(file.getAbsolutePath() + failedFileSuffix);
+            File failedFile = new File(storedFile.getAbsolutePath() + failedFileSuffix);
             GFileUtils.deleteQuietly(failedFile);
             //noinspection ResultOfMethodCallIgnored
-            file.renameTo(failedFile);
+            storedFile.renameTo(failedFile);
 
             throw UncheckedException.throwAsUncheckedException(e);
         }
@@ -166,10 +219,29 @@ public class DirectoryBuildCacheService implements LocalBuildCacheService, Build
     }
 
     private void storeInsideLock(BuildCacheKey key, File file) {
+        if (deduplicatingEntryStore != null && storeDeduplicated(key, file)) {
+            return;
+        }
         LocallyAvailableResource resource = fileStore.move(key.getHashCode(), file);
         fileAccessTracker.markAccessed(resource.getFile());
     }
 
+    private boolean storeDeduplicated(BuildCacheKey key, File file) {
+        File manifestFile = new File(file.getAbsolutePath() + DeduplicatingEntryStore.MANIFEST_SUFFIX);
+        try {
+            List<File> blobs = deduplicatingEntryStore.split(file, manifestFile);
+            if (blobs == null) {
+                return false;
+            }
+            LocallyAvailableResource manifest = fileStore.move(key.getHashCode() + DeduplicatingEntryStore.MANIFEST_SUFFIX, manifestFile);
+            fileAccessTracker.markAccessed(manifest.getFile());
+            fileAccessTracker.markAccessed(blobs);
+            return true;
+        } finally {
+            GFileUtils.deleteQuietly(manifestFile);
+        }
+    }
+
     @Override
     public void withTempFile(final BuildCacheKey key, final Action<? super File> action) {
         persistentCache.withFileLock(new Runnable() {
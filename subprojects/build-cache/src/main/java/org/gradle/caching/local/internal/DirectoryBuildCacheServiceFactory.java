@@ -42,6 +42,14 @@ import static org.gradle.cache.internal.filelock.LockOptionsBuilder.mode;
 
 public class DirectoryBuildCacheServiceFactory implements BuildCacheServiceFactory<DirectoryBuildCache> {
     public static final String FAILED_READ_SUFFIX = ".failed";
+    public static final String DEDUPLICATE_ENTRIES_PROPERTY = "org.gradle.caching.local.deduplicate";
+    /**
+     * Restores files of deduplicated entries by hard-linking them to the blobs of the cache, where the file system supports it.
+     *
+     * Blobs are read-only, so linked output files are read-only in the build directory as well until the work producing them runs again.
+     * Other tools writing to such outputs in place fail instead of corrupting the cache.
+     */
+    public static final String LINK_ENTRY_CONTENTS_PROPERTY = "org.gradle.caching.local.link";
 
     private static final String BUILD_CACHE_VERSION = "1";
     private static final String BUILD_CACHE_KEY = "build-cache-" + BUILD_CACHE_VERSION;
@@ -93,7 +101,9 @@ public class DirectoryBuildCacheServiceFactory implements BuildCacheServiceFacto
         BuildCacheTempFileStore tempFileStore = new DefaultBuildCacheTempFileStore(target);
         FileAccessTracker fileAccessTracker = new SingleDepthFileAccessTracker(fileAccessTimeJournal, target, FILE_TREE_DEPTH_TO_TRACK_AND_CLEANUP);
 
-        return new DirectoryBuildCacheService(fileStore, persistentCache, tempFileStore, fileAccessTracker, FAILED_READ_SUFFIX);
+        DeduplicatingEntryStore deduplicatingEntryStore = Boolean.getBoolean(DEDUPLICATE_ENTRIES_PROPERTY) ? new DeduplicatingEntryStore(fileStore, target, Boolean.getBoolean(LINK_ENTRY_CONTENTS_PROPERTY)) : null;
+
+        return new DirectoryBuildCacheService(fileStore, persistentCache, tempFileStore, fileAccessTracker, FAILED_READ_SUFFIX, deduplicatingEntryStore);
     }
 
     private static void checkDirectory(File directory) {
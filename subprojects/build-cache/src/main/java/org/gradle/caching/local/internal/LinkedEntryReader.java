@@ -0,0 +1,35 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.gradle.caching.local.internal;
+
+import org.gradle.api.Action;
+import org.gradle.caching.internal.LinkedBlobs;
+
+import java.io.File;
+
+/**
+ * Reads entries loaded by {@link LocalBuildCacheService#loadLocally(org.gradle.caching.BuildCacheKey, Action)}, including entries which refer to blobs of the cache instead of containing the contents of files.
+ *
+ * Local build caches only hand out such entries to readers implementing this interface.
+ */
+public interface LinkedEntryReader extends Action<File> {
+    /**
+     * Reads an entry which may refer to the given blobs, see {@link LinkedBlobs}.
+     */
+    void executeLinked(File entry, LinkedBlobs blobs);
+}
@@ -22,7 +22,9 @@ import org.gradle.caching.BuildCacheEntryWriter
 import org.gradle.caching.BuildCacheKey
 import org.gradle.caching.BuildCacheService
 import org.gradle.caching.internal.controller.service.BuildCacheServicesConfiguration
+import org.gradle.caching.local.internal.BuildCacheTempFileStore
 import org.gradle.caching.local.internal.LocalBuildCacheService
+import org.gradle.internal.concurrent.DefaultExecutorFactory
 import org.gradle.internal.operations.TestBuildOperationExecutor
 import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
 import org.gradle.testing.internal.util.Specification
@@ -338,4 +340,81 @@ class DefaultBuildCacheControllerTest extends Specification {
         }
     }
 
+    def "stores to remote in the background and finishes pending stores on close"() {
+        given:
+        def controller = new DefaultBuildCacheController(
+            new BuildCacheServicesConfiguration(local, localPush, remote, remotePush),
+            operations,
+            tmpDir.file("dir"),
+            false, false,
+            new DefaultExecutorFactory(), 1, 1
+        )
+
+        when:
+        controller.store(storeCommand)
+        controller.close()
+
+        then:
+        1 * local.storeLocally(key, _)
+        1 * remote.store(key, _) >> { key, BuildCacheEntryWriter writer ->
+            writer.writeTo(new ByteArrayOutputStream())
+        }
+        1 * remote.close()
+
+        and:
+        operations.log.descriptors.any { it.displayName ==~ /Store entry .* in remote build cache/ }
+        !tmpDir.testDirectory.listFiles().any { it.name.endsWith(BuildCacheTempFileStore.PARTIAL_FILE_SUFFIX) }
+    }
+
+    def "restores entries loaded before from memory"() {
+        given:
+        def inMemory = new InMemoryBuildCache()
+        inMemory.maxSize = 1000
+        def controller = new DefaultBuildCacheController(
+            new BuildCacheServicesConfiguration(local, localPush, remote, remotePush),
+            operations,
+            tmpDir.file("dir"),
+            false, false,
+            null, 0, 0,
+            inMemory
+        )
+        def retained = Stub(InMemoryBuildCacheEntry) {
+            getSize() >> 100
+        }
+        def loadResult = Stub(BuildCacheLoadCommand.Result) {
+            getMetadata() >> loadmetadata
+            retain(1000) >> retained
+        }
+        def command = Mock(BuildCacheLoadCommand) {
+            getKey() >> key
+        }
+
+        when:
+        def first = controller.load(command)
+
+        then:
+        1 * local.loadLocally(key, _) >> { BuildCacheKey key, Action<File> action ->
+            def file = tmpDir.file("file")
+            file.text = "alma"
+            action.execute(file)
+        }
+        1 * command.load(_) >> { InputStream input ->
+            input.close()
+            loadResult
+        }
+        first.get() == loadmetadata
+        inMemory.size == 100
+
+        when:
+        def second = controller.load(command)
+
+        then:
+        1 * command.restore(retained) >> loadResult
+        0 * command.load(_)
+        0 * local.loadLocally(key, _)
+        0 * remote.load(key, _)
+        second.get() == loadmetadata
+        operations.log.descriptors.any { it.displayName == "Restore build cache entry key from memory" }
+    }
+
 }
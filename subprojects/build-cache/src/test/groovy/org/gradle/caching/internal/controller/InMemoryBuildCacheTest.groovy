@@ -0,0 +1,101 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.gradle.caching.internal.controller
+
+import org.gradle.caching.BuildCacheKey
+import org.gradle.testing.internal.util.Specification
+
+class InMemoryBuildCacheTest extends Specification {
+    def inMemory = new InMemoryBuildCache()
+    def key1 = key("key1")
+    def key2 = key("key2")
+    def key3 = key("key3")
+
+    def "evicts least recently used entries"() {
+        given:
+        inMemory.maxSize = 250
+        def entry = entry(100)
+
+        when:
+        inMemory.put(key1, entry)
+        inMemory.put(key2, entry)
+        inMemory.get(key1)
+        inMemory.put(key3, entry)
+
+        then:
+        inMemory.get(key1) != null
+        inMemory.get(key2) == null
+        inMemory.get(key3) != null
+        inMemory.size == 200
+
+        when:
+        inMemory.maxSize = 0
+
+        then:
+        inMemory.get(key1) == null
+        inMemory.size == 0
+    }
+
+    def "does not keep entries larger than the maximum size"() {
+        given:
+        inMemory.maxSize = 100
+        inMemory.put(key1, entry(50))
+
+        when:
+        inMemory.put(key2, entry(101))
+
+        then:
+        inMemory.get(key1) != null
+        inMemory.get(key2) == null
+        inMemory.size == 50
+    }
+
+    def "replaces and removes entries"() {
+        given:
+        inMemory.maxSize = 1000
+        def replacement = entry(30)
+        inMemory.put(key1, entry(100))
+
+        when:
+        inMemory.put(key1, replacement)
+
+        then:
+        inMemory.get(key1).is(replacement)
+        inMemory.size == 30
+
+        when:
+        inMemory.remove(key1)
+        inMemory.remove(key2)
+
+        then:
+        inMemory.get(key1) == null
+        inMemory.size == 0
+    }
+
+    private BuildCacheKey key(String hashCode) {
+        Stub(BuildCacheKey) {
+            getHashCode() >> hashCode
+        }
+    }
+
+    private InMemoryBuildCacheEntry entry(long size) {
+        Stub(InMemoryBuildCacheEntry) {
+            getSize() >> size
+        }
+    }
+}
@@ -16,10 +16,15 @@
 
 package org.gradle.caching.local.internal
 
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream
 import org.gradle.cache.PersistentCache
 import org.gradle.caching.BuildCacheEntryReader
 import org.gradle.caching.BuildCacheEntryWriter
 import org.gradle.caching.BuildCacheKey
+import org.gradle.caching.internal.LinkedBlobs
+import org.gradle.internal.hash.Hashing
 import org.gradle.internal.resource.local.DefaultPathKeyFileStore
 import org.gradle.internal.resource.local.FileAccessTracker
 import org.gradle.test.fixtures.file.CleanupTestDirectory
@@ -28,6 +33,9 @@ import org.gradle.util.UsesNativeServices
 import org.junit.Rule
 import spock.lang.Specification
 
+import java.util.zip.GZIPInputStream
+import java.util.zip.GZIPOutputStream
+
 @UsesNativeServices
 @CleanupTestDirectory
 class DirectoryBuildCacheServiceTest extends Specification {
@@ -132,4 +140,208 @@ class DirectoryBuildCacheServiceTest extends Specification {
         1 * fileAccessTracker.markAccessed(cachedFile)
         loaded
     }
+
+    def "stores contents shared between entries only once when deduplicating"() {
+        def deduplicatingService = new DirectoryBuildCacheService(fileStore, persistentCache, tempFileStore, fileAccessTracker, ".failed", new DeduplicatingEntryStore(fileStore, cacheDir))
+        def library = new byte[100_000]
+        new Random(1).nextBytes(library)
+        def otherKey = Stub(BuildCacheKey) {
+            getHashCode() >> "5678efgh"
+        }
+
+        when:
+        deduplicatingService.storeLocally(key, tarGz("tree-out/lib.jar": library, "tree-out/first.txt": "first".bytes))
+        deduplicatingService.storeLocally(otherKey, tarGz("tree-out/lib.jar": library, "tree-out/second.txt": "second".bytes))
+
+        then:
+        cacheDir.listFiles()*.name.toSet() == ["1234abcd.manifest", "5678efgh.manifest", "${Hashing.hashBytes(library)}.blob"].toSet()
+
+        when:
+        Map<String, byte[]> loaded = null
+        deduplicatingService.loadLocally(otherKey, { file -> loaded = untarGz(file) })
+
+        then:
+        loaded.keySet() == ["tree-out/lib.jar", "tree-out/second.txt"].toSet()
+        loaded["tree-out/lib.jar"] == library
+        loaded["tree-out/second.txt"] == "second".bytes
+    }
+
+    def "treats deduplicated entry with missing contents as a miss"() {
+        def deduplicatingService = new DirectoryBuildCacheService(fileStore, persistentCache, tempFileStore, fileAccessTracker, ".failed", new DeduplicatingEntryStore(fileStore, cacheDir))
+        deduplicatingService.storeLocally(key, tarGz("tree-out/lib.jar": new byte[100_000]))
+        cacheDir.listFiles().findAll { it.name.endsWith(".blob") }*.delete()
+
+        when:
+        def loaded = deduplicatingService.load(key, Mock(BuildCacheEntryReader))
+
+        then:
+        !loaded
+        cacheDir.listFiles() as List == []
+    }
+
+    def "keeps PAX headers of deduplicated entries except for content hashes"() {
+        def deduplicatingService = new DirectoryBuildCacheService(fileStore, persistentCache, tempFileStore, fileAccessTracker, ".failed", new DeduplicatingEntryStore(fileStore, cacheDir))
+        def entry = temporaryFolder.file("entry-with-headers.tar.gz")
+        new TarArchiveOutputStream(new GZIPOutputStream(new FileOutputStream(entry))).withCloseable { tarOutput ->
+            ["tree-out/lib.jar": new byte[100_000], "tree-out/small.txt": "small".bytes].each { path, content ->
+                def tarEntry = new TarArchiveEntry(path, true)
+                tarEntry.size = content.length
+                tarEntry.addPaxHeader("GRADLE.hash", "hash-of-${path}")
+                tarEntry.addPaxHeader("GRADLE.other", "other-of-${path}")
+                tarOutput.putArchiveEntry(tarEntry)
+                tarOutput.write(content)
+                tarOutput.closeArchiveEntry()
+            }
+        }
+        deduplicatingService.storeLocally(key, entry)
+
+        when:
+        Map<String, TarArchiveEntry> loaded = [:]
+        deduplicatingService.loadLocally(key, { file ->
+            new TarArchiveInputStream(new GZIPInputStream(new FileInputStream(file))).withCloseable { tarInput ->
+                def tarEntry
+                while ((tarEntry = tarInput.nextTarEntry) != null) {
+                    loaded[tarEntry.name] = tarEntry
+                }
+            }
+        })
+
+        then:
+        loaded["tree-out/lib.jar"].getExtraPaxHeader("GRADLE.other") == "other-of-tree-out/lib.jar"
+        loaded["tree-out/small.txt"].getExtraPaxHeader("GRADLE.other") == "other-of-tree-out/small.txt"
+        loaded["tree-out/lib.jar"].getExtraPaxHeader("GRADLE.hash") == null
+        loaded["tree-out/small.txt"].getExtraPaxHeader("GRADLE.hash") == null
+    }
+
+    def "refers to read-only blobs in entries loaded by linking readers"() {
+        def linkingService = new DirectoryBuildCacheService(fileStore, persistentCache, tempFileStore, fileAccessTracker, ".failed", new DeduplicatingEntryStore(fileStore, cacheDir, true))
+        def library = new byte[100_000]
+        linkingService.storeLocally(key, tarGz("tree-out/lib.jar": library, "tree-out/small.txt": "small".bytes))
+        def blob = cacheDir.file("${Hashing.hashBytes(library)}.blob")
+
+        when:
+        Map<String, TarArchiveEntry> loaded = [:]
+        LinkedBlobs loadedBlobs = null
+        linkingService.loadLocally(key, new LinkedEntryReader() {
+            @Override
+            void execute(File file) {
+                throw new AssertionError()
+            }
+
+            @Override
+            void executeLinked(File file, LinkedBlobs blobs) {
+                loadedBlobs = blobs
+                loaded = tarEntries(file)
+            }
+        })
+
+        then:
+        loaded["tree-out/lib.jar"].size == 0
+        loaded["tree-out/lib.jar"].getExtraPaxHeader(LinkedBlobs.BLOB_PAX_HEADER) == blob.name
+        loaded["tree-out/small.txt"].size == 5
+        loadedBlobs.getBlob(blob.name) == blob
+        !blob.canWrite()
+    }
+
+    def "only hands out blobs stored in the cache"() {
+        def entryStore = new DeduplicatingEntryStore(fileStore, cacheDir, true)
+        def library = new byte[100_000]
+        new DirectoryBuildCacheService(fileStore, persistentCache, tempFileStore, fileAccessTracker, ".failed", entryStore)
+            .storeLocally(key, tarGz("tree-out/lib.jar": library))
+        def blobName = "${Hashing.hashBytes(library)}.blob"
+        temporaryFolder.file("outside.blob").text = "outside"
+
+        expect:
+        entryStore.getBlob(blobName) == cacheDir.file(blobName)
+        entryStore.getBlob("1234.blob") == null
+        entryStore.getBlob("../outside.blob") == null
+        entryStore.getBlob(temporaryFolder.file("outside.blob").absolutePath) == null
+    }
+
+    def "loads full contents of deduplicated entries for plain readers when linking"() {
+        def linkingService = new DirectoryBuildCacheService(fileStore, persistentCache, tempFileStore, fileAccessTracker, ".failed", new DeduplicatingEntryStore(fileStore, cacheDir, true))
+        def library = new byte[100_000]
+        linkingService.storeLocally(key, tarGz("tree-out/lib.jar": library))
+
+        when:
+        Map<String, byte[]> loaded = null
+        linkingService.loadLocally(key, { file -> loaded = untarGz(file) })
+
+        then:
+        loaded["tree-out/lib.jar"] == library
+    }
+
+    def "treats entries referring to changed blobs as a miss when linking"() {
+        def linkingService = new DirectoryBuildCacheService(fileStore, persistentCache, tempFileStore, fileAccessTracker, ".failed", new DeduplicatingEntryStore(fileStore, cacheDir, true))
+        def library = new byte[100_000]
+        linkingService.storeLocally(key, tarGz("tree-out/lib.jar": library))
+        def blob = cacheDir.file("${Hashing.hashBytes(library)}.blob")
+        blob.writable = true
+        blob << "changed"
+        def reader = Mock(LinkedEntryReader)
+
+        when:
+        linkingService.loadLocally(key, reader)
+
+        then:
+        0 * reader._
+        !blob.exists()
+        !cacheDir.file("${hashCode}.manifest").exists()
+    }
+
+    def "treats entries referring to blobs changed without changing their size as a miss when linking"() {
+        def linkingService = new DirectoryBuildCacheService(fileStore, persistentCache, tempFileStore, fileAccessTracker, ".failed", new DeduplicatingEntryStore(fileStore, cacheDir, true))
+        def library = new byte[100_000]
+        linkingService.storeLocally(key, tarGz("tree-out/lib.jar": library))
+        def blob = cacheDir.file("${Hashing.hashBytes(library)}.blob")
+        blob.writable = true
+        def changed = new byte[100_000]
+        changed[0] = 1
+        blob.bytes = changed
+        def reader = Mock(LinkedEntryReader)
+
+        when:
+        linkingService.loadLocally(key, reader)
+
+        then:
+        0 * reader._
+        !blob.exists()
+        !cacheDir.file("${hashCode}.manifest").exists()
+    }
+
+    private static Map<String, TarArchiveEntry> tarEntries(File file) {
+        Map<String, TarArchiveEntry> entries = [:]
+        new TarArchiveInputStream(new GZIPInputStream(new FileInputStream(file))).withCloseable { tarInput ->
+            def entry
+            while ((entry = tarInput.nextTarEntry) != null) {
+                entries[entry.name] = entry
+            }
+        }
+        return entries
+    }
+
+    private File tarGz(Map<String, byte[]> files) {
+        def file = temporaryFolder.file("entry-${files.hashCode()}.tar.gz")
+        new TarArchiveOutputStream(new GZIPOutputStream(new FileOutputStream(file))).withCloseable { tarOutput ->
+            files.each { path, content ->
+                def entry = new TarArchiveEntry(path, true)
+                entry.size = content.length
+                tarOutput.putArchiveEntry(entry)
+                tarOutput.write(content)
+                tarOutput.closeArchiveEntry()
+            }
+        }
+        return file
+    }
+
+    private static Map<String, byte[]> untarGz(File file) {
+        Map<String, byte[]> files = [:]
+        new TarArchiveInputStream(new GZIPInputStream(new FileInputStream(file))).withCloseable { tarInput ->
+            def entry
+            while ((entry = tarInput.nextTarEntry) != null) {
+                files[entry.name] = tarInput.bytes
+            }
+        }
+        return files
+    }
 }
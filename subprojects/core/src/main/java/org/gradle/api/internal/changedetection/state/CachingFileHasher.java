@@ -34,6 +34,12 @@ import org.gradle.internal.serialize.InterningStringSerializer;
 import java.io.File;
 
 public class CachingFileHasher implements FileHasher {
+    /**
+     * Stores the file hashes in a memory-mapped cache instead of a B-tree when set to {@code true}. The two backends use different files,
+     * and a process cannot switch backends for a cache which is already open, so this is meant to be set for the whole lifetime of a daemon.
+     */
+    public static final String MEMORY_MAPPED_PROPERTY = "org.gradle.internal.file-hashes.memory-mapped";
+
     private final PersistentIndexedCache<String, FileInfo> cache;
     private final FileHasher delegate;
     private final FileSystem fileSystem;
@@ -43,10 +49,11 @@ public class CachingFileHasher implements FileHasher {
     public CachingFileHasher(FileHasher delegate, CrossBuildFileHashCache store, StringInterner stringInterner, FileTimeStampInspector timestampInspector, String cacheName, FileSystem fileSystem) {
         this.delegate = delegate;
         this.fileSystem = fileSystem;
-        this.cache = store.createCache(
-            PersistentIndexedCacheParameters.of(cacheName, new InterningStringSerializer(stringInterner), new FileInfoSerializer()),
-            400000,
-            true);
+        PersistentIndexedCacheParameters<String, FileInfo> parameters = PersistentIndexedCacheParameters.of(cacheName, new InterningStringSerializer(stringInterner), new FileInfoSerializer());
+        if (Boolean.getBoolean(MEMORY_MAPPED_PROPERTY)) {
+            parameters = parameters.withBackend(PersistentIndexedCacheParameters.Backend.MEMORY_MAPPED);
+        }
+        this.cache = store.createCache(parameters, 400000, true);
         this.stringInterner = stringInterner;
         this.timestampInspector = timestampInspector;
     }
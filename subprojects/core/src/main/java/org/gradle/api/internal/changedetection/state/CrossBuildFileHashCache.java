@@ -23,10 +23,12 @@ import org.gradle.cache.PersistentCache;
 import org.gradle.cache.PersistentIndexedCache;
 import org.gradle.cache.PersistentIndexedCacheParameters;
 import org.gradle.cache.internal.InMemoryCacheDecoratorFactory;
+import org.gradle.internal.hash.Hashing;
 
 import javax.annotation.Nullable;
 import java.io.Closeable;
 import java.io.File;
+import java.util.Collections;
 
 import static org.gradle.cache.internal.filelock.LockOptionsBuilder.mode;
 
@@ -41,6 +43,8 @@ public class CrossBuildFileHashCache implements Closeable {
         CacheBuilder cacheBuilder = cacheDir != null ? repository.cache(cacheDir) : repository.cache(FILE_HASHES_CACHE_KEY);
         cache = cacheBuilder
             .withDisplayName("file hash cache")
+            // Hashes produced by different hash functions must not end up in the same cache
+            .withProperties(Collections.singletonMap("hashFunction", Hashing.defaultFunction().toString()))
             .withLockOptions(mode(FileLockManager.LockMode.None)) // Lock on demand
             .open();
     }
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.gradle.cache.internal;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The amount of memory which all weighted {@link CrossBuildInMemoryCache} instances of a process may retain together.
+ *
+ * When the budget is exceeded, entries are evicted from the cache retaining the most memory until the caches fit into the budget again.
+ */
+class CrossBuildInMemoryCacheMemoryBudget {
+    private final long maxWeight;
+    private final AtomicLong weight = new AtomicLong();
+    private final List<WeightedCrossBuildInMemoryCache<?, ?>> caches = new CopyOnWriteArrayList<WeightedCrossBuildInMemoryCache<?, ?>>();
+    private final Object evictionLock = new Object();
+
+    CrossBuildInMemoryCacheMemoryBudget(long maxWeight) {
+        this.maxWeight = maxWeight;
+    }
+
+    long getMaxWeight() {
+        return maxWeight;
+    }
+
+    long getWeight() {
+        return weight.get();
+    }
+
+    void register(WeightedCrossBuildInMemoryCache<?, ?> cache) {
+        caches.add(cache);
+    }
+
+    void weightChanged(long delta) {
+        weight.addAndGet(delta);
+    }
+
+    boolean isExceeded() {
+        return weight.get() > maxWeight;
+    }
+
+    /**
+     * Evicts entries until the caches fit into the budget. Must not be called while holding the lock of a cache.
+     */
+    void enforce() {
+        if (!isExceeded()) {
+            return;
+        }
+        synchronized (evictionLock) {
+            while (isExceeded()) {
+                WeightedCrossBuildInMemoryCache<?, ?> largest = null;
+                long largestWeight = 0;
+                for (WeightedCrossBuildInMemoryCache<?, ?> cache : caches) {
+                    long cacheWeight = cache.getWeight();
+                    if (cacheWeight > largestWeight) {
+                        largest = cache;
+                        largestWeight = cacheWeight;
+                    }
+                }
+                if (largest == null || !largest.evictOne()) {
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -16,6 +16,7 @@
 
 package org.gradle.cache.internal;
 
+import com.google.common.cache.Weigher;
 import javax.annotation.concurrent.ThreadSafe;
 import org.gradle.api.Transformer;
 import org.gradle.initialization.SessionLifecycleListener;
@@ -36,13 +37,32 @@ import java.util.WeakHashMap;
  * Note that this implementation currently retains strong references to keys and values during the whole lifetime of a build session.
  *
  * Uses a simple algorithm to collect unused values, by retaining strong references to all keys and values used during the current build session, and the previous build session. All other values are referenced only by soft references.
+ *
+ * Weighted caches share a memory budget instead, which defaults to 10% of the maximum heap size and can be configured in MB using the {@value #MEMORY_BUDGET_SYSTEM_PROPERTY} system property.
  */
 @ThreadSafe
 public class DefaultCrossBuildInMemoryCacheFactory extends CrossBuildInMemoryCacheFactory {
+    public static final String MEMORY_BUDGET_SYSTEM_PROPERTY = "org.gradle.cache.inmemory.budget.mb";
+    private static final int DEFAULT_MEMORY_BUDGET_PERCENTAGE = 10;
+
     private final ListenerManager listenerManager;
+    private final CrossBuildInMemoryCacheMemoryBudget memoryBudget;
 
     public DefaultCrossBuildInMemoryCacheFactory(ListenerManager listenerManager) {
+        this(listenerManager, defaultMemoryBudget());
+    }
+
+    public DefaultCrossBuildInMemoryCacheFactory(ListenerManager listenerManager, long memoryBudgetBytes) {
         this.listenerManager = listenerManager;
+        this.memoryBudget = new CrossBuildInMemoryCacheMemoryBudget(memoryBudgetBytes);
+    }
+
+    private static long defaultMemoryBudget() {
+        Integer budgetMB = Integer.getInteger(MEMORY_BUDGET_SYSTEM_PROPERTY);
+        if (budgetMB != null) {
+            return budgetMB * 1024L * 1024L;
+        }
+        return Runtime.getRuntime().maxMemory() / 100 * DEFAULT_MEMORY_BUDGET_PERCENTAGE;
     }
 
     /**
@@ -67,6 +87,19 @@ public class DefaultCrossBuildInMemoryCacheFactory extends CrossBuildInMemoryCac
         return cache;
     }
 
+    /**
+     * Creates a new cache instance whose entries are weighed by the given weigher. Entries are retained as long as all weighted caches fit into the memory budget.
+     *
+     * Note: this should be used to create _only_ global scoped instances.
+     */
+    @Override
+    public <K, V> CrossBuildInMemoryCache<K, V> newWeightedCache(String displayName, Weigher<? super K, ? super V> weigher) {
+        WeightedCrossBuildInMemoryCache<K, V> cache = new WeightedCrossBuildInMemoryCache<K, V>(displayName, weigher, memoryBudget);
+        memoryBudget.register(cache);
+        listenerManager.addListener(cache);
+        return cache;
+    }
+
     private static class DefaultCrossBuildInMemoryCache<K, V> implements CrossBuildInMemoryCache<K, V>, SessionLifecycleListener {
         private final Object lock = new Object();
         private final Map<K, V> valuesForThisSession = new HashMap<K, V>();
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.gradle.cache.internal;
+
+/**
+ * A probabilistic estimate of how often keys have been accessed recently, used by {@link WeightedCrossBuildInMemoryCache} to decide which entries to admit.
+ *
+ * <p>This is a count-min sketch with four 4-bit counters per key, packed into a table of longs. The counters of all keys are halved once the
+ * number of recorded accesses reaches ten times the table size, so that the estimate reflects recent accesses rather than all accesses
+ * since the daemon started.</p>
+ *
+ * <p>This class is not thread-safe.</p>
+ */
+class FrequencySketch {
+    private static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final int MIN_TABLE_SIZE = 64;
+    private static final int MAX_TABLE_SIZE = 1 << 24;
+
+    private long[] table = new long[MIN_TABLE_SIZE];
+    private int tableMask = MIN_TABLE_SIZE - 1;
+    private int sampleSize = 10 * MIN_TABLE_SIZE;
+    private int additions;
+
+    /**
+     * Grows the sketch so it can estimate the frequency of the given number of keys accurately. Discards all recorded accesses when growing.
+     */
+    void ensureCapacity(int expectedKeys) {
+        int tableSize = MIN_TABLE_SIZE;
+        while (tableSize < expectedKeys && tableSize < MAX_TABLE_SIZE) {
+            tableSize <<= 1;
+        }
+        if (tableSize <= table.length) {
+            return;
+        }
+        table = new long[tableSize];
+        tableMask = tableSize - 1;
+        sampleSize = 10 * tableSize;
+        additions = 0;
+    }
+
+    /**
+     * Returns the estimated number of recent accesses to the given key, at most 15.
+     */
+    int frequency(Object key) {
+        int hash = spread(key.hashCode());
+        int start = (hash & 3) << 2;
+        int frequency = Integer.MAX_VALUE;
+        for (int i = 0; i < 4; i++) {
+            int index = indexOf(hash, i);
+            int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xfL);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    /**
+     * Records an access to the given key.
+     */
+    void increment(Object key) {
+        int hash = spread(key.hashCode());
+        int start = (hash & 3) << 2;
+        boolean added = false;
+        for (int i = 0; i < 4; i++) {
+            added |= incrementAt(indexOf(hash, i), start + i);
+        }
+        if (added && ++additions == sampleSize) {
+            reset();
+        }
+    }
+
+    void clear() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = 0;
+        }
+        additions = 0;
+    }
+
+    private boolean incrementAt(int index, int counter) {
+        int offset = counter << 2;
+        long mask = 0xfL << offset;
+        if ((table[index] & mask) != mask) {
+            table[index] += 1L << offset;
+            return true;
+        }
+        return false;
+    }
+
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        additions = additions >>> 1;
+    }
+
+    private int indexOf(int hash, int i) {
+        long index = (hash + SEEDS[i]) * SEEDS[i];
+        index += index >>> 32;
+        return ((int) index) & tableMask;
+    }
+
+    private static int spread(int hash) {
+        int spread = hash * 0x31848bab;
+        return spread ^ (spread >>> 14);
+    }
+}
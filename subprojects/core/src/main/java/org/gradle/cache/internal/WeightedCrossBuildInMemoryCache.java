@@ -0,0 +1,347 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.gradle.cache.internal;
+
+import com.google.common.cache.Weigher;
+import org.gradle.api.Transformer;
+import org.gradle.initialization.SessionLifecycleListener;
+import org.gradle.internal.Factory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A {@link CrossBuildInMemoryCache} which retains values by strong references, as long as all weighted caches fit into a shared {@link CrossBuildInMemoryCacheMemoryBudget}.
+ *
+ * <p>Entries are evicted using a W-TinyLFU policy. New entries are added to a small admission window, which holds about 1% of the budget in least recently
+ * used order. The rest of the entries live in a segmented main area, split into a probation and a protected segment. Entries which are accessed again
+ * while in probation are promoted to the protected segment, which holds up to 80% of the main area.</p>
+ *
+ * <p>While the budget is not exceeded, entries leaving the window are admitted to the main area. Once entries need to be evicted, the least recently used
+ * entry of an oversized window has to compete with the least recently used entry of the main area, and the entry which has been accessed less frequently
+ * according to a {@link FrequencySketch} is evicted. This way, entries which are used once do not push out entries which are used by every build.</p>
+ */
+@ThreadSafe
+class WeightedCrossBuildInMemoryCache<K, V> implements CrossBuildInMemoryCache<K, V>, SessionLifecycleListener {
+    private static final Logger LOGGER = LoggerFactory.getLogger(WeightedCrossBuildInMemoryCache.class);
+    private static final int WINDOW_PERCENTAGE = 1;
+    private static final int PROTECTED_PERCENTAGE = 80;
+
+    private final String displayName;
+    private final Weigher<? super K, ? super V> weigher;
+    private final CrossBuildInMemoryCacheMemoryBudget budget;
+    private final ProducerGuard<K> producerGuard = ProducerGuard.adaptive();
+    private final Object lock = new Object();
+    private final Map<K, Node<K, V>> entries = new HashMap<K, Node<K, V>>();
+    private final FrequencySketch sketch = new FrequencySketch();
+    private final AccessOrderQueue<K, V> window = new AccessOrderQueue<K, V>();
+    private final AccessOrderQueue<K, V> probation = new AccessOrderQueue<K, V>();
+    private final AccessOrderQueue<K, V> protectedSegment = new AccessOrderQueue<K, V>();
+    private volatile long weight;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long evictedWeight;
+
+    WeightedCrossBuildInMemoryCache(String displayName, Weigher<? super K, ? super V> weigher, CrossBuildInMemoryCacheMemoryBudget budget) {
+        this.displayName = displayName;
+        this.weigher = weigher;
+        this.budget = budget;
+    }
+
+    @Override
+    public void afterStart() {
+    }
+
+    @Override
+    public void beforeComplete() {
+        synchronized (lock) {
+            if (hits + misses + evictions > 0) {
+                LOGGER.info("In-memory cache {}: {} hits, {} misses, {} evictions of {} bytes, retaining {} entries of {} bytes.", displayName, hits, misses, evictions, evictedWeight, entries.size(), weight);
+            }
+            hits = 0;
+            misses = 0;
+            evictions = 0;
+            evictedWeight = 0;
+        }
+    }
+
+    @Nullable
+    @Override
+    public V get(K key) {
+        synchronized (lock) {
+            sketch.increment(key);
+            Node<K, V> node = entries.get(key);
+            if (node == null) {
+                misses++;
+                return null;
+            }
+            hits++;
+            onAccess(node);
+            return node.value;
+        }
+    }
+
+    @Override
+    public V get(final K key, final Transformer<V, K> factory) {
+        V value = get(key);
+        if (value != null) {
+            return value;
+        }
+        return producerGuard.guardByKey(key, new Factory<V>() {
+            @Override
+            public V create() {
+                synchronized (lock) {
+                    Node<K, V> node = entries.get(key);
+                    if (node != null) {
+                        // Created by another thread in the meantime
+                        return node.value;
+                    }
+                }
+                V value = factory.transform(key);
+                // Access has already been recorded
+                doPut(key, value);
+                return value;
+            }
+        });
+    }
+
+    @Override
+    public void put(K key, V value) {
+        synchronized (lock) {
+            sketch.increment(key);
+        }
+        doPut(key, value);
+    }
+
+    private void doPut(K key, V value) {
+        long entryWeight = weigher.weigh(key, value);
+        synchronized (lock) {
+            Node<K, V> existing = entries.remove(key);
+            if (existing != null) {
+                existing.queue.remove(existing);
+                weightChanged(-existing.weight);
+            }
+            if (entryWeight > budget.getMaxWeight()) {
+                // Would not fit even into an empty cache
+                evictions++;
+                evictedWeight += entryWeight;
+                return;
+            }
+            Node<K, V> node = new Node<K, V>(key, value, entryWeight);
+            entries.put(key, node);
+            sketch.ensureCapacity(entries.size());
+            window.addMostRecent(node);
+            weightChanged(entryWeight);
+            if (!budget.isExceeded()) {
+                admitWindowOverflow();
+            }
+        }
+        budget.enforce();
+    }
+
+    @Override
+    public void clear() {
+        synchronized (lock) {
+            entries.clear();
+            window.clear();
+            probation.clear();
+            protectedSegment.clear();
+            sketch.clear();
+            weightChanged(-weight);
+        }
+    }
+
+    long getWeight() {
+        return weight;
+    }
+
+    long getHits() {
+        synchronized (lock) {
+            return hits;
+        }
+    }
+
+    long getMisses() {
+        synchronized (lock) {
+            return misses;
+        }
+    }
+
+    long getEvictions() {
+        synchronized (lock) {
+            return evictions;
+        }
+    }
+
+    /**
+     * Evicts a single entry, or admits an entry from the window when there is nothing to compete with in the main area. Returns false when this cache is empty.
+     */
+    boolean evictOne() {
+        synchronized (lock) {
+            Node<K, V> candidate = window.getWeight() > windowWeight() ? window.leastRecent() : null;
+            Node<K, V> victim = probation.leastRecent();
+            if (victim == null) {
+                victim = protectedSegment.leastRecent();
+            }
+            if (candidate == null && victim == null) {
+                victim = window.leastRecent();
+                if (victim == null) {
+                    return false;
+                }
+            }
+            if (candidate == null) {
+                evict(victim);
+            } else if (victim == null) {
+                moveTo(candidate, probation);
+            } else if (sketch.frequency(candidate.key) > sketch.frequency(victim.key)) {
+                evict(victim);
+                moveTo(candidate, probation);
+            } else {
+                evict(candidate);
+            }
+            return true;
+        }
+    }
+
+    // Caller must be holding lock
+    private void onAccess(Node<K, V> node) {
+        if (node.queue == probation) {
+            moveTo(node, protectedSegment);
+            long protectedWeight = (weight - window.getWeight()) * PROTECTED_PERCENTAGE / 100;
+            while (protectedSegment.getWeight() > protectedWeight && protectedSegment.leastRecent() != node) {
+                moveTo(protectedSegment.leastRecent(), probation);
+            }
+        } else {
+            node.queue.moveToMostRecent(node);
+        }
+    }
+
+    // Caller must be holding lock
+    private void admitWindowOverflow() {
+        long windowWeight = windowWeight();
+        while (window.getWeight() > windowWeight) {
+            moveTo(window.leastRecent(), probation);
+        }
+    }
+
+    // Caller must be holding lock
+    private void evict(Node<K, V> node) {
+        entries.remove(node.key);
+        node.queue.remove(node);
+        weightChanged(-node.weight);
+        evictions++;
+        evictedWeight += node.weight;
+    }
+
+    // Caller must be holding lock
+    private void moveTo(Node<K, V> node, AccessOrderQueue<K, V> queue) {
+        node.queue.remove(node);
+        queue.addMostRecent(node);
+    }
+
+    // Caller must be holding lock
+    private void weightChanged(long delta) {
+        weight += delta;
+        budget.weightChanged(delta);
+    }
+
+    private long windowWeight() {
+        return budget.getMaxWeight() * WINDOW_PERCENTAGE / 100;
+    }
+
+    private static class Node<K, V> {
+        private final K key;
+        private final V value;
+        private final long weight;
+        private AccessOrderQueue<K, V> queue;
+        private Node<K, V> previous;
+        private Node<K, V> next;
+
+        Node(K key, V value, long weight) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * A doubly linked list of nodes in least recently used order, which keeps track of the weight of its nodes.
+     */
+    private static class AccessOrderQueue<K, V> {
+        private Node<K, V> leastRecent;
+        private Node<K, V> mostRecent;
+        private long weight;
+
+        long getWeight() {
+            return weight;
+        }
+
+        @Nullable
+        Node<K, V> leastRecent() {
+            return leastRecent;
+        }
+
+        void addMostRecent(Node<K, V> node) {
+            node.queue = this;
+            node.previous = mostRecent;
+            node.next = null;
+            if (mostRecent == null) {
+                leastRecent = node;
+            } else {
+                mostRecent.next = node;
+            }
+            mostRecent = node;
+            weight += node.weight;
+        }
+
+        void remove(Node<K, V> node) {
+            if (node.previous == null) {
+                leastRecent = node.next;
+            } else {
+                node.previous.next = node.next;
+            }
+            if (node.next == null) {
+                mostRecent = node.previous;
+            } else {
+                node.next.previous = node.previous;
+            }
+            node.previous = null;
+            node.next = null;
+            node.queue = null;
+            weight -= node.weight;
+        }
+
+        void moveToMostRecent(Node<K, V> node) {
+            if (node != mostRecent) {
+                remove(node);
+                addMostRecent(node);
+            }
+        }
+
+        void clear() {
+            leastRecent = null;
+            mostRecent = null;
+            weight = 0;
+        }
+    }
+}
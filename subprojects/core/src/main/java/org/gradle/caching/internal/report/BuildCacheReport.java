@@ -0,0 +1,369 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.gradle.caching.internal.report;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Ordering;
+import com.google.common.html.HtmlEscapers;
+import com.google.common.io.Files;
+import groovy.json.JsonOutput;
+import org.gradle.api.internal.tasks.execution.ExecuteTaskBuildOperationType;
+import org.gradle.caching.internal.operations.BuildCacheArchivePackBuildOperationType;
+import org.gradle.caching.internal.operations.BuildCacheArchiveUnpackBuildOperationType;
+import org.gradle.caching.internal.operations.BuildCacheRemoteLoadBuildOperationType;
+import org.gradle.caching.internal.operations.BuildCacheRemoteStoreBuildOperationType;
+import org.gradle.internal.operations.BuildOperationDescriptor;
+import org.gradle.internal.operations.BuildOperationListener;
+import org.gradle.internal.operations.OperationFinishEvent;
+import org.gradle.internal.operations.OperationIdentifier;
+import org.gradle.internal.operations.OperationProgressEvent;
+import org.gradle.internal.operations.OperationStartEvent;
+import org.gradle.util.GFileUtils;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Collects the build cache operations of a build per task and writes them as a JSON and an HTML report.
+ *
+ * The report shows how long packing, unpacking and talking to the remote cache took for each task,
+ * how large and how well compressed the entries are, and how much time loading an entry saved compared to the original execution.
+ */
+public class BuildCacheReport implements BuildOperationListener {
+    private static final long[] SIZE_BUCKETS = {10 * 1024, 100 * 1024, 1024 * 1024, 10 * 1024 * 1024};
+    private static final int[] PERCENTILES = {50, 90, 99};
+
+    // Only operations which are currently running, to find the task an operation belongs to
+    private final ConcurrentMap<OperationIdentifier, OperationIdentifier> parents = new ConcurrentHashMap<OperationIdentifier, OperationIdentifier>();
+    private final ConcurrentMap<OperationIdentifier, String> runningTasks = new ConcurrentHashMap<OperationIdentifier, String>();
+    // Remote stores can happen in the background after the task has finished, so they are matched to tasks via the cache key
+    private final ConcurrentMap<String, String> tasksByCacheKey = new ConcurrentHashMap<String, String>();
+    private final ConcurrentMap<String, TaskEntry> entries = new ConcurrentHashMap<String, TaskEntry>();
+
+    @Override
+    public void started(BuildOperationDescriptor buildOperation, OperationStartEvent startEvent) {
+        OperationIdentifier parentId = buildOperation.getParentId();
+        if (parentId != null) {
+            parents.put(buildOperation.getId(), parentId);
+        }
+        Object details = buildOperation.getDetails();
+        if (details instanceof ExecuteTaskBuildOperationType.Details) {
+            runningTasks.put(buildOperation.getId(), ((ExecuteTaskBuildOperationType.Details) details).getTaskPath());
+        }
+    }
+
+    @Override
+    public void progress(OperationIdentifier operationIdentifier, OperationProgressEvent progressEvent) {
+    }
+
+    @Override
+    public void finished(BuildOperationDescriptor buildOperation, OperationFinishEvent finishEvent) {
+        try {
+            record(buildOperation, finishEvent);
+        } finally {
+            parents.remove(buildOperation.getId());
+            runningTasks.remove(buildOperation.getId());
+        }
+    }
+
+    private void record(BuildOperationDescriptor buildOperation, OperationFinishEvent finishEvent) {
+        Object details = buildOperation.getDetails();
+        Object result = finishEvent.getResult();
+        long duration = finishEvent.getEndTime() - finishEvent.getStartTime();
+        if (details instanceof ExecuteTaskBuildOperationType.Details && result instanceof ExecuteTaskBuildOperationType.Result) {
+            TaskEntry entry = entries.get(((ExecuteTaskBuildOperationType.Details) details).getTaskPath());
+            if (entry != null) {
+                ExecuteTaskBuildOperationType.Result taskResult = (ExecuteTaskBuildOperationType.Result) result;
+                synchronized (entry) {
+                    entry.taskTime = duration;
+                    entry.originExecutionTime = taskResult.getOriginExecutionTime();
+                }
+            }
+        } else if (details instanceof BuildCacheArchivePackBuildOperationType.Details && result instanceof BuildCacheArchivePackBuildOperationType.Result) {
+            TaskEntry entry = entryFor(buildOperation, ((BuildCacheArchivePackBuildOperationType.Details) details).getCacheKey());
+            BuildCacheArchivePackBuildOperationType.Result packResult = (BuildCacheArchivePackBuildOperationType.Result) result;
+            synchronized (entry) {
+                entry.packTime = duration;
+                entry.archiveSize = packResult.getArchiveSize();
+                entry.uncompressedSize = packResult.getUncompressedSize();
+            }
+        } else if (details instanceof BuildCacheArchiveUnpackBuildOperationType.Details && finishEvent.getFailure() == null) {
+            BuildCacheArchiveUnpackBuildOperationType.Details unpackDetails = (BuildCacheArchiveUnpackBuildOperationType.Details) details;
+            TaskEntry entry = entryFor(buildOperation, unpackDetails.getCacheKey());
+            synchronized (entry) {
+                entry.unpackTime = duration;
+                entry.archiveSize = unpackDetails.getArchiveSize();
+            }
+        } else if (details instanceof BuildCacheRemoteLoadBuildOperationType.Details && result instanceof BuildCacheRemoteLoadBuildOperationType.Result) {
+            TaskEntry entry = entryFor(buildOperation, ((BuildCacheRemoteLoadBuildOperationType.Details) details).getCacheKey());
+            synchronized (entry) {
+                entry.remoteLoadTime = duration;
+                entry.remoteHit = ((BuildCacheRemoteLoadBuildOperationType.Result) result).isHit();
+            }
+        } else if (details instanceof BuildCacheRemoteStoreBuildOperationType.Details && result instanceof BuildCacheRemoteStoreBuildOperationType.Result) {
+            TaskEntry entry = entryFor(buildOperation, ((BuildCacheRemoteStoreBuildOperationType.Details) details).getCacheKey());
+            synchronized (entry) {
+                entry.remoteStoreTime = duration;
+                entry.remoteStored = ((BuildCacheRemoteStoreBuildOperationType.Result) result).isStored();
+            }
+        }
+    }
+
+    private TaskEntry entryFor(BuildOperationDescriptor buildOperation, String cacheKey) {
+        String taskPath = findTask(buildOperation.getParentId());
+        if (taskPath == null) {
+            taskPath = tasksByCacheKey.get(cacheKey);
+        } else {
+            tasksByCacheKey.putIfAbsent(cacheKey, taskPath);
+        }
+        String name = taskPath == null ? cacheKey : taskPath;
+        TaskEntry entry = entries.get(name);
+        if (entry == null) {
+            TaskEntry newEntry = new TaskEntry(name, cacheKey);
+            entry = entries.putIfAbsent(name, newEntry);
+            if (entry == null) {
+                entry = newEntry;
+            }
+        }
+        return entry;
+    }
+
+    @Nullable
+    private String findTask(@Nullable OperationIdentifier operationId) {
+        OperationIdentifier current = operationId;
+        while (current != null) {
+            String taskPath = runningTasks.get(current);
+            if (taskPath != null) {
+                return taskPath;
+            }
+            current = parents.get(current);
+        }
+        return null;
+    }
+
+    /**
+     * Writes {@code build-cache.json} and {@code build-cache.html} to the given directory.
+     */
+    public void write(File reportDir) throws IOException {
+        List<TaskEntry> tasks = new ArrayList<TaskEntry>(entries.values());
+        Collections.sort(tasks, Ordering.natural().onResultOf(TaskEntry.NET_SAVINGS));
+        Map<String, Object> summary = summarize(tasks);
+
+        GFileUtils.mkdirs(reportDir);
+        Map<String, Object> json = new LinkedHashMap<String, Object>();
+        json.put("summary", summary);
+        List<Map<String, Object>> taskJson = new ArrayList<Map<String, Object>>();
+        for (TaskEntry task : tasks) {
+            taskJson.add(task.toMap());
+        }
+        json.put("tasks", taskJson);
+        Files.asCharSink(new File(reportDir, "build-cache.json"), Charsets.UTF_8).write(JsonOutput.prettyPrint(JsonOutput.toJson(json)));
+        Files.asCharSink(new File(reportDir, "build-cache.html"), Charsets.UTF_8).write(renderHtml(summary, tasks));
+    }
+
+    private static Map<String, Object> summarize(List<TaskEntry> tasks) {
+        int loaded = 0;
+        int stored = 0;
+        int remoteLoads = 0;
+        int remoteHits = 0;
+        List<Long> remoteLoadTimes = Lists.newArrayList();
+        List<Long> remoteStoreTimes = Lists.newArrayList();
+        long[] sizeHistogram = new long[SIZE_BUCKETS.length + 1];
+        for (TaskEntry task : tasks) {
+            if (task.unpackTime != null) {
+                loaded++;
+            }
+            if (task.packTime != null) {
+                stored++;
+            }
+            if (task.remoteLoadTime != null) {
+                remoteLoads++;
+                remoteLoadTimes.add(task.remoteLoadTime);
+                if (task.remoteHit) {
+                    remoteHits++;
+                }
+            }
+            if (task.remoteStoreTime != null) {
+                remoteStoreTimes.add(task.remoteStoreTime);
+            }
+            if (task.archiveSize != null) {
+                sizeHistogram[sizeBucket(task.archiveSize)]++;
+            }
+        }
+
+        Map<String, Object> summary = new LinkedHashMap<String, Object>();
+        summary.put("tasksLoadedFromCache", loaded);
+        summary.put("tasksStoredInCache", stored);
+        summary.put("hitRate", ratio(loaded, loaded + stored));
+        summary.put("remoteLoads", remoteLoads);
+        summary.put("remoteHitRate", ratio(remoteHits, remoteLoads));
+        summary.put("remoteLoadTimePercentiles", percentiles(remoteLoadTimes));
+        summary.put("remoteStoreTimePercentiles", percentiles(remoteStoreTimes));
+        Map<String, Long> sizes = new LinkedHashMap<String, Long>();
+        for (int i = 0; i < sizeHistogram.length; i++) {
+            sizes.put(sizeBucketLabel(i), sizeHistogram[i]);
+        }
+        summary.put("archiveSizeHistogram", sizes);
+        return summary;
+    }
+
+    private static int sizeBucket(long size) {
+        for (int i = 0; i < SIZE_BUCKETS.length; i++) {
+            if (size < SIZE_BUCKETS[i]) {
+                return i;
+            }
+        }
+        return SIZE_BUCKETS.length;
+    }
+
+    private static String sizeBucketLabel(int bucket) {
+        if (bucket < SIZE_BUCKETS.length) {
+            return "< " + formatSize(SIZE_BUCKETS[bucket]);
+        }
+        return ">= " + formatSize(SIZE_BUCKETS[SIZE_BUCKETS.length - 1]);
+    }
+
+    private static String formatSize(long size) {
+        if (size >= 1024 * 1024) {
+            return size / (1024 * 1024) + " MB";
+        }
+        return size / 1024 + " KB";
+    }
+
+    @Nullable
+    private static Double ratio(long part, long total) {
+        return total == 0 ? null : (double) part / total;
+    }
+
+    private static Map<String, Long> percentiles(List<Long> values) {
+        Map<String, Long> percentiles = new LinkedHashMap<String, Long>();
+        if (values.isEmpty()) {
+            return percentiles;
+        }
+        List<Long> sorted = Ordering.natural().sortedCopy(values);
+        for (int percentile : PERCENTILES) {
+            int rank = (int) Math.ceil(percentile / 100.0 * sorted.size());
+            percentiles.put("p" + percentile, sorted.get(Math.max(rank, 1) - 1));
+        }
+        return percentiles;
+    }
+
+    private static String renderHtml(Map<String, Object> summary, List<TaskEntry> tasks) {
+        StringBuilder html = new StringBuilder();
+        html.append("<!DOCTYPE html>\n<html>\n<head>\n<meta charset=\"utf-8\">\n<title>Build cache report</title>\n");
+        html.append("<style>body{font-family:sans-serif}table{border-collapse:collapse;margin-bottom:2em}th,td{border:1px solid #ccc;padding:2px 8px;text-align:right}th:first-child,td:first-child{text-align:left}.costly{background:#fdd}</style>\n");
+        html.append("</head>\n<body>\n<h1>Build cache report</h1>\n<h2>Summary</h2>\n<table>\n");
+        for (Map.Entry<String, Object> entry : summary.entrySet()) {
+            html.append("<tr><td>").append(escape(entry.getKey())).append("</td><td>").append(escape(String.valueOf(entry.getValue()))).append("</td></tr>\n");
+        }
+        html.append("</table>\n<h2>Tasks</h2>\n<p>Tasks where the build cache cost more time than it saved come first.</p>\n<table>\n<tr>");
+        for (String column : TaskEntry.COLUMNS) {
+            html.append("<th>").append(escape(column)).append("</th>");
+        }
+        html.append("</tr>\n");
+        for (TaskEntry task : tasks) {
+            Map<String, Object> values = task.toMap();
+            html.append(TaskEntry.NET_SAVINGS.apply(task) < 0 ? "<tr class=\"costly\">" : "<tr>");
+            for (String column : TaskEntry.COLUMNS) {
+                Object value = values.get(column);
+                html.append("<td>").append(value == null ? "" : escape(String.valueOf(value))).append("</td>");
+            }
+            html.append("</tr>\n");
+        }
+        html.append("</table>\n</body>\n</html>\n");
+        return html.toString();
+    }
+
+    private static String escape(String text) {
+        return HtmlEscapers.htmlEscaper().escape(text);
+    }
+
+    private static class TaskEntry {
+        static final List<String> COLUMNS = ImmutableList.of(
+            "task", "cacheKey", "taskTime", "originExecutionTime", "netSavings", "packTime", "unpackTime",
+            "archiveSize", "uncompressedSize", "compressionRatio", "remoteLoadTime", "remoteHit", "remoteStoreTime", "remoteStored"
+        );
+        static final Function<TaskEntry, Long> NET_SAVINGS = new Function<TaskEntry, Long>() {
+            @Override
+            public Long apply(TaskEntry entry) {
+                return entry.getNetSavings();
+            }
+        };
+
+        final String task;
+        final String cacheKey;
+        Long taskTime;
+        Long originExecutionTime;
+        Long packTime;
+        Long unpackTime;
+        Long archiveSize;
+        Long uncompressedSize;
+        Long remoteLoadTime;
+        boolean remoteHit;
+        Long remoteStoreTime;
+        boolean remoteStored;
+
+        TaskEntry(String task, String cacheKey) {
+            this.task = task;
+            this.cacheKey = cacheKey;
+        }
+
+        /**
+         * The time saved by loading the outputs from the cache, minus the time spent on the cache.
+         * For tasks which were executed this is the negative overhead of the cache.
+         */
+        synchronized long getNetSavings() {
+            long saved = unpackTime != null && originExecutionTime != null ? originExecutionTime : 0;
+            return saved - orZero(packTime) - orZero(unpackTime) - orZero(remoteLoadTime) - orZero(remoteStoreTime);
+        }
+
+        synchronized Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<String, Object>();
+            map.put("task", task);
+            map.put("cacheKey", cacheKey);
+            map.put("taskTime", taskTime);
+            map.put("originExecutionTime", originExecutionTime);
+            map.put("netSavings", getNetSavings());
+            map.put("packTime", packTime);
+            map.put("unpackTime", unpackTime);
+            map.put("archiveSize", archiveSize);
+            map.put("uncompressedSize", uncompressedSize != null && uncompressedSize >= 0 ? uncompressedSize : null);
+            map.put("compressionRatio", archiveSize != null && uncompressedSize != null && uncompressedSize > 0 ? (double) archiveSize / uncompressedSize : null);
+            map.put("remoteLoadTime", remoteLoadTime);
+            map.put("remoteHit", remoteLoadTime == null ? null : remoteHit);
+            map.put("remoteStoreTime", remoteStoreTime);
+            map.put("remoteStored", remoteStoreTime == null ? null : remoteStored);
+            return map;
+        }
+
+        private static long orZero(@Nullable Long value) {
+            return value == null ? 0 : value;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.gradle.caching.internal.report;
+
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.caching.internal.controller.BuildCacheController;
+import org.gradle.caching.internal.controller.BuildCacheLoadCommand;
+import org.gradle.caching.internal.controller.BuildCacheStoreCommand;
+import org.gradle.internal.Factory;
+import org.gradle.internal.operations.BuildOperationListenerManager;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Optional;
+
+/**
+ * Records a {@link BuildCacheReport} while the build is running and writes it when the controller is closed at the end of the build.
+ */
+public class ReportingBuildCacheController implements BuildCacheController {
+    /**
+     * Writes the report at the end of the build when set to {@code true}.
+     */
+    public static final String REPORT_PROPERTY = "org.gradle.caching.report";
+    /**
+     * The directory to write the report to, relative to the current directory. Defaults to {@code build/reports/build-cache} of the root project.
+     */
+    public static final String REPORT_DIR_PROPERTY = "org.gradle.caching.report.dir";
+
+    private static final Logger LOGGER = Logging.getLogger(ReportingBuildCacheController.class);
+
+    private final BuildCacheController delegate;
+    private final BuildOperationListenerManager listenerManager;
+    // Resolved when the report is written, since the root project may not be loaded yet when the controller is created
+    private final Factory<File> reportDir;
+    private final BuildCacheReport report = new BuildCacheReport();
+
+    public ReportingBuildCacheController(BuildCacheController delegate, BuildOperationListenerManager listenerManager, Factory<File> reportDir) {
+        this.delegate = delegate;
+        this.listenerManager = listenerManager;
+        this.reportDir = reportDir;
+        listenerManager.addListener(report);
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return delegate.isEnabled();
+    }
+
+    @Override
+    public boolean isEmitDebugLogging() {
+        return delegate.isEmitDebugLogging();
+    }
+
+    @Override
+    public <T> Optional<T> load(BuildCacheLoadCommand<T> command) {
+        return delegate.load(command);
+    }
+
+    @Override
+    public void store(BuildCacheStoreCommand command) {
+        delegate.store(command);
+    }
+
+    @Override
+    public void close() {
+        try {
+            // Closing waits for background remote stores, which should be part of the report
+            delegate.close();
+        } finally {
+            listenerManager.removeListener(report);
+            writeReport();
+        }
+    }
+
+    private void writeReport() {
+        File dir = reportDir.create();
+        if (dir == null) {
+            LOGGER.warn("Could not determine where to write the build cache report.");
+            return;
+        }
+        try {
+            report.write(dir);
+            LOGGER.lifecycle("Build cache report written to {}", new File(dir, "build-cache.html"));
+        } catch (IOException e) {
+            LOGGER.warn("Could not write the build cache report to {}.", dir, e);
+        }
+    }
+}
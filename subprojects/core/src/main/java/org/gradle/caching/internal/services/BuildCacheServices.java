@@ -27,16 +27,23 @@ import org.gradle.caching.internal.controller.BuildCacheController;
 import org.gradle.caching.internal.controller.BuildCacheControllerFactory;
 import org.gradle.caching.internal.controller.BuildCacheControllerFactory.BuildCacheMode;
 import org.gradle.caching.internal.controller.BuildCacheControllerFactory.RemoteAccessMode;
+import org.gradle.caching.internal.controller.InMemoryBuildCache;
 import org.gradle.caching.internal.controller.RootBuildCacheControllerRef;
 import org.gradle.caching.internal.origin.OriginMetadataFactory;
 import org.gradle.caching.internal.packaging.BuildCacheEntryPacker;
 import org.gradle.caching.internal.packaging.impl.GZipBuildCacheEntryPacker;
 import org.gradle.caching.internal.packaging.impl.TarBuildCacheEntryPacker;
+import org.gradle.caching.internal.report.ReportingBuildCacheController;
 import org.gradle.initialization.buildsrc.BuildSourceBuilder;
+import org.gradle.internal.Factory;
+import org.gradle.internal.FileUtils;
 import org.gradle.internal.SystemProperties;
+import org.gradle.internal.concurrent.ExecutorFactory;
+import org.gradle.internal.concurrent.ManagedExecutor;
 import org.gradle.internal.hash.StreamHasher;
 import org.gradle.internal.nativeplatform.filesystem.FileSystem;
 import org.gradle.internal.operations.BuildOperationExecutor;
+import org.gradle.internal.operations.BuildOperationListenerManager;
 import org.gradle.internal.os.OperatingSystem;
 import org.gradle.internal.remote.internal.inet.InetAddressFactory;
 import org.gradle.internal.scopeids.id.BuildInvocationScopeId;
@@ -47,6 +54,7 @@ import org.gradle.util.GradleVersion;
 import org.gradle.util.Path;
 
 import java.io.File;
+import java.util.zip.Deflater;
 
 import static org.gradle.caching.internal.controller.BuildCacheControllerFactory.BuildCacheMode.DISABLED;
 import static org.gradle.caching.internal.controller.BuildCacheControllerFactory.BuildCacheMode.ENABLED;
@@ -57,8 +65,18 @@ public class BuildCacheServices {
 
     private static final Path ROOT_BUILD_SRC_PATH = Path.path(":" + BuildSourceBuilder.BUILD_SRC);
 
-    BuildCacheEntryPacker createResultPacker(FileSystem fileSystem, StreamHasher fileHasher, StringInterner stringInterner) {
-        return new GZipBuildCacheEntryPacker(new TarBuildCacheEntryPacker(fileSystem, fileHasher, stringInterner));
+    ManagedExecutor createBuildCacheEntryUnpackExecutor(ExecutorFactory executorFactory) {
+        // Threads are only started once an entry is large enough to be unpacked in parallel, and the executor is stopped with the build
+        return executorFactory.create("Build cache entry unpacker", Math.max(1, getUnpackConcurrency()));
+    }
+
+    BuildCacheEntryPacker createResultPacker(FileSystem fileSystem, StreamHasher fileHasher, StringInterner stringInterner, ManagedExecutor unpackExecutor) {
+        int compressionLevel = Integer.getInteger(GZipBuildCacheEntryPacker.COMPRESSION_LEVEL_PROPERTY, Deflater.DEFAULT_COMPRESSION);
+        return new GZipBuildCacheEntryPacker(new TarBuildCacheEntryPacker(fileSystem, fileHasher, stringInterner, getUnpackConcurrency() > 1 ? unpackExecutor : null), compressionLevel);
+    }
+
+    private static int getUnpackConcurrency() {
+        return Integer.getInteger(TarBuildCacheEntryPacker.UNPACK_CONCURRENCY_PROPERTY, TarBuildCacheEntryPacker.DEFAULT_UNPACK_CONCURRENCY);
     }
 
     OriginMetadataFactory createOriginMetadataFactory(
@@ -75,9 +93,10 @@ public class BuildCacheServices {
         BuildCacheEntryPacker packer,
         OriginMetadataFactory originMetadataFactory,
         FileSystemMirror fileSystemMirror,
-        StringInterner stringInterner
+        StringInterner stringInterner,
+        FileSystem fileSystem
     ) {
-        return new BuildCacheCommandFactory(packer, originMetadataFactory, fileSystemMirror, stringInterner);
+        return new BuildCacheCommandFactory(packer, originMetadataFactory, fileSystemMirror, stringInterner, fileSystem);
     }
 
     BuildCacheController createBuildCacheController(
@@ -86,16 +105,47 @@ public class BuildCacheServices {
         BuildOperationExecutor buildOperationExecutor,
         InstantiatorFactory instantiatorFactory,
         GradleInternal gradle,
-        RootBuildCacheControllerRef rootControllerRef
+        RootBuildCacheControllerRef rootControllerRef,
+        ExecutorFactory executorFactory,
+        BuildOperationListenerManager buildOperationListenerManager,
+        InMemoryBuildCache inMemoryBuildCache
     ) {
-        if (isRoot(gradle) || isRootBuildSrc(gradle) || isGradleBuildTaskRoot(rootControllerRef)) {
-            return doCreateBuildCacheController(serviceRegistry, buildCacheConfiguration, buildOperationExecutor, instantiatorFactory, gradle);
+        if (isRoot(gradle)) {
+            BuildCacheController controller = doCreateBuildCacheController(serviceRegistry, buildCacheConfiguration, buildOperationExecutor, instantiatorFactory, gradle, executorFactory, inMemoryBuildCache);
+            return maybeReport(controller, gradle, buildOperationListenerManager);
+        } else if (isRootBuildSrc(gradle) || isGradleBuildTaskRoot(rootControllerRef)) {
+            return doCreateBuildCacheController(serviceRegistry, buildCacheConfiguration, buildOperationExecutor, instantiatorFactory, gradle, executorFactory, inMemoryBuildCache);
         } else {
             // must be an included build
             return rootControllerRef.getForNonRootBuild();
         }
     }
 
+    private static BuildCacheController maybeReport(BuildCacheController controller, final GradleInternal gradle, BuildOperationListenerManager buildOperationListenerManager) {
+        StartParameter startParameter = gradle.getStartParameter();
+        if (!Boolean.getBoolean(ReportingBuildCacheController.REPORT_PROPERTY)) {
+            return controller;
+        }
+        String reportDirPath = System.getProperty(ReportingBuildCacheController.REPORT_DIR_PROPERTY);
+        final File reportDir = reportDirPath == null
+            ? null
+            : FileUtils.canonicalize(new File(startParameter.getCurrentDir(), reportDirPath));
+        return new ReportingBuildCacheController(controller, buildOperationListenerManager, new Factory<File>() {
+            @Override
+            public File create() {
+                if (reportDir != null) {
+                    return reportDir;
+                }
+                try {
+                    return new File(gradle.getRootProject().getBuildDir(), "reports/build-cache");
+                } catch (IllegalStateException e) {
+                    // The build failed before the root project was loaded
+                    return null;
+                }
+            }
+        });
+    }
+
     private boolean isGradleBuildTaskRoot(RootBuildCacheControllerRef rootControllerRef) {
         // GradleBuild tasks operate with their own build session and tree scope.
         // Therefore, they have their own RootBuildCacheControllerRef.
@@ -113,7 +163,7 @@ public class BuildCacheServices {
         return gradle.getParent() == null;
     }
 
-    private BuildCacheController doCreateBuildCacheController(ServiceRegistry serviceRegistry, BuildCacheConfigurationInternal buildCacheConfiguration, BuildOperationExecutor buildOperationExecutor, InstantiatorFactory instantiatorFactory, GradleInternal gradle) {
+    private BuildCacheController doCreateBuildCacheController(ServiceRegistry serviceRegistry, BuildCacheConfigurationInternal buildCacheConfiguration, BuildOperationExecutor buildOperationExecutor, InstantiatorFactory instantiatorFactory, GradleInternal gradle, ExecutorFactory executorFactory, InMemoryBuildCache inMemoryBuildCache) {
         StartParameter startParameter = gradle.getStartParameter();
         Path buildIdentityPath = gradle.getIdentityPath();
         File gradleUserHomeDir = gradle.getGradleUserHomeDir();
@@ -121,6 +171,8 @@ public class BuildCacheServices {
         RemoteAccessMode remoteAccessMode = startParameter.isOffline() ? OFFLINE : ONLINE;
         boolean logStackTraces = startParameter.getShowStacktrace() != ShowStacktrace.INTERNAL_EXCEPTIONS;
         boolean emitDebugLogging = startParameter.isBuildCacheDebugLogging();
+        // The in-memory cache outlives the build, so apply the budget requested by the current build
+        inMemoryBuildCache.setMaxSize(getInMemoryBuildCacheMaxSize());
 
         return BuildCacheControllerFactory.create(
             buildOperationExecutor,
@@ -131,8 +183,14 @@ public class BuildCacheServices {
             remoteAccessMode,
             logStackTraces,
             emitDebugLogging,
-            instantiatorFactory.inject(serviceRegistry)
+            instantiatorFactory.inject(serviceRegistry),
+            executorFactory,
+            inMemoryBuildCache
         );
     }
 
+    private static long getInMemoryBuildCacheMaxSize() {
+        return Math.max(0, Integer.getInteger(InMemoryBuildCache.MAX_SIZE_PROPERTY, 0)) * 1024L * 1024L;
+    }
+
 }
@@ -88,9 +88,14 @@ import java.util.function.Consumer;
  */
 @NonNullApi
 public class DefaultExecutionPlan implements ExecutionPlan {
+    /**
+     * When set, nodes with the longest chain of dependent nodes are started first instead of following the order of the plan.
+     */
+    public static final String CRITICAL_PATH_FIRST_PROPERTY = "org.gradle.internal.plan.critical-path-first";
+
     private final Set<TaskNode> entryTasks = new LinkedHashSet<TaskNode>();
     private final NodeMapping nodeMapping = new NodeMapping();
-    private final List<Node> executionQueue = Lists.newLinkedList();
+    private final Set<Node> executionQueue = Sets.newLinkedHashSet();
     private final Map<Project, ResourceLock> projectLocks = Maps.newHashMap();
     private final FailureCollector failureCollector = new FailureCollector();
     private final TaskNodeFactory taskNodeFactory;
@@ -105,7 +110,8 @@ public class DefaultExecutionPlan implements ExecutionPlan {
     private final Map<File, String> canonicalizedFileCache = Maps.newIdentityHashMap();
     private final Map<Pair<Node, Node>, Boolean> reachableCache = Maps.newHashMap();
     private final List<Node> dependenciesWhichRequireMonitoring = Lists.newArrayList();
-    private boolean maybeNodesReady;
+    private final ReadyNodeQueue readyNodes;
+    private final MutationPathIndex runningMutationPaths = new MutationPathIndex();
     private final WorkerLeaseService workerLeaseService;
     private final GradleInternal gradle;
 
@@ -116,6 +122,7 @@ public class DefaultExecutionPlan implements ExecutionPlan {
         this.gradle = gradle;
         this.taskNodeFactory = taskNodeFactory;
         this.dependencyResolver = dependencyResolver;
+        this.readyNodes = new ReadyNodeQueue(Boolean.getBoolean(CRITICAL_PATH_FIRST_PROPERTY));
     }
 
     @Override
@@ -344,8 +351,10 @@ public class DefaultExecutionPlan implements ExecutionPlan {
         }
         executionQueue.clear();
         Iterables.addAll(executionQueue, nodeMapping);
+        readyNodes.reset(executionQueue);
         for (Node node : executionQueue) {
-            maybeNodesReady |= node.updateAllDependenciesComplete() && node.isReady();
+            node.updateAllDependenciesComplete();
+            maybeNodeReady(node);
         }
         this.dependenciesWhichRequireMonitoring.addAll(dependenciesWhichRequireMonitoring);
     }
@@ -513,6 +522,7 @@ public class DefaultExecutionPlan implements ExecutionPlan {
         entryTasks.clear();
         nodeMapping.clear();
         executionQueue.clear();
+        readyNodes.clear();
         projectLocks.clear();
         failureCollector.clearFailures();
         mutations.clear();
@@ -520,6 +530,7 @@ public class DefaultExecutionPlan implements ExecutionPlan {
         reachableCache.clear();
         dependenciesWhichRequireMonitoring.clear();
         runningNodes.clear();
+        runningMutationPaths.clear();
     }
 
     @Override
@@ -560,43 +571,87 @@ public class DefaultExecutionPlan implements ExecutionPlan {
                 iterator.remove();
             }
         }
-        if (!maybeNodesReady) {
-            return null;
+        Node head = readyNodes.firstHead();
+        while (head != null) {
+            Project project = head.getProject();
+            if (project != null && isLockedByAnotherThread(getProjectLock(project))) {
+                head = readyNodes.nextHead(head);
+                continue;
+            }
+            if (!isReadyToStart(head)) {
+                // Will be queued again once it becomes ready
+                readyNodes.remove(head);
+                head = readyNodes.nextHead(head);
+                continue;
+            }
+
+            // TODO: convert output file checks to a resource lock
+            if (!tryLockProjectFor(head) || !workerLease.tryLock()) {
+                resourceLockState.releaseLocks();
+                head = readyNodes.nextHead(head);
+                continue;
+            }
+
+            Node node = selectRunnableNode(head);
+            if (node == null) {
+                resourceLockState.releaseLocks();
+                head = readyNodes.nextHead(head);
+                continue;
+            }
+
+            if (node.allDependenciesSuccessful()) {
+                recordNodeStarted(node);
+                node.startExecution();
+            } else {
+                node.skipExecution();
+                updateAllDependenciesCompleteForPredecessors(node);
+            }
+            readyNodes.remove(node);
+            executionQueue.remove(node);
+            return node;
         }
-        Iterator<Node> iterator = executionQueue.iterator();
-        boolean foundReadyNode = false;
-        while (iterator.hasNext()) {
-            Node node = iterator.next();
-            if (node.isReady() && node.allDependenciesComplete()) {
-                foundReadyNode = true;
-                MutationInfo mutations = getResolvedMutationInfo(node);
-
-                // TODO: convert output file checks to a resource lock
-                if (!tryLockProjectFor(node)
-                    || !workerLease.tryLock()
-                    || !canRunWithCurrentlyExecutedNodes(node, mutations)) {
-                    resourceLockState.releaseLocks();
-                    continue;
-                }
+        return null;
+    }
 
-                if (node.allDependenciesSuccessful()) {
-                    recordNodeStarted(node);
-                    node.startExecution();
-                } else {
-                    node.skipExecution();
-                    updateAllDependenciesCompleteForPredecessors(node);
-                }
-                iterator.remove();
+    private static boolean isReadyToStart(Node node) {
+        return node.isReady() && node.allDependenciesComplete();
+    }
+
+    /**
+     * Returns the first ready node of a project which can run alongside the currently running nodes, starting at the head of the project's queue.
+     * Usually this is the head itself, the following nodes are only looked at when the head mutates the same files as a running node.
+     * Resolving the mutations of a task runs build logic, so this must only be called while holding the lock of the project.
+     */
+    @Nullable
+    private Node selectRunnableNode(Node head) {
+        Node node = head;
+        while (node != null) {
+            Node next = readyNodes.nextInProject(node);
+            if (!isReadyToStart(node)) {
+                readyNodes.remove(node);
+            } else if (canRunWithCurrentlyExecutedNodes(node, getResolvedMutationInfo(node))) {
                 return node;
             }
+            node = next;
         }
-        maybeNodesReady = foundReadyNode;
         return null;
     }
 
+    private static boolean isLockedByAnotherThread(ResourceLock lock) {
+        return lock.isLocked() && !lock.isLockedByCurrentThread();
+    }
+
+    private void maybeNodeReady(Node node) {
+        if (isReadyToStart(node)) {
+            readyNodes.add(node);
+        }
+    }
+
     private void updateAllDependenciesCompleteForPredecessors(Node node) {
         for (Node predecessor : node.getAllPredecessors()) {
-            maybeNodesReady |= predecessor.updateAllDependenciesComplete() && predecessor.isReady();
+            if (predecessor.updateAllDependenciesComplete()) {
+                maybeNodeReady(predecessor);
+            }
         }
     }
 
@@ -763,16 +818,7 @@ public class DefaultExecutionPlan implements ExecutionPlan {
     }
 
     private boolean hasNodeWithOverlappingMutations(Set<String> candidateMutationPaths) {
-        if (!candidateMutationPaths.isEmpty()) {
-            for (Node runningNode : runningNodes) {
-                MutationInfo runningMutations = mutations.get(runningNode);
-                Iterable<String> runningMutationPaths = Iterables.concat(runningMutations.outputPaths, runningMutations.destroyablePaths);
-                if (hasOverlap(candidateMutationPaths, runningMutationPaths)) {
-                    return true;
-                }
-            }
-        }
-        return false;
+        return runningMutationPaths.overlapsWithAny(candidateMutationPaths);
     }
 
     private boolean doesDestroyNotYetConsumedOutputOfAnotherNode(Node destroyer, Set<String> destroyablePaths) {
@@ -867,11 +913,14 @@ public class DefaultExecutionPlan implements ExecutionPlan {
 
     private void recordNodeStarted(Node node) {
         runningNodes.add(node);
+        runningMutationPaths.addAll(mutatedPaths(mutations.get(node)));
     }
 
     private void recordNodeCompleted(Node node) {
-        runningNodes.remove(node);
         MutationInfo mutations = this.mutations.get(node);
+        if (runningNodes.remove(node)) {
+            runningMutationPaths.removeAll(mutatedPaths(mutations));
+        }
         for (Node producer : mutations.producingNodes) {
             MutationInfo producerMutations = this.mutations.get(producer);
             if (producerMutations.consumingNodes.remove(node) && canRemoveMutation(producerMutations)) {
@@ -885,6 +934,10 @@ public class DefaultExecutionPlan implements ExecutionPlan {
         updateAllDependenciesCompleteForPredecessors(node);
     }
 
+    private static Iterable<String> mutatedPaths(MutationInfo mutations) {
+        return Iterables.concat(mutations.outputPaths, mutations.destroyablePaths);
+    }
+
     private static boolean canRemoveMutation(@Nullable MutationInfo mutations) {
         return mutations != null && mutations.node.isComplete() && mutations.consumingNodes.isEmpty();
     }
@@ -894,7 +947,6 @@ public class DefaultExecutionPlan implements ExecutionPlan {
         try {
             if (!node.isComplete()) {
                 enforceFinalizers(node);
-                maybeNodesReady = true;
                 if (node.isFailed()) {
                     handleFailure(node);
                 }
@@ -907,7 +959,7 @@ public class DefaultExecutionPlan implements ExecutionPlan {
         }
     }
 
-    private static void enforceFinalizers(Node node) {
+    private void enforceFinalizers(Node node) {
         for (Node finalizerNode : node.getFinalizers()) {
             if (finalizerNode.isRequired() || finalizerNode.isMustNotRun()) {
                 HashSet<Node> enforcedNodes = Sets.newHashSet();
@@ -916,7 +968,7 @@ public class DefaultExecutionPlan implements ExecutionPlan {
         }
     }
 
-    private static void enforceWithDependencies(Node nodeInfo, Set<Node> enforcedNodes) {
+    private void enforceWithDependencies(Node nodeInfo, Set<Node> enforcedNodes) {
         Deque<Node> candidateNodes = new ArrayDeque<Node>();
         candidateNodes.add(nodeInfo);
 
@@ -929,9 +981,11 @@ public class DefaultExecutionPlan implements ExecutionPlan {
 
                 if (node.isMustNotRun() || node.isRequired()) {
                     node.enforceRun();
+                    maybeNodeReady(node);
                     // Completed changed from true to false - inform all nodes depending on this one.
                     for (Node predecessor : node.getAllPredecessors()) {
                         predecessor.forceAllDependenciesCompleteUpdate();
+                        maybeNodeReady(predecessor);
                     }
                 }
             }
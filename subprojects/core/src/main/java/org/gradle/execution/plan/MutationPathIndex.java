@@ -0,0 +1,92 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.gradle.execution.plan;
+
+import java.io.File;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Indexes the canonical paths mutated by the currently running nodes, so that checking a candidate path for overlaps
+ * does not need to compare it with every path of every running node.
+ *
+ * Two paths overlap when they are equal or when one of them is located below the other.
+ */
+class MutationPathIndex {
+    private static final char SEPARATOR = File.separatorChar;
+
+    // The same path may be mutated by more than one running node, so count the occurrences
+    private final NavigableMap<String, Integer> paths = new TreeMap<String, Integer>();
+
+    void addAll(Iterable<String> mutatedPaths) {
+        for (String path : mutatedPaths) {
+            Integer count = paths.get(path);
+            paths.put(path, count == null ? 1 : count + 1);
+        }
+    }
+
+    void removeAll(Iterable<String> mutatedPaths) {
+        for (String path : mutatedPaths) {
+            Integer count = paths.get(path);
+            if (count == null) {
+                continue;
+            }
+            if (count == 1) {
+                paths.remove(path);
+            } else {
+                paths.put(path, count - 1);
+            }
+        }
+    }
+
+    boolean overlapsWithAny(Iterable<String> candidatePaths) {
+        if (paths.isEmpty()) {
+            return false;
+        }
+        for (String candidatePath : candidatePaths) {
+            if (overlaps(candidatePath)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean overlaps(String candidatePath) {
+        if (paths.containsKey(candidatePath)) {
+            return true;
+        }
+        // Any of the ancestors of the candidate
+        for (int i = candidatePath.indexOf(SEPARATOR); i >= 0; i = candidatePath.indexOf(SEPARATOR, i + 1)) {
+            if (paths.containsKey(candidatePath.substring(0, i))) {
+                return true;
+            }
+        }
+        // Any descendant of the candidate, which sort directly after the candidate followed by a separator
+        String descendantPrefix = candidatePath + SEPARATOR;
+        String firstDescendant = paths.ceilingKey(descendantPrefix);
+        return firstDescendant != null && firstDescendant.startsWith(descendantPrefix);
+    }
+
+    boolean isEmpty() {
+        return paths.isEmpty();
+    }
+
+    void clear() {
+        paths.clear();
+    }
+}
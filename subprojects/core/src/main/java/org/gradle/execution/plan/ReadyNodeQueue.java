@@ -0,0 +1,169 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.gradle.execution.plan;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.gradle.api.Project;
+
+import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+/**
+ * The nodes of an execution plan which may be ready to execute, grouped by the project they belong to.
+ *
+ * Within each project, nodes are ordered by their position in the execution plan. When critical path ordering is enabled,
+ * nodes which have the longest chain of dependent nodes waiting for them are ordered first instead, falling back to the
+ * position in the plan for nodes with the same chain length. The first node of each project's queue is also kept in a
+ * queue of heads using the same ordering, so the projects can be visited in the order their next nodes should be started.
+ *
+ * The queue is updated incrementally as nodes become ready, so selecting the next node usually only needs to look at the head of
+ * each project's queue instead of scanning the whole plan. Entries may become stale, and the caller is responsible for
+ * removing nodes which turn out not to be ready any more when it comes across them.
+ */
+class ReadyNodeQueue {
+    private final boolean criticalPathFirst;
+    private final Map<Node, Integer> positions = Maps.newIdentityHashMap();
+    private final Map<Node, Integer> criticalPathLengths = Maps.newIdentityHashMap();
+    private final Comparator<Node> ordering = new Comparator<Node>() {
+        @Override
+        public int compare(Node first, Node second) {
+            if (criticalPathFirst) {
+                int byCriticalPath = criticalPathLengths.get(second).compareTo(criticalPathLengths.get(first));
+                if (byCriticalPath != 0) {
+                    return byCriticalPath;
+                }
+            }
+            return positions.get(first).compareTo(positions.get(second));
+        }
+    };
+    private final Map<Project, NavigableSet<Node>> nodesByProject = Maps.newHashMap();
+    private final NavigableSet<Node> heads = new TreeSet<Node>(ordering);
+
+    ReadyNodeQueue(boolean criticalPathFirst) {
+        this.criticalPathFirst = criticalPathFirst;
+    }
+
+    /**
+     * Discards all queued nodes and orders nodes according to the given execution plan from now on.
+     */
+    void reset(Collection<Node> plan) {
+        clear();
+        List<Node> nodes = Lists.newArrayList(plan);
+        for (int i = 0; i < nodes.size(); i++) {
+            positions.put(nodes.get(i), i);
+        }
+        if (criticalPathFirst) {
+            // Nodes come after their dependencies in the plan, so the chain lengths of all dependents are known when visiting a node
+            for (Node node : Lists.reverse(nodes)) {
+                int longestDependentChain = 0;
+                for (Node dependent : node.getDependencyPredecessors()) {
+                    Integer length = criticalPathLengths.get(dependent);
+                    if (length != null && length > longestDependentChain) {
+                        longestDependentChain = length;
+                    }
+                }
+                criticalPathLengths.put(node, longestDependentChain + 1);
+            }
+        }
+    }
+
+    /**
+     * Adds a node which may be ready to execute. Nodes which are not part of the plan are ignored.
+     */
+    void add(Node node) {
+        if (!positions.containsKey(node)) {
+            return;
+        }
+        Project project = node.getProject();
+        NavigableSet<Node> nodes = nodesByProject.get(project);
+        if (nodes == null) {
+            nodes = new TreeSet<Node>(ordering);
+            nodesByProject.put(project, nodes);
+        }
+        Node previousHead = nodes.isEmpty() ? null : nodes.first();
+        if (nodes.add(node) && nodes.first() == node) {
+            if (previousHead != null) {
+                heads.remove(previousHead);
+            }
+            heads.add(node);
+        }
+    }
+
+    void remove(Node node) {
+        if (!positions.containsKey(node)) {
+            return;
+        }
+        Project project = node.getProject();
+        NavigableSet<Node> nodes = nodesByProject.get(project);
+        if (nodes == null || nodes.isEmpty()) {
+            return;
+        }
+        boolean wasHead = nodes.first() == node;
+        if (nodes.remove(node) && wasHead) {
+            heads.remove(node);
+            if (nodes.isEmpty()) {
+                nodesByProject.remove(project);
+            } else {
+                heads.add(nodes.first());
+            }
+        }
+    }
+
+    boolean isEmpty() {
+        return heads.isEmpty();
+    }
+
+    /**
+     * Returns the first node of the project whose next node should be started first.
+     */
+    @Nullable
+    Node firstHead() {
+        return heads.isEmpty() ? null : heads.first();
+    }
+
+    /**
+     * Returns the first node of the project whose next node should be started after the given head. The given node does
+     * not need to be queued any more, so this can be used to continue after removing a stale head.
+     */
+    @Nullable
+    Node nextHead(Node head) {
+        return heads.higher(head);
+    }
+
+    /**
+     * Returns the node of the same project which is queued after the given node, if any.
+     */
+    @Nullable
+    Node nextInProject(Node node) {
+        NavigableSet<Node> nodes = nodesByProject.get(node.getProject());
+        return nodes == null ? null : nodes.higher(node);
+    }
+
+    void clear() {
+        positions.clear();
+        criticalPathLengths.clear();
+        nodesByProject.clear();
+        heads.clear();
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.filewatch;
+
+import org.gradle.api.Action;
+import org.gradle.api.internal.file.FileSystemSubset;
+import org.gradle.internal.concurrent.Stoppable;
+import org.gradle.internal.file.FileMetadataSnapshot;
+import org.gradle.internal.snapshot.FileSystemLocationSnapshot;
+import org.gradle.internal.snapshot.FileSystemMirror;
+import org.gradle.internal.snapshot.impl.DefaultFileSystemMirror;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link FileSystemMirror} which can retain its snapshots in the daemon between builds.
+ *
+ * When {@value #RETAIN_STATE_BETWEEN_BUILDS_PROPERTY} is set, the locations snapshotted during a build are watched for changes
+ * via a {@link FileWatcher}, and every change reported by the watcher invalidates the affected snapshots. On Linux the watcher is
+ * backed by inotify.
+ *
+ * Snapshots are only retained for locations which were already watched while the build was running, since changes between
+ * taking a snapshot and starting to watch its location would go unnoticed. When the watcher reports that it dropped events
+ * or fails, all state is thrown away and the next build starts from scratch. Locations inside deleted directories are no longer
+ * considered watched, since the watches for them are cancelled.
+ */
+public class WatchingFileSystemMirror implements FileSystemMirror, FileWatcherListener, Stoppable {
+    public static final String RETAIN_STATE_BETWEEN_BUILDS_PROPERTY = "org.gradle.unsafe.vfs.retention";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WatchingFileSystemMirror.class);
+
+    private final DefaultFileSystemMirror delegate;
+    private final FileWatcherFactory fileWatcherFactory;
+    private final AtomicLong receivedEvents = new AtomicLong();
+    private final AtomicLong overflows = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    private final Object lock = new Object();
+    private final Set<String> changedDuringBuild = new HashSet<String>();
+    private FileWatcher fileWatcher;
+    private FileSystemSubset watchedLocations = FileSystemSubset.builder().build();
+
+    public WatchingFileSystemMirror(DefaultFileSystemMirror delegate, FileWatcherFactory fileWatcherFactory) {
+        this.delegate = delegate;
+        this.fileWatcherFactory = fileWatcherFactory;
+    }
+
+    @Nullable
+    @Override
+    public FileSystemLocationSnapshot getSnapshot(String absolutePath) {
+        return delegate.getSnapshot(absolutePath);
+    }
+
+    @Override
+    public void putSnapshot(FileSystemLocationSnapshot file) {
+        delegate.putSnapshot(file);
+    }
+
+    @Nullable
+    @Override
+    public FileMetadataSnapshot getMetadata(String absolutePath) {
+        return delegate.getMetadata(absolutePath);
+    }
+
+    @Override
+    public void putMetadata(String absolutePath, FileMetadataSnapshot stat) {
+        delegate.putMetadata(absolutePath, stat);
+    }
+
+    public void beforeOutputChange() {
+        delegate.beforeOutputChange();
+    }
+
+    public void beforeOutputChange(Iterable<String> affectedOutputPaths) {
+        delegate.beforeOutputChange(affectedOutputPaths);
+    }
+
+    public void afterBuildStarted() {
+        synchronized (lock) {
+            // Changes reported between builds have been applied already, and no snapshots were stored in the meantime
+            changedDuringBuild.clear();
+        }
+    }
+
+    public void beforeBuildFinished() {
+        if (!Boolean.getBoolean(RETAIN_STATE_BETWEEN_BUILDS_PROPERTY)) {
+            stopWatching();
+            synchronized (lock) {
+                delegate.beforeBuildFinished();
+            }
+            return;
+        }
+        FileSystemSubset unwatchedLocations;
+        synchronized (lock) {
+            LOGGER.info("File system watching received {} events, dropped events {} times and failed {} times.", receivedEvents.get(), overflows.get(), failures.get());
+            List<String> unwatchedPaths = new ArrayList<String>();
+            FileSystemSubset.Builder unwatchedLocationsBuilder = FileSystemSubset.builder();
+            for (FileSystemLocationSnapshot snapshot : delegate.getRootSnapshots()) {
+                File location = new File(snapshot.getAbsolutePath());
+                if (!watchedLocations.contains(location)) {
+                    unwatchedPaths.add(snapshot.getAbsolutePath());
+                    unwatchedLocationsBuilder.add(location);
+                }
+            }
+            delegate.discardAllButSnapshots();
+            delegate.invalidate(unwatchedPaths);
+            // A snapshot taken before a change was reported may have been stored after the change invalidated the location
+            delegate.invalidate(changedDuringBuild);
+            changedDuringBuild.clear();
+            unwatchedLocations = unwatchedLocationsBuilder.build();
+        }
+        startWatching(unwatchedLocations);
+    }
+
+    /**
+     * Starts watching the given locations. The watcher is called without holding the lock, since it delivers events while holding its own lock.
+     */
+    private void startWatching(FileSystemSubset locations) {
+        if (locations.isEmpty()) {
+            return;
+        }
+        FileWatcher watcher;
+        try {
+            synchronized (lock) {
+                if (fileWatcher == null) {
+                    fileWatcher = fileWatcherFactory.watch(new Action<Throwable>() {
+                        @Override
+                        public void execute(Throwable failure) {
+                            LOGGER.debug("File system watching failed, discarding retained file system state.", failure);
+                            failures.incrementAndGet();
+                            discardAll();
+                        }
+                    }, this);
+                }
+                watcher = fileWatcher;
+            }
+            watcher.watch(locations);
+        } catch (IOException e) {
+            LOGGER.debug("Could not watch {}, discarding retained file system state.", locations, e);
+            failures.incrementAndGet();
+            discardAll();
+            return;
+        }
+        synchronized (lock) {
+            // Only record the locations if the watcher has not been stopped in the meantime
+            if (fileWatcher == watcher) {
+                watchedLocations = FileSystemSubset.builder().add(watchedLocations).add(locations).build();
+            }
+        }
+    }
+
+    private void discardAll() {
+        stopWatching();
+        synchronized (lock) {
+            delegate.beforeBuildFinished();
+        }
+    }
+
+    private void stopWatching() {
+        FileWatcher watcher;
+        synchronized (lock) {
+            watcher = fileWatcher;
+            fileWatcher = null;
+            watchedLocations = FileSystemSubset.builder().build();
+            changedDuringBuild.clear();
+        }
+        if (watcher != null) {
+            watcher.stop();
+        }
+    }
+
+    @Override
+    public void onChange(FileWatcher watcher, FileWatcherEvent event) {
+        receivedEvents.incrementAndGet();
+        File file = event.getFile();
+        synchronized (lock) {
+            if (event.getType() == FileWatcherEvent.Type.UNDEFINED || file == null) {
+                // The watcher dropped events, so we can't tell what has changed
+                overflows.incrementAndGet();
+                delegate.beforeBuildFinished();
+                changedDuringBuild.clear();
+                return;
+            }
+            String path = file.getAbsolutePath();
+            delegate.invalidate(Collections.singleton(path));
+            changedDuringBuild.add(path);
+            if (event.getType() == FileWatcherEvent.Type.DELETE) {
+                // The watch of a deleted directory is cancelled, so the locations inside it need to be watched again once they are snapshotted
+                stopTrackingLocationsIn(file);
+            }
+        }
+    }
+
+    private void stopTrackingLocationsIn(File deleted) {
+        FileSystemSubset.Builder remaining = FileSystemSubset.builder();
+        boolean removed = false;
+        for (File location : watchedLocations.getRoots()) {
+            if (isAtOrBelow(location, deleted)) {
+                removed = true;
+            } else {
+                remaining.add(location);
+            }
+        }
+        if (removed) {
+            watchedLocations = remaining.build();
+        }
+    }
+
+    private static boolean isAtOrBelow(File location, File ancestor) {
+        for (File current = location; current != null; current = current.getParentFile()) {
+            if (current.equals(ancestor)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void stop() {
+        stopWatching();
+    }
+
+    public long getReceivedEvents() {
+        return receivedEvents.get();
+    }
+
+    public long getOverflows() {
+        return overflows.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+}
@@ -42,7 +42,7 @@ public class DefaultFileHasher implements FileHasher {
                 IoActions.closeQuietly(inputStream);
             }
         } catch (FileNotFoundException e) {
-            throw new UncheckedIOException(String.format("Failed to create MD5 hash for file '%s' as it does not exist.", file), e);
+            throw new UncheckedIOException(String.format("Failed to create hash for file '%s' as it does not exist.", file), e);
         }
     }
 
@@ -28,6 +28,7 @@ import org.gradle.api.tasks.util.internal.PatternSpecFactory;
 import org.gradle.cache.FileLockManager;
 import org.gradle.cache.internal.DefaultFileLockManager;
 import org.gradle.cache.internal.DefaultProcessMetaDataProvider;
+import org.gradle.cache.internal.FileLockContentionStatistics;
 import org.gradle.cache.internal.locklistener.DefaultFileLockContentionHandler;
 import org.gradle.cache.internal.locklistener.FileLockContentionHandler;
 import org.gradle.internal.Factory;
@@ -52,11 +53,16 @@ import org.gradle.process.internal.ExecHandleFactory;
  * {@link GlobalScopeServices}.
  */
 public class BasicGlobalScopeServices {
-    FileLockManager createFileLockManager(ProcessEnvironment processEnvironment, FileLockContentionHandler fileLockContentionHandler) {
+    FileLockManager createFileLockManager(ProcessEnvironment processEnvironment, FileLockContentionHandler fileLockContentionHandler, FileLockContentionStatistics fileLockContentionStatistics) {
         return new DefaultFileLockManager(
             new DefaultProcessMetaDataProvider(
                 processEnvironment),
-            fileLockContentionHandler);
+            fileLockContentionHandler,
+            fileLockContentionStatistics);
+    }
+
+    FileLockContentionStatistics createFileLockContentionStatistics() {
+        return new FileLockContentionStatistics();
     }
 
 
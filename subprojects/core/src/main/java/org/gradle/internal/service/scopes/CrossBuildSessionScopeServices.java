@@ -19,6 +19,7 @@ package org.gradle.internal.service.scopes;
 import org.gradle.StartParameter;
 import org.gradle.api.internal.CollectionCallbackActionDecorator;
 import org.gradle.api.internal.DefaultCollectionCallbackActionDecorator;
+import org.gradle.cache.internal.FileLockContentionStatistics;
 import org.gradle.configuration.internal.DefaultListenerBuildOperationDecorator;
 import org.gradle.configuration.internal.DefaultUserCodeApplicationContext;
 import org.gradle.configuration.internal.ListenerBuildOperationDecorator;
@@ -69,6 +70,7 @@ public class CrossBuildSessionScopeServices implements Closeable {
     private final BuildOperationNotificationBridge buildOperationNotificationBridge;
     private final LoggingBuildOperationProgressBroadcaster loggingBuildOperationProgressBroadcaster;
     private final BuildOperationListenerManager buildOperationListenerManager;
+    private final FileLockContentionStatistics fileLockContentionStatistics;
 
     private final Services services;
 
@@ -76,6 +78,7 @@ public class CrossBuildSessionScopeServices implements Closeable {
         this.services = new Services(parent);
 
         this.buildOperationListenerManager = parent.get(BuildOperationListenerManager.class);
+        this.fileLockContentionStatistics = parent.get(FileLockContentionStatistics.class);
 
         ListenerManager generalListenerManager = parent.get(ListenerManager.class);
         this.buildOperationTrace = new BuildOperationTrace(startParameter, buildOperationListenerManager, generalListenerManager);
@@ -126,6 +129,7 @@ public class CrossBuildSessionScopeServices implements Closeable {
 
     @Override
     public void close() throws IOException {
+        fileLockContentionStatistics.logAndReset();
         new CompositeStoppable().add(
             buildOperationTrace,
             buildOperationNotificationBridge,
@@ -25,6 +25,7 @@ import org.gradle.cache.PersistentCache;
 import org.gradle.cache.internal.InMemoryCacheDecoratorFactory;
 import org.gradle.caching.internal.command.BuildCacheCommandFactory;
 import org.gradle.caching.internal.controller.BuildCacheController;
+import org.gradle.caching.local.internal.DirectoryBuildCacheServiceFactory;
 import org.gradle.execution.plan.DefaultPlanExecutor;
 import org.gradle.execution.plan.PlanExecutor;
 import org.gradle.initialization.BuildCancellationToken;
@@ -38,6 +39,7 @@ import org.gradle.internal.execution.IncrementalContext;
 import org.gradle.internal.execution.InputChangesContext;
 import org.gradle.internal.execution.OutputChangeListener;
 import org.gradle.internal.execution.Result;
+import org.gradle.internal.execution.Step;
 import org.gradle.internal.execution.UpToDateResult;
 import org.gradle.internal.execution.WorkExecutor;
 import org.gradle.internal.execution.history.ExecutionHistoryCacheAccess;
@@ -47,6 +49,7 @@ import org.gradle.internal.execution.history.changes.ExecutionStateChangeDetecto
 import org.gradle.internal.execution.history.impl.DefaultExecutionHistoryStore;
 import org.gradle.internal.execution.history.impl.DefaultOutputFilesRepository;
 import org.gradle.internal.execution.impl.DefaultWorkExecutor;
+import org.gradle.internal.execution.steps.BreakOutputLinksStep;
 import org.gradle.internal.execution.steps.BroadcastChangingOutputsStep;
 import org.gradle.internal.execution.steps.CacheStep;
 import org.gradle.internal.execution.steps.CancelExecutionStep;
@@ -130,6 +133,11 @@ public class ExecutionGradleServices {
         OutputFilesRepository outputFilesRepository,
         TimeoutHandler timeoutHandler
     ) {
+        Step<InputChangesContext, Result> executeStep = new ExecuteStep<InputChangesContext>();
+        if (Boolean.getBoolean(DirectoryBuildCacheServiceFactory.DEDUPLICATE_ENTRIES_PROPERTY) && Boolean.getBoolean(DirectoryBuildCacheServiceFactory.LINK_ENTRY_CONTENTS_PROPERTY)) {
+            // Outputs restored from the local build cache may be read-only links to its blobs
+            executeStep = new BreakOutputLinksStep<InputChangesContext, Result>(executeStep);
+        }
         return new DefaultWorkExecutor<IncrementalContext, CachingResult>(
             new ResolveCachingStateStep(buildCacheController, buildScanPlugin.isBuildScanPluginApplied(),
                 new MarkSnapshottingInputsFinishedStep<UpToDateResult>(
@@ -146,7 +154,7 @@ public class ExecutionGradleServices {
                                                             new CancelExecutionStep<IncrementalChangesContext>(cancellationToken,
                                                                 new ResolveInputChangesStep<IncrementalChangesContext>(
                                                                     new CleanupOutputsStep<InputChangesContext, Result>(
-                                                                        new ExecuteStep<InputChangesContext>()
+                                                                        executeStep
                                                                     )
                                                                 )
                                                             )
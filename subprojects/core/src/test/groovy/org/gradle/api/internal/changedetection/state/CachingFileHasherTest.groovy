@@ -21,6 +21,7 @@ import org.gradle.api.internal.cache.StringInterner
 import org.gradle.api.internal.changedetection.state.CachingFileHasher.FileInfo
 import org.gradle.api.internal.file.TestFiles
 import org.gradle.cache.PersistentIndexedCache
+import org.gradle.cache.PersistentIndexedCacheParameters
 import org.gradle.internal.hash.FileHasher
 import org.gradle.internal.hash.HashCode
 import org.gradle.internal.nativeintegration.filesystem.DefaultFileMetadata
@@ -43,10 +44,25 @@ class CachingFileHasherTest extends Specification {
 
     def setup() {
         file.write("some-content")
-        1 * cacheAccess.createCache({ it.cacheName == "fileHashes"  }, _, _) >> cache
+        1 * cacheAccess.createCache({ it.cacheName == "fileHashes" && it.backend == PersistentIndexedCacheParameters.Backend.BTREE }, _, _) >> cache
         hasher = new CachingFileHasher(target, cacheAccess, new StringInterner(), timeStampInspector, "fileHashes", fileSystem)
     }
 
+    def "stores hashes in memory-mapped cache when enabled"() {
+        given:
+        System.setProperty(CachingFileHasher.MEMORY_MAPPED_PROPERTY, "true")
+
+        when:
+        new CachingFileHasher(target, cacheAccess, new StringInterner(), timeStampInspector, "fileHashes", fileSystem)
+
+        then:
+        1 * cacheAccess.createCache({ it.cacheName == "fileHashes" && it.backend == PersistentIndexedCacheParameters.Backend.MEMORY_MAPPED }, _, _) >> cache
+        0 * _._
+
+        cleanup:
+        System.clearProperty(CachingFileHasher.MEMORY_MAPPED_PROPERTY)
+    }
+
     def hashesFileWhenHashNotCached() {
         def stat = fileSystem.stat(file)
 
@@ -16,6 +16,7 @@
 
 package org.gradle.cache.internal
 
+import com.google.common.cache.Weigher
 import org.gradle.api.Transformer
 import org.gradle.initialization.SessionLifecycleListener
 import org.gradle.internal.event.DefaultListenerManager
@@ -169,4 +170,38 @@ class DefaultCrossBuildInMemoryCacheFactoryTest extends ConcurrentSpec {
         cache.get(String) == c
     }
 
+    def "weighted caches share the memory budget"() {
+        def factory = new DefaultCrossBuildInMemoryCacheFactory(listenerManager, 100)
+        def weigher = { String key, String value -> value.length() } as Weigher
+
+        given:
+        def cache1 = factory.newWeightedCache("cache1", weigher)
+        def cache2 = factory.newWeightedCache("cache2", weigher)
+
+        when:
+        cache1.put("a", "a" * 70)
+        cache2.put("b", "b" * 30)
+        cache2.put("c", "c" * 30)
+
+        then:
+        cache1.get("a") == null
+        cache2.get("b") == "b" * 30
+        cache2.get("c") == "c" * 30
+    }
+
+    def "weighted cache is retained across sessions"() {
+        def factory = new DefaultCrossBuildInMemoryCacheFactory(listenerManager, 100)
+        def weigher = { String key, String value -> value.length() } as Weigher
+
+        given:
+        def cache = factory.newWeightedCache("cache", weigher)
+        cache.put("a", "a" * 10)
+
+        when:
+        listenerManager.getBroadcaster(SessionLifecycleListener).beforeComplete()
+        listenerManager.getBroadcaster(SessionLifecycleListener).beforeComplete()
+
+        then:
+        cache.get("a") == "a" * 10
+    }
 }
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.gradle.cache.internal
+
+import com.google.common.cache.Weigher
+import org.gradle.api.Transformer
+import spock.lang.Specification
+
+class WeightedCrossBuildInMemoryCacheTest extends Specification {
+    def budget = new CrossBuildInMemoryCacheMemoryBudget(1000)
+    def weigher = { String key, String value -> value.length() } as Weigher
+    def cache = newCache("cache")
+
+    def "uses the given transformer to create entries"() {
+        def transformer = Mock(Transformer)
+
+        when:
+        def r1 = cache.get("a", transformer)
+        def r2 = cache.get("a", transformer)
+
+        then:
+        r1 == "aaa"
+        r2 == "aaa"
+
+        and:
+        1 * transformer.transform("a") >> "aaa"
+        0 * transformer._
+
+        and:
+        cache.hits == 1
+        cache.misses == 1
+        cache.weight == 3
+        budget.weight == 3
+    }
+
+    def "replaces existing entry"() {
+        when:
+        cache.put("a", "a" * 10)
+        cache.put("a", "b" * 20)
+
+        then:
+        cache.get("a") == "b" * 20
+        cache.weight == 20
+        budget.weight == 20
+    }
+
+    def "evicts entries when budget is exceeded"() {
+        when:
+        20.times {
+            cache.put("key$it", "v" * 100)
+        }
+
+        then:
+        cache.weight == 1000
+        cache.evictions == 10
+        budget.weight == 1000
+    }
+
+    def "does not retain entries which are larger than the budget"() {
+        when:
+        cache.put("a", "a" * 1001)
+
+        then:
+        cache.get("a") == null
+        cache.weight == 0
+        cache.evictions == 1
+    }
+
+    def "retains frequently used entries when other entries are used once"() {
+        given:
+        5.times {
+            cache.put("hot$it", "h" * 100)
+        }
+        10.times {
+            5.times { cache.get("hot$it") }
+        }
+
+        when:
+        100.times {
+            cache.put("cold$it", "c" * 100)
+        }
+
+        then:
+        5.times {
+            assert cache.get("hot$it") != null
+        }
+        budget.weight <= 1000
+    }
+
+    def "evicts from the cache retaining the most memory"() {
+        def other = newCache("other")
+
+        given:
+        5.times {
+            cache.put("key$it", "v" * 150)
+        }
+
+        when:
+        3.times {
+            other.put("key$it", "v" * 100)
+        }
+
+        then:
+        cache.evictions == 1
+        other.evictions == 0
+        cache.weight == 600
+        other.weight == 300
+        budget.weight == 900
+    }
+
+    def "clear discards all entries"() {
+        given:
+        cache.put("a", "aaa")
+        cache.put("b", "bbb")
+
+        when:
+        cache.clear()
+
+        then:
+        cache.get("a") == null
+        cache.get("b") == null
+        cache.weight == 0
+        budget.weight == 0
+    }
+
+    def "resets statistics at the end of the session"() {
+        given:
+        cache.put("a", "aaa")
+        cache.get("a")
+        cache.get("b")
+
+        when:
+        cache.beforeComplete()
+
+        then:
+        cache.hits == 0
+        cache.misses == 0
+        cache.get("a") == "aaa"
+    }
+
+    private WeightedCrossBuildInMemoryCache<String, String> newCache(String displayName) {
+        def cache = new WeightedCrossBuildInMemoryCache<String, String>(displayName, weigher, budget)
+        budget.register(cache)
+        return cache
+    }
+}
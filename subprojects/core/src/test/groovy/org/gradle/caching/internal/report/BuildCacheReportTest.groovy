@@ -0,0 +1,237 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.gradle.caching.internal.report
+
+import groovy.json.JsonSlurper
+import org.gradle.api.internal.tasks.execution.ExecuteTaskBuildOperationType
+import org.gradle.caching.internal.operations.BuildCacheArchivePackBuildOperationType
+import org.gradle.caching.internal.operations.BuildCacheArchiveUnpackBuildOperationType
+import org.gradle.caching.internal.operations.BuildCacheRemoteLoadBuildOperationType
+import org.gradle.caching.internal.operations.BuildCacheRemoteStoreBuildOperationType
+import org.gradle.internal.operations.BuildOperationDescriptor
+import org.gradle.internal.operations.OperationFinishEvent
+import org.gradle.internal.operations.OperationIdentifier
+import org.gradle.internal.operations.OperationStartEvent
+import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
+import org.junit.Rule
+import spock.lang.Specification
+
+class BuildCacheReportTest extends Specification {
+    @Rule
+    TestNameTestDirectoryProvider tmpDir = new TestNameTestDirectoryProvider()
+
+    def report = new BuildCacheReport()
+    long nextId = 1
+
+    def "attributes cache operations to the enclosing task"() {
+        when:
+        def taskOperation = start(taskDetails(":a"), null)
+        def pack = start(packDetails("key-a"), taskOperation)
+        finish(pack, 10, 30, packResult(1000, 4000))
+        def remoteStore = start(remoteStoreDetails("key-a"), taskOperation)
+        finish(remoteStore, 30, 45, remoteStoreResult(true))
+        finish(taskOperation, 0, 50, taskResult(null))
+
+        then:
+        def tasks = writeJson().tasks
+        tasks.size() == 1
+        with(tasks[0]) {
+            task == ":a"
+            cacheKey == "key-a"
+            taskTime == 50
+            packTime == 20
+            archiveSize == 1000
+            uncompressedSize == 4000
+            compressionRatio == 0.25
+            remoteStoreTime == 15
+            remoteStored == true
+            netSavings == -35
+            unpackTime == null
+            remoteHit == null
+        }
+    }
+
+    def "attributes background remote stores to tasks via the cache key"() {
+        when:
+        def task = start(taskDetails(":a"), null)
+        finish(start(packDetails("key-a"), task), 0, 10, packResult(100, 100))
+        finish(task, 0, 20, taskResult(null))
+        finish(start(remoteStoreDetails("key-a"), null), 20, 60, remoteStoreResult(false))
+
+        then:
+        def tasks = writeJson().tasks
+        tasks.size() == 1
+        tasks[0].task == ":a"
+        tasks[0].remoteStoreTime == 40
+        tasks[0].remoteStored == false
+    }
+
+    def "computes time saved by loading from the cache and orders costly tasks first"() {
+        when:
+        def loaded = start(taskDetails(":loaded"), null)
+        def remoteLoad = start(remoteLoadDetails("key-loaded"), loaded)
+        finish(remoteLoad, 0, 20, remoteLoadResult(true))
+        def unpack = start(unpackDetails("key-loaded", 2000), loaded)
+        finish(unpack, 20, 30, null)
+        finish(loaded, 0, 30, taskResult(500))
+
+        def executed = start(taskDetails(":executed"), null)
+        finish(start(packDetails("key-executed"), executed), 0, 40, packResult(20 * 1024, -1))
+        finish(executed, 0, 100, taskResult(null))
+
+        then:
+        def json = writeJson()
+        json.tasks*.task == [":executed", ":loaded"]
+        with(json.tasks[1]) {
+            originExecutionTime == 500
+            remoteLoadTime == 20
+            remoteHit == true
+            unpackTime == 10
+            netSavings == 470
+        }
+        with(json.tasks[0]) {
+            uncompressedSize == null
+            compressionRatio == null
+            netSavings == -40
+        }
+
+        and:
+        with(json.summary) {
+            tasksLoadedFromCache == 1
+            tasksStoredInCache == 1
+            hitRate == 0.5
+            remoteLoads == 1
+            remoteHitRate == 1.0
+            remoteLoadTimePercentiles == [p50: 20, p90: 20, p99: 20]
+            remoteStoreTimePercentiles == [:]
+            archiveSizeHistogram == ["< 10 KB": 1, "< 100 KB": 1, "< 1 MB": 0, "< 10 MB": 0, ">= 10 MB": 0]
+        }
+    }
+
+    def "ignores failed unpack operations"() {
+        when:
+        def task = start(taskDetails(":a"), null)
+        def unpack = start(unpackDetails("key-a", 100), task)
+        report.finished(unpack, new OperationFinishEvent(0, 10, new RuntimeException("broken"), null))
+        finish(task, 0, 20, taskResult(null))
+
+        then:
+        writeJson().tasks.empty
+    }
+
+    def "computes percentiles of remote latencies"() {
+        when:
+        (1..100).each { i ->
+            def task = start(taskDetails(":t$i"), null)
+            finish(start(remoteLoadDetails("key-$i"), task), 0, i, remoteLoadResult(i % 2 == 0))
+            finish(task, 0, i, taskResult(null))
+        }
+
+        then:
+        with(writeJson().summary) {
+            remoteLoads == 100
+            remoteHitRate == 0.5
+            remoteLoadTimePercentiles == [p50: 50, p90: 90, p99: 99]
+        }
+    }
+
+    def "renders HTML report with escaped task names and highlights costly tasks"() {
+        when:
+        def task = start(taskDetails(":<a>"), null)
+        finish(start(packDetails("key-a"), task), 0, 10, packResult(100, 200))
+        finish(task, 0, 20, taskResult(null))
+        report.write(tmpDir.testDirectory)
+
+        then:
+        def html = tmpDir.file("build-cache.html").text
+        html.contains("<h1>Build cache report</h1>")
+        html.contains("<tr class=\"costly\"><td>:&lt;a&gt;</td><td>key-a</td>")
+        !html.contains(":<a>")
+    }
+
+    private Map writeJson() {
+        report.write(tmpDir.testDirectory)
+        new JsonSlurper().parse(tmpDir.file("build-cache.json")) as Map
+    }
+
+    private BuildOperationDescriptor start(Object details, BuildOperationDescriptor parent) {
+        def descriptor = BuildOperationDescriptor.displayName("operation").details(details).build(new OperationIdentifier(nextId++), parent?.id)
+        report.started(descriptor, new OperationStartEvent(0))
+        descriptor
+    }
+
+    private void finish(BuildOperationDescriptor descriptor, long startTime, long endTime, Object result) {
+        report.finished(descriptor, new OperationFinishEvent(startTime, endTime, null, result))
+    }
+
+    private ExecuteTaskBuildOperationType.Details taskDetails(String path) {
+        Stub(ExecuteTaskBuildOperationType.Details) {
+            getTaskPath() >> path
+        }
+    }
+
+    private ExecuteTaskBuildOperationType.Result taskResult(Long originExecutionTime) {
+        Stub(ExecuteTaskBuildOperationType.Result) {
+            getOriginExecutionTime() >> originExecutionTime
+        }
+    }
+
+    private BuildCacheArchivePackBuildOperationType.Details packDetails(String key) {
+        Stub(BuildCacheArchivePackBuildOperationType.Details) {
+            getCacheKey() >> key
+        }
+    }
+
+    private BuildCacheArchivePackBuildOperationType.Result packResult(long archiveSize, long uncompressedSize) {
+        Stub(BuildCacheArchivePackBuildOperationType.Result) {
+            getArchiveSize() >> archiveSize
+            getUncompressedSize() >> uncompressedSize
+        }
+    }
+
+    private BuildCacheArchiveUnpackBuildOperationType.Details unpackDetails(String key, long archiveSize) {
+        Stub(BuildCacheArchiveUnpackBuildOperationType.Details) {
+            getCacheKey() >> key
+            getArchiveSize() >> archiveSize
+        }
+    }
+
+    private BuildCacheRemoteLoadBuildOperationType.Details remoteLoadDetails(String key) {
+        Stub(BuildCacheRemoteLoadBuildOperationType.Details) {
+            getCacheKey() >> key
+        }
+    }
+
+    private BuildCacheRemoteLoadBuildOperationType.Result remoteLoadResult(boolean hit) {
+        Stub(BuildCacheRemoteLoadBuildOperationType.Result) {
+            isHit() >> hit
+        }
+    }
+
+    private BuildCacheRemoteStoreBuildOperationType.Details remoteStoreDetails(String key) {
+        Stub(BuildCacheRemoteStoreBuildOperationType.Details) {
+            getCacheKey() >> key
+        }
+    }
+
+    private BuildCacheRemoteStoreBuildOperationType.Result remoteStoreResult(boolean stored) {
+        Stub(BuildCacheRemoteStoreBuildOperationType.Result) {
+            isStored() >> stored
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.gradle.caching.internal.report
+
+import org.gradle.caching.internal.controller.BuildCacheController
+import org.gradle.caching.internal.controller.BuildCacheLoadCommand
+import org.gradle.caching.internal.controller.BuildCacheStoreCommand
+import org.gradle.internal.Factory
+import org.gradle.internal.operations.BuildOperationListenerManager
+import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
+import org.junit.Rule
+import spock.lang.Specification
+
+class ReportingBuildCacheControllerTest extends Specification {
+    @Rule
+    TestNameTestDirectoryProvider tmpDir = new TestNameTestDirectoryProvider()
+
+    def delegate = Mock(BuildCacheController)
+    def listenerManager = Mock(BuildOperationListenerManager)
+    def reportDir = Mock(Factory)
+
+    def "registers report as build operation listener"() {
+        when:
+        new ReportingBuildCacheController(delegate, listenerManager, reportDir)
+
+        then:
+        1 * listenerManager.addListener(_ as BuildCacheReport)
+        0 * reportDir._
+    }
+
+    def "delegates cache operations"() {
+        def controller = new ReportingBuildCacheController(delegate, listenerManager, reportDir)
+        def loadCommand = Mock(BuildCacheLoadCommand)
+        def storeCommand = Mock(BuildCacheStoreCommand)
+
+        when:
+        def enabled = controller.enabled
+        def debugLogging = controller.emitDebugLogging
+        def loaded = controller.load(loadCommand)
+        controller.store(storeCommand)
+
+        then:
+        1 * delegate.isEnabled() >> true
+        1 * delegate.isEmitDebugLogging() >> false
+        1 * delegate.load(loadCommand) >> Optional.of("result")
+        1 * delegate.store(storeCommand)
+        0 * _
+
+        and:
+        enabled
+        !debugLogging
+        loaded.get() == "result"
+    }
+
+    def "closes delegate before writing the report"() {
+        def dir = tmpDir.file("reports")
+        def controller = new ReportingBuildCacheController(delegate, listenerManager, reportDir)
+
+        when:
+        controller.close()
+
+        then:
+        1 * delegate.close()
+
+        then:
+        1 * listenerManager.removeListener(_ as BuildCacheReport)
+
+        then:
+        1 * reportDir.create() >> dir
+
+        and:
+        dir.file("build-cache.json").file
+        dir.file("build-cache.html").file
+    }
+
+    def "writes report even when closing the delegate fails"() {
+        def dir = tmpDir.file("reports")
+        def failure = new RuntimeException("broken")
+        def controller = new ReportingBuildCacheController(delegate, listenerManager, reportDir)
+
+        when:
+        controller.close()
+
+        then:
+        1 * delegate.close() >> { throw failure }
+        1 * listenerManager.removeListener(_ as BuildCacheReport)
+        1 * reportDir.create() >> dir
+
+        and:
+        def e = thrown(RuntimeException)
+        e.is(failure)
+        dir.file("build-cache.html").file
+    }
+
+    def "does not write report when the report directory is not known"() {
+        def controller = new ReportingBuildCacheController(delegate, listenerManager, reportDir)
+
+        when:
+        controller.close()
+
+        then:
+        1 * reportDir.create() >> null
+        noExceptionThrown()
+    }
+}
@@ -24,6 +24,7 @@ import org.gradle.api.internal.project.ProjectInternal
 import org.gradle.api.tasks.Destroys
 import org.gradle.api.tasks.InputDirectory
 import org.gradle.api.tasks.InputFile
+import org.gradle.api.tasks.Internal
 import org.gradle.api.tasks.LocalState
 import org.gradle.api.tasks.OutputDirectory
 import org.gradle.api.tasks.OutputFile
@@ -39,7 +40,9 @@ import org.gradle.test.fixtures.file.TestFile
 import org.gradle.testfixtures.internal.NativeServicesTestFixture
 import org.gradle.util.Path
 import org.gradle.util.Requires
+import org.gradle.util.SetSystemProperties
 import org.gradle.util.TestPrecondition
+import org.junit.Rule
 import spock.lang.Issue
 import spock.lang.Unroll
 
@@ -47,15 +50,22 @@ import static org.gradle.util.TestUtil.createChildProject
 
 class DefaultExecutionPlanParallelTest extends AbstractProjectBuilderSpec {
 
+    @Rule
+    SetSystemProperties systemProperties = new SetSystemProperties()
+
     FileSystem fs = NativeServicesTestFixture.instance.get(FileSystem)
 
     DefaultExecutionPlan executionPlan
     def lockSetup = new LockSetup()
 
     def setup() {
+        executionPlan = createExecutionPlan()
+    }
+
+    private DefaultExecutionPlan createExecutionPlan() {
         def taskNodeFactory = new TaskNodeFactory(project.gradle, Stub(IncludedBuildTaskGraph))
         def dependencyResolver = new TaskDependencyResolver([new TaskNodeDependencyResolver(taskNodeFactory)])
-        executionPlan = new DefaultExecutionPlan(lockSetup.workerLeaseService, project.gradle, taskNodeFactory, dependencyResolver)
+        new DefaultExecutionPlan(lockSetup.workerLeaseService, project.gradle, taskNodeFactory, dependencyResolver)
     }
 
     def "multiple tasks with async work from the same project can run in parallel"() {
@@ -211,6 +221,120 @@ class DefaultExecutionPlanParallelTest extends AbstractProjectBuilderSpec {
 
     }
 
+    def "ready tasks are started in the order of the plan"() {
+        given:
+        Task a = project.task("a", type: Async)
+        Task b = project.task("b", type: Async)
+        Task c = project.task("c", type: Async).dependsOn(b)
+
+        when:
+        addToGraphAndPopulate(a, c)
+
+        then:
+        selectNextTask() == a
+        selectNextTask() == b
+        selectNextTask() == null
+    }
+
+    def "ready tasks with the longest chain of dependent tasks are started first when critical path ordering is enabled"() {
+        given:
+        System.setProperty(DefaultExecutionPlan.CRITICAL_PATH_FIRST_PROPERTY, "true")
+        // The property is read when the plan is created
+        executionPlan = createExecutionPlan()
+        Task a = project.task("a", type: Async)
+        Task b = project.task("b", type: Async)
+        Task c = project.task("c", type: Async).dependsOn(b)
+
+        when:
+        addToGraphAndPopulate(a, c)
+
+        then:
+        selectNextTask() == b
+        selectNextTask() == a
+        selectNextTask() == null
+    }
+
+    def "ready tasks from a project which is locked do not prevent tasks from other projects from starting"() {
+        given:
+        def projectA = createChildProject(project, "a")
+        def projectB = createChildProject(project, "b")
+        def fooA = projectA.task("foo")
+        def barA = projectA.task("bar")
+        def fooB = projectB.task("foo")
+
+        when:
+        addToGraphAndPopulate(fooA, barA, fooB)
+        def firstTaskNode = selectNextTaskNode()
+
+        then:
+        firstTaskNode.task == barA
+        selectNextTask() == fooB
+        selectNextTask() == null
+
+        when:
+        executionPlan.nodeComplete(firstTaskNode)
+
+        then:
+        selectNextTask() == fooA
+    }
+
+    def "ready task whose outputs overlap with a running task does not prevent later tasks of its project from starting"() {
+        given:
+        def sharedFile = file("output")
+        Task a = project.task("a", type: AsyncWithOutputFile) {
+            outputFile = sharedFile
+        }
+        Task b = project.task("b", type: AsyncWithOutputFile) {
+            outputFile = sharedFile
+        }
+        Task c = project.task("c", type: Async)
+
+        when:
+        addToGraphAndPopulate(a, b, c)
+        def firstTaskNode = selectNextTaskNode()
+
+        then:
+        firstTaskNode.task == a
+        selectNextTask() == c
+        selectNextTask() == null
+
+        when:
+        executionPlan.nodeComplete(firstTaskNode)
+
+        then:
+        selectNextTask() == b
+    }
+
+    def "resolves the outputs of a task only while holding the lock of its project"() {
+        given:
+        def projectA = createChildProject(project, "a")
+        def projectB = createChildProject(project, "b")
+        def sharedFile = file("output")
+        def a = projectA.task("a", type: AsyncWithLockCheckedOutputFile) {
+            outputFile = sharedFile
+        }
+        def b = projectB.task("b", type: AsyncWithLockCheckedOutputFile) {
+            outputFile = sharedFile
+        }
+        def locksHeldWhileResolving = []
+        a.lockCheck = { locksHeldWhileResolving << [a, lockSetup.lockedProjects.contains(projectA.identityPath)] }
+        b.lockCheck = { locksHeldWhileResolving << [b, lockSetup.lockedProjects.contains(projectB.identityPath)] }
+
+        when:
+        addToGraphAndPopulate(a, b)
+        locksHeldWhileResolving.clear()
+
+        then:
+        selectNextTask() == a
+        selectNextTask() == null
+        locksHeldWhileResolving.collect { it[0] } as Set == [a, b] as Set
+        locksHeldWhileResolving.every { it[1] }
+
+        and:
+        // The lock of the project whose task cannot run is released again
+        lockSetup.lockedProjects.empty
+    }
+
     def "two tasks that have the same file in outputs are not executed in parallel"() {
         def sharedFile = file("output")
 
@@ -807,6 +931,18 @@ class DefaultExecutionPlanParallelTest extends AbstractProjectBuilderSpec {
         File outputDirectory
     }
 
+    static class AsyncWithLockCheckedOutputFile extends Async {
+        @Internal
+        Closure lockCheck = {}
+        File outputFile
+
+        @OutputFile
+        File getOutputFile() {
+            lockCheck.call()
+            outputFile
+        }
+    }
+
     static class AsyncWithDestroysFile extends Async {
         @Destroys
         File destroysFile
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.gradle.execution.plan
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class MutationPathIndexTest extends Specification {
+    def index = new MutationPathIndex()
+
+    @Unroll
+    def "#candidate overlaps with #running"() {
+        when:
+        index.addAll(running.collect { path(it) })
+
+        then:
+        index.overlapsWithAny([path(candidate)])
+
+        where:
+        candidate | running
+        "a/b"     | ["a/b"]
+        "a/b"     | ["c", "a"]
+        "a/b"     | ["a/b/c/d"]
+        "a"       | ["b", "a/b"]
+    }
+
+    @Unroll
+    def "#candidate does not overlap with #running"() {
+        when:
+        index.addAll(running.collect { path(it) })
+
+        then:
+        !index.overlapsWithAny([path(candidate)])
+
+        where:
+        candidate | running
+        "a/b"     | []
+        "a/b"     | ["a/bc"]
+        "a/b"     | ["a/b-c/d", "a/b.c"]
+        "a/bc"    | ["a/b"]
+        "a/b"     | ["c/a/b"]
+    }
+
+    def "keeps paths which are mutated by more than one node until all of them are removed"() {
+        given:
+        index.addAll([path("a/b"), path("c")])
+        index.addAll([path("a/b")])
+
+        when:
+        index.removeAll([path("a/b"), path("c")])
+
+        then:
+        index.overlapsWithAny([path("a")])
+        !index.overlapsWithAny([path("c")])
+
+        when:
+        index.removeAll([path("a/b")])
+
+        then:
+        !index.overlapsWithAny([path("a")])
+        index.empty
+    }
+
+    private static String path(String relativePath) {
+        File.separator + relativePath.replace('/', File.separator)
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.filewatch
+
+import org.gradle.api.internal.file.FileSystemSubset
+import org.gradle.internal.snapshot.FileSystemLocationSnapshot
+import org.gradle.internal.snapshot.WellKnownFileLocations
+import org.gradle.internal.snapshot.impl.DefaultFileSystemMirror
+import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
+import org.gradle.util.SetSystemProperties
+import org.junit.Rule
+import spock.lang.Specification
+
+class WatchingFileSystemMirrorTest extends Specification {
+    @Rule
+    TestNameTestDirectoryProvider tmpDir = new TestNameTestDirectoryProvider()
+    @Rule
+    SetSystemProperties systemProperties = new SetSystemProperties((WatchingFileSystemMirror.RETAIN_STATE_BETWEEN_BUILDS_PROPERTY): "true")
+
+    def fileWatcher = Mock(FileWatcher)
+    def fileWatcherFactory = Mock(FileWatcherFactory)
+    def mirror = new WatchingFileSystemMirror(new DefaultFileSystemMirror(Stub(WellKnownFileLocations)), fileWatcherFactory)
+
+    def "starts watching snapshotted locations at the end of the build and retains their snapshots afterwards"() {
+        def dir = tmpDir.createDir("dir")
+        def snapshot = snapshotFor(dir)
+
+        when:
+        mirror.putSnapshot(snapshot)
+        mirror.beforeBuildFinished()
+
+        then:
+        1 * fileWatcherFactory.watch(_, mirror) >> fileWatcher
+        1 * fileWatcher.watch({ FileSystemSubset subset -> subset.contains(dir) })
+        mirror.getSnapshot(dir.path) == null
+
+        when:
+        mirror.putSnapshot(snapshot)
+        mirror.beforeBuildFinished()
+
+        then:
+        0 * fileWatcherFactory._
+        0 * fileWatcher._
+        mirror.getSnapshot(dir.path) == snapshot
+    }
+
+    def "invalidates snapshots when changes are reported"() {
+        def dir = tmpDir.createDir("dir")
+        def sibling = tmpDir.createDir("sibling")
+        def siblingSnapshot = snapshotFor(sibling)
+
+        given:
+        mirror.putSnapshot(snapshotFor(dir))
+        mirror.putSnapshot(siblingSnapshot)
+
+        when:
+        mirror.onChange(fileWatcher, FileWatcherEvent.modify(dir.file("some/file")))
+
+        then:
+        mirror.getSnapshot(dir.path) == null
+        mirror.getSnapshot(sibling.path) == siblingSnapshot
+        mirror.receivedEvents == 1
+        mirror.overflows == 0
+    }
+
+    def "watches locations inside deleted directories again"() {
+        def dir = tmpDir.createDir("dir")
+        def subDir = dir.createDir("sub")
+        def snapshot = snapshotFor(subDir)
+
+        given:
+        fileWatcherFactory.watch(_, mirror) >> fileWatcher
+        mirror.putSnapshot(snapshot)
+        mirror.beforeBuildFinished()
+
+        when:
+        mirror.onChange(fileWatcher, FileWatcherEvent.delete(dir))
+        mirror.afterBuildStarted()
+        mirror.putSnapshot(snapshot)
+        mirror.beforeBuildFinished()
+
+        then:
+        1 * fileWatcher.watch({ FileSystemSubset subset -> subset.contains(subDir) })
+        mirror.getSnapshot(subDir.path) == null
+
+        when:
+        mirror.afterBuildStarted()
+        mirror.putSnapshot(snapshot)
+        mirror.beforeBuildFinished()
+
+        then:
+        0 * fileWatcher._
+        mirror.getSnapshot(subDir.path) == snapshot
+    }
+
+    def "discards snapshots stored after a change to their location was reported during the build"() {
+        def dir = tmpDir.createDir("dir")
+        def snapshot = snapshotFor(dir)
+
+        given:
+        fileWatcherFactory.watch(_, mirror) >> fileWatcher
+        mirror.putSnapshot(snapshot)
+        mirror.beforeBuildFinished()
+
+        when:
+        mirror.onChange(fileWatcher, FileWatcherEvent.modify(dir.file("file")))
+        mirror.afterBuildStarted()
+        mirror.putSnapshot(snapshot)
+        mirror.beforeBuildFinished()
+
+        then:
+        mirror.getSnapshot(dir.path) == snapshot
+
+        when:
+        mirror.afterBuildStarted()
+        mirror.putSnapshot(snapshot)
+        mirror.onChange(fileWatcher, FileWatcherEvent.modify(dir.file("file")))
+        mirror.putSnapshot(snapshot)
+        mirror.beforeBuildFinished()
+
+        then:
+        mirror.getSnapshot(dir.path) == null
+    }
+
+    def "discards all state when events have been dropped"() {
+        def dir = tmpDir.createDir("dir")
+
+        given:
+        mirror.putSnapshot(snapshotFor(dir))
+
+        when:
+        mirror.onChange(fileWatcher, FileWatcherEvent.undefined())
+
+        then:
+        mirror.getSnapshot(dir.path) == null
+        mirror.overflows == 1
+    }
+
+    def "stops watching and discards all state when retention is disabled"() {
+        def dir = tmpDir.createDir("dir")
+
+        given:
+        fileWatcherFactory.watch(_, _) >> fileWatcher
+        mirror.putSnapshot(snapshotFor(dir))
+        mirror.beforeBuildFinished()
+        mirror.putSnapshot(snapshotFor(dir))
+
+        when:
+        System.clearProperty(WatchingFileSystemMirror.RETAIN_STATE_BETWEEN_BUILDS_PROPERTY)
+        mirror.beforeBuildFinished()
+
+        then:
+        1 * fileWatcher.stop()
+        mirror.getSnapshot(dir.path) == null
+    }
+
+    private FileSystemLocationSnapshot snapshotFor(File file) {
+        def snapshot = Stub(FileSystemLocationSnapshot)
+        _ * snapshot.absolutePath >> file.absolutePath
+        return snapshot
+    }
+}
@@ -16,6 +16,7 @@
 
 package org.gradle.cache.internal
 
+import com.google.common.cache.Weigher
 import org.gradle.api.Transformer
 
 import java.util.concurrent.ConcurrentHashMap
@@ -31,6 +32,11 @@ class TestCrossBuildInMemoryCacheFactory extends CrossBuildInMemoryCacheFactory
         return new TestCache<Class<?>, V>()
     }
 
+    @Override
+    <K, V> CrossBuildInMemoryCache<K, V> newWeightedCache(String displayName, Weigher<? super K, ? super V> weigher) {
+        return new TestCache<K, V>()
+    }
+
     static class TestCache<K, V> implements CrossBuildInMemoryCache<K, V> {
         private final Map<K, V> values = new ConcurrentHashMap<>()
 
@@ -165,18 +165,31 @@ public class DefaultResolvedArtifact implements ResolvedArtifact, ResolvableArti
         File f = file;
 
         if (f == null) {
-            Throwable err = failure;
-            if (err != null) {
-                throw UncheckedException.throwAsUncheckedException(err);
-            }
-            try {
-                f = artifactSource.create();
-                file = f;
-            } catch (Exception e) {
-                err = e;
-                failure = err;
-                throw UncheckedException.throwAsUncheckedException(err);
-            }
+            f = resolveFile();
+        }
+        return f;
+    }
+
+    /**
+     * Resolves the file at most once. Artifacts are shared through the per-repository artifact cache, so the same artifact can be visited concurrently
+     * by several configurations or projects. Those wait for the first resolution rather than resolving the artifact again.
+     */
+    private synchronized File resolveFile() {
+        File f = file;
+        if (f != null) {
+            return f;
+        }
+        Throwable err = failure;
+        if (err != null) {
+            throw UncheckedException.throwAsUncheckedException(err);
+        }
+        try {
+            f = artifactSource.create();
+            file = f;
+        } catch (Exception e) {
+            err = e;
+            failure = err;
+            throw UncheckedException.throwAsUncheckedException(err);
         }
         return f;
     }
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.gradle.api.internal.artifacts.ivyservice.ivyresolve.parser;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An element of a POM, as extracted by {@link PomStaxParser}. Only holds the elements, text and comments that are used to build the module metadata.
+ */
+final class PomElement {
+    private final String name;
+    private List<PomElement> children = Collections.emptyList();
+    private List<String> comments = Collections.emptyList();
+    private String text = "";
+
+    PomElement(String name) {
+        this.name = name;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the concatenation of the text and CDATA sections directly contained in this element.
+     */
+    String getText() {
+        return text;
+    }
+
+    List<PomElement> getChildren() {
+        return children;
+    }
+
+    /**
+     * Returns the comments directly contained in this element.
+     */
+    List<String> getComments() {
+        return comments;
+    }
+
+    void setText(String text) {
+        this.text = text;
+    }
+
+    void addChild(PomElement child) {
+        if (children.isEmpty()) {
+            children = new ArrayList<PomElement>(4);
+        }
+        children.add(child);
+    }
+
+    void addComment(String comment) {
+        if (comments.isEmpty()) {
+            comments = new ArrayList<String>(1);
+        }
+        comments.add(comment);
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
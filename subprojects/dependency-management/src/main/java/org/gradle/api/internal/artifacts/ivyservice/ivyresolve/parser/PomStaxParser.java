@@ -0,0 +1,351 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.api.internal.artifacts.ivyservice.ivyresolve.parser;
+
+import org.apache.commons.io.IOUtils;
+import org.gradle.internal.UncheckedException;
+import org.gradle.internal.classloader.ClassLoaderUtils;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLResolver;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.LineNumberReader;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Extracts the elements of a POM that are used by {@link PomReader} in a single pass over the document, using a StAX pull parser.
+ * Elements that are not used, such as the build, reporting or developer sections, are skipped without being retained.
+ */
+final class PomStaxParser {
+    private static final byte[] M2_ENTITIES_RESOURCE;
+    private static final XMLInputFactory XML_INPUT_FACTORY;
+
+    static {
+        byte[] bytes;
+        try {
+            bytes = IOUtils.toByteArray(org.apache.ivy.plugins.parser.m2.PomReader.class.getResourceAsStream("m2-entities.ent"));
+        } catch (IOException e) {
+            throw UncheckedException.throwAsUncheckedException(e);
+        }
+        M2_ENTITIES_RESOURCE = bytes;
+
+        // Set the context classloader the bootstrap classloader, to work around the way that JAXP locates implementation classes
+        // This should ensure that the JAXP classes provided by the JVM are used, rather than some other implementation
+        ClassLoader original = Thread.currentThread().getContextClassLoader();
+        Thread.currentThread().setContextClassLoader(ClassLoaderUtils.getPlatformClassLoader());
+        try {
+            XML_INPUT_FACTORY = XMLInputFactory.newInstance();
+            XML_INPUT_FACTORY.setProperty(XMLInputFactory.IS_VALIDATING, false);
+            XML_INPUT_FACTORY.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+            XML_INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, true);
+            XML_INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, true);
+            XML_INPUT_FACTORY.setProperty(XMLInputFactory.IS_REPLACING_ENTITY_REFERENCES, true);
+            XML_INPUT_FACTORY.setProperty(XMLInputFactory.IS_COALESCING, true);
+            XML_INPUT_FACTORY.setXMLResolver(new XMLResolver() {
+                public Object resolveEntity(String publicId, String systemId, String baseUri, String namespace) {
+                    if ((systemId != null) && systemId.endsWith("m2-entities.ent")) {
+                        return new ByteArrayInputStream(M2_ENTITIES_RESOURCE);
+                    }
+                    return null;
+                }
+            });
+        } finally {
+            Thread.currentThread().setContextClassLoader(original);
+        }
+    }
+
+    private static final ElementSpec IGNORED = new ElementSpec(false);
+    private static final ElementSpec TEXT = new ElementSpec(true);
+    private static final ElementSpec PROJECT;
+
+    static {
+        ElementSpec exclusions = new ElementSpec(false)
+            .with("exclusion", new ElementSpec(false).with("groupId", TEXT).with("artifactId", TEXT));
+        ElementSpec dependencies = new ElementSpec(false)
+            .with("dependency", coordinates().with("scope", TEXT).with("type", TEXT).with("classifier", TEXT).with("optional", TEXT).with("exclusions", exclusions));
+        ElementSpec dependencyManagement = new ElementSpec(false).with("dependencies", dependencies);
+        ElementSpec properties = new ElementSpec(false).withAny(TEXT);
+        ElementSpec activation = new ElementSpec(false)
+            .with("activeByDefault", TEXT)
+            .with("property", new ElementSpec(false).with("name", TEXT));
+        ElementSpec profile = new ElementSpec(false)
+            .with("id", TEXT)
+            .with("activation", activation)
+            .with("properties", properties)
+            .with("dependencies", dependencies)
+            .with("dependencyManagement", dependencyManagement);
+        PROJECT = coordinates()
+            .with("packaging", TEXT)
+            .with("parent", coordinates())
+            .with("distributionManagement", new ElementSpec(false).with("relocation", coordinates()))
+            .with("properties", properties)
+            .with("dependencies", dependencies)
+            .with("dependencyManagement", dependencyManagement)
+            .with("profiles", new ElementSpec(false).with("profile", profile));
+    }
+
+    private PomStaxParser() {}
+
+    /**
+     * Parses the given POM content, returning its root element. Only the content of a {@code project} or {@code model} root element is retained.
+     */
+    public static PomElement parse(InputStream stream, String systemId) throws IOException, XMLStreamException {
+        // Set the context classloader the bootstrap classloader, to work around the way that JAXP locates implementation classes
+        // This should ensure that the JAXP classes provided by the JVM are used, rather than some other implementation
+        ClassLoader original = Thread.currentThread().getContextClassLoader();
+        Thread.currentThread().setContextClassLoader(ClassLoaderUtils.getPlatformClassLoader());
+        try {
+            XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(systemId, new AddDTDFilterInputStream(stream));
+            try {
+                return parse(reader);
+            } finally {
+                reader.close();
+            }
+        } finally {
+            Thread.currentThread().setContextClassLoader(original);
+        }
+    }
+
+    private static PomElement parse(XMLStreamReader reader) throws XMLStreamException {
+        PomElement root = null;
+        Deque<PomElement> elements = new ArrayDeque<PomElement>();
+        Deque<ElementSpec> specs = new ArrayDeque<ElementSpec>();
+        // Elements with text never retain child elements, so at most one of them is open at a time
+        StringBuilder text = new StringBuilder();
+        while (reader.hasNext()) {
+            switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    String name = getName(reader);
+                    ElementSpec spec;
+                    if (root == null) {
+                        spec = "project".equals(name) || "model".equals(name) ? PROJECT : IGNORED;
+                    } else {
+                        spec = specs.peek().getChild(name);
+                        if (spec == null) {
+                            skipElement(reader);
+                            break;
+                        }
+                    }
+                    PomElement element = new PomElement(name);
+                    if (root == null) {
+                        root = element;
+                    } else {
+                        elements.peek().addChild(element);
+                    }
+                    elements.push(element);
+                    specs.push(spec);
+                    text.setLength(0);
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    if (specs.pop().hasText) {
+                        elements.peek().setText(text.toString());
+                    }
+                    elements.pop();
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    if (!specs.isEmpty() && specs.peek().hasText) {
+                        text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                    }
+                    break;
+                case XMLStreamConstants.COMMENT:
+                    if (!elements.isEmpty()) {
+                        elements.peek().addComment(reader.getText());
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        return root;
+    }
+
+    private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    private static String getName(XMLStreamReader reader) {
+        String prefix = reader.getPrefix();
+        String localName = reader.getLocalName();
+        return prefix == null || prefix.length() == 0 ? localName : prefix + ":" + localName;
+    }
+
+    private static ElementSpec coordinates() {
+        return new ElementSpec(false).with("groupId", TEXT).with("artifactId", TEXT).with("version", TEXT);
+    }
+
+    public static String getTextContent(PomElement element) {
+        return element.getText();
+    }
+
+    public static String getFirstChildText(PomElement parentElem, String name) {
+        PomElement node = getFirstChildElement(parentElem, name);
+        if (node != null) {
+            return getTextContent(node);
+        } else {
+            return null;
+        }
+    }
+
+    public static PomElement getFirstChildElement(PomElement parentElem, String name) {
+        if (parentElem == null) {
+            return null;
+        }
+        for (PomElement child : parentElem.getChildren()) {
+            if (name.equals(child.getName())) {
+                return child;
+            }
+        }
+        return null;
+    }
+
+    public static List<PomElement> getAllChilds(PomElement parent) {
+        if (parent == null) {
+            return Collections.emptyList();
+        }
+        return parent.getChildren();
+    }
+
+    /**
+     * Describes which child elements of an element are retained, and whether its text is.
+     */
+    private static final class ElementSpec {
+        private final boolean hasText;
+        private final Map<String, ElementSpec> children = new HashMap<String, ElementSpec>();
+        private ElementSpec anyChild;
+
+        ElementSpec(boolean hasText) {
+            this.hasText = hasText;
+        }
+
+        ElementSpec with(String name, ElementSpec child) {
+            children.put(name, child);
+            return this;
+        }
+
+        ElementSpec withAny(ElementSpec child) {
+            anyChild = child;
+            return this;
+        }
+
+        ElementSpec getChild(String name) {
+            ElementSpec child = children.get(name);
+            return child != null ? child : anyChild;
+        }
+    }
+
+    public static final class AddDTDFilterInputStream extends FilterInputStream {
+        private static final int MARK = 10000;
+        private static final String DOCTYPE = "<!DOCTYPE project SYSTEM \"m2-entities.ent\">\n";
+
+        private int count;
+        private byte[] prefix = DOCTYPE.getBytes();
+
+        public AddDTDFilterInputStream(InputStream in) throws IOException {
+            super(new BufferedInputStream(in));
+
+            this.in.mark(MARK);
+
+            // TODO: we should really find a better solution for this...
+            // maybe we could use a FilterReader instead of a FilterInputStream?
+            int byte1 = this.in.read();
+            int byte2 = this.in.read();
+            int byte3 = this.in.read();
+
+            if (byte1 == 239 && byte2 == 187 && byte3 == 191) {
+                // skip the UTF-8 BOM
+                this.in.mark(MARK);
+            } else {
+                this.in.reset();
+            }
+
+            int bytesToSkip = 0;
+            LineNumberReader reader = new LineNumberReader(new InputStreamReader(this.in, "UTF-8"), 100);
+            String firstLine = reader.readLine();
+            if (firstLine != null) {
+                String trimmed = firstLine.trim();
+                if (trimmed.startsWith("<?xml ")) {
+                    int endIndex = trimmed.indexOf("?>");
+                    String xmlDecl = trimmed.substring(0, endIndex + 2);
+                    prefix = (xmlDecl + "\n" + DOCTYPE).getBytes();
+                    bytesToSkip = xmlDecl.getBytes().length;
+                }
+            }
+
+            this.in.reset();
+            for (int i = 0; i < bytesToSkip; i++) {
+                this.in.read();
+            }
+        }
+
+        public int read() throws IOException {
+            if (count < prefix.length) {
+                return prefix[count++];
+            }
+
+            return super.read();
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (b == null) {
+                throw new NullPointerException();
+            } else if ((off < 0) || (off > b.length) || (len < 0)
+                    || ((off + len) > b.length) || ((off + len) < 0)) {
+                throw new IndexOutOfBoundsException();
+            } else if (len == 0) {
+                return 0;
+            }
+
+            int nbrBytesCopied = 0;
+
+            if (count < prefix.length) {
+                int nbrBytesFromPrefix = Math.min(prefix.length - count, len);
+                System.arraycopy(prefix, count, b, off, nbrBytesFromPrefix);
+                nbrBytesCopied = nbrBytesFromPrefix;
+            }
+
+            if (nbrBytesCopied < len) {
+                nbrBytesCopied += in.read(b, off + nbrBytesCopied, len - nbrBytesCopied);
+            }
+
+            count += nbrBytesCopied;
+            return nbrBytesCopied;
+        }
+    }
+}
@@ -17,6 +17,7 @@
 package org.gradle.api.internal.artifacts.ivyservice.modulecache;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Interner;
 import com.google.common.collect.Maps;
 import org.gradle.api.artifacts.ModuleIdentifier;
 import org.gradle.api.artifacts.component.ComponentIdentifier;
@@ -60,17 +61,19 @@ public class ModuleComponentResolveMetadataSerializer extends AbstractSerializer
     private final RealisedMavenModuleResolveMetadataSerializationHelper mavenSerializationHelper;
     private final ModuleMetadataSerializer delegate;
     private final ImmutableModuleIdentifierFactory moduleIdentifierFactory;
+    private final Interner<String> stringInterner;
 
-    public ModuleComponentResolveMetadataSerializer(ModuleMetadataSerializer delegate, DesugaringAttributeContainerSerializer attributeContainerSerializer, ImmutableModuleIdentifierFactory moduleIdentifierFactory) {
+    public ModuleComponentResolveMetadataSerializer(ModuleMetadataSerializer delegate, DesugaringAttributeContainerSerializer attributeContainerSerializer, ImmutableModuleIdentifierFactory moduleIdentifierFactory, Interner<String> stringInterner) {
         this.delegate = delegate;
         this.moduleIdentifierFactory = moduleIdentifierFactory;
+        this.stringInterner = stringInterner;
         ivySerializationHelper = new RealisedIvyModuleResolveMetadataSerializationHelper(attributeContainerSerializer, moduleIdentifierFactory);
         mavenSerializationHelper = new RealisedMavenModuleResolveMetadataSerializationHelper(attributeContainerSerializer, moduleIdentifierFactory);
     }
 
     @Override
-    public ModuleComponentResolveMetadata read(Decoder decoder) throws EOFException, Exception {
-
+    public ModuleComponentResolveMetadata read(Decoder encoded) throws EOFException, Exception {
+        Decoder decoder = new StringDeduplicatingDecoder(encoded, stringInterner);
         Map<Integer, MavenDependencyDescriptor> deduplicationDependencyCache = Maps.newHashMap();
         MutableModuleComponentResolveMetadata mutable = delegate.read(decoder, moduleIdentifierFactory, deduplicationDependencyCache);
         readPlatformOwners(decoder, mutable);
@@ -105,7 +108,8 @@ public class ModuleComponentResolveMetadataSerializer extends AbstractSerializer
     }
 
     @Override
-    public void write(Encoder encoder, ModuleComponentResolveMetadata value) throws Exception {
+    public void write(Encoder encoded, ModuleComponentResolveMetadata value) throws Exception {
+        Encoder encoder = new StringDeduplicatingEncoder(encoded);
         AbstractRealisedModuleComponentResolveMetadata transformed = assertRealized(value);
         HashMap<ExternalDependencyDescriptor, Integer> deduplicationDependencyCache = Maps.newHashMap();
         delegate.write(encoder, transformed, deduplicationDependencyCache);
@@ -71,7 +71,7 @@ public class ModuleMetadataStore {
         return metaDataStore.add(PATH_JOINER.join(filePath), new Action<File>() {
             public void execute(File moduleDescriptorFile) {
                 try {
-                    KryoBackedEncoder encoder = new KryoBackedEncoder(new FileOutputStream(moduleDescriptorFile));
+                    StringDeduplicatingEncoder encoder = new StringDeduplicatingEncoder(new KryoBackedEncoder(new FileOutputStream(moduleDescriptorFile)));
                     try {
                         moduleMetadataSerializer.write(encoder, metadata, Maps.newHashMap());
                     } finally {
@@ -23,10 +23,17 @@ import java.io.Closeable;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
 
+/**
+ * Reads strings written by {@link StringDeduplicatingEncoder}. Each distinct string is decoded and interned once, and references to it are resolved
+ * to the same instance.
+ */
 class StringDeduplicatingDecoder implements Decoder, Closeable {
     private final Decoder delegate;
     private final Interner<String> stringInterner;
+    private final List<String> strings = new ArrayList<String>();
 
     StringDeduplicatingDecoder(Decoder delegate, Interner<String> stringInterner) {
         this.delegate = delegate;
@@ -65,17 +72,30 @@ class StringDeduplicatingDecoder implements Decoder, Closeable {
 
     @Override
     public String readString() throws EOFException, IOException {
-        return stringInterner.intern(delegate.readString());
+        String str = readNullableString();
+        if (str == null) {
+            throw new IOException("Unexpected null string.");
+        }
+        return str;
     }
 
     @Override
     @Nullable
     public String readNullableString() throws EOFException, IOException {
-        String str = delegate.readNullableString();
-        if (str != null) {
-            str = stringInterner.intern(str);
+        int reference = delegate.readSmallInt();
+        if (reference == StringDeduplicatingEncoder.NULL_STRING) {
+            return null;
         }
-        return str;
+        if (reference == StringDeduplicatingEncoder.NEW_STRING) {
+            String str = stringInterner.intern(delegate.readString());
+            strings.add(str);
+            return str;
+        }
+        int index = reference - StringDeduplicatingEncoder.FIRST_REFERENCE;
+        if (index < 0 || index >= strings.size()) {
+            throw new IOException("Unexpected string reference " + reference + ".");
+        }
+        return strings.get(index);
     }
 
     @Override
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.gradle.api.internal.artifacts.ivyservice.modulecache;
+
+import org.gradle.internal.serialize.Encoder;
+
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes each distinct string once, and subsequent occurrences as a reference to the first one.
+ * Module metadata repeats the same group, module, version, configuration and attribute names many times over, so this makes the serialized form
+ * considerably smaller and means that {@link StringDeduplicatingDecoder} only has to decode and intern each distinct string once.
+ */
+class StringDeduplicatingEncoder implements Encoder, Closeable {
+    static final int NULL_STRING = 0;
+    static final int NEW_STRING = 1;
+    static final int FIRST_REFERENCE = 2;
+
+    private final Encoder delegate;
+    private final Map<String, Integer> strings = new HashMap<String, Integer>();
+
+    StringDeduplicatingEncoder(Encoder delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return delegate.getOutputStream();
+    }
+
+    @Override
+    public void writeByte(byte value) throws IOException {
+        delegate.writeByte(value);
+    }
+
+    @Override
+    public void writeBytes(byte[] bytes) throws IOException {
+        delegate.writeBytes(bytes);
+    }
+
+    @Override
+    public void writeBytes(byte[] bytes, int offset, int count) throws IOException {
+        delegate.writeBytes(bytes, offset, count);
+    }
+
+    @Override
+    public void writeBinary(byte[] bytes) throws IOException {
+        delegate.writeBinary(bytes);
+    }
+
+    @Override
+    public void writeBinary(byte[] bytes, int offset, int count) throws IOException {
+        delegate.writeBinary(bytes, offset, count);
+    }
+
+    @Override
+    public void writeLong(long value) throws IOException {
+        delegate.writeLong(value);
+    }
+
+    @Override
+    public void writeSmallLong(long value) throws IOException {
+        delegate.writeSmallLong(value);
+    }
+
+    @Override
+    public void writeInt(int value) throws IOException {
+        delegate.writeInt(value);
+    }
+
+    @Override
+    public void writeSmallInt(int value) throws IOException {
+        delegate.writeSmallInt(value);
+    }
+
+    @Override
+    public void writeBoolean(boolean value) throws IOException {
+        delegate.writeBoolean(value);
+    }
+
+    @Override
+    public void writeString(CharSequence value) throws IOException {
+        if (value == null) {
+            throw new IllegalArgumentException("Cannot encode a null string.");
+        }
+        writeNullableString(value);
+    }
+
+    @Override
+    public void writeNullableString(@Nullable CharSequence value) throws IOException {
+        if (value == null) {
+            delegate.writeSmallInt(NULL_STRING);
+            return;
+        }
+        String string = value.toString();
+        Integer index = strings.get(string);
+        if (index != null) {
+            delegate.writeSmallInt(FIRST_REFERENCE + index);
+        } else {
+            strings.put(string, strings.size());
+            delegate.writeSmallInt(NEW_STRING);
+            delegate.writeString(string);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        ((Closeable) delegate).close();
+    }
+}
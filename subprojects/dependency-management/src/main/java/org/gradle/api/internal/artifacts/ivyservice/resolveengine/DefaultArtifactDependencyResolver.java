@@ -18,13 +18,20 @@ package org.gradle.api.internal.artifacts.ivyservice.resolveengine;
 import com.google.common.collect.Lists;
 import org.gradle.api.Action;
 import org.gradle.api.artifacts.DependencySubstitution;
+import org.gradle.api.artifacts.ModuleVersionIdentifier;
+import org.gradle.api.artifacts.VersionConstraint;
+import org.gradle.api.artifacts.component.ComponentSelector;
+import org.gradle.api.artifacts.component.ModuleComponentIdentifier;
+import org.gradle.api.artifacts.component.ModuleComponentSelector;
 import org.gradle.api.attributes.AttributesSchema;
 import org.gradle.api.internal.artifacts.ArtifactDependencyResolver;
 import org.gradle.api.internal.artifacts.ComponentSelectorConverter;
+import org.gradle.api.internal.artifacts.DefaultModuleVersionIdentifier;
 import org.gradle.api.internal.artifacts.GlobalDependencyResolutionRules;
 import org.gradle.api.internal.artifacts.ResolveContext;
 import org.gradle.api.internal.artifacts.configurations.ConflictResolution;
 import org.gradle.api.internal.artifacts.configurations.ResolutionStrategyInternal;
+import org.gradle.api.internal.artifacts.configurations.dynamicversion.CachePolicy;
 import org.gradle.api.internal.artifacts.ivyservice.clientmodule.ClientModuleResolver;
 import org.gradle.api.internal.artifacts.ivyservice.dependencysubstitution.CachingDependencySubstitutionApplicator;
 import org.gradle.api.internal.artifacts.ivyservice.dependencysubstitution.DefaultDependencySubstitutionApplicator;
@@ -43,19 +50,27 @@ import org.gradle.api.internal.artifacts.ivyservice.resolveengine.excludes.Modul
 import org.gradle.api.internal.artifacts.ivyservice.resolveengine.graph.CompositeDependencyGraphVisitor;
 import org.gradle.api.internal.artifacts.ivyservice.resolveengine.graph.DependencyGraphVisitor;
 import org.gradle.api.internal.artifacts.ivyservice.resolveengine.graph.builder.DependencyGraphBuilder;
+import org.gradle.api.internal.artifacts.ivyservice.resolveengine.graph.builder.SelectedVersions;
 import org.gradle.api.internal.artifacts.ivyservice.resolveengine.graph.conflicts.DefaultCapabilitiesConflictHandler;
 import org.gradle.api.internal.artifacts.ivyservice.resolveengine.graph.conflicts.DefaultConflictHandler;
 import org.gradle.api.internal.artifacts.ivyservice.resolveengine.graph.conflicts.LastCandidateCapabilityResolver;
 import org.gradle.api.internal.artifacts.ivyservice.resolveengine.graph.conflicts.ModuleConflictHandler;
 import org.gradle.api.internal.artifacts.ivyservice.resolveengine.graph.conflicts.RejectRemainingCandidates;
 import org.gradle.api.internal.artifacts.ivyservice.resolveengine.graph.conflicts.UpgradeCapabilityResolver;
+import org.gradle.api.internal.artifacts.ivyservice.resolveengine.store.SelectedVersionsStore;
 import org.gradle.api.internal.artifacts.repositories.ResolutionAwareRepository;
+import org.gradle.api.internal.artifacts.repositories.descriptor.RepositoryDescriptor;
 import org.gradle.api.internal.artifacts.type.ArtifactTypeRegistry;
 import org.gradle.api.internal.attributes.AttributesSchemaInternal;
 import org.gradle.api.internal.attributes.ImmutableAttributesFactory;
 import org.gradle.api.specs.Spec;
 import org.gradle.internal.Actions;
+import org.gradle.internal.component.model.ComponentResolveMetadata;
+import org.gradle.internal.component.model.ConfigurationMetadata;
 import org.gradle.internal.component.model.DependencyMetadata;
+import org.gradle.internal.hash.HashCode;
+import org.gradle.internal.hash.Hasher;
+import org.gradle.internal.hash.Hashing;
 import org.gradle.internal.operations.BuildOperationExecutor;
 import org.gradle.internal.resolve.caching.ComponentMetadataSupplierRuleExecutor;
 import org.gradle.internal.resolve.resolver.ComponentMetaDataResolver;
@@ -65,12 +80,23 @@ import org.gradle.internal.resolve.result.BuildableComponentResolveResult;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import static org.gradle.api.internal.artifacts.ivyservice.dependencysubstitution.DependencySubstitutionApplicator.NO_OP;
 
 public class DefaultArtifactDependencyResolver implements ArtifactDependencyResolver {
     private static final Logger LOGGER = LoggerFactory.getLogger(DefaultArtifactDependencyResolver.class);
+
+    /**
+     * When set to true, the versions selected by a resolved graph are kept across builds, and the next resolution of the same graph goes
+     * straight to them for as long as the cache policy does not require refreshing the version lists they came from.
+     */
+    public static final String REUSE_SELECTED_VERSIONS_PROPERTY = "org.gradle.dependency.selectedversions.reuse";
+
     private final DependencyDescriptorFactory dependencyDescriptorFactory;
     private final List<ResolverProviderFactory> resolverFactories;
     private final ProjectDependencyResolver projectDependencyResolver;
@@ -83,6 +109,7 @@ public class DefaultArtifactDependencyResolver implements ArtifactDependencyReso
     private final VersionSelectorScheme versionSelectorScheme;
     private final VersionParser versionParser;
     private final ComponentMetadataSupplierRuleExecutor componentMetadataSupplierRuleExecutor;
+    private final SelectedVersionsStore selectedVersionsStore;
 
     public DefaultArtifactDependencyResolver(BuildOperationExecutor buildOperationExecutor,
                                              List<ResolverProviderFactory> resolverFactories,
@@ -95,7 +122,8 @@ public class DefaultArtifactDependencyResolver implements ArtifactDependencyReso
                                              ImmutableAttributesFactory attributesFactory,
                                              VersionSelectorScheme versionSelectorScheme,
                                              VersionParser versionParser,
-                                             ComponentMetadataSupplierRuleExecutor componentMetadataSupplierRuleExecutor) {
+                                             ComponentMetadataSupplierRuleExecutor componentMetadataSupplierRuleExecutor,
+                                             SelectedVersionsStore selectedVersionsStore) {
         this.resolverFactories = resolverFactories;
         this.projectDependencyResolver = projectDependencyResolver;
         this.ivyFactory = ivyFactory;
@@ -108,18 +136,138 @@ public class DefaultArtifactDependencyResolver implements ArtifactDependencyReso
         this.versionSelectorScheme = versionSelectorScheme;
         this.versionParser = versionParser;
         this.componentMetadataSupplierRuleExecutor = componentMetadataSupplierRuleExecutor;
+        this.selectedVersionsStore = selectedVersionsStore;
     }
 
     @Override
     public void resolve(ResolveContext resolveContext, List<? extends ResolutionAwareRepository> repositories, GlobalDependencyResolutionRules metadataHandler, Spec<? super DependencyMetadata> edgeFilter, DependencyGraphVisitor graphVisitor, DependencyArtifactsVisitor artifactsVisitor, AttributesSchemaInternal consumerSchema, ArtifactTypeRegistry artifactTypeRegistry) {
         LOGGER.debug("Resolving {}", resolveContext);
         ComponentResolversChain resolvers = createResolvers(resolveContext, repositories, metadataHandler, artifactTypeRegistry, consumerSchema);
-        DependencyGraphBuilder builder = createDependencyGraphBuilder(resolvers, resolveContext.getResolutionStrategy(), metadataHandler, edgeFilter, consumerSchema, moduleExclusions, buildOperationExecutor);
+        ResolutionStrategyInternal resolutionStrategy = resolveContext.getResolutionStrategy();
 
         DependencyGraphVisitor artifactsGraphVisitor = new ResolvedArtifactsGraphVisitor(artifactsVisitor, resolvers.getArtifactSelector());
+        DependencyGraphVisitor visitor = new CompositeDependencyGraphVisitor(graphVisitor, artifactsGraphVisitor);
+
+        if (!Boolean.getBoolean(REUSE_SELECTED_VERSIONS_PROPERTY) || !canReuseSelectedVersions(resolutionStrategy)) {
+            // Resolve the dependency graph
+            DependencyGraphBuilder builder = createDependencyGraphBuilder(resolvers, resolutionStrategy, metadataHandler, edgeFilter, consumerSchema, moduleExclusions, buildOperationExecutor);
+            builder.resolve(resolveContext, visitor);
+            return;
+        }
+
+        // Resolve the dependency graph straight to the versions it selected last time, if those are still fresh
+        HashCode key = fingerprint(resolveContext, repositories, resolutionStrategy);
+        SelectedVersions selectedVersions = findSelectedVersions(key, resolutionStrategy.getCachePolicy());
+        if (selectedVersions != null) {
+            DependencyGraphBuilder builder = createDependencyGraphBuilder(resolvers, resolutionStrategy, metadataHandler, edgeFilter, consumerSchema, moduleExclusions, buildOperationExecutor);
+            if (builder.resolveWithSelectedVersions(resolveContext, visitor, selectedVersions)) {
+                return;
+            }
+        }
+
+        DependencyGraphBuilder builder = createDependencyGraphBuilder(resolvers, resolutionStrategy, metadataHandler, edgeFilter, consumerSchema, moduleExclusions, buildOperationExecutor);
+        SelectedVersions recordedVersions = builder.resolveAndRecordSelectedVersions(resolveContext, visitor);
+        if (recordedVersions != null) {
+            selectedVersionsStore.store(key, recordedVersions);
+        }
+    }
+
+    /**
+     * Selected versions are only reused when nothing but the dependency metadata takes part in selecting versions: the graph built from
+     * them is checked to select the very same versions, which is not enough to tell that rules, forced versions or locks would agree.
+     */
+    private static boolean canReuseSelectedVersions(ResolutionStrategyInternal resolutionStrategy) {
+        return Actions.<DependencySubstitution>doNothing() == resolutionStrategy.getDependencySubstitutionRule()
+            && resolutionStrategy.getComponentSelection().getRules().isEmpty()
+            && !resolutionStrategy.isDependencyLockingEnabled()
+            && resolutionStrategy.getConflictResolution() != ConflictResolution.strict;
+    }
+
+    /**
+     * Hashes the inputs of the resolution which are known before resolving: the root component and its declared dependencies including
+     * their reasons, and the repositories. Anything else which changes the graph is caught by checking the versions the graph selects.
+     */
+    private static HashCode fingerprint(ResolveContext resolveContext, List<? extends ResolutionAwareRepository> repositories, ResolutionStrategyInternal resolutionStrategy) {
+        Hasher hasher = Hashing.newHasher();
+        ComponentResolveMetadata rootComponent = resolveContext.toRootComponentMetaData();
+        hasher.putString(rootComponent.getId().getDisplayName());
+        hasher.putString(resolveContext.getName());
+        hasher.putString(resolutionStrategy.getConflictResolution().name());
+        ConfigurationMetadata rootConfiguration = rootComponent.getConfiguration(resolveContext.getName());
+        if (rootConfiguration != null) {
+            hasher.putString(rootConfiguration.getAttributes().toString());
+            for (DependencyMetadata dependency : rootConfiguration.getDependencies()) {
+                hashDependency(hasher, dependency);
+            }
+        }
+        for (ResolutionAwareRepository repository : repositories) {
+            RepositoryDescriptor descriptor = repository.getDescriptor();
+            hasher.putString(descriptor.name);
+            hasher.putString(descriptor.getType().name());
+            for (Map.Entry<String, ?> property : descriptor.getProperties().entrySet()) {
+                hasher.putString(property.getKey());
+                hasher.putString(String.valueOf(property.getValue()));
+            }
+        }
+        return hasher.hash();
+    }
+
+    private static void hashDependency(Hasher hasher, DependencyMetadata dependency) {
+        ComponentSelector selector = dependency.getSelector();
+        if (selector instanceof ModuleComponentSelector) {
+            ModuleComponentSelector moduleSelector = (ModuleComponentSelector) selector;
+            VersionConstraint versionConstraint = moduleSelector.getVersionConstraint();
+            hasher.putString(moduleSelector.getGroup());
+            hasher.putString(moduleSelector.getModule());
+            hasher.putString(versionConstraint.getRequiredVersion());
+            hasher.putString(versionConstraint.getPreferredVersion());
+            hasher.putString(versionConstraint.getStrictVersion());
+            hasher.putString(versionConstraint.getRejectedVersions().toString());
+        } else {
+            hasher.putString(selector.getDisplayName());
+        }
+        hasher.putBoolean(dependency.isConstraint());
+        hasher.putBoolean(dependency.isTransitive());
+        hasher.putString(dependency.getExcludes().toString());
+        // The reasons of declared dependencies end up in the selection reasons which are recorded with the selected versions
+        String reason = dependency.getReason();
+        if (reason == null) {
+            hasher.putNull();
+        } else {
+            hasher.putString(reason);
+        }
+    }
+
+    /**
+     * Returns the versions recorded for the given key, unless a dynamic version among them is due for refreshing its version list.
+     */
+    @Nullable
+    private SelectedVersions findSelectedVersions(HashCode key, CachePolicy cachePolicy) {
+        SelectedVersionsStore.CachedSelectedVersions cached = selectedVersionsStore.get(key);
+        if (cached == null) {
+            return null;
+        }
+        long ageMillis = selectedVersionsStore.getAgeMillis(cached);
+        SelectedVersions selectedVersions = cached.getSelectedVersions();
+        for (Map.Entry<ModuleComponentSelector, ModuleComponentIdentifier> entry : selectedVersions.getSelections().entrySet()) {
+            ModuleComponentSelector selector = entry.getKey();
+            if (isDynamic(selector.getVersionConstraint())) {
+                Set<ModuleVersionIdentifier> versions = Collections.singleton(DefaultModuleVersionIdentifier.newId(entry.getValue()));
+                if (cachePolicy.mustRefreshVersionList(selector.getModuleIdentifier(), versions, ageMillis)) {
+                    LOGGER.debug("Not reusing versions selected for {}, as the version list of {} must be refreshed", key, selector);
+                    return null;
+                }
+            }
+        }
+        return selectedVersions;
+    }
+
+    private boolean isDynamic(VersionConstraint versionConstraint) {
+        return isDynamic(versionConstraint.getRequiredVersion()) || isDynamic(versionConstraint.getStrictVersion());
+    }
 
-        // Resolve the dependency graph
-        builder.resolve(resolveContext, new CompositeDependencyGraphVisitor(graphVisitor, artifactsGraphVisitor));
+    private boolean isDynamic(String version) {
+        return !version.isEmpty() && versionSelectorScheme.parseSelector(version).isDynamic();
     }
 
     private DependencyGraphBuilder createDependencyGraphBuilder(ComponentResolversChain componentSource, ResolutionStrategyInternal resolutionStrategy, GlobalDependencyResolutionRules globalRules, Spec<? super DependencyMetadata> edgeFilter, AttributesSchemaInternal attributesSchema, ModuleExclusions moduleExclusions, BuildOperationExecutor buildOperationExecutor) {
@@ -75,6 +75,7 @@ public class ComponentState implements ComponentResolutionState, DependencyGraph
     private boolean rejected;
     private boolean root;
     private Pair<Capability, Collection<NodeState>> capabilityReject;
+    private ComponentSelectionReason recordedSelectionReason;
 
     ComponentState(Long resultId, ModuleResolveState module, ModuleVersionIdentifier id, ComponentIdentifier componentIdentifier, ComponentMetaDataResolver resolver) {
         this.resultId = resultId;
@@ -188,8 +189,7 @@ public class ComponentState implements ComponentResolutionState, DependencyGraph
             return;
         }
 
-        // Any metadata overrides (e.g classifier/artifacts/client-module) will be taken from the first dependency that referenced this component
-        ComponentOverrideMetadata componentOverrideMetadata = DefaultComponentOverrideMetadata.forDependency(firstSelectedBy.getDependencyMetadata());
+        ComponentOverrideMetadata componentOverrideMetadata = getOverrideMetadata();
 
         DefaultBuildableComponentResolveResult result = new DefaultBuildableComponentResolveResult();
         if (tryResolveVirtualPlatform()) {
@@ -204,6 +204,11 @@ public class ComponentState implements ComponentResolutionState, DependencyGraph
         metadata = result.getMetadata();
     }
 
+    ComponentOverrideMetadata getOverrideMetadata() {
+        // Any metadata overrides (e.g classifier/artifacts/client-module) will be taken from the first dependency that referenced this component
+        return DefaultComponentOverrideMetadata.forDependency(firstSelectedBy.getDependencyMetadata());
+    }
+
     private boolean tryResolveVirtualPlatform() {
         if (module.isVirtualPlatform()) {
             for (ComponentState version : module.getAllVersions()) {
@@ -234,6 +239,9 @@ public class ComponentState implements ComponentResolutionState, DependencyGraph
         if (root) {
             return ComponentSelectionReasons.root();
         }
+        if (recordedSelectionReason != null) {
+            return recordedSelectionReason;
+        }
         ComponentSelectionReasonInternal reason = ComponentSelectionReasons.empty();
         for (final SelectorState selectorState : module.getSelectors()) {
             if (selectorState.getFailure() == null) {
@@ -251,6 +259,14 @@ public class ComponentState implements ComponentResolutionState, DependencyGraph
         selectionCauses.add(componentSelectionDescriptor);
     }
 
+    /**
+     * Uses the reason recorded when this component was selected by an earlier resolution of the same graph, rather than deriving it
+     * from the selectors of this resolution.
+     */
+    void useRecordedSelectionReason(ComponentSelectionReason reason) {
+        this.recordedSelectionReason = reason;
+    }
+
     public void setRoot() {
         this.root = true;
     }
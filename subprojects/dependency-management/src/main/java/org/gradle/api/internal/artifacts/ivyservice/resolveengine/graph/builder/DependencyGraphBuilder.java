@@ -26,7 +26,9 @@ import org.gradle.api.artifacts.Configuration;
 import org.gradle.api.artifacts.ModuleVersionIdentifier;
 import org.gradle.api.artifacts.component.ComponentIdentifier;
 import org.gradle.api.artifacts.component.ComponentSelector;
+import org.gradle.api.artifacts.component.ModuleComponentIdentifier;
 import org.gradle.api.artifacts.component.ModuleComponentSelector;
+import org.gradle.api.artifacts.result.ComponentSelectionReason;
 import org.gradle.api.attributes.Attribute;
 import org.gradle.api.capabilities.Capability;
 import org.gradle.api.internal.artifacts.ComponentSelectorConverter;
@@ -65,6 +67,7 @@ import org.gradle.internal.resolve.result.DefaultBuildableComponentResolveResult
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
@@ -73,6 +76,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 
 public class DependencyGraphBuilder {
@@ -129,21 +133,66 @@ public class DependencyGraphBuilder {
     }
 
     public void resolve(final ResolveContext resolveContext, final DependencyGraphVisitor modelVisitor) {
+        ResolveState resolveState = buildGraph(resolveContext, idResolver);
+        assembleResult(resolveState, modelVisitor);
+    }
+
+    /**
+     * Resolves the graph, and returns the versions it selected, or null when the graph cannot be resolved again from those versions alone.
+     */
+    @Nullable
+    public SelectedVersions resolveAndRecordSelectedVersions(ResolveContext resolveContext, DependencyGraphVisitor modelVisitor) {
+        ResolveState resolveState = buildGraph(resolveContext, idResolver);
+        SelectedVersions selectedVersions = recordSelectedVersions(resolveState);
+        assembleResult(resolveState, modelVisitor);
+        return selectedVersions;
+    }
+
+    /**
+     * Resolves the graph by going straight to the given versions, selected by an earlier resolution of the same graph. The result is only
+     * assembled when the graph ends up selecting exactly those versions again, so that the recorded selection reasons still hold.
+     *
+     * @return false when the graph selected other versions. The visitor is not called in this case, and the graph has to be resolved by a new builder.
+     */
+    public boolean resolveWithSelectedVersions(ResolveContext resolveContext, DependencyGraphVisitor modelVisitor, SelectedVersions selectedVersions) {
+        ResolveState resolveState = buildGraph(resolveContext, new SelectedVersionsIdResolver(idResolver, selectedVersions));
+        SelectedVersions actualSelections = recordSelectedVersions(resolveState);
+        if (actualSelections == null || !actualSelections.hasSameSelections(selectedVersions)) {
+            LOGGER.debug("Graph of {} does not select the recorded versions. Resolving it again.", resolveContext);
+            return false;
+        }
+        for (ModuleResolveState module : resolveState.getModules()) {
+            ComponentState selected = module.getSelected();
+            if (selected != null && selected.getComponentId() instanceof ModuleComponentIdentifier) {
+                ComponentSelectionReason reason = selectedVersions.getSelectionReason((ModuleComponentIdentifier) selected.getComponentId());
+                if (reason != null) {
+                    selected.useRecordedSelectionReason(reason);
+                }
+            }
+        }
+        assembleResult(resolveState, modelVisitor);
+        return true;
+    }
 
+    private ResolveState buildGraph(ResolveContext resolveContext, DependencyToComponentIdResolver componentIdResolver) {
         IdGenerator<Long> idGenerator = new LongIdGenerator();
         DefaultBuildableComponentResolveResult rootModule = new DefaultBuildableComponentResolveResult();
         moduleResolver.resolve(resolveContext, rootModule);
 
         int graphSize = estimateSize(resolveContext);
-        final ResolveState resolveState = new ResolveState(idGenerator, rootModule, resolveContext.getName(), idResolver, metaDataResolver, edgeFilter, attributesSchema, moduleExclusions, moduleReplacementsData, componentSelectorConverter, attributesFactory, dependencySubstitutionApplicator, versionSelectorScheme, versionComparator, versionParser, moduleConflictHandler.getResolver(), graphSize);
+        int maxPrefetchedMetadata = PrefetchingComponentMetaDataResolver.getMaxInFlight();
+        PrefetchingComponentMetaDataResolver prefetcher = maxPrefetchedMetadata > 0 ? new PrefetchingComponentMetaDataResolver(metaDataResolver, versionSelectorScheme, maxPrefetchedMetadata) : null;
+        final ResolveState resolveState = new ResolveState(idGenerator, rootModule, resolveContext.getName(), componentIdResolver, prefetcher != null ? prefetcher : metaDataResolver, edgeFilter, attributesSchema, moduleExclusions, moduleReplacementsData, componentSelectorConverter, attributesFactory, dependencySubstitutionApplicator, versionSelectorScheme, versionComparator, versionParser, moduleConflictHandler.getResolver(), graphSize);
 
         Map<ModuleVersionIdentifier, ComponentIdentifier> componentIdentifierCache = Maps.newHashMapWithExpectedSize(graphSize/2);
-        traverseGraph(resolveState, componentIdentifierCache);
+        if (prefetcher != null) {
+            traverseGraphWhilePrefetching(resolveState, componentIdentifierCache, prefetcher);
+        } else {
+            traverseGraph(resolveState, componentIdentifierCache, null);
+        }
 
         validateGraph(resolveState);
-
-        assembleResult(resolveState, modelVisitor);
-
+        return resolveState;
     }
 
     /**
@@ -159,10 +208,34 @@ public class DependencyGraphBuilder {
         return Math.max(10, estimate);
     }
 
+    /**
+     * Traverses the dependency graph while resolving the metadata of components ahead of the traversal on a build operation queue.
+     */
+    private void traverseGraphWhilePrefetching(final ResolveState resolveState, final Map<ModuleVersionIdentifier, ComponentIdentifier> componentIdentifierCache, final PrefetchingComponentMetaDataResolver prefetcher) {
+        final AtomicReference<RuntimeException> traversalFailure = new AtomicReference<RuntimeException>();
+        buildOperationExecutor.runAll(new Action<BuildOperationQueue<RunnableBuildOperation>>() {
+            @Override
+            public void execute(BuildOperationQueue<RunnableBuildOperation> buildOperationQueue) {
+                prefetcher.start(buildOperationQueue);
+                try {
+                    traverseGraph(resolveState, componentIdentifierCache, prefetcher);
+                } catch (RuntimeException e) {
+                    // Rethrow the failure as is, rather than as a failure to populate the queue
+                    traversalFailure.set(e);
+                } finally {
+                    prefetcher.stop();
+                }
+            }
+        });
+        if (traversalFailure.get() != null) {
+            throw traversalFailure.get();
+        }
+    }
+
     /**
      * Traverses the dependency graph, resolving conflicts and building the paths from the root configuration.
      */
-    private void traverseGraph(final ResolveState resolveState, final Map<ModuleVersionIdentifier, ComponentIdentifier> componentIdentifierCache) {
+    private void traverseGraph(final ResolveState resolveState, final Map<ModuleVersionIdentifier, ComponentIdentifier> componentIdentifierCache, @Nullable PrefetchingComponentMetaDataResolver prefetcher) {
         resolveState.onMoreSelected(resolveState.getRoot());
         final List<EdgeState> dependencies = Lists.newArrayList();
 
@@ -177,7 +250,7 @@ public class DependencyGraphBuilder {
                 // Initialize and collect any new outgoing edges of this node
                 dependencies.clear();
                 node.visitOutgoingDependencies(dependencies);
-                resolveEdges(node, dependencies, resolveState, componentIdentifierCache);
+                resolveEdges(node, dependencies, resolveState, componentIdentifierCache, prefetcher);
             } else {
                 // We have some batched up conflicts. Resolve the first, and continue traversing the graph
                 if (moduleConflictHandler.hasConflicts()) {
@@ -232,13 +305,21 @@ public class DependencyGraphBuilder {
     private void resolveEdges(final NodeState node,
                               final List<EdgeState> dependencies,
                               final ResolveState resolveState,
-                              final Map<ModuleVersionIdentifier, ComponentIdentifier> componentIdentifierCache) {
+                              final Map<ModuleVersionIdentifier, ComponentIdentifier> componentIdentifierCache,
+                              @Nullable final PrefetchingComponentMetaDataResolver prefetcher) {
         if (dependencies.isEmpty()) {
             return;
         }
         performSelectionSerially(dependencies, resolveState);
-        maybeDownloadMetadataInParallel(node, componentIdentifierCache, dependencies);
+        if (prefetcher != null) {
+            prefetchMetadata(componentIdentifierCache, dependencies, prefetcher);
+        } else {
+            maybeDownloadMetadataInParallel(node, componentIdentifierCache, dependencies);
+        }
         attachToTargetRevisionsSerially(dependencies);
+        if (prefetcher != null) {
+            prefetchMetadataOfLikelyDependencies(dependencies, prefetcher);
+        }
 
     }
 
@@ -325,6 +406,39 @@ public class DependencyGraphBuilder {
         }
     }
 
+    /**
+     * Starts resolving the metadata of the target components of the given edges, without waiting for it.
+     */
+    private void prefetchMetadata(Map<ModuleVersionIdentifier, ComponentIdentifier> componentIdentifierCache, List<EdgeState> dependencies, PrefetchingComponentMetaDataResolver prefetcher) {
+        for (EdgeState dependency : dependencies) {
+            ComponentState targetComponent = dependency.getTargetComponent();
+            if (targetComponent != null && targetComponent.isSelected() && !targetComponent.alreadyResolved()) {
+                if (!metaDataResolver.isFetchingMetadataCheap(toComponentId(targetComponent.getId(), componentIdentifierCache))) {
+                    prefetcher.prefetch(targetComponent.getComponentId(), targetComponent.getOverrideMetadata());
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts resolving the metadata of the components the newly attached target nodes are likely to depend on, so that it is available
+     * by the time those nodes are visited. This way the whole frontier of the traversal is resolved concurrently, rather than only the
+     * dependencies of a single node.
+     */
+    private void prefetchMetadataOfLikelyDependencies(List<EdgeState> dependencies, final PrefetchingComponentMetaDataResolver prefetcher) {
+        Action<DependencyMetadata> prefetchTarget = new Action<DependencyMetadata>() {
+            @Override
+            public void execute(DependencyMetadata dependency) {
+                prefetcher.prefetchTargetOf(dependency);
+            }
+        };
+        for (EdgeState dependency : dependencies) {
+            for (NodeState targetNode : dependency.getTargetNodes()) {
+                targetNode.visitLikelyOutgoingDependencies(prefetchTarget);
+            }
+        }
+    }
+
     private ComponentIdentifier toComponentId(ModuleVersionIdentifier id, Map<ModuleVersionIdentifier, ComponentIdentifier> componentIdentifierCache) {
         ComponentIdentifier identifier = componentIdentifierCache.get(id);
         if (identifier == null) {
@@ -472,6 +586,49 @@ public class DependencyGraphBuilder {
         }
     }
 
+    /**
+     * Collects the versions selected by each module selector of the graph, along with the reasons for selecting them. Returns null when the
+     * graph has failures, or has selectors which do not select a version by themselves, as such graphs cannot be reproduced from these alone.
+     */
+    @Nullable
+    private static SelectedVersions recordSelectedVersions(ResolveState resolveState) {
+        for (NodeState node : resolveState.getNodes()) {
+            if (node.isSelected()) {
+                for (EdgeState edge : node.getOutgoingEdges()) {
+                    if (edge.getFailure() != null) {
+                        return null;
+                    }
+                }
+            }
+        }
+        ComponentState root = resolveState.getRoot().getComponent();
+        Map<ModuleComponentSelector, ModuleComponentIdentifier> selections = Maps.newHashMap();
+        Map<ModuleComponentIdentifier, ComponentSelectionReason> selectionReasons = Maps.newHashMap();
+        for (ModuleResolveState module : resolveState.getModules()) {
+            ComponentState selected = module.getSelected();
+            if (selected == null || selected == root) {
+                continue;
+            }
+            for (SelectorState selector : module.getSelectors()) {
+                if (!(selector.getSelector() instanceof ModuleComponentSelector)) {
+                    continue;
+                }
+                ModuleComponentSelector moduleSelector = (ModuleComponentSelector) selector.getSelector();
+                if (selector.getFailure() != null || selector.isForce() || moduleSelector.getVersionConstraint().getBranch() != null) {
+                    return null;
+                }
+                if (!(selected.getComponentId() instanceof ModuleComponentIdentifier)) {
+                    return null;
+                }
+                selections.put(SelectedVersions.normalize(moduleSelector), (ModuleComponentIdentifier) selected.getComponentId());
+            }
+            if (selected.getComponentId() instanceof ModuleComponentIdentifier) {
+                selectionReasons.put((ModuleComponentIdentifier) selected.getComponentId(), selected.getSelectionReason());
+            }
+        }
+        return new SelectedVersions(selections, selectionReasons);
+    }
+
     /**
      * Populates the result from the graph traversal state.
      */
@@ -104,6 +104,10 @@ class EdgeState implements DependencyGraphEdge {
         return getSelectedComponent();
     }
 
+    List<NodeState> getTargetNodes() {
+        return targetNodes;
+    }
+
     @Override
     public SelectorState getSelector() {
         return selector;
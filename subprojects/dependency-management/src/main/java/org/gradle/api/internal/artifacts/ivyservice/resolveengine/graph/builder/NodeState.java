@@ -239,6 +239,22 @@ public class NodeState implements DependencyGraphNode {
         return upcomingNoLongerPendingConstraints != null;
     }
 
+    /**
+     * Visits the dependencies this node is likely to traverse once it is visited, so that their targets can be resolved ahead of time.
+     * This is only a guess based on the current incoming edges, which ignores substitutions and pending dependencies.
+     */
+    void visitLikelyOutgoingDependencies(Action<? super DependencyMetadata> visitor) {
+        if (previousTraversalExclusions != null || !component.isSelected() || getTransitiveIncomingEdges().isEmpty()) {
+            return;
+        }
+        ModuleExclusion resolutionFilter = getModuleResolutionFilter(incomingEdges);
+        for (DependencyMetadata dependency : metaData.getDependencies()) {
+            if (!isExcluded(resolutionFilter, new DependencyState(dependency, resolveState.getComponentSelectorConverter()))) {
+                visitor.execute(dependency);
+            }
+        }
+    }
+
     private boolean isVirtualPlatformNeedsRefresh() {
         return virtualPlatformNeedsRefresh;
     }
@@ -0,0 +1,247 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.api.internal.artifacts.ivyservice.resolveengine.graph.builder;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.gradle.api.artifacts.VersionConstraint;
+import org.gradle.api.artifacts.component.ComponentIdentifier;
+import org.gradle.api.artifacts.component.ComponentSelector;
+import org.gradle.api.artifacts.component.ModuleComponentSelector;
+import org.gradle.api.internal.artifacts.ivyservice.ivyresolve.strategy.VersionSelectorScheme;
+import org.gradle.internal.UncheckedException;
+import org.gradle.internal.component.external.model.DefaultModuleComponentIdentifier;
+import org.gradle.internal.component.model.ComponentOverrideMetadata;
+import org.gradle.internal.component.model.DefaultComponentOverrideMetadata;
+import org.gradle.internal.component.model.DependencyMetadata;
+import org.gradle.internal.operations.BuildOperationContext;
+import org.gradle.internal.operations.BuildOperationDescriptor;
+import org.gradle.internal.operations.BuildOperationQueue;
+import org.gradle.internal.operations.RunnableBuildOperation;
+import org.gradle.internal.resolve.resolver.ComponentMetaDataResolver;
+import org.gradle.internal.resolve.result.BuildableComponentResolveResult;
+import org.gradle.internal.resolve.result.DefaultBuildableComponentResolveResult;
+import org.gradle.internal.resolve.result.ResourceAwareResolveResult;
+
+import javax.annotation.Nullable;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link ComponentMetaDataResolver} which resolves metadata ahead of the graph traversal.
+ *
+ * The traversal hands over every component it is about to need, as well as the targets of dependencies which are likely to be
+ * traversed next, as soon as it discovers them. Those are resolved on a build operation queue, keeping at most a fixed number
+ * of them in flight, while the traversal carries on. When the traversal then asks for the metadata of a component, it waits
+ * for the resolution in flight, or resolves the component itself if it has not been started yet.
+ *
+ * Except for the queued operations, all methods must be called from the thread traversing the graph.
+ */
+class PrefetchingComponentMetaDataResolver implements ComponentMetaDataResolver {
+    /**
+     * The maximum number of components whose metadata is resolved ahead of the traversal. Prefetching is disabled when not set.
+     */
+    static final String MAX_IN_FLIGHT_PROPERTY = "org.gradle.dependency.metadata.prefetch";
+
+    private final ComponentMetaDataResolver delegate;
+    private final VersionSelectorScheme versionSelectorScheme;
+    private final int maxInFlight;
+    private final Map<ComponentIdentifier, PrefetchMetadataOperation> prefetched = Maps.newHashMap();
+    private final Set<ComponentIdentifier> requested = Sets.newHashSet();
+    private final Deque<PrefetchMetadataOperation> waiting = new ArrayDeque<PrefetchMetadataOperation>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private BuildOperationQueue<RunnableBuildOperation> queue;
+
+    PrefetchingComponentMetaDataResolver(ComponentMetaDataResolver delegate, VersionSelectorScheme versionSelectorScheme, int maxInFlight) {
+        this.delegate = delegate;
+        this.versionSelectorScheme = versionSelectorScheme;
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * Returns the configured number of components to resolve ahead of the traversal, or 0 when prefetching is disabled.
+     */
+    static int getMaxInFlight() {
+        return Math.max(0, Integer.getInteger(MAX_IN_FLIGHT_PROPERTY, 0));
+    }
+
+    /**
+     * Starts prefetching onto the given queue.
+     */
+    void start(BuildOperationQueue<RunnableBuildOperation> queue) {
+        this.queue = queue;
+    }
+
+    /**
+     * Stops prefetching, dropping any operations which have not been started yet. Metadata which has already been prefetched stays available.
+     */
+    void stop() {
+        if (queue != null) {
+            queue.cancel();
+            queue = null;
+        }
+        waiting.clear();
+    }
+
+    @Override
+    public void resolve(ComponentIdentifier identifier, ComponentOverrideMetadata componentOverrideMetadata, BuildableComponentResolveResult result) {
+        requested.add(identifier);
+        PrefetchMetadataOperation operation = prefetched.remove(identifier);
+        submitWaiting();
+        if (operation != null && hasSameOverrides(operation.overrides, componentOverrideMetadata)) {
+            operation.applyTo(result);
+        } else {
+            delegate.resolve(identifier, componentOverrideMetadata, result);
+        }
+    }
+
+    @Override
+    public boolean isFetchingMetadataCheap(ComponentIdentifier identifier) {
+        return delegate.isFetchingMetadataCheap(identifier);
+    }
+
+    /**
+     * Starts resolving the metadata of the given component, which the traversal is going to need.
+     */
+    void prefetch(ComponentIdentifier identifier, ComponentOverrideMetadata componentOverrideMetadata) {
+        if (queue == null || !requested.add(identifier)) {
+            return;
+        }
+        PrefetchMetadataOperation operation = new PrefetchMetadataOperation(identifier, componentOverrideMetadata);
+        prefetched.put(identifier, operation);
+        waiting.add(operation);
+        submitWaiting();
+    }
+
+    /**
+     * Starts resolving the metadata of the component the given dependency is likely to select. This is only a guess, so nothing
+     * is done for dependencies which need to be resolved to a version first.
+     */
+    void prefetchTargetOf(DependencyMetadata dependency) {
+        if (queue == null || dependency.isConstraint()) {
+            return;
+        }
+        ComponentSelector selector = dependency.getSelector();
+        if (!(selector instanceof ModuleComponentSelector)) {
+            return;
+        }
+        ModuleComponentSelector moduleSelector = (ModuleComponentSelector) selector;
+        String version = getFixedVersion(moduleSelector.getVersionConstraint());
+        if (version == null) {
+            return;
+        }
+        ComponentIdentifier identifier = DefaultModuleComponentIdentifier.newId(moduleSelector.getModuleIdentifier(), version);
+        if (requested.contains(identifier) || delegate.isFetchingMetadataCheap(identifier)) {
+            return;
+        }
+        prefetch(identifier, DefaultComponentOverrideMetadata.forDependency(dependency));
+    }
+
+    @Nullable
+    private String getFixedVersion(VersionConstraint versionConstraint) {
+        if (versionConstraint.getBranch() != null) {
+            return null;
+        }
+        String version = versionConstraint.getStrictVersion().isEmpty() ? versionConstraint.getRequiredVersion() : versionConstraint.getStrictVersion();
+        if (version.isEmpty() || versionSelectorScheme.parseSelector(version).isDynamic()) {
+            return null;
+        }
+        return version;
+    }
+
+    private void submitWaiting() {
+        while (queue != null && inFlight.get() < maxInFlight && !waiting.isEmpty()) {
+            PrefetchMetadataOperation operation = waiting.poll();
+            if (!operation.isDone()) {
+                inFlight.incrementAndGet();
+                queue.add(operation);
+            }
+        }
+    }
+
+    private static boolean hasSameOverrides(ComponentOverrideMetadata one, ComponentOverrideMetadata other) {
+        return one.isChanging() == other.isChanging()
+            && one.getArtifacts().equals(other.getArtifacts())
+            && Objects.equal(one.getClientModule(), other.getClientModule());
+    }
+
+    private class PrefetchMetadataOperation implements RunnableBuildOperation {
+        private final ComponentIdentifier identifier;
+        private final ComponentOverrideMetadata overrides;
+        private volatile boolean done;
+        private DefaultBuildableComponentResolveResult result;
+        private Throwable failure;
+
+        PrefetchMetadataOperation(ComponentIdentifier identifier, ComponentOverrideMetadata overrides) {
+            this.identifier = identifier;
+            this.overrides = overrides;
+        }
+
+        boolean isDone() {
+            return done;
+        }
+
+        @Override
+        public void run(BuildOperationContext context) {
+            try {
+                resolveOnce();
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        }
+
+        /**
+         * Resolves the metadata unless this has happened already. Blocks while another thread is resolving it.
+         */
+        private synchronized void resolveOnce() {
+            if (done) {
+                return;
+            }
+            DefaultBuildableComponentResolveResult result = new DefaultBuildableComponentResolveResult();
+            try {
+                delegate.resolve(identifier, overrides, result);
+                this.result = result;
+            } catch (Throwable t) {
+                // Only report the failure if the traversal ends up needing this component
+                failure = t;
+            }
+            done = true;
+        }
+
+        void applyTo(BuildableComponentResolveResult target) {
+            resolveOnce();
+            if (failure != null) {
+                throw UncheckedException.throwAsUncheckedException(failure);
+            }
+            result.applyTo((ResourceAwareResolveResult) target);
+            if (result.getFailure() != null) {
+                target.failed(result.getFailure());
+            } else {
+                target.resolved(result.getMetadata());
+            }
+        }
+
+        @Override
+        public BuildOperationDescriptor.Builder description() {
+            return BuildOperationDescriptor.displayName("Resolve " + identifier);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.gradle.api.internal.artifacts.ivyservice.resolveengine.graph.builder;
+
+import com.google.common.collect.ImmutableMap;
+import org.gradle.api.artifacts.component.ModuleComponentIdentifier;
+import org.gradle.api.artifacts.component.ModuleComponentSelector;
+import org.gradle.api.artifacts.result.ComponentSelectionReason;
+import org.gradle.internal.component.external.model.DefaultModuleComponentSelector;
+
+import javax.annotation.Nullable;
+import java.util.Map;
+
+/**
+ * The versions selected by the module selectors of a resolved dependency graph, along with the reasons each of those versions was
+ * selected for. These are recorded so that a later resolution of the same graph can go straight to the selected versions.
+ *
+ * Selectors are only identified by module and version constraint: their attributes and requested capabilities play no part in the
+ * selection of a version.
+ */
+public class SelectedVersions {
+    private final Map<ModuleComponentSelector, ModuleComponentIdentifier> selections;
+    private final Map<ModuleComponentIdentifier, ComponentSelectionReason> selectionReasons;
+
+    public SelectedVersions(Map<ModuleComponentSelector, ModuleComponentIdentifier> selections, Map<ModuleComponentIdentifier, ComponentSelectionReason> selectionReasons) {
+        this.selections = ImmutableMap.copyOf(selections);
+        this.selectionReasons = ImmutableMap.copyOf(selectionReasons);
+    }
+
+    /**
+     * Returns the selector as it is known to this set of selections.
+     */
+    public static ModuleComponentSelector normalize(ModuleComponentSelector selector) {
+        return DefaultModuleComponentSelector.newSelector(selector.getModuleIdentifier(), selector.getVersionConstraint());
+    }
+
+    public Map<ModuleComponentSelector, ModuleComponentIdentifier> getSelections() {
+        return selections;
+    }
+
+    public Map<ModuleComponentIdentifier, ComponentSelectionReason> getSelectionReasons() {
+        return selectionReasons;
+    }
+
+    @Nullable
+    public ModuleComponentIdentifier getSelected(ModuleComponentSelector selector) {
+        return selections.get(normalize(selector));
+    }
+
+    @Nullable
+    public ComponentSelectionReason getSelectionReason(ModuleComponentIdentifier id) {
+        return selectionReasons.get(id);
+    }
+
+    /**
+     * Returns true when the given selections select the same versions, for the same selectors, and end up with the same components as these selections.
+     */
+    public boolean hasSameSelections(SelectedVersions other) {
+        return selections.equals(other.selections) && selectionReasons.keySet().equals(other.selectionReasons.keySet());
+    }
+}
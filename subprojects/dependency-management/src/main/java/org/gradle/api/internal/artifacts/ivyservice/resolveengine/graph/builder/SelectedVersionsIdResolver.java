@@ -0,0 +1,77 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.gradle.api.internal.artifacts.ivyservice.resolveengine.graph.builder;
+
+import org.gradle.api.artifacts.component.ComponentSelector;
+import org.gradle.api.artifacts.component.ModuleComponentIdentifier;
+import org.gradle.api.artifacts.component.ModuleComponentSelector;
+import org.gradle.api.internal.artifacts.DefaultModuleVersionIdentifier;
+import org.gradle.api.internal.artifacts.ivyservice.ivyresolve.strategy.VersionSelector;
+import org.gradle.internal.component.model.DependencyMetadata;
+import org.gradle.internal.resolve.resolver.DependencyToComponentIdResolver;
+import org.gradle.internal.resolve.result.BuildableComponentIdResolveResult;
+
+import javax.annotation.Nullable;
+
+/**
+ * A {@link DependencyToComponentIdResolver} which resolves module selectors to the versions they ended up selecting when the graph
+ * was last resolved, as long as the selector would accept that version. This saves listing the versions of dynamic selectors, and
+ * skips the versions a selector would have picked only to lose a conflict later on.
+ *
+ * Selectors which need metadata to select a version, or which prefer a version, are always resolved by the delegate.
+ */
+class SelectedVersionsIdResolver implements DependencyToComponentIdResolver {
+    private final DependencyToComponentIdResolver delegate;
+    private final SelectedVersions selectedVersions;
+
+    SelectedVersionsIdResolver(DependencyToComponentIdResolver delegate, SelectedVersions selectedVersions) {
+        this.delegate = delegate;
+        this.selectedVersions = selectedVersions;
+    }
+
+    @Override
+    public void resolve(DependencyMetadata dependency, VersionSelector acceptor, VersionSelector rejector, BuildableComponentIdResolveResult result) {
+        ModuleComponentIdentifier selected = findSelected(dependency.getSelector(), acceptor, rejector);
+        if (selected != null) {
+            result.resolved(selected, DefaultModuleVersionIdentifier.newId(selected));
+            return;
+        }
+        delegate.resolve(dependency, acceptor, rejector, result);
+    }
+
+    @Nullable
+    private ModuleComponentIdentifier findSelected(ComponentSelector selector, @Nullable VersionSelector acceptor, @Nullable VersionSelector rejector) {
+        if (!(selector instanceof ModuleComponentSelector) || acceptor == null || acceptor.requiresMetadata()) {
+            return null;
+        }
+        ModuleComponentSelector moduleSelector = (ModuleComponentSelector) selector;
+        if (!moduleSelector.getVersionConstraint().getPreferredVersion().isEmpty()) {
+            return null;
+        }
+        ModuleComponentIdentifier selected = selectedVersions.getSelected(moduleSelector);
+        if (selected == null || !selected.getModuleIdentifier().equals(moduleSelector.getModuleIdentifier())) {
+            // Not seen before, or replaced by another module
+            return null;
+        }
+        String version = selected.getVersion();
+        if (!acceptor.accept(version) || (rejector != null && rejector.accept(version))) {
+            return null;
+        }
+        return selected;
+    }
+}
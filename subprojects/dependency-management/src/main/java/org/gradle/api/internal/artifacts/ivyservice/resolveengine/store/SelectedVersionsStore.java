@@ -0,0 +1,186 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.gradle.api.internal.artifacts.ivyservice.resolveengine.store;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.gradle.api.artifacts.ModuleIdentifier;
+import org.gradle.api.artifacts.VersionConstraint;
+import org.gradle.api.artifacts.component.ModuleComponentIdentifier;
+import org.gradle.api.artifacts.component.ModuleComponentSelector;
+import org.gradle.api.artifacts.result.ComponentSelectionReason;
+import org.gradle.api.internal.artifacts.ImmutableModuleIdentifierFactory;
+import org.gradle.api.internal.artifacts.dependencies.DefaultImmutableVersionConstraint;
+import org.gradle.api.internal.artifacts.ivyservice.ArtifactCacheLockingManager;
+import org.gradle.api.internal.artifacts.ivyservice.resolveengine.graph.builder.SelectedVersions;
+import org.gradle.api.internal.artifacts.ivyservice.resolveengine.result.ComponentSelectionReasonSerializer;
+import org.gradle.cache.PersistentIndexedCache;
+import org.gradle.internal.component.external.model.DefaultModuleComponentIdentifier;
+import org.gradle.internal.component.external.model.DefaultModuleComponentSelector;
+import org.gradle.internal.hash.HashCode;
+import org.gradle.internal.serialize.AbstractSerializer;
+import org.gradle.internal.serialize.Decoder;
+import org.gradle.internal.serialize.Encoder;
+import org.gradle.internal.serialize.HashCodeSerializer;
+import org.gradle.util.BuildCommencedTimeProvider;
+
+import javax.annotation.Nullable;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the versions selected by resolved dependency graphs across builds, in the artifact cache. Entries are keyed by a hash of
+ * everything which goes into resolving the graph.
+ */
+public class SelectedVersionsStore {
+    private final BuildCommencedTimeProvider timeProvider;
+    private final ArtifactCacheLockingManager artifactCacheLockingManager;
+    private final ImmutableModuleIdentifierFactory moduleIdentifierFactory;
+
+    private PersistentIndexedCache<HashCode, CachedSelectedVersions> cache;
+
+    public SelectedVersionsStore(BuildCommencedTimeProvider timeProvider, ArtifactCacheLockingManager artifactCacheLockingManager, ImmutableModuleIdentifierFactory moduleIdentifierFactory) {
+        this.timeProvider = timeProvider;
+        this.artifactCacheLockingManager = artifactCacheLockingManager;
+        this.moduleIdentifierFactory = moduleIdentifierFactory;
+    }
+
+    private synchronized PersistentIndexedCache<HashCode, CachedSelectedVersions> getCache() {
+        if (cache == null) {
+            cache = artifactCacheLockingManager.createCache("selected-versions", new HashCodeSerializer(), new CachedSelectedVersionsSerializer(moduleIdentifierFactory));
+        }
+        return cache;
+    }
+
+    @Nullable
+    public CachedSelectedVersions get(HashCode key) {
+        return getCache().get(key);
+    }
+
+    public void store(HashCode key, SelectedVersions selectedVersions) {
+        getCache().put(key, new CachedSelectedVersions(selectedVersions, timeProvider.getCurrentTime()));
+    }
+
+    public long getAgeMillis(CachedSelectedVersions cached) {
+        return timeProvider.getCurrentTime() - cached.createTimestamp;
+    }
+
+    public static class CachedSelectedVersions {
+        private final SelectedVersions selectedVersions;
+        private final long createTimestamp;
+
+        CachedSelectedVersions(SelectedVersions selectedVersions, long createTimestamp) {
+            this.selectedVersions = selectedVersions;
+            this.createTimestamp = createTimestamp;
+        }
+
+        public SelectedVersions getSelectedVersions() {
+            return selectedVersions;
+        }
+    }
+
+    private static class CachedSelectedVersionsSerializer extends AbstractSerializer<CachedSelectedVersions> {
+        private final ImmutableModuleIdentifierFactory moduleIdentifierFactory;
+
+        private CachedSelectedVersionsSerializer(ImmutableModuleIdentifierFactory moduleIdentifierFactory) {
+            this.moduleIdentifierFactory = moduleIdentifierFactory;
+        }
+
+        @Override
+        public void write(Encoder encoder, CachedSelectedVersions value) throws Exception {
+            SelectedVersions selectedVersions = value.selectedVersions;
+            ComponentSelectionReasonSerializer reasonSerializer = new ComponentSelectionReasonSerializer();
+            encoder.writeLong(value.createTimestamp);
+
+            // Each selected component is written once, selections refer to it by index
+            Map<ModuleComponentIdentifier, Integer> components = Maps.newHashMap();
+            Map<ModuleComponentIdentifier, ComponentSelectionReason> selectionReasons = selectedVersions.getSelectionReasons();
+            encoder.writeSmallInt(selectionReasons.size());
+            for (Map.Entry<ModuleComponentIdentifier, ComponentSelectionReason> entry : selectionReasons.entrySet()) {
+                ModuleComponentIdentifier id = entry.getKey();
+                components.put(id, components.size());
+                encoder.writeString(id.getGroup());
+                encoder.writeString(id.getModule());
+                encoder.writeString(id.getVersion());
+                reasonSerializer.write(encoder, entry.getValue());
+            }
+
+            Map<ModuleComponentSelector, ModuleComponentIdentifier> selections = selectedVersions.getSelections();
+            encoder.writeSmallInt(selections.size());
+            for (Map.Entry<ModuleComponentSelector, ModuleComponentIdentifier> entry : selections.entrySet()) {
+                ModuleComponentSelector selector = entry.getKey();
+                encoder.writeString(selector.getGroup());
+                encoder.writeString(selector.getModule());
+                writeVersionConstraint(encoder, selector.getVersionConstraint());
+                Integer index = components.get(entry.getValue());
+                if (index == null) {
+                    throw new IllegalArgumentException("No selection reason recorded for " + entry.getValue());
+                }
+                encoder.writeSmallInt(index);
+            }
+        }
+
+        @Override
+        public CachedSelectedVersions read(Decoder decoder) throws Exception {
+            ComponentSelectionReasonSerializer reasonSerializer = new ComponentSelectionReasonSerializer();
+            long createTimestamp = decoder.readLong();
+
+            int componentCount = decoder.readSmallInt();
+            List<ModuleComponentIdentifier> components = Lists.newArrayListWithCapacity(componentCount);
+            Map<ModuleComponentIdentifier, ComponentSelectionReason> selectionReasons = Maps.newHashMapWithExpectedSize(componentCount);
+            for (int i = 0; i < componentCount; i++) {
+                ModuleIdentifier module = moduleIdentifierFactory.module(decoder.readString(), decoder.readString());
+                ModuleComponentIdentifier id = DefaultModuleComponentIdentifier.newId(module, decoder.readString());
+                components.add(id);
+                selectionReasons.put(id, reasonSerializer.read(decoder));
+            }
+
+            int selectionCount = decoder.readSmallInt();
+            Map<ModuleComponentSelector, ModuleComponentIdentifier> selections = Maps.newHashMapWithExpectedSize(selectionCount);
+            for (int i = 0; i < selectionCount; i++) {
+                ModuleIdentifier module = moduleIdentifierFactory.module(decoder.readString(), decoder.readString());
+                VersionConstraint versionConstraint = readVersionConstraint(decoder);
+                selections.put(DefaultModuleComponentSelector.newSelector(module, versionConstraint), components.get(decoder.readSmallInt()));
+            }
+            return new CachedSelectedVersions(new SelectedVersions(selections, selectionReasons), createTimestamp);
+        }
+
+        private static void writeVersionConstraint(Encoder encoder, VersionConstraint versionConstraint) throws Exception {
+            encoder.writeString(versionConstraint.getRequiredVersion());
+            encoder.writeString(versionConstraint.getPreferredVersion());
+            encoder.writeString(versionConstraint.getStrictVersion());
+            List<String> rejectedVersions = versionConstraint.getRejectedVersions();
+            encoder.writeSmallInt(rejectedVersions.size());
+            for (String rejectedVersion : rejectedVersions) {
+                encoder.writeString(rejectedVersion);
+            }
+        }
+
+        private static VersionConstraint readVersionConstraint(Decoder decoder) throws Exception {
+            String requiredVersion = decoder.readString();
+            String preferredVersion = decoder.readString();
+            String strictVersion = decoder.readString();
+            int rejectCount = decoder.readSmallInt();
+            List<String> rejectedVersions = Lists.newArrayListWithCapacity(rejectCount);
+            for (int i = 0; i < rejectCount; i++) {
+                rejectedVersions.add(decoder.readString());
+            }
+            return DefaultImmutableVersionConstraint.of(preferredVersion, requiredVersion, strictVersion, rejectedVersions);
+        }
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.gradle.internal.resource.transfer;
+
+import org.gradle.internal.resource.ReadableContent;
+import org.gradle.internal.resource.metadata.ExternalResourceMetaData;
+
+import javax.annotation.Nullable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Limits the number of concurrent requests made to each repository host, across all of the repositories whose connectors are limited by the same instance.
+ * A download holds its permit until its content has been read to the end, or until its stream or response is closed, whichever happens first.
+ * A thread which already holds a permit for a host does not wait for another one, so that requests made while reading a response cannot deadlock.
+ */
+public class HostConcurrencyLimiter {
+    public static final String MAX_CONCURRENT_REQUESTS_PER_HOST_PROPERTY = "org.gradle.dependency.download.maxConcurrentPerHost";
+
+    private final int maxConcurrentRequestsPerHost;
+    private final ConcurrentMap<String, HostPermits> permitsByHost = new ConcurrentHashMap<String, HostPermits>();
+
+    /**
+     * @param maxConcurrentRequestsPerHost The maximum number of concurrent requests to a single host, or 0 for no limit.
+     */
+    public HostConcurrencyLimiter(int maxConcurrentRequestsPerHost) {
+        this.maxConcurrentRequestsPerHost = maxConcurrentRequestsPerHost;
+    }
+
+    public static HostConcurrencyLimiter fromSystemProperties() {
+        return new HostConcurrencyLimiter(Integer.getInteger(MAX_CONCURRENT_REQUESTS_PER_HOST_PROPERTY, 0));
+    }
+
+    public ExternalResourceConnector limit(ExternalResourceConnector connector) {
+        if (maxConcurrentRequestsPerHost <= 0) {
+            return connector;
+        }
+        return new LimitingConnector(connector);
+    }
+
+    @Nullable
+    private Permit acquire(URI location) {
+        String host = location.getHost();
+        if (host == null) {
+            return null;
+        }
+        HostPermits permits = permitsByHost.get(host);
+        if (permits == null) {
+            permits = new HostPermits(maxConcurrentRequestsPerHost);
+            HostPermits existing = permitsByHost.putIfAbsent(host, permits);
+            if (existing != null) {
+                permits = existing;
+            }
+        }
+        return permits.acquire();
+    }
+
+    private static void release(@Nullable Permit permit) {
+        if (permit != null) {
+            permit.release();
+        }
+    }
+
+    private static class HostPermits {
+        private final Semaphore semaphore;
+        // The number of permits held by each thread, including the ones of nested requests
+        private final Map<Thread, Integer> holders = new HashMap<Thread, Integer>();
+
+        HostPermits(int maxConcurrentRequests) {
+            this.semaphore = new Semaphore(maxConcurrentRequests, true);
+        }
+
+        Permit acquire() {
+            Thread owner = Thread.currentThread();
+            synchronized (this) {
+                if (holders.containsKey(owner)) {
+                    // A nested request runs under the permit of the request this thread is already making
+                    holders.put(owner, holders.get(owner) + 1);
+                    return new Permit(this, owner, false);
+                }
+            }
+            semaphore.acquireUninterruptibly();
+            synchronized (this) {
+                holders.put(owner, 1);
+            }
+            return new Permit(this, owner, true);
+        }
+
+        void release(Permit permit) {
+            synchronized (this) {
+                int count = holders.get(permit.owner);
+                if (count == 1) {
+                    holders.remove(permit.owner);
+                } else {
+                    holders.put(permit.owner, count - 1);
+                }
+            }
+            if (permit.holdsSemaphore) {
+                semaphore.release();
+            }
+        }
+    }
+
+    private static class Permit {
+        private final HostPermits permits;
+        private final Thread owner;
+        private final boolean holdsSemaphore;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        Permit(HostPermits permits, Thread owner, boolean holdsSemaphore) {
+            this.permits = permits;
+            this.owner = owner;
+            this.holdsSemaphore = holdsSemaphore;
+        }
+
+        void release() {
+            if (released.compareAndSet(false, true)) {
+                permits.release(this);
+            }
+        }
+    }
+
+    private class LimitingConnector implements ExternalResourceConnector {
+        private final ExternalResourceConnector delegate;
+
+        LimitingConnector(ExternalResourceConnector delegate) {
+            this.delegate = delegate;
+        }
+
+        @Nullable
+        @Override
+        public ExternalResourceReadResponse openResource(URI location, boolean revalidate) {
+            Permit permit = acquire(location);
+            ExternalResourceReadResponse response = null;
+            try {
+                response = delegate.openResource(location, revalidate);
+            } finally {
+                if (response == null) {
+                    release(permit);
+                }
+            }
+            return response == null ? null : new PermitReleasingResponse(response, permit);
+        }
+
+        @Nullable
+        @Override
+        public ExternalResourceMetaData getMetaData(URI location, boolean revalidate) {
+            Permit permit = acquire(location);
+            try {
+                return delegate.getMetaData(location, revalidate);
+            } finally {
+                release(permit);
+            }
+        }
+
+        @Nullable
+        @Override
+        public List<String> list(URI parent) {
+            Permit permit = acquire(parent);
+            try {
+                return delegate.list(parent);
+            } finally {
+                release(permit);
+            }
+        }
+
+        @Override
+        public void upload(ReadableContent resource, URI destination) throws IOException {
+            Permit permit = acquire(destination);
+            try {
+                delegate.upload(resource, destination);
+            } finally {
+                release(permit);
+            }
+        }
+    }
+
+    private static class PermitReleasingResponse implements ExternalResourceReadResponse {
+        private final ExternalResourceReadResponse delegate;
+        private final Permit permit;
+
+        PermitReleasingResponse(ExternalResourceReadResponse delegate, @Nullable Permit permit) {
+            this.delegate = delegate;
+            this.permit = permit;
+        }
+
+        @Override
+        public InputStream openStream() throws IOException {
+            InputStream stream = delegate.openStream();
+            return permit == null ? stream : new PermitReleasingInputStream(stream, permit);
+        }
+
+        @Override
+        public ExternalResourceMetaData getMetaData() {
+            return delegate.getMetaData();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                delegate.close();
+            } finally {
+                release(permit);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return delegate.toString();
+        }
+    }
+
+    /**
+     * Releases the permit once the content has been read, so that a response which is drained but never closed does not keep it.
+     */
+    private static class PermitReleasingInputStream extends FilterInputStream {
+        private final Permit permit;
+
+        PermitReleasingInputStream(InputStream in, Permit permit) {
+            super(in);
+            this.permit = permit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b < 0) {
+                permit.release();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int count = super.read(b, off, len);
+            if (count < 0) {
+                permit.release();
+            }
+            return count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                permit.release();
+            }
+        }
+    }
+}
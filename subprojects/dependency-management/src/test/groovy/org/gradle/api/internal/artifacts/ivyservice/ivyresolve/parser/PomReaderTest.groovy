@@ -102,6 +102,39 @@ class PomReaderTest extends AbstractPomReaderTest {
         pomReader.relocation == null
     }
 
+    def "reads text of elements containing entities, CDATA sections and comments"() {
+        when:
+        pomFile << """<?xml version="1.0" encoding="UTF-8"?>
+<project xmlns="http://maven.apache.org/POM/4.0.0">
+    <!-- ${MetaDataParser.GRADLE_METADATA_MARKER} -->
+    <modelVersion>4.0.0</modelVersion>
+    <groupId>group&amp;one</groupId>
+    <artifactId>artifact<!-- comment -->-one</artifactId>
+    <version><![CDATA[version]]>-one</version>
+    <name>Test Artifact &nbsp; One</name>
+    <properties>
+        <custom> value<nested>ignored</nested> </custom>
+    </properties>
+    <build>
+        <plugins>
+            <plugin>
+                <groupId>plugin-group</groupId>
+            </plugin>
+        </plugins>
+    </build>
+</project>
+"""
+        pomReader = new PomReader(locallyAvailableExternalResource, moduleIdentifierFactory)
+
+        then:
+        pomReader.groupId == 'group&one'
+        pomReader.artifactId == 'artifact-one'
+        pomReader.version == 'version-one'
+        pomReader.hasGradleMetadataMarker()
+        pomReader.properties['custom'] == ' value '
+        pomReader.dependencies.isEmpty()
+    }
+
     def "use custom properties in POM project coordinates"() {
         when:
         pomFile << """
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.gradle.api.internal.artifacts.ivyservice.modulecache
+
+import org.gradle.internal.serialize.kryo.KryoBackedDecoder
+import org.gradle.internal.serialize.kryo.KryoBackedEncoder
+import org.gradle.util.internal.SimpleMapInterner
+import spock.lang.Specification
+
+class StringDeduplicatingEncoderTest extends Specification {
+
+    def "writes repeated strings as references to their first occurrence"() {
+        def values = ["org.test", "module", "1.0", "org.test", null, "module", "compile", "compile"]
+        def plain = new ByteArrayOutputStream()
+        def deduplicated = new ByteArrayOutputStream()
+
+        when:
+        def plainEncoder = new KryoBackedEncoder(plain)
+        values.each { plainEncoder.writeNullableString(it) }
+        plainEncoder.close()
+        def encoder = new StringDeduplicatingEncoder(new KryoBackedEncoder(deduplicated))
+        values.each { encoder.writeNullableString(it) }
+        encoder.writeSmallInt(12)
+        encoder.close()
+
+        and:
+        def decoder = new StringDeduplicatingDecoder(new KryoBackedDecoder(new ByteArrayInputStream(deduplicated.toByteArray())), SimpleMapInterner.notThreadSafe())
+        def read = values.collect { decoder.readNullableString() }
+
+        then:
+        read == values
+        read[0].is(read[3])
+        read[1].is(read[5])
+        decoder.readSmallInt() == 12
+        deduplicated.size() < plain.size()
+    }
+
+    def "interns strings read from different sources"() {
+        def interner = SimpleMapInterner.notThreadSafe()
+
+        when:
+        def first = read(["org.test"], interner)
+        def second = read(["org.test"], interner)
+
+        then:
+        first[0] == "org.test"
+        first[0].is(second[0])
+    }
+
+    def "fails on a null string where one is required"() {
+        def bytes = new ByteArrayOutputStream()
+        def encoder = new StringDeduplicatingEncoder(new KryoBackedEncoder(bytes))
+        encoder.writeNullableString(null)
+        encoder.close()
+
+        when:
+        new StringDeduplicatingDecoder(new KryoBackedDecoder(new ByteArrayInputStream(bytes.toByteArray())), SimpleMapInterner.notThreadSafe()).readString()
+
+        then:
+        thrown(IOException)
+    }
+
+    private static List<String> read(List<String> values, SimpleMapInterner interner) {
+        def bytes = new ByteArrayOutputStream()
+        def encoder = new StringDeduplicatingEncoder(new KryoBackedEncoder(bytes))
+        values.each { encoder.writeString(it) }
+        encoder.close()
+        def decoder = new StringDeduplicatingDecoder(new KryoBackedDecoder(new ByteArrayInputStream(bytes.toByteArray())), interner)
+        return values.collect { decoder.readString() }
+    }
+}
@@ -42,8 +42,10 @@ import org.gradle.api.internal.artifacts.ivyservice.resolveengine.graph.Dependen
 import org.gradle.api.internal.artifacts.ivyservice.resolveengine.graph.DependencyGraphVisitor
 import org.gradle.api.internal.artifacts.ivyservice.resolveengine.graph.RootGraphNode
 import org.gradle.api.internal.artifacts.ivyservice.resolveengine.graph.builder.DependencyGraphBuilder
+import org.gradle.api.internal.artifacts.ivyservice.resolveengine.graph.builder.SelectedVersions
 import org.gradle.api.internal.artifacts.ivyservice.resolveengine.graph.conflicts.DefaultCapabilitiesConflictHandler
 import org.gradle.api.internal.artifacts.ivyservice.resolveengine.graph.conflicts.DefaultConflictHandler
+import org.gradle.api.internal.artifacts.ivyservice.resolveengine.result.ComponentSelectionReasons
 import org.gradle.api.internal.artifacts.publish.DefaultPublishArtifact
 import org.gradle.api.internal.attributes.AttributesSchemaInternal
 import org.gradle.api.internal.attributes.ImmutableAttributes
@@ -71,6 +73,8 @@ import org.gradle.internal.resolve.resolver.ResolveContextToComponentResolver
 import org.gradle.internal.resolve.result.BuildableComponentIdResolveResult
 import org.gradle.internal.resolve.result.BuildableComponentResolveResult
 import org.gradle.util.AttributeTestUtil
+import org.gradle.util.SetSystemProperties
+import org.junit.Rule
 import spock.lang.Specification
 
 import static org.gradle.api.internal.artifacts.DefaultModuleVersionIdentifier.newId
@@ -78,6 +82,8 @@ import static org.gradle.internal.component.external.model.DefaultModuleComponen
 import static org.gradle.internal.component.local.model.TestComponentIdentifiers.newProjectId
 
 class DependencyGraphBuilderTest extends Specification {
+    @Rule
+    SetSystemProperties systemProperties = new SetSystemProperties()
     def configuration = Mock(ConfigurationInternal)
     def conflictResolver = Mock(ModuleConflictResolver)
     def idResolver = Mock(DependencyToComponentIdResolver)
@@ -610,6 +616,119 @@ class DependencyGraphBuilderTest extends Specification {
         result.components == ids(root, a, b)
     }
 
+    def "resolves each component once when metadata is prefetched"() {
+        given:
+        System.setProperty("org.gradle.dependency.metadata.prefetch", "4")
+        def a = revision('a')
+        def b = revision('b')
+        def c = revision('c')
+        traverses root, a
+        traverses root, b
+        traverses a, c
+        doesNotResolve b, c
+
+        when:
+        def result = resolve()
+        result.rethrowFailure()
+
+        then:
+        result.components == ids(root, a, b, c)
+    }
+
+    def "does not prefetch metadata of excluded dependencies"() {
+        given:
+        System.setProperty("org.gradle.dependency.metadata.prefetch", "4")
+        def a = revision('a')
+        def b = revision('b')
+        def c = revision('c')
+        traverses root, a
+        traverses a, b, exclude: c
+        doesNotResolve b, c
+
+        when:
+        def result = resolve()
+        result.rethrowFailure()
+
+        then:
+        result.components == ids(root, a, b)
+    }
+
+    def "records the versions selected by each module selector"() {
+        given:
+        def a = revision('a')
+        def b = revision('b', '1.2')
+        traverses root, a
+        traverses a, b, revision: '[1.0,2.0)'
+
+        when:
+        def selectedVersions = builder.resolveAndRecordSelectedVersions(configuration, new TestGraphVisitor())
+
+        then:
+        selectedVersions.selections == [
+            (newSelector(DefaultModuleIdentifier.newId("group", "a"), new DefaultMutableVersionConstraint("1.0"))): a.id,
+            (newSelector(DefaultModuleIdentifier.newId("group", "b"), new DefaultMutableVersionConstraint("[1.0,2.0)"))): b.id
+        ]
+        selectedVersions.selectionReasons.keySet() == [a.id, b.id] as Set
+    }
+
+    def "does not record selected versions of a graph with failures"() {
+        given:
+        def a = revision('a')
+        traverses root, a
+        brokenSelector a, 'b'
+
+        expect:
+        builder.resolveAndRecordSelectedVersions(configuration, new TestGraphVisitor()) == null
+    }
+
+    def "resolves module selectors straight to the recorded versions"() {
+        given:
+        def a = revision('a')
+        def b = revision('b', '1.2')
+        def toA = dependsOn(root, a.moduleVersionId)
+        def toB = dependsOn(a, b.moduleVersionId, revision: '[1.0,2.0)')
+        0 * idResolver.resolve(toA, _, _, _)
+        0 * idResolver.resolve(toB, _, _, _)
+        1 * metaDataResolver.resolve(a.id, _, _) >> { ComponentIdentifier id, ComponentOverrideMetadata requestMetaData, BuildableComponentResolveResult result ->
+            result.resolved(a)
+        }
+        1 * metaDataResolver.resolve(b.id, _, _) >> { ComponentIdentifier id, ComponentOverrideMetadata requestMetaData, BuildableComponentResolveResult result ->
+            result.resolved(b)
+        }
+        def selectedVersions = new SelectedVersions([
+            (newSelector(DefaultModuleIdentifier.newId("group", "a"), new DefaultMutableVersionConstraint("1.0"))): a.id,
+            (newSelector(DefaultModuleIdentifier.newId("group", "b"), new DefaultMutableVersionConstraint("[1.0,2.0)"))): b.id
+        ], [(a.id): ComponentSelectionReasons.requested(), (b.id): ComponentSelectionReasons.requested()])
+
+        when:
+        def result = new TestGraphVisitor()
+        def resolved = builder.resolveWithSelectedVersions(configuration, result, selectedVersions)
+        result.rethrowFailure()
+
+        then:
+        resolved
+        result.components == ids(root, a, b)
+    }
+
+    def "does not assemble result when graph does not select the recorded versions"() {
+        given:
+        def a = revision('a')
+        def b = revision('b')
+        traverses root, a
+        traverses a, b
+        def selectedVersions = new SelectedVersions([
+            (newSelector(DefaultModuleIdentifier.newId("group", "a"), new DefaultMutableVersionConstraint("1.0"))): a.id
+        ], [(a.id): ComponentSelectionReasons.requested()])
+
+        when:
+        def result = new TestGraphVisitor()
+        def resolved = builder.resolveWithSelectedVersions(configuration, result, selectedVersions)
+
+        then:
+        !resolved
+        result.root == null
+    }
+
     def "does not include excluded modules when excluded by all paths"() {
         given:
         def a = revision('a')
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.gradle.internal.resource.transfer
+
+import spock.lang.Specification
+import spock.lang.Timeout
+
+@Timeout(10)
+class HostConcurrencyLimiterTest extends Specification {
+    def delegate = Mock(ExternalResourceConnector)
+
+    def "does not wrap connector when no limit is configured"() {
+        expect:
+        new HostConcurrencyLimiter(0).limit(delegate).is(delegate)
+    }
+
+    def "releases permit when response is closed"() {
+        def response = Mock(ExternalResourceReadResponse)
+        def connector = new HostConcurrencyLimiter(1).limit(delegate)
+        def uri = new URI("https://repo.example.com/a.jar")
+
+        when:
+        def first = connector.openResource(uri, false)
+        first.close()
+        first.close()
+        def second = connector.openResource(uri, false)
+        second.close()
+
+        then:
+        2 * delegate.openResource(uri, false) >> response
+        3 * response.close()
+    }
+
+    def "releases permit when resource is missing or request fails"() {
+        def connector = new HostConcurrencyLimiter(1).limit(delegate)
+        def uri = new URI("https://repo.example.com/a.jar")
+
+        when:
+        def result = connector.openResource(uri, false)
+
+        then:
+        result == null
+        1 * delegate.openResource(uri, false) >> null
+
+        when:
+        connector.openResource(uri, false)
+
+        then:
+        1 * delegate.openResource(uri, false) >> { throw new RuntimeException("broken") }
+        thrown(RuntimeException)
+
+        when:
+        connector.getMetaData(uri, false)
+
+        then:
+        1 * delegate.getMetaData(uri, false) >> null
+    }
+
+    def "limits are applied per host"() {
+        def connector = new HostConcurrencyLimiter(1).limit(delegate)
+        def uri1 = new URI("https://repo1.example.com/a.jar")
+        def uri2 = new URI("https://repo2.example.com/a.jar")
+
+        when:
+        def first = connector.openResource(uri1, false)
+        def second = connector.openResource(uri2, false)
+
+        then:
+        first != null
+        second != null
+        1 * delegate.openResource(uri1, false) >> Mock(ExternalResourceReadResponse)
+        1 * delegate.openResource(uri2, false) >> Mock(ExternalResourceReadResponse)
+    }
+
+    def "nested request to the same host does not wait for the permit held by the outer request"() {
+        def outerResponse = Mock(ExternalResourceReadResponse)
+        def innerResponse = Mock(ExternalResourceReadResponse)
+        def connector = new HostConcurrencyLimiter(1).limit(delegate)
+        def uri = new URI("https://repo.example.com/a.pom")
+        def nestedUri = new URI("https://repo.example.com/parent.pom")
+
+        when:
+        def outer = connector.openResource(uri, false)
+        connector.getMetaData(nestedUri, false)
+        def inner = connector.openResource(nestedUri, false)
+        inner.close()
+        outer.close()
+
+        then:
+        1 * delegate.openResource(uri, false) >> outerResponse
+        1 * delegate.getMetaData(nestedUri, false) >> null
+        1 * delegate.openResource(nestedUri, false) >> innerResponse
+
+        when:
+        def other = null
+        def thread = Thread.start { other = connector.openResource(uri, false) }
+        thread.join()
+
+        then:
+        other != null
+        1 * delegate.openResource(uri, false) >> Mock(ExternalResourceReadResponse)
+    }
+
+    def "releases permit when content has been read to the end"() {
+        def response = Mock(ExternalResourceReadResponse) {
+            openStream() >> new ByteArrayInputStream("content".bytes)
+        }
+        def connector = new HostConcurrencyLimiter(1).limit(delegate)
+        def uri = new URI("https://repo.example.com/a.jar")
+
+        when:
+        def first = connector.openResource(uri, false)
+        def stream = first.openStream()
+        while (stream.read() >= 0) {
+        }
+        def second = null
+        def thread = Thread.start { second = connector.openResource(uri, false) }
+        thread.join()
+
+        then:
+        second != null
+        2 * delegate.openResource(uri, false) >> response
+    }
+}
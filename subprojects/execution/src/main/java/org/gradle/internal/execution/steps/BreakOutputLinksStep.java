@@ -0,0 +1,102 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.gradle.internal.execution.steps;
+
+import org.gradle.internal.execution.IncrementalContext;
+import org.gradle.internal.execution.Result;
+import org.gradle.internal.execution.Step;
+import org.gradle.internal.execution.history.ExecutionState;
+import org.gradle.internal.file.FileType;
+import org.gradle.internal.fingerprint.FileCollectionFingerprint;
+import org.gradle.internal.fingerprint.FileSystemLocationFingerprint;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+
+/**
+ * Replaces read-only output files which are hard links, as created when restoring outputs from blobs of the local build cache,
+ * with writable copies before the work is executed.
+ * This way work changing its outputs in place neither fails nor corrupts the cached blobs.
+ *
+ * Only needed when the local build cache links outputs to its blobs, see {@code DirectoryBuildCacheServiceFactory.LINK_ENTRY_CONTENTS_PROPERTY}.
+ */
+public class BreakOutputLinksStep<C extends IncrementalContext, R extends Result> implements Step<C, R> {
+    private static final boolean SUPPORTS_LINK_COUNT = FileSystems.getDefault().supportedFileAttributeViews().contains("unix");
+    private static final int OWNER_WRITE = 0200;
+
+    private final Step<? super C, ? extends R> delegate;
+
+    public BreakOutputLinksStep(Step<? super C, ? extends R> delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public R execute(C context) {
+        // Build cache entries are only restored via links where the number of links can be queried
+        if (SUPPORTS_LINK_COUNT) {
+            ExecutionState state = context.getBeforeExecutionState().isPresent()
+                ? context.getBeforeExecutionState().get()
+                : context.getAfterPreviousExecutionState().orElse(null);
+            if (state != null) {
+                for (FileCollectionFingerprint fingerprint : state.getOutputFileProperties().values()) {
+                    for (Map.Entry<String, FileSystemLocationFingerprint> entry : fingerprint.getFingerprints().entrySet()) {
+                        if (entry.getValue().getType() == FileType.RegularFile) {
+                            breakLink(Paths.get(entry.getKey()));
+                        }
+                    }
+                }
+            }
+        }
+        return delegate.execute(context);
+    }
+
+    private static void breakLink(Path file) {
+        try {
+            Map<String, Object> attributes;
+            try {
+                attributes = Files.readAttributes(file, "unix:mode,nlink", LinkOption.NOFOLLOW_LINKS);
+            } catch (NoSuchFileException e) {
+                return;
+            }
+            int mode = (Integer) attributes.get("mode");
+            int links = (Integer) attributes.get("nlink");
+            if (links <= 1 || (mode & OWNER_WRITE) != 0 || !Files.isRegularFile(file, LinkOption.NOFOLLOW_LINKS)) {
+                return;
+            }
+            // A fresh temporary file, so no other file next to the output is overwritten
+            Path copy = Files.createTempFile(file.getParent(), file.getFileName() + "-", ".unlinked");
+            try {
+                Files.copy(file, copy, StandardCopyOption.REPLACE_EXISTING);
+                Files.setAttribute(copy, "unix:mode", mode | OWNER_WRITE);
+                Files.move(copy, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(copy);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to replace linked output file " + file, e);
+        }
+    }
+}
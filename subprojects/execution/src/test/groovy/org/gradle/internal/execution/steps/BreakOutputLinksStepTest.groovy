@@ -0,0 +1,147 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.gradle.internal.execution.steps
+
+import org.gradle.internal.execution.IncrementalContext
+import org.gradle.internal.execution.Result
+import org.gradle.internal.execution.Step
+import org.gradle.internal.execution.history.AfterPreviousExecutionState
+import org.gradle.internal.execution.history.BeforeExecutionState
+import org.gradle.test.fixtures.file.TestFile
+import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
+import org.gradle.util.Requires
+import org.gradle.util.TestPrecondition
+import org.junit.Rule
+import spock.lang.Specification
+
+import java.nio.file.Files
+
+@Requires(TestPrecondition.UNIX_DERIVATIVE)
+class BreakOutputLinksStepTest extends Specification implements FingerprinterFixture {
+    @Rule
+    TestNameTestDirectoryProvider temporaryFolder = new TestNameTestDirectoryProvider()
+    def delegate = Mock(Step)
+    def context = Mock(IncrementalContext)
+    def beforeExecutionState = Mock(BeforeExecutionState)
+    def delegateResult = Mock(Result)
+
+    def step = new BreakOutputLinksStep<IncrementalContext, Result>(delegate)
+
+    TestFile blob
+    TestFile outputDir
+
+    def setup() {
+        blob = temporaryFolder.file("cache/blob")
+        outputDir = temporaryFolder.file("outputs")
+        blob.text = "cached contents"
+        blob.setReadOnly()
+    }
+
+    def "replaces read-only linked output files with writable copies"() {
+        def linked = outputDir.file("nested/linked.txt")
+        linked.parentFile.mkdirs()
+        Files.createLink(linked.toPath(), blob.toPath())
+        def plain = outputDir.file("plain.txt")
+        plain.text = "plain"
+
+        when:
+        def result = step.execute(context)
+
+        then:
+        result == delegateResult
+        _ * context.beforeExecutionState >> Optional.of(beforeExecutionState)
+        _ * beforeExecutionState.outputFileProperties >> fingerprintsOf(output: outputDir)
+        1 * delegate.execute(context) >> {
+            assert linkCount(linked) == 1
+            assert linked.canWrite()
+            assert linked.text == "cached contents"
+            linked << " changed"
+            return delegateResult
+        }
+        0 * _
+
+        blob.text == "cached contents"
+        linkCount(blob) == 1
+        !blob.canWrite()
+        plain.text == "plain"
+    }
+
+    def "does not touch other files next to linked outputs"() {
+        def linked = outputDir.file("linked.txt")
+        outputDir.mkdirs()
+        Files.createLink(linked.toPath(), blob.toPath())
+        def neighbour = outputDir.file("linked.txt.unlinked")
+        neighbour.text = "neighbour"
+
+        when:
+        step.execute(context)
+
+        then:
+        _ * context.beforeExecutionState >> Optional.of(beforeExecutionState)
+        _ * beforeExecutionState.outputFileProperties >> fingerprintsOf(output: outputDir)
+        1 * delegate.execute(context) >> delegateResult
+        0 * _
+
+        linkCount(linked) == 1
+        neighbour.text == "neighbour"
+        outputDir.list() as Set == ["linked.txt", "linked.txt.unlinked"] as Set
+    }
+
+    def "keeps writable linked output files"() {
+        def other = temporaryFolder.file("other.txt")
+        other.text = "shared"
+        def linked = outputDir.file("linked.txt")
+        outputDir.mkdirs()
+        Files.createLink(linked.toPath(), other.toPath())
+
+        when:
+        step.execute(context)
+
+        then:
+        _ * context.beforeExecutionState >> Optional.of(beforeExecutionState)
+        _ * beforeExecutionState.outputFileProperties >> fingerprintsOf(output: outputDir)
+        1 * delegate.execute(context) >> delegateResult
+        0 * _
+
+        linkCount(linked) == 2
+    }
+
+    def "uses outputs of the previous execution when outputs were not snapshotted before execution"() {
+        def linked = outputDir.file("linked.txt")
+        outputDir.mkdirs()
+        Files.createLink(linked.toPath(), blob.toPath())
+        def afterPreviousExecutionState = Mock(AfterPreviousExecutionState)
+
+        when:
+        step.execute(context)
+
+        then:
+        _ * context.beforeExecutionState >> Optional.empty()
+        _ * context.afterPreviousExecutionState >> Optional.of(afterPreviousExecutionState)
+        _ * afterPreviousExecutionState.outputFileProperties >> fingerprintsOf(output: outputDir)
+        1 * delegate.execute(context) >> delegateResult
+        0 * _
+
+        linkCount(linked) == 1
+        linkCount(blob) == 1
+    }
+
+    private static int linkCount(File file) {
+        (Integer) Files.getAttribute(file.toPath(), "unix:nlink")
+    }
+}
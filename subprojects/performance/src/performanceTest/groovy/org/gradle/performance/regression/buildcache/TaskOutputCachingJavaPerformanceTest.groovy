@@ -165,6 +165,22 @@ class TaskOutputCachingJavaPerformanceTest extends AbstractTaskOutputCachingPerf
         tasks = projectInfo[1]
     }
 
+    def "clean #tasks on #testProject with local cache linking restored outputs"() {
+        given:
+        setupTestProject(testProject, tasks)
+        runner.gradleOpts += ["-Dorg.gradle.caching.local.deduplicate=true", "-Dorg.gradle.caching.local.link=true"]
+        pushToRemote = false
+
+        when:
+        def result = runner.run()
+
+        then:
+        result.assertCurrentVersionHasNotRegressed()
+
+        where:
+        [testProject, tasks] << scenarios
+    }
+
     def "clean #tasks for abi change on #testProject with local cache (parallel: true)"() {
         given:
         setupTestProject(testProject, tasks)
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.cache.internal;
+
+import org.gradle.cache.IndexedCacheBackend;
+import org.gradle.cache.PersistentIndexedCacheParameters;
+import org.gradle.cache.internal.btree.BTreePersistentIndexedCache;
+import org.gradle.cache.internal.mapped.MemoryMappedPersistentIndexedCache;
+import org.gradle.internal.serialize.BaseSerializerFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Compares the B-tree with the memory-mapped backend for workloads similar to the file hash caches: many lookups of path keys with small values.
+ *
+ * Access to the B-tree is serialized, like it is by the cache access in Gradle, since it is not safe for concurrent use.
+ */
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@State(Scope.Benchmark)
+public class IndexedCacheBackendBenchmark {
+    private static final String KEY_PREFIX = "/home/user/projects/some-project/subproject/build/classes/java/main/org/gradle/example/File";
+
+    File tempDir;
+    ExecutorService compactionExecutor;
+    IndexedCacheBackend<String, Long> cache;
+
+    @Param({"BTREE", "MEMORY_MAPPED"})
+    PersistentIndexedCacheParameters.Backend backend;
+
+    @Param({"100000"})
+    int entries;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        tempDir = Files.createTempDirectory("indexed-cache").toFile();
+        compactionExecutor = Executors.newSingleThreadExecutor();
+        if (backend == PersistentIndexedCacheParameters.Backend.BTREE) {
+            cache = new BTreePersistentIndexedCache<String, Long>(new File(tempDir, "cache.bin"), BaseSerializerFactory.STRING_SERIALIZER, BaseSerializerFactory.LONG_SERIALIZER);
+        } else {
+            cache = new MemoryMappedPersistentIndexedCache<String, Long>(new File(tempDir, "cache.idx"), BaseSerializerFactory.STRING_SERIALIZER, BaseSerializerFactory.LONG_SERIALIZER, compactionExecutor);
+        }
+        for (long i = 0; i < entries; i++) {
+            cache.put(KEY_PREFIX + i, i);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        cache.close();
+        compactionExecutor.shutdown();
+        File[] files = tempDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        tempDir.delete();
+    }
+
+    @Benchmark
+    public void get(Blackhole blackhole) {
+        blackhole.consume(get(randomKey()));
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void concurrentGet(Blackhole blackhole) {
+        blackhole.consume(get(randomKey()));
+    }
+
+    @Benchmark
+    public void put() {
+        String key = randomKey();
+        synchronized (this) {
+            cache.put(key, (long) key.length());
+        }
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void mixedReadsAndWrites(Blackhole blackhole) {
+        String key = randomKey();
+        if (ThreadLocalRandom.current().nextInt(10) == 0) {
+            synchronized (this) {
+                cache.put(key, (long) key.length());
+            }
+        } else {
+            blackhole.consume(get(key));
+        }
+    }
+
+    private Long get(String key) {
+        if (backend == PersistentIndexedCacheParameters.Backend.BTREE) {
+            synchronized (this) {
+                return cache.get(key);
+            }
+        }
+        return cache.get(key);
+    }
+
+    private String randomKey() {
+        return KEY_PREFIX + ThreadLocalRandom.current().nextInt(entries);
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.cache;
+
+import javax.annotation.Nullable;
+import java.util.Map;
+
+/**
+ * The file based storage behind a {@link PersistentIndexedCache}.
+ *
+ * <p>Implementations are not aware of file locking, the caller is responsible for holding the appropriate lock while using the backend.</p>
+ */
+public interface IndexedCacheBackend<K, V> {
+    @Nullable
+    V get(K key);
+
+    void put(K key, V value);
+
+    void remove(K key);
+
+    /**
+     * Applies the given updates in iteration order, writing them to the backing files in one go. A {@code null} value removes the entry for its key.
+     */
+    void updateAll(Map<K, V> updates);
+
+    /**
+     * Closes the backing files. The backend is opened again when it is recreated.
+     */
+    void close();
+}
@@ -15,8 +15,16 @@
  */
 package org.gradle.cache;
 
+import java.util.Map;
+
 /**
  * A {@link PersistentIndexedCache} implementation that is aware of file locking.
  */
 public interface MultiProcessSafePersistentIndexedCache<K, V> extends PersistentIndexedCache<K, V>, UnitOfWorkParticipant {
+    /**
+     * Applies the given updates in iteration order. A {@code null} value removes the entry for its key.
+     *
+     * The implementation may do this synchronously or asynchronously. Implementations that write to the backing files do so in one go, rather than per entry.
+     */
+    void updateAll(Map<K, V> updates);
 }
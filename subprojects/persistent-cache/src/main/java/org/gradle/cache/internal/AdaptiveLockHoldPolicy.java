@@ -0,0 +1,76 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.gradle.cache.internal;
+
+import org.gradle.internal.time.Clock;
+
+/**
+ * Decides for how long a contended cross-process lock is held before it is handed off to the process that requested it.
+ *
+ * <p>Without contention, the lock is handed off as soon as it is no longer in use. When this process needs the lock again shortly after
+ * having handed it off, the processes are taking turns on the lock, and each turn costs a round trip of release requests and file locking.
+ * In this case, the minimum time the lock is held after acquiring it is doubled, up to {@link #MAX_HOLD_TIME_MILLIS}, so that more work is done
+ * per turn. The minimum hold time is halved again each time the lock is not needed again soon after handing it off.</p>
+ *
+ * <p>This class is not thread-safe, access must be guarded by the state lock of the cache.</p>
+ */
+class AdaptiveLockHoldPolicy {
+    static final long MIN_HOLD_TIME_MILLIS = 25;
+    static final long MAX_HOLD_TIME_MILLIS = 2000;
+    static final long REACQUIRE_INTERVAL_MILLIS = 1000;
+
+    private final Clock clock;
+    private long holdTimeMillis;
+    private long acquiredAt;
+    private long handedOffAt = -1;
+
+    AdaptiveLockHoldPolicy(Clock clock) {
+        this.clock = clock;
+    }
+
+    void lockAcquired() {
+        acquiredAt = clock.getCurrentTime();
+        if (handedOffAt < 0) {
+            return;
+        }
+        if (acquiredAt - handedOffAt < REACQUIRE_INTERVAL_MILLIS) {
+            holdTimeMillis = Math.min(MAX_HOLD_TIME_MILLIS, Math.max(MIN_HOLD_TIME_MILLIS, holdTimeMillis * 2));
+        } else {
+            holdTimeMillis = holdTimeMillis / 2 < MIN_HOLD_TIME_MILLIS ? 0 : holdTimeMillis / 2;
+        }
+        handedOffAt = -1;
+    }
+
+    void lockHandedOff() {
+        handedOffAt = clock.getCurrentTime();
+    }
+
+    long getHoldTimeMillis() {
+        return holdTimeMillis;
+    }
+
+    /**
+     * Returns how much longer the lock should be held before handing it off to another process.
+     */
+    long getRemainingHoldTimeMillis() {
+        if (holdTimeMillis == 0) {
+            return 0;
+        }
+        return Math.max(0, acquiredAt + holdTimeMillis - clock.getCurrentTime());
+    }
+}
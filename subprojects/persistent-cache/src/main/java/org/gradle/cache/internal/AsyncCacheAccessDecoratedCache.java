@@ -21,16 +21,45 @@ import org.gradle.cache.AsyncCacheAccess;
 import org.gradle.cache.FileLock;
 import org.gradle.cache.MultiProcessSafePersistentIndexedCache;
 import org.gradle.internal.Factory;
+import org.gradle.internal.UncheckedException;
 
 import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
+/**
+ * Applies updates to the backing cache asynchronously, using group commit.
+ *
+ * Updates which are submitted while a write is already waiting in the queue of the {@link AsyncCacheAccess} are coalesced into that write, so that a batch of updates is written
+ * to the cache file in one go and a later update of a key replaces an earlier one that has not been written yet. Reads of keys with a pending update return the pending value.
+ * The number of pending updates is bounded, and submitting an update blocks while the limit is reached.
+ */
 public class AsyncCacheAccessDecoratedCache<K, V> implements MultiProcessSafeAsyncPersistentIndexedCache<K, V> {
     private final AsyncCacheAccess asyncCacheAccess;
     private final MultiProcessSafePersistentIndexedCache<K, V> persistentCache;
+    private final int maxPendingUpdates;
+    private final Runnable writePendingUpdates = new Runnable() {
+        @Override
+        public void run() {
+            writePendingUpdates();
+        }
+    };
+
+    private final Object lock = new Object(); // protects the following state
+    private Map<K, V> pendingUpdates = new LinkedHashMap<K, V>();
+    private List<Runnable> pendingCompletions = new ArrayList<Runnable>();
+    private boolean writeQueued;
 
     public AsyncCacheAccessDecoratedCache(AsyncCacheAccess asyncCacheAccess, MultiProcessSafePersistentIndexedCache<K, V> persistentCache) {
+        this(asyncCacheAccess, persistentCache, Math.min(4000, new HeapProportionalCacheSizer().scaleCacheSize(40000)));
+    }
+
+    AsyncCacheAccessDecoratedCache(AsyncCacheAccess asyncCacheAccess, MultiProcessSafePersistentIndexedCache<K, V> persistentCache, int maxPendingUpdates) {
         this.asyncCacheAccess = asyncCacheAccess;
         this.persistentCache = persistentCache;
+        this.maxPendingUpdates = maxPendingUpdates;
     }
 
     @Override
@@ -41,6 +70,12 @@ public class AsyncCacheAccessDecoratedCache<K, V> implements MultiProcessSafeAsy
     @Nullable
     @Override
     public V get(final K key) {
+        synchronized (lock) {
+            // The write of pending updates may not have been queued yet, so a queued read would not see them
+            if (pendingUpdates.containsKey(key)) {
+                return pendingUpdates.get(key);
+            }
+        }
         return asyncCacheAccess.read(new Factory<V>() {
             @Override
             public V create() {
@@ -55,40 +90,95 @@ public class AsyncCacheAccessDecoratedCache<K, V> implements MultiProcessSafeAsy
     }
 
     @Override
-    public void putLater(final K key, final V value, final Runnable completion) {
+    public void putLater(K key, V value, Runnable completion) {
+        updateLater(key, value, completion);
+    }
+
+    @Override
+    public void removeLater(K key, Runnable completion) {
+        updateLater(key, null, completion);
+    }
+
+    private void updateLater(K key, @Nullable V value, Runnable completion) {
+        boolean queueWrite;
         try {
-            asyncCacheAccess.enqueue(new Runnable() {
-                @Override
-                public void run() {
-                    try {
-                        persistentCache.put(key, value);
-                    } finally {
-                        completion.run();
-                    }
+            synchronized (lock) {
+                while (pendingUpdates.size() >= maxPendingUpdates && !pendingUpdates.containsKey(key)) {
+                    lock.wait();
                 }
-            });
-        } catch (RuntimeException e) {
+                pendingUpdates.put(key, value);
+                pendingCompletions.add(completion);
+                queueWrite = !writeQueued;
+                writeQueued = true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             completion.run();
-            throw e;
+            throw UncheckedException.throwAsUncheckedException(e);
+        }
+        if (queueWrite) {
+            // Queue the write without holding the lock, as the queue may be full while the worker waits for the lock to write an earlier batch
+            try {
+                asyncCacheAccess.enqueue(writePendingUpdates);
+            } catch (RuntimeException e) {
+                discardPendingUpdates();
+                throw e;
+            }
         }
     }
 
-    @Override
-    public void removeLater(final K key, final Runnable completion) {
+    /**
+     * Discards the pending updates after their write could not be queued, running their completions.
+     */
+    private void discardPendingUpdates() {
+        List<Runnable> completions;
+        synchronized (lock) {
+            completions = pendingCompletions;
+            pendingUpdates = new LinkedHashMap<K, V>();
+            pendingCompletions = new ArrayList<Runnable>();
+            writeQueued = false;
+            lock.notifyAll();
+        }
+        for (Runnable completion : completions) {
+            try {
+                completion.run();
+            } catch (RuntimeException e) {
+                // Ignore, the failure to queue the write is reported instead
+            }
+        }
+    }
+
+    private void writePendingUpdates() {
+        Map<K, V> updates;
+        List<Runnable> completions;
+        synchronized (lock) {
+            updates = pendingUpdates;
+            completions = pendingCompletions;
+            pendingUpdates = new LinkedHashMap<K, V>();
+            pendingCompletions = new ArrayList<Runnable>();
+            writeQueued = false;
+            lock.notifyAll();
+        }
         try {
-            asyncCacheAccess.enqueue(new Runnable() {
-                @Override
-                public void run() {
-                    try {
-                        persistentCache.remove(key);
-                    } finally {
-                        completion.run();
-                    }
+            persistentCache.updateAll(updates);
+        } finally {
+            runAll(completions);
+        }
+    }
+
+    private static void runAll(List<Runnable> completions) {
+        RuntimeException failure = null;
+        for (Runnable completion : completions) {
+            try {
+                completion.run();
+            } catch (RuntimeException e) {
+                if (failure == null) {
+                    failure = e;
                 }
-            });
-        } catch (RuntimeException e) {
-            completion.run();
-            throw e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
         }
     }
 
@@ -24,6 +24,9 @@ import org.gradle.internal.concurrent.ExecutorPolicy;
 import org.gradle.internal.concurrent.Stoppable;
 import org.gradle.internal.time.CountdownTimer;
 import org.gradle.internal.time.Time;
+import org.gradle.internal.time.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -34,8 +37,11 @@ import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.FutureTask;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 class CacheAccessWorker implements Runnable, Stoppable, AsyncCacheAccess {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CacheAccessWorker.class);
+
     private final BlockingQueue<Runnable> workQueue;
     private final String displayName;
     private final CacheAccess cacheAccess;
@@ -141,7 +147,7 @@ class CacheAccessWorker implements Runnable, Stoppable, AsyncCacheAccess {
                         flushOperationsCommand.completed();
                     } else {
                         // need to run operation under cache lock
-                        flushOperations(runnable);
+                        flushOperationsAndLog(runnable);
                     }
                 } catch (InterruptedException e) {
                     throw UncheckedException.throwAsUncheckedException(e);
@@ -168,8 +174,24 @@ class CacheAccessWorker implements Runnable, Stoppable, AsyncCacheAccess {
         return workQueue.take();
     }
 
-    private void flushOperations(final Runnable updateOperation) {
+    private void flushOperationsAndLog(Runnable updateOperation) {
+        if (!LOGGER.isDebugEnabled()) {
+            flushOperations(updateOperation);
+            return;
+        }
+        // Include the operation that has already been taken from the queue
+        int queueDepth = workQueue.size() + 1;
+        Timer timer = Time.startTimer();
+        int operationCount = flushOperations(updateOperation);
+        LOGGER.debug("Flushed {} operations to {} in {} ms, {} operations were queued when the flush started.", operationCount, displayName, timer.getElapsedMillis(), queueDepth);
+    }
+
+    /**
+     * Runs the given operation and any operations queued after it with a single acquisition of the cache lock, returning the number of operations run.
+     */
+    private int flushOperations(final Runnable updateOperation) {
         final List<FlushOperationsCommand> flushOperations = new ArrayList<FlushOperationsCommand>();
+        final AtomicInteger operationCount = new AtomicInteger();
         try {
             cacheAccess.useCache(new Runnable() {
                 @Override
@@ -177,6 +199,7 @@ class CacheAccessWorker implements Runnable, Stoppable, AsyncCacheAccess {
                     CountdownTimer timer = Time.startCountdownTimer(maximumLockingTimeMillis, TimeUnit.MILLISECONDS);
                     if (updateOperation != null) {
                         failureHandler.onExecute(updateOperation);
+                        operationCount.incrementAndGet();
                     }
                     Runnable otherOperation;
                     try {
@@ -185,9 +208,10 @@ class CacheAccessWorker implements Runnable, Stoppable, AsyncCacheAccess {
                             final Class<? extends Runnable> runnableClass = otherOperation.getClass();
                             if (runnableClass == FlushOperationsCommand.class) {
                                 flushOperations.add((FlushOperationsCommand) otherOperation);
-                            }
-                            if (runnableClass == ShutdownOperationsCommand.class) {
+                            } else if (runnableClass == ShutdownOperationsCommand.class) {
                                 stopSeen = true;
+                            } else {
+                                operationCount.incrementAndGet();
                             }
                             if (runnableClass == ShutdownOperationsCommand.class
                                     || runnableClass == FlushOperationsCommand.class
@@ -205,6 +229,7 @@ class CacheAccessWorker implements Runnable, Stoppable, AsyncCacheAccess {
                 flushOperation.completed();
             }
         }
+        return operationCount.get();
     }
 
     public synchronized void stop() {
@@ -16,6 +16,8 @@
 
 package org.gradle.cache.internal;
 
+import com.google.common.cache.Weigher;
+
 import javax.annotation.concurrent.ThreadSafe;
 
 /**
@@ -43,4 +45,14 @@ public abstract class CrossBuildInMemoryCacheFactory {
      * Note: this should be used to create _only_ global scoped instances.
      */
     public abstract <V> CrossBuildInMemoryCache<Class<?>, V> newClassCache();
+
+    /**
+     * Creates a new cache instance whose entries are weighed by the given weigher, which should estimate the number of bytes retained by an entry.
+     * Keys and values are referenced using strong references, as long as all weighted caches fit into the memory budget of the process.
+     * This should only be used for values whose retained memory the weigher can account for, and not for values that pin large object graphs
+     * such as class loaders.
+     *
+     * Note: this should be used to create _only_ global scoped instances.
+     */
+    public abstract <K, V> CrossBuildInMemoryCache<K, V> newWeightedCache(String displayName, Weigher<? super K, ? super V> weigher);
 }
@@ -23,6 +23,7 @@ import org.gradle.cache.MultiProcessSafePersistentIndexedCache;
 import org.gradle.internal.Factory;
 
 import javax.annotation.Nullable;
+import java.util.Map;
 
 /**
  * Applies cross-process file locking to a backing cache, to ensure that any in-memory and on file state is kept in sync while this process is read from or writing to the cache.
@@ -70,6 +71,17 @@ public class CrossProcessSynchronizingCache<K, V> implements MultiProcessSafePer
         target.removeLater(key, runnable);
     }
 
+    @Override
+    public void updateAll(Map<K, V> updates) {
+        for (Map.Entry<K, V> entry : updates.entrySet()) {
+            if (entry.getValue() == null) {
+                remove(entry.getKey());
+            } else {
+                put(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
     @Override
     public void afterLockAcquire(FileLock.State currentCacheState) {
         target.afterLockAcquire(currentCacheState);
@@ -25,12 +25,14 @@ import org.gradle.cache.CacheDecorator;
 import org.gradle.cache.FileAccess;
 import org.gradle.cache.FileLock;
 import org.gradle.cache.FileLockManager;
+import org.gradle.cache.IndexedCacheBackend;
 import org.gradle.cache.LockOptions;
 import org.gradle.cache.LockTimeoutException;
 import org.gradle.cache.MultiProcessSafePersistentIndexedCache;
 import org.gradle.cache.PersistentIndexedCacheParameters;
 import org.gradle.cache.internal.btree.BTreePersistentIndexedCache;
 import org.gradle.cache.internal.cacheops.CacheAccessOperationsStack;
+import org.gradle.cache.internal.mapped.MemoryMappedPersistentIndexedCache;
 import org.gradle.internal.Cast;
 import org.gradle.internal.Factories;
 import org.gradle.internal.Factory;
@@ -76,6 +78,7 @@ public class DefaultCacheAccess implements CacheCoordinator {
 
     private ManagedExecutor cacheUpdateExecutor;
     private CacheAccessWorker cacheAccessWorker;
+    private ManagedExecutor compactionExecutor;
     private final Lock stateLock = new ReentrantLock(); // protects the following state
     private final Condition condition = stateLock.newCondition();
 
@@ -130,6 +133,13 @@ public class DefaultCacheAccess implements CacheCoordinator {
         return cacheAccessWorker;
     }
 
+    private synchronized ManagedExecutor getCompactionExecutor() {
+        if (compactionExecutor == null) {
+            compactionExecutor = executorFactory.create("Cache compaction for " + cacheDisplayName);
+        }
+        return compactionExecutor;
+    }
+
     @Override
     public void open() {
         stateLock.lock();
@@ -170,6 +180,10 @@ public class DefaultCacheAccess implements CacheCoordinator {
                 fileLockHeldByOwner.run();
             }
             crossProcessCacheAccess.close();
+            if (compactionExecutor != null) {
+                compactionExecutor.stop();
+                compactionExecutor = null;
+            }
             if (cleanupAction != null) {
                 try {
                     if (cleanupAction.requiresCleanup()) {
@@ -283,10 +297,14 @@ public class DefaultCacheAccess implements CacheCoordinator {
         IndexedCacheEntry<K, V> entry = Cast.uncheckedCast(caches.get(parameters.getCacheName()));
         try {
             if (entry == null) {
-                final File cacheFile = new File(baseDir, parameters.getCacheName() + ".bin");
+                final boolean memoryMapped = parameters.getBackend() == PersistentIndexedCacheParameters.Backend.MEMORY_MAPPED;
+                final File cacheFile = new File(baseDir, parameters.getCacheName() + (memoryMapped ? ".idx" : ".bin"));
                 LOG.debug("Creating new cache for {}, path {}, access {}", parameters.getCacheName(), cacheFile, this);
-                Factory<BTreePersistentIndexedCache<K, V>> indexedCacheFactory = new Factory<BTreePersistentIndexedCache<K, V>>() {
-                    public BTreePersistentIndexedCache<K, V> create() {
+                Factory<IndexedCacheBackend<K, V>> indexedCacheFactory = new Factory<IndexedCacheBackend<K, V>>() {
+                    public IndexedCacheBackend<K, V> create() {
+                        if (memoryMapped) {
+                            return doCreateMemoryMappedCache(cacheFile, parameters.getKeySerializer(), parameters.getValueSerializer());
+                        }
                         return doCreateCache(cacheFile, parameters.getKeySerializer(), parameters.getValueSerializer());
                     }
                 };
@@ -317,6 +335,10 @@ public class DefaultCacheAccess implements CacheCoordinator {
         return new BTreePersistentIndexedCache<K, V>(cacheFile, keySerializer, valueSerializer);
     }
 
+    <K, V> MemoryMappedPersistentIndexedCache<K, V> doCreateMemoryMappedCache(File cacheFile, Serializer<K> keySerializer, Serializer<V> valueSerializer) {
+        return new MemoryMappedPersistentIndexedCache<K, V>(cacheFile, keySerializer, valueSerializer, getCompactionExecutor());
+    }
+
     /**
      * Called just after the file lock has been acquired.
      */
@@ -445,6 +467,7 @@ public class DefaultCacheAccess implements CacheCoordinator {
             checkCompatibleKeySerializer(faultMessages, parameters.getKeySerializer());
             checkCompatibleValueSerializer(faultMessages, parameters.getValueSerializer());
             checkCompatibleCacheDecorator(faultMessages, parameters.getCacheDecorator());
+            checkCompatibleBackend(faultMessages, parameters.getBackend());
 
             if (!faultMessages.isEmpty()) {
                 String lineSeparator = SystemProperties.getInstance().getLineSeparator();
@@ -487,6 +510,14 @@ public class DefaultCacheAccess implements CacheCoordinator {
                         cacheDecorator, parameters.getCacheDecorator()));
             }
         }
+
+        private void checkCompatibleBackend(Collection<String> faultMessages, PersistentIndexedCacheParameters.Backend backend) {
+            if (backend != parameters.getBackend()) {
+                faultMessages.add(
+                    String.format(" * Requested cache backend (%s) doesn't match current cache backend (%s)",
+                        backend, parameters.getBackend()));
+            }
+        }
     }
 
     @VisibleForTesting
@@ -40,6 +40,7 @@ import org.gradle.internal.id.IdGenerator;
 import org.gradle.internal.id.RandomLongIdGenerator;
 import org.gradle.internal.time.CountdownTimer;
 import org.gradle.internal.time.Time;
+import org.gradle.internal.time.Timer;
 import org.gradle.util.GFileUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -68,22 +69,37 @@ public class DefaultFileLockManager implements FileLockManager {
     private final int lockTimeoutMs;
     private final IdGenerator<Long> generator;
     private final FileLockContentionHandler fileLockContentionHandler;
+    private final FileLockContentionStatistics contentionStatistics;
     private final int shortTimeoutMs = 10000;
 
     public DefaultFileLockManager(ProcessMetaDataProvider metaDataProvider, FileLockContentionHandler fileLockContentionHandler) {
         this(metaDataProvider, DEFAULT_LOCK_TIMEOUT, fileLockContentionHandler);
     }
 
+    public DefaultFileLockManager(ProcessMetaDataProvider metaDataProvider, FileLockContentionHandler fileLockContentionHandler, FileLockContentionStatistics contentionStatistics) {
+        this(metaDataProvider, DEFAULT_LOCK_TIMEOUT, fileLockContentionHandler, new RandomLongIdGenerator(), contentionStatistics);
+    }
+
     public DefaultFileLockManager(ProcessMetaDataProvider metaDataProvider, int lockTimeoutMs, FileLockContentionHandler fileLockContentionHandler) {
         this(metaDataProvider, lockTimeoutMs, fileLockContentionHandler, new RandomLongIdGenerator());
     }
 
     DefaultFileLockManager(ProcessMetaDataProvider metaDataProvider, int lockTimeoutMs, FileLockContentionHandler fileLockContentionHandler,
                            IdGenerator<Long> generator) {
+        this(metaDataProvider, lockTimeoutMs, fileLockContentionHandler, generator, new FileLockContentionStatistics());
+    }
+
+    DefaultFileLockManager(ProcessMetaDataProvider metaDataProvider, int lockTimeoutMs, FileLockContentionHandler fileLockContentionHandler,
+                           IdGenerator<Long> generator, FileLockContentionStatistics contentionStatistics) {
         this.metaDataProvider = metaDataProvider;
         this.lockTimeoutMs = lockTimeoutMs;
         this.fileLockContentionHandler = fileLockContentionHandler;
         this.generator = generator;
+        this.contentionStatistics = contentionStatistics;
+    }
+
+    public FileLockContentionStatistics getContentionStatistics() {
+        return contentionStatistics;
     }
 
     public FileLock lock(File target, LockOptions options, String targetDisplayName) throws LockTimeoutException {
@@ -130,6 +146,7 @@ public class DefaultFileLockManager implements FileLockManager {
         private LockState lockState;
         private int port;
         private final long lockId;
+        private final FileLockContentionStatistics.LockStatistics statistics;
 
         public DefaultFileLock(File target, LockOptions options, String displayName, String operationDisplayName, int port, Action<FileLockReleasedSignal> whenContended) throws Throwable {
             this.port = port;
@@ -141,6 +158,7 @@ public class DefaultFileLockManager implements FileLockManager {
             this.target = target;
 
             this.displayName = displayName;
+            this.statistics = contentionStatistics.forLock(displayName);
             this.operationDisplayName = operationDisplayName;
             this.lockFile = determineLockTargetFile(target);
 
@@ -156,7 +174,7 @@ public class DefaultFileLockManager implements FileLockManager {
             lockFileAccess = new LockFileAccess(lockFile, new LockStateAccess(stateProtocol));
             try {
                 if (whenContended != null) {
-                    fileLockContentionHandler.start(lockId, whenContended);
+                    fileLockContentionHandler.start(lockId, new RecordingContendedAction(whenContended));
                 }
                 lockState = lock(options.getMode());
             } catch (Throwable t) {
@@ -285,8 +303,12 @@ public class DefaultFileLockManager implements FileLockManager {
             LOGGER.debug("Waiting to acquire {} lock on {}.", lockMode.toString().toLowerCase(), displayName);
 
             // Lock the state region, with the requested mode
-            java.nio.channels.FileLock stateRegionLock = lockStateRegion(lockMode);
-            if (stateRegionLock == null) {
+            Timer waitTimer = Time.startTimer();
+            ContentionTrackingQuery stateRegionQuery = new ContentionTrackingQuery(lockMode);
+            java.nio.channels.FileLock stateRegionLock = stateRegionQuery.backoff.retryUntil(stateRegionQuery);
+            if (stateRegionLock != null) {
+                statistics.acquired(stateRegionQuery.contended, waitTimer.getElapsedMillis());
+            } else {
                 LockInfo lockInfo = readInformationRegion(new ExponentialBackoff(shortTimeoutMs));
                 throw new LockTimeoutException(displayName, lockInfo.pid, metaDataProvider.getProcessIdentifier(), lockInfo.operation, operationDisplayName, lockFile);
             }
@@ -339,39 +361,6 @@ public class DefaultFileLockManager implements FileLockManager {
             return out;
         }
 
-        private java.nio.channels.FileLock lockStateRegion(final LockMode lockMode) throws IOException, InterruptedException {
-            final ExponentialBackoff backoff = new ExponentialBackoff(lockTimeoutMs);
-            return backoff.retryUntil(new IOQuery<java.nio.channels.FileLock>() {
-                private long lastPingTime;
-                private int lastLockHolderPort;
-
-                @Override
-                public java.nio.channels.FileLock run() throws IOException, InterruptedException {
-                    java.nio.channels.FileLock fileLock = lockFileAccess.tryLockState(lockMode == LockMode.Shared);
-                    if (fileLock != null) {
-                        return fileLock;
-                    }
-                    if (port != -1) { //we don't like the assumption about the port very much
-                        LockInfo lockInfo = readInformationRegion(backoff);
-                        if (lockInfo.port != -1) {
-                            if (lockInfo.port != lastLockHolderPort) {
-                                backoff.restartTimer();
-                                lastLockHolderPort = lockInfo.port;
-                                lastPingTime = 0;
-                            }
-                            if (fileLockContentionHandler.maybePingOwner(lockInfo.port, lockInfo.lockId, displayName, backoff.timer.getElapsedMillis() - lastPingTime, backoff.signal)) {
-                                lastPingTime = backoff.timer.getElapsedMillis();
-                                LOGGER.debug("The file lock is held by a different Gradle process (pid: {}, lockId: {}). Pinged owner at port {}", lockInfo.pid, lockInfo.lockId, lockInfo.port);
-                            }
-                        } else {
-                            LOGGER.debug("The file lock is held by a different Gradle process. I was unable to read on which port the owner listens for lock access requests.");
-                        }
-                    }
-                    return null;
-                }
-            });
-        }
-
         private java.nio.channels.FileLock lockInformationRegion(final LockMode lockMode, ExponentialBackoff backoff) throws IOException, InterruptedException {
             return backoff.retryUntil(new IOQuery<java.nio.channels.FileLock>() {
                 @Override
@@ -380,6 +369,71 @@ public class DefaultFileLockManager implements FileLockManager {
                 }
             });
         }
+
+        /**
+         * Tries to lock the state region, asking the owner to release the lock while it is held by another process.
+         */
+        private class ContentionTrackingQuery implements IOQuery<java.nio.channels.FileLock> {
+            private final LockMode lockMode;
+            private final ExponentialBackoff backoff = new ExponentialBackoff(lockTimeoutMs);
+            private long lastPingTime;
+            private int lastLockHolderPort;
+            private boolean contended;
+
+            ContentionTrackingQuery(LockMode lockMode) {
+                this.lockMode = lockMode;
+            }
+
+            @Override
+            public java.nio.channels.FileLock run() throws IOException, InterruptedException {
+                java.nio.channels.FileLock fileLock = lockFileAccess.tryLockState(lockMode == LockMode.Shared);
+                if (fileLock != null) {
+                    return fileLock;
+                }
+                contended = true;
+                if (port != -1) { //we don't like the assumption about the port very much
+                    LockInfo lockInfo = readInformationRegion(backoff);
+                    if (lockInfo.port != -1) {
+                        if (lockInfo.port != lastLockHolderPort) {
+                            backoff.restartTimer();
+                            lastLockHolderPort = lockInfo.port;
+                            lastPingTime = 0;
+                        }
+                        if (fileLockContentionHandler.maybePingOwner(lockInfo.port, lockInfo.lockId, displayName, backoff.timer.getElapsedMillis() - lastPingTime, backoff.signal)) {
+                            lastPingTime = backoff.timer.getElapsedMillis();
+                            statistics.releaseRequestSent();
+                            LOGGER.debug("The file lock is held by a different Gradle process (pid: {}, lockId: {}). Pinged owner at port {}", lockInfo.pid, lockInfo.lockId, lockInfo.port);
+                        }
+                    } else {
+                        LOGGER.debug("The file lock is held by a different Gradle process. I was unable to read on which port the owner listens for lock access requests.");
+                    }
+                }
+                return null;
+            }
+        }
+
+        /**
+         * Records the requests to release this lock and whether the lock was handed off as a result.
+         */
+        private class RecordingContendedAction implements Action<FileLockReleasedSignal> {
+            private final Action<FileLockReleasedSignal> whenContended;
+
+            RecordingContendedAction(Action<FileLockReleasedSignal> whenContended) {
+                this.whenContended = whenContended;
+            }
+
+            @Override
+            public void execute(final FileLockReleasedSignal signal) {
+                statistics.releaseRequestReceived();
+                whenContended.execute(new FileLockReleasedSignal() {
+                    @Override
+                    public void trigger() {
+                        statistics.handedOff();
+                        signal.trigger();
+                    }
+                });
+            }
+        }
     }
 
     private interface IOQuery<T> {
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.gradle.cache.internal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects statistics about the contention of file locks between processes, per lock target.
+ *
+ * The statistics are collected by {@link DefaultFileLockManager} while acquiring locks and while handling requests from other processes to release a lock.
+ */
+public class FileLockContentionStatistics {
+    private static final Logger LOGGER = LoggerFactory.getLogger(FileLockContentionStatistics.class);
+
+    private final ConcurrentMap<String, LockStatistics> statistics = new ConcurrentHashMap<String, LockStatistics>();
+
+    LockStatistics forLock(String targetDisplayName) {
+        LockStatistics lockStatistics = statistics.get(targetDisplayName);
+        if (lockStatistics == null) {
+            lockStatistics = new LockStatistics();
+            LockStatistics existing = statistics.putIfAbsent(targetDisplayName, lockStatistics);
+            if (existing != null) {
+                lockStatistics = existing;
+            }
+        }
+        return lockStatistics;
+    }
+
+    /**
+     * Returns the statistics collected so far, keyed by the display name of the lock target.
+     */
+    public Map<String, LockStatistics> getStatistics() {
+        return new TreeMap<String, LockStatistics>(statistics);
+    }
+
+    /**
+     * Logs the statistics of all contended locks and starts collecting from scratch.
+     */
+    public void logAndReset() {
+        Map<String, LockStatistics> collected = getStatistics();
+        statistics.clear();
+        for (Map.Entry<String, LockStatistics> entry : collected.entrySet()) {
+            LockStatistics lockStatistics = entry.getValue();
+            if (lockStatistics.isContended()) {
+                LOGGER.info("Lock on {} was contended: {}.", entry.getKey(), lockStatistics);
+            }
+        }
+    }
+
+    public static class LockStatistics {
+        private final AtomicLong acquisitions = new AtomicLong();
+        private final AtomicLong contendedAcquisitions = new AtomicLong();
+        private final AtomicLong waitTime = new AtomicLong();
+        private final AtomicLong releaseRequestsSent = new AtomicLong();
+        private final AtomicLong releaseRequestsReceived = new AtomicLong();
+        private final AtomicLong handOffs = new AtomicLong();
+
+        void acquired(boolean contended, long waitTimeMillis) {
+            acquisitions.incrementAndGet();
+            if (contended) {
+                contendedAcquisitions.incrementAndGet();
+                waitTime.addAndGet(waitTimeMillis);
+            }
+        }
+
+        void releaseRequestSent() {
+            releaseRequestsSent.incrementAndGet();
+        }
+
+        void releaseRequestReceived() {
+            releaseRequestsReceived.incrementAndGet();
+        }
+
+        void handedOff() {
+            handOffs.incrementAndGet();
+        }
+
+        public long getAcquisitions() {
+            return acquisitions.get();
+        }
+
+        /**
+         * The number of acquisitions which had to wait for another process to release the lock.
+         */
+        public long getContendedAcquisitions() {
+            return contendedAcquisitions.get();
+        }
+
+        /**
+         * The total time spent waiting for other processes to release the lock, in milliseconds.
+         */
+        public long getWaitTimeMillis() {
+            return waitTime.get();
+        }
+
+        /**
+         * The number of requests sent to other processes to release the lock.
+         */
+        public long getReleaseRequestsSent() {
+            return releaseRequestsSent.get();
+        }
+
+        /**
+         * The number of requests from other processes to release the lock held by this process.
+         */
+        public long getReleaseRequestsReceived() {
+            return releaseRequestsReceived.get();
+        }
+
+        /**
+         * The number of times this process released the lock because another process requested it.
+         */
+        public long getHandOffs() {
+            return handOffs.get();
+        }
+
+        boolean isContended() {
+            return getContendedAcquisitions() > 0 || getReleaseRequestsReceived() > 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("waited %sms for %s of %s acquisitions, sent %s and received %s release requests, handed off %s times",
+                getWaitTimeMillis(), getContendedAcquisitions(), getAcquisitions(), getReleaseRequestsSent(), getReleaseRequestsReceived(), getHandOffs());
+        }
+    }
+}
@@ -23,12 +23,17 @@ import org.gradle.cache.FileLockReleasedSignal;
 import org.gradle.cache.LockOptions;
 import org.gradle.internal.Factory;
 import org.gradle.internal.UncheckedException;
+import org.gradle.internal.time.Clock;
+import org.gradle.internal.time.Time;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
 class LockOnDemandCrossProcessCacheAccess extends AbstractCrossProcessCacheAccess {
     private static final Logger LOGGER = LoggerFactory.getLogger(LockOnDemandCrossProcessCacheAccess.class);
     private final String cacheDisplayName;
@@ -36,6 +41,8 @@ class LockOnDemandCrossProcessCacheAccess extends AbstractCrossProcessCacheAcces
     private final LockOptions lockOptions;
     private final FileLockManager lockManager;
     private final Lock stateLock;
+    private final Condition lockReleased;
+    private final AdaptiveLockHoldPolicy holdPolicy;
     private final Action<FileLock> onOpen;
     private final Action<FileLock> onClose;
     private final Runnable unlocker;
@@ -53,11 +60,17 @@ class LockOnDemandCrossProcessCacheAccess extends AbstractCrossProcessCacheAcces
      * @param onClose Action to run when the lock is closed. Action is called while holding state lock
      */
     public LockOnDemandCrossProcessCacheAccess(String cacheDisplayName, File lockTarget, LockOptions lockOptions, FileLockManager lockManager, Lock stateLock, CacheInitializationAction initAction, Action<FileLock> onOpen, Action<FileLock> onClose) {
+        this(cacheDisplayName, lockTarget, lockOptions, lockManager, stateLock, initAction, onOpen, onClose, Time.clock());
+    }
+
+    LockOnDemandCrossProcessCacheAccess(String cacheDisplayName, File lockTarget, LockOptions lockOptions, FileLockManager lockManager, Lock stateLock, CacheInitializationAction initAction, Action<FileLock> onOpen, Action<FileLock> onClose, Clock clock) {
         this.cacheDisplayName = cacheDisplayName;
         this.lockTarget = lockTarget;
         this.lockOptions = lockOptions;
         this.lockManager = lockManager;
         this.stateLock = stateLock;
+        this.lockReleased = stateLock.newCondition();
+        this.holdPolicy = new AdaptiveLockHoldPolicy(clock);
         this.initAction = initAction;
         this.onOpen = onOpen;
         this.onClose = onClose;
@@ -104,6 +117,7 @@ class LockOnDemandCrossProcessCacheAccess extends AbstractCrossProcessCacheAcces
                     LOGGER.debug("Acquiring file lock for {}", cacheDisplayName);
                 }
                 fileLock = lockManager.lock(lockTarget, lockOptions, cacheDisplayName, "", whenContended);
+                holdPolicy.lockAcquired();
                 try {
                     if (initAction.requiresInitialization(fileLock)) {
                         fileLock.writeFile(new Runnable() {
@@ -133,7 +147,7 @@ class LockOnDemandCrossProcessCacheAccess extends AbstractCrossProcessCacheAcces
                 throw new IllegalStateException("Mismatched lock count.");
             }
             lockCount--;
-            if (lockCount == 0 && lockReleaseSignal != null) {
+            if (lockCount == 0 && lockReleaseSignal != null && holdPolicy.getRemainingHoldTimeMillis() == 0) {
                 releaseLockIfHeld();
             } // otherwise, keep lock open
         } finally {
@@ -155,7 +169,9 @@ class LockOnDemandCrossProcessCacheAccess extends AbstractCrossProcessCacheAcces
                 fileLock.close();
                 fileLock = null;
             } finally {
+                lockReleased.signalAll();
                 if (lockReleaseSignal != null) {
+                    holdPolicy.lockHandedOff();
                     lockReleaseSignal.trigger();
                     lockReleaseSignal = null;
                 }
@@ -174,8 +190,22 @@ class LockOnDemandCrossProcessCacheAccess extends AbstractCrossProcessCacheAcces
         public void execute(FileLockReleasedSignal signal) {
             stateLock.lock();
             try {
+                long remainingHoldTime = holdPolicy.getRemainingHoldTimeMillis();
+                if (fileLock != null && remainingHoldTime > 0) {
+                    // Lock is contended frequently - do some more work before handing it off
+                    LOGGER.debug("Lock on {} requested by another process - lock is contended frequently and will be released in {}ms.", cacheDisplayName, remainingHoldTime);
+                    lockReleaseSignal = signal;
+                    if (!awaitEndOfHoldTime(signal)) {
+                        // Lock has been released in the meantime
+                        return;
+                    }
+                }
                 if (lockCount == 0) {
                     LOGGER.debug("Lock on {} requested by another process - releasing lock.", cacheDisplayName);
+                    lockReleaseSignal = null;
+                    if (fileLock != null) {
+                        holdPolicy.lockHandedOff();
+                    }
                     releaseLockIfHeld();
                     signal.trigger();
                 } else {
@@ -189,6 +219,21 @@ class LockOnDemandCrossProcessCacheAccess extends AbstractCrossProcessCacheAcces
         }
     }
 
+    /**
+     * Waits until the hold time has passed or the lock has been released. Returns false when the lock has been released.
+     */
+    private boolean awaitEndOfHoldTime(FileLockReleasedSignal signal) {
+        try {
+            long remainingHoldTime;
+            while (lockReleaseSignal == signal && (remainingHoldTime = holdPolicy.getRemainingHoldTimeMillis()) > 0) {
+                lockReleased.await(remainingHoldTime, MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return lockReleaseSignal == signal;
+    }
+
     private class UnlockAction implements Runnable {
         @Override
         public void run() {
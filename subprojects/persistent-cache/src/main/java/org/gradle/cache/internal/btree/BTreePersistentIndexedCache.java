@@ -17,6 +17,7 @@ package org.gradle.cache.internal.btree;
 
 import com.google.common.collect.ImmutableSet;
 import org.gradle.api.UncheckedIOException;
+import org.gradle.cache.IndexedCacheBackend;
 import org.gradle.internal.UncheckedException;
 import org.gradle.internal.io.StreamByteBuffer;
 import org.gradle.internal.serialize.Serializer;
@@ -34,6 +35,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
 
 // todo - stream serialised value to file
 // todo - handle hash collisions (properly, this time)
@@ -47,7 +49,7 @@ import java.util.List;
 // todo - merge adjacent free blocks
 // todo - use more efficient lookup for free block with nearest size
 @SuppressWarnings("unchecked")
-public class BTreePersistentIndexedCache<K, V> {
+public class BTreePersistentIndexedCache<K, V> implements IndexedCacheBackend<K, V> {
     private static final Logger LOGGER = LoggerFactory.getLogger(BTreePersistentIndexedCache.class);
     private final File cacheFile;
     private final KeyHasher<K> keyHasher;
@@ -119,6 +121,7 @@ public class BTreePersistentIndexedCache<K, V> {
         header = store.readFirst(HeaderBlock.class);
     }
 
+    @Override
     public V get(K key) {
         try {
             try {
@@ -136,46 +139,73 @@ public class BTreePersistentIndexedCache<K, V> {
         }
     }
 
+    @Override
     public void put(K key, V value) {
         try {
-            long hashCode = keyHasher.getHashCode(key);
-            Lookup lookup = header.getRoot().find(hashCode);
-            DataBlock newBlock = null;
-            if (lookup.entry != null) {
-                DataBlock block = store.read(lookup.entry.dataBlock, DataBlock.class);
-                DataBlockUpdateResult updateResult = block.useNewValue(value);
-                if (updateResult.isFailed()) {
-                    store.remove(block);
-                    newBlock = new DataBlock(value, updateResult.getSerializedValue());
-                }
-            } else {
-                newBlock = new DataBlock(value);
-            }
-            if (newBlock != null) {
-                store.write(newBlock);
-                lookup.indexBlock.put(hashCode, newBlock.getPos());
-            }
+            doPut(key, value);
             store.flush();
         } catch (Exception e) {
             throw new UncheckedIOException(String.format("Could not add entry '%s' to %s.", key, this), e);
         }
     }
 
+    @Override
     public void remove(K key) {
         try {
-            Lookup lookup = header.getRoot().find(key);
-            if (lookup.entry == null) {
-                return;
-            }
-            lookup.indexBlock.remove(lookup.entry);
-            DataBlock block = store.read(lookup.entry.dataBlock, DataBlock.class);
-            store.remove(block);
+            doRemove(key);
             store.flush();
         } catch (Exception e) {
             throw new UncheckedIOException(String.format("Could not remove entry '%s' from %s.", key, this), e);
         }
     }
 
+    @Override
+    public void updateAll(Map<K, V> updates) {
+        // Collect the changed blocks of all updates, so they are written with a single flush
+        try {
+            for (Map.Entry<K, V> entry : updates.entrySet()) {
+                if (entry.getValue() == null) {
+                    doRemove(entry.getKey());
+                } else {
+                    doPut(entry.getKey(), entry.getValue());
+                }
+            }
+            store.flush();
+        } catch (Exception e) {
+            throw new UncheckedIOException(String.format("Could not write %s updates to %s.", updates.size(), this), e);
+        }
+    }
+
+    private void doPut(K key, V value) throws Exception {
+        long hashCode = keyHasher.getHashCode(key);
+        Lookup lookup = header.getRoot().find(hashCode);
+        DataBlock newBlock = null;
+        if (lookup.entry != null) {
+            DataBlock block = store.read(lookup.entry.dataBlock, DataBlock.class);
+            DataBlockUpdateResult updateResult = block.useNewValue(value);
+            if (updateResult.isFailed()) {
+                store.remove(block);
+                newBlock = new DataBlock(value, updateResult.getSerializedValue());
+            }
+        } else {
+            newBlock = new DataBlock(value);
+        }
+        if (newBlock != null) {
+            store.write(newBlock);
+            lookup.indexBlock.put(hashCode, newBlock.getPos());
+        }
+    }
+
+    private void doRemove(K key) throws Exception {
+        Lookup lookup = header.getRoot().find(key);
+        if (lookup.entry == null) {
+            return;
+        }
+        lookup.indexBlock.remove(lookup.entry);
+        DataBlock block = store.read(lookup.entry.dataBlock, DataBlock.class);
+        store.remove(block);
+    }
+
     private IndexBlock load(BlockPointer pos, IndexRoot root, IndexBlock parent, int index) {
         IndexBlock block = store.read(pos, IndexBlock.class);
         block.root = root;
@@ -193,6 +223,7 @@ public class BTreePersistentIndexedCache<K, V> {
         }
     }
 
+    @Override
     public void close() {
         LOGGER.debug("Closing {}", this);
         try {
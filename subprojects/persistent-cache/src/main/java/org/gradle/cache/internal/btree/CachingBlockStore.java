@@ -20,9 +20,11 @@ import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableSet;
 
 import javax.annotation.Nullable;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Iterator;
+import java.util.Collections;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 public class CachingBlockStore implements BlockStore {
@@ -53,11 +55,13 @@ public class CachingBlockStore implements BlockStore {
     }
 
     public void flush() {
-        Iterator<BlockPayload> iterator = dirty.values().iterator();
-        while (iterator.hasNext()) {
-            BlockPayload block = iterator.next();
-            iterator.remove();
-            store.write(block);
+        if (!dirty.isEmpty()) {
+            // Write the blocks in file order, so a flush of many updates turns into a sequential write
+            List<BlockPointer> positions = new ArrayList<BlockPointer>(dirty.keySet());
+            Collections.sort(positions);
+            for (BlockPointer pos : positions) {
+                store.write(dirty.remove(pos));
+            }
         }
         store.flush();
     }
@@ -0,0 +1,888 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.cache.internal.mapped;
+
+import org.gradle.api.UncheckedIOException;
+import org.gradle.cache.IndexedCacheBackend;
+import org.gradle.internal.serialize.Serializer;
+import org.gradle.internal.serialize.kryo.KryoBackedDecoder;
+import org.gradle.internal.serialize.kryo.KryoBackedEncoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * An indexed cache stored in two memory-mapped files: an open-addressing hash index and an append-only data file.
+ *
+ * <p>The index is split into stripes, each guarded by its own read-write lock, so lookups only contend with updates of keys in the same stripe.
+ * Updates are serialized, append the serialized entry to the data file and then point the index slot at it. Replaced and removed entries leave
+ * garbage behind in the data file, which is compacted on a background thread once it outweighs the live entries. Lookups and updates keep
+ * running while the entries are copied to a new data file, only the switch over to the new file blocks them.</p>
+ *
+ * <p>Keys are compared by their serialized form, so hash collisions are handled. The index is marked dirty while the cache is being modified and
+ * a cache which was not closed properly is discarded when it is opened again.</p>
+ */
+public class MemoryMappedPersistentIndexedCache<K, V> implements IndexedCacheBackend<K, V> {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MemoryMappedPersistentIndexedCache.class);
+
+    private static final int INDEX_MAGIC = 0x47494458;
+    private static final int DATA_MAGIC = 0x47444154;
+    private static final int FORMAT_VERSION = 1;
+
+    private static final int STRIPE_BITS = 4;
+    private static final int STRIPES = 1 << STRIPE_BITS;
+    private static final int INITIAL_SLOTS_PER_STRIPE = 256;
+    private static final int MAX_SLOTS_PER_STRIPE = 1 << 22;
+    private static final int SLOT_SIZE = 16;
+    private static final long EMPTY_SLOT = 0;
+    private static final long REMOVED_ENTRY = -1;
+
+    // Layout of the index header
+    private static final int MAGIC_POS = 0;
+    private static final int VERSION_POS = 4;
+    private static final int GENERATION_POS = 8;
+    private static final int SLOTS_PER_STRIPE_POS = 16;
+    private static final int DIRTY_POS = 20;
+    private static final int DATA_END_POS = 24;
+    private static final int GARBAGE_POS = 32;
+    private static final int STRIPE_USAGE_POS = 64;
+    private static final int INDEX_HEADER_SIZE = STRIPE_USAGE_POS + 4 * STRIPES;
+
+    // Layout of the data file: a header followed by records of key length, value length, key and value
+    private static final int DATA_HEADER_SIZE = 16;
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    private static final int DEFAULT_SEGMENT_SIZE = 1 << 22;
+    private static final long DEFAULT_MIN_COMPACTION_GARBAGE = 1 << 22;
+
+    private final File indexFile;
+    private final Serializer<K> keySerializer;
+    private final Serializer<V> valueSerializer;
+    private final Executor compactionExecutor;
+    private final int segmentSize;
+    private final long minCompactionGarbage;
+
+    private final ReentrantReadWriteLock[] stripeLocks = new ReentrantReadWriteLock[STRIPES];
+    // Serializes all updates, and protects the fields below. The index and data file references are only replaced while also holding all stripe locks
+    private final Lock updateLock = new ReentrantLock();
+    private final Condition compactionFinished = updateLock.newCondition();
+
+    private FileChannel indexChannel;
+    private volatile Index index;
+    private volatile DataFile data;
+    private long generation;
+    private long dataEnd;
+    private long garbage;
+    private boolean dirty;
+    private boolean compactionScheduled;
+    private boolean compacting;
+    private boolean closed;
+    private volatile boolean closing;
+
+    public MemoryMappedPersistentIndexedCache(File indexFile, Serializer<K> keySerializer, Serializer<V> valueSerializer, Executor compactionExecutor) {
+        this(indexFile, keySerializer, valueSerializer, compactionExecutor, DEFAULT_SEGMENT_SIZE, DEFAULT_MIN_COMPACTION_GARBAGE);
+    }
+
+    MemoryMappedPersistentIndexedCache(File indexFile, Serializer<K> keySerializer, Serializer<V> valueSerializer, Executor compactionExecutor, int segmentSize, long minCompactionGarbage) {
+        this.indexFile = indexFile;
+        this.keySerializer = keySerializer;
+        this.valueSerializer = valueSerializer;
+        this.compactionExecutor = compactionExecutor;
+        this.segmentSize = segmentSize;
+        this.minCompactionGarbage = minCompactionGarbage;
+        for (int i = 0; i < STRIPES; i++) {
+            stripeLocks[i] = new ReentrantReadWriteLock();
+        }
+        try {
+            open();
+        } catch (Exception e) {
+            throw new UncheckedIOException(String.format("Could not open %s.", this), e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "cache " + indexFile.getName() + " (" + indexFile + ")";
+    }
+
+    private void open() throws IOException {
+        LOGGER.debug("Opening {}", this);
+        indexFile.getParentFile().mkdirs();
+        indexChannel = new RandomAccessFile(indexFile, "rw").getChannel();
+        try {
+            if (!openExisting()) {
+                if (indexChannel.size() > 0) {
+                    LOGGER.warn("{} was not closed properly or is corrupt. Discarding.", this);
+                }
+                initialize(generation + 1);
+            }
+            deleteStaleDataFiles();
+        } catch (IOException e) {
+            closeQuietly();
+            throw e;
+        } catch (RuntimeException e) {
+            closeQuietly();
+            throw e;
+        }
+    }
+
+    private boolean openExisting() throws IOException {
+        long indexSize = indexChannel.size();
+        if (indexSize < INDEX_HEADER_SIZE) {
+            return false;
+        }
+        // Read rather than map the header, so the index file can be truncated right away if it needs to be discarded
+        ByteBuffer header = ByteBuffer.allocate(INDEX_HEADER_SIZE);
+        while (header.hasRemaining() && indexChannel.read(header, header.position()) >= 0) {
+            // Keep reading
+        }
+        generation = header.getLong(GENERATION_POS);
+        int slotsPerStripe = header.getInt(SLOTS_PER_STRIPE_POS);
+        if (header.getInt(MAGIC_POS) != INDEX_MAGIC
+            || header.getInt(VERSION_POS) != FORMAT_VERSION
+            || header.getInt(DIRTY_POS) != 0
+            || slotsPerStripe < INITIAL_SLOTS_PER_STRIPE || slotsPerStripe > MAX_SLOTS_PER_STRIPE || Integer.bitCount(slotsPerStripe) != 1
+            || indexSize < indexSize(slotsPerStripe)) {
+            return false;
+        }
+        File dataFile = dataFile(generation);
+        if (!dataFile.isFile()) {
+            return false;
+        }
+        DataFile existingData = DataFile.open(dataFile, segmentSize);
+        long existingDataEnd = header.getLong(DATA_END_POS);
+        if (!existingData.hasHeader(generation) || existingDataEnd < DATA_HEADER_SIZE || existingData.size() < existingDataEnd) {
+            existingData.close();
+            return false;
+        }
+        index = new Index(indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, indexSize(slotsPerStripe)), slotsPerStripe);
+        data = existingData;
+        dataEnd = existingDataEnd;
+        garbage = header.getLong(GARBAGE_POS);
+        return true;
+    }
+
+    private void initialize(long newGeneration) throws IOException {
+        generation = newGeneration;
+        indexChannel.truncate(0);
+        Index newIndex = new Index(indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, indexSize(INITIAL_SLOTS_PER_STRIPE)), INITIAL_SLOTS_PER_STRIPE);
+        MappedByteBuffer buffer = newIndex.buffer;
+        buffer.putInt(MAGIC_POS, INDEX_MAGIC);
+        buffer.putInt(VERSION_POS, FORMAT_VERSION);
+        buffer.putLong(GENERATION_POS, newGeneration);
+        buffer.putInt(SLOTS_PER_STRIPE_POS, INITIAL_SLOTS_PER_STRIPE);
+        buffer.putLong(DATA_END_POS, DATA_HEADER_SIZE);
+        index = newIndex;
+        data = DataFile.create(dataFile(newGeneration), newGeneration, segmentSize);
+        dataEnd = DATA_HEADER_SIZE;
+        garbage = 0;
+    }
+
+    private static int indexSize(int slotsPerStripe) {
+        return INDEX_HEADER_SIZE + STRIPES * slotsPerStripe * SLOT_SIZE;
+    }
+
+    private File dataFile(long generation) {
+        return new File(indexFile.getParentFile(), baseName() + "." + generation + ".data");
+    }
+
+    private String baseName() {
+        String name = indexFile.getName();
+        int extension = name.lastIndexOf('.');
+        return extension > 0 ? name.substring(0, extension) : name;
+    }
+
+    /**
+     * Deletes the data files of earlier generations, which could not be deleted right after compaction because they were still mapped.
+     */
+    private void deleteStaleDataFiles() {
+        final String prefix = baseName() + ".";
+        final String currentName = dataFile(generation).getName();
+        File[] files = indexFile.getParentFile().listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (name.startsWith(prefix) && name.endsWith(".data") && !name.equals(currentName)) {
+                if (!file.delete()) {
+                    LOGGER.debug("Could not delete stale data file {} of {}.", file, this);
+                }
+            }
+        }
+    }
+
+    @Nullable
+    @Override
+    public V get(K key) {
+        try {
+            byte[] keyBytes = serialize(keySerializer, key);
+            long hash = hash(keyBytes);
+            int stripe = stripeOf(hash);
+            byte[] valueBytes;
+            Lock lock = stripeLocks[stripe].readLock();
+            lock.lock();
+            try {
+                int slot = findSlot(index, stripe, hash, keyBytes);
+                if (slot < 0) {
+                    return null;
+                }
+                long offset = index.buffer.getLong(slot + 8);
+                int keyLength = data.readInt(offset);
+                int valueLength = data.readInt(offset + 4);
+                valueBytes = data.read(offset + RECORD_HEADER_SIZE + keyLength, valueLength);
+            } finally {
+                lock.unlock();
+            }
+            return valueSerializer.read(new KryoBackedDecoder(new ByteArrayInputStream(valueBytes), Math.max(1, Math.min(valueBytes.length, 4096))));
+        } catch (Exception e) {
+            throw new UncheckedIOException(String.format("Could not read entry '%s' from %s.", key, this), e);
+        }
+    }
+
+    @Override
+    public void put(K key, V value) {
+        updateLock.lock();
+        try {
+            assertOpen();
+            byte[] keyBytes = serialize(keySerializer, key);
+            byte[] valueBytes = serialize(valueSerializer, value);
+            long hash = hash(keyBytes);
+            int stripe = stripeOf(hash);
+            markDirty();
+            ensureCapacity(stripe);
+            long offset = append(keyBytes, valueBytes);
+
+            Lock lock = stripeLocks[stripe].writeLock();
+            lock.lock();
+            try {
+                Index index = this.index;
+                int slot = findSlot(index, stripe, hash, keyBytes);
+                if (slot >= 0) {
+                    addGarbage(recordSize(index.buffer.getLong(slot + 8)));
+                    index.buffer.putLong(slot + 8, offset);
+                } else {
+                    slot = -slot - 1;
+                    boolean wasEmpty = index.buffer.getLong(slot) == EMPTY_SLOT;
+                    index.buffer.putLong(slot + 8, offset);
+                    index.buffer.putLong(slot, hash);
+                    if (wasEmpty) {
+                        index.incrementUsage(stripe);
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+            maybeScheduleCompaction();
+        } catch (Exception e) {
+            throw new UncheckedIOException(String.format("Could not add entry '%s' to %s.", key, this), e);
+        } finally {
+            updateLock.unlock();
+        }
+    }
+
+    @Override
+    public void remove(K key) {
+        updateLock.lock();
+        try {
+            assertOpen();
+            byte[] keyBytes = serialize(keySerializer, key);
+            long hash = hash(keyBytes);
+            int stripe = stripeOf(hash);
+            Lock lock = stripeLocks[stripe].writeLock();
+            lock.lock();
+            try {
+                Index index = this.index;
+                int slot = findSlot(index, stripe, hash, keyBytes);
+                if (slot < 0) {
+                    return;
+                }
+                markDirty();
+                // Keep the hash, so lookups continue probing past the removed entry
+                addGarbage(recordSize(index.buffer.getLong(slot + 8)));
+                index.buffer.putLong(slot + 8, REMOVED_ENTRY);
+            } finally {
+                lock.unlock();
+            }
+            maybeScheduleCompaction();
+        } catch (Exception e) {
+            throw new UncheckedIOException(String.format("Could not remove entry '%s' from %s.", key, this), e);
+        } finally {
+            updateLock.unlock();
+        }
+    }
+
+    @Override
+    public void updateAll(Map<K, V> updates) {
+        // Records are always appended, so holding the update lock for the whole batch is enough to write them sequentially
+        updateLock.lock();
+        try {
+            for (Map.Entry<K, V> entry : updates.entrySet()) {
+                if (entry.getValue() == null) {
+                    remove(entry.getKey());
+                } else {
+                    put(entry.getKey(), entry.getValue());
+                }
+            }
+        } finally {
+            updateLock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        LOGGER.debug("Closing {}", this);
+        updateLock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            // The compaction reads the data file without holding the lock, so it needs to finish before the file can be unmapped
+            closing = true;
+            while (compacting) {
+                compactionFinished.awaitUninterruptibly();
+            }
+            lockAllStripes();
+            try {
+                closed = true;
+                if (dirty) {
+                    index.buffer.putInt(DIRTY_POS, 0);
+                    dirty = false;
+                }
+                data.close();
+                MappedBuffers.unmap(index.buffer);
+                indexChannel.close();
+                index = null;
+                data = null;
+            } finally {
+                unlockAllStripes();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            updateLock.unlock();
+        }
+    }
+
+    public boolean isOpen() {
+        updateLock.lock();
+        try {
+            return !closed;
+        } finally {
+            updateLock.unlock();
+        }
+    }
+
+    private void closeQuietly() {
+        try {
+            if (data != null) {
+                data.close();
+            }
+            if (index != null) {
+                MappedBuffers.unmap(index.buffer);
+            }
+            indexChannel.close();
+        } catch (IOException e) {
+            LOGGER.debug("Could not close {}.", this, e);
+        }
+        index = null;
+        data = null;
+        closed = true;
+    }
+
+    private void assertOpen() {
+        if (closed) {
+            throw new IllegalStateException(String.format("%s has been closed.", this));
+        }
+    }
+
+    /**
+     * Returns the position of the slot holding the given key, or {@code -(position + 1)} of the first slot the key could be inserted into.
+     */
+    private int findSlot(Index index, int stripe, long hash, byte[] keyBytes) throws IOException {
+        int mask = index.slotsPerStripe - 1;
+        int available = -1;
+        int slot = (int) hash & mask;
+        for (int probes = 0; probes < index.slotsPerStripe; probes++, slot = (slot + 1) & mask) {
+            int position = index.slotPosition(stripe, slot);
+            long slotHash = index.buffer.getLong(position);
+            if (slotHash == EMPTY_SLOT) {
+                return -((available >= 0 ? available : position) + 1);
+            }
+            long offset = index.buffer.getLong(position + 8);
+            if (offset == REMOVED_ENTRY) {
+                if (available < 0) {
+                    available = position;
+                }
+            } else if (slotHash == hash && data.keyMatches(offset, keyBytes)) {
+                return position;
+            }
+        }
+        if (available < 0) {
+            throw new IllegalStateException(String.format("The index of %s is full.", this));
+        }
+        return -(available + 1);
+    }
+
+    /**
+     * Doubles the size of the index when the given stripe would become too full.
+     */
+    private void ensureCapacity(int stripe) throws IOException {
+        Index current = index;
+        if ((current.getUsage(stripe) + 1) * 4L <= current.slotsPerStripe * 3L || current.slotsPerStripe >= MAX_SLOTS_PER_STRIPE) {
+            return;
+        }
+        int newSlotsPerStripe = current.slotsPerStripe * 2;
+        lockAllStripes();
+        try {
+            // Collect the live entries, since the new mapping covers the old slots
+            long[] hashes = new long[STRIPES * current.slotsPerStripe];
+            long[] offsets = new long[hashes.length];
+            int count = 0;
+            for (int i = 0; i < hashes.length; i++) {
+                int position = INDEX_HEADER_SIZE + i * SLOT_SIZE;
+                long slotHash = current.buffer.getLong(position);
+                long offset = current.buffer.getLong(position + 8);
+                if (slotHash != EMPTY_SLOT && offset != REMOVED_ENTRY) {
+                    hashes[count] = slotHash;
+                    offsets[count] = offset;
+                    count++;
+                }
+            }
+
+            Index resized = new Index(indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, indexSize(newSlotsPerStripe)), newSlotsPerStripe);
+            ByteBuffer slots = resized.buffer.duplicate();
+            slots.position(INDEX_HEADER_SIZE);
+            byte[] zeros = new byte[SLOT_SIZE * 256];
+            while (slots.hasRemaining()) {
+                slots.put(zeros, 0, Math.min(zeros.length, slots.remaining()));
+            }
+            for (int i = 0; i < STRIPES; i++) {
+                resized.setUsage(i, 0);
+            }
+            int mask = newSlotsPerStripe - 1;
+            for (int i = 0; i < count; i++) {
+                int targetStripe = stripeOf(hashes[i]);
+                int slot = (int) hashes[i] & mask;
+                int position = resized.slotPosition(targetStripe, slot);
+                while (resized.buffer.getLong(position) != EMPTY_SLOT) {
+                    slot = (slot + 1) & mask;
+                    position = resized.slotPosition(targetStripe, slot);
+                }
+                resized.buffer.putLong(position, hashes[i]);
+                resized.buffer.putLong(position + 8, offsets[i]);
+                resized.incrementUsage(targetStripe);
+            }
+            resized.buffer.putInt(SLOTS_PER_STRIPE_POS, newSlotsPerStripe);
+            index = resized;
+        } finally {
+            unlockAllStripes();
+        }
+        // Lookups only use the index while holding a stripe lock, so the old mapping is not used anymore
+        MappedBuffers.unmap(current.buffer);
+    }
+
+    private long append(byte[] keyBytes, byte[] valueBytes) throws IOException {
+        long offset = dataEnd;
+        byte[] header = new byte[RECORD_HEADER_SIZE];
+        ByteBuffer.wrap(header).putInt(keyBytes.length).putInt(valueBytes.length);
+        data.write(offset, header);
+        data.write(offset + RECORD_HEADER_SIZE, keyBytes);
+        data.write(offset + RECORD_HEADER_SIZE + keyBytes.length, valueBytes);
+        setDataEnd(offset + RECORD_HEADER_SIZE + keyBytes.length + valueBytes.length);
+        return offset;
+    }
+
+    private long recordSize(long offset) throws IOException {
+        return recordSize(data, offset);
+    }
+
+    private static long recordSize(DataFile data, long offset) throws IOException {
+        return RECORD_HEADER_SIZE + data.readInt(offset) + data.readInt(offset + 4);
+    }
+
+    private void setDataEnd(long newDataEnd) {
+        dataEnd = newDataEnd;
+        index.buffer.putLong(DATA_END_POS, newDataEnd);
+    }
+
+    private void addGarbage(long bytes) {
+        garbage += bytes;
+        index.buffer.putLong(GARBAGE_POS, garbage);
+    }
+
+    private void markDirty() {
+        if (!dirty) {
+            index.buffer.putInt(DIRTY_POS, 1);
+            dirty = true;
+        }
+    }
+
+    private void maybeScheduleCompaction() {
+        if (compactionScheduled || !needsCompaction()) {
+            return;
+        }
+        compactionScheduled = true;
+        try {
+            compactionExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    compact();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            compactionScheduled = false;
+        }
+    }
+
+    private boolean needsCompaction() {
+        return garbage >= minCompactionGarbage && garbage * 2 > dataEnd - DATA_HEADER_SIZE;
+    }
+
+    /**
+     * Copies the live entries to the data file of the next generation.
+     *
+     * <p>The entries are copied without holding the update lock, since records in the data file are never changed once written.
+     * Afterwards, the records appended in the meantime are copied as well and the index is switched over to the new file while holding the update lock.</p>
+     */
+    void compact() {
+        long[] liveOffsets;
+        long snapshotDataEnd;
+        long snapshotGarbage;
+        long newGeneration;
+        DataFile oldData;
+        updateLock.lock();
+        try {
+            compactionScheduled = false;
+            if (closed || closing || compacting || !needsCompaction()) {
+                return;
+            }
+            LOGGER.debug("Compacting {}, {} of {} bytes are garbage.", this, garbage, dataEnd);
+            liveOffsets = liveOffsets(index);
+            snapshotDataEnd = dataEnd;
+            snapshotGarbage = garbage;
+            newGeneration = generation + 1;
+            oldData = data;
+            compacting = true;
+        } finally {
+            updateLock.unlock();
+        }
+
+        DataFile newData = null;
+        try {
+            newData = DataFile.create(dataFile(newGeneration), newGeneration, segmentSize);
+            // Copy in the order of the old file, so it is read sequentially
+            Arrays.sort(liveOffsets);
+            long[] newOffsets = new long[liveOffsets.length];
+            long newDataEnd = DATA_HEADER_SIZE;
+            for (int i = 0; i < liveOffsets.length; i++) {
+                if (closing) {
+                    throw new IllegalStateException(String.format("%s is being closed.", this));
+                }
+                byte[] record = oldData.read(liveOffsets[i], (int) recordSize(oldData, liveOffsets[i]));
+                newData.write(newDataEnd, record);
+                newOffsets[i] = newDataEnd;
+                newDataEnd += record.length;
+            }
+            switchToCompactedData(oldData, newData, newGeneration, liveOffsets, newOffsets, snapshotDataEnd, snapshotGarbage, newDataEnd);
+        } catch (Exception e) {
+            LOGGER.debug("Could not compact {}.", this, e);
+            if (newData != null) {
+                closeQuietly(newData);
+                dataFile(newGeneration).delete();
+            }
+        } finally {
+            updateLock.lock();
+            try {
+                compacting = false;
+                compactionFinished.signalAll();
+            } finally {
+                updateLock.unlock();
+            }
+        }
+    }
+
+    private void switchToCompactedData(DataFile oldData, DataFile newData, long newGeneration, long[] liveOffsets, long[] newOffsets, long snapshotDataEnd, long snapshotGarbage, long copiedDataEnd) throws IOException {
+        updateLock.lock();
+        try {
+            if (closed || closing) {
+                throw new IllegalStateException(String.format("%s has been closed.", this));
+            }
+            markDirty();
+            // Records appended during the copy are moved as a whole, so their offsets are shifted by the same amount
+            long tailShift = copiedDataEnd - snapshotDataEnd;
+            for (long position = snapshotDataEnd; position < dataEnd; position += segmentSize) {
+                int length = (int) Math.min(segmentSize, dataEnd - position);
+                newData.write(position + tailShift, oldData.read(position, length));
+            }
+
+            Index current = index;
+            int slotCount = STRIPES * current.slotsPerStripe;
+            long[] remapped = new long[slotCount];
+            for (int i = 0; i < slotCount; i++) {
+                int position = INDEX_HEADER_SIZE + i * SLOT_SIZE;
+                long offset = current.buffer.getLong(position + 8);
+                if (current.buffer.getLong(position) == EMPTY_SLOT || offset == REMOVED_ENTRY) {
+                    remapped[i] = offset;
+                } else if (offset >= snapshotDataEnd) {
+                    remapped[i] = offset + tailShift;
+                } else {
+                    // Records before the snapshot can only be referenced if they were live when the snapshot was taken
+                    int copied = Arrays.binarySearch(liveOffsets, offset);
+                    if (copied < 0) {
+                        throw new IllegalStateException(String.format("Entry at offset %d of %s was not copied.", offset, this));
+                    }
+                    remapped[i] = newOffsets[copied];
+                }
+            }
+
+            lockAllStripes();
+            try {
+                for (int i = 0; i < slotCount; i++) {
+                    current.buffer.putLong(INDEX_HEADER_SIZE + i * SLOT_SIZE + 8, remapped[i]);
+                }
+                current.buffer.putLong(GENERATION_POS, newGeneration);
+                generation = newGeneration;
+                data = newData;
+                setDataEnd(dataEnd + tailShift);
+                // Entries replaced or removed during the copy have been copied, so they are still garbage in the new file
+                garbage -= snapshotGarbage;
+                current.buffer.putLong(GARBAGE_POS, garbage);
+            } finally {
+                unlockAllStripes();
+            }
+        } finally {
+            updateLock.unlock();
+        }
+        // Lookups only use the data file while holding a stripe lock, so the old file is not used anymore
+        oldData.close();
+        if (!oldData.file.delete()) {
+            LOGGER.debug("Could not delete data file {} of {} after compaction.", oldData.file, this);
+        }
+    }
+
+    private static long[] liveOffsets(Index index) {
+        int slotCount = STRIPES * index.slotsPerStripe;
+        long[] offsets = new long[slotCount];
+        int count = 0;
+        for (int i = 0; i < slotCount; i++) {
+            int position = INDEX_HEADER_SIZE + i * SLOT_SIZE;
+            long offset = index.buffer.getLong(position + 8);
+            if (index.buffer.getLong(position) != EMPTY_SLOT && offset != REMOVED_ENTRY) {
+                offsets[count++] = offset;
+            }
+        }
+        return Arrays.copyOf(offsets, count);
+    }
+
+    private void closeQuietly(DataFile dataFile) {
+        try {
+            dataFile.close();
+        } catch (IOException e) {
+            LOGGER.debug("Could not close data file {} of {}.", dataFile.file, this, e);
+        }
+    }
+
+    private void lockAllStripes() {
+        for (ReentrantReadWriteLock stripeLock : stripeLocks) {
+            stripeLock.writeLock().lock();
+        }
+    }
+
+    private void unlockAllStripes() {
+        for (int i = STRIPES - 1; i >= 0; i--) {
+            stripeLocks[i].writeLock().unlock();
+        }
+    }
+
+    private static <T> byte[] serialize(Serializer<T> serializer, T value) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        KryoBackedEncoder encoder = new KryoBackedEncoder(bytes, 256);
+        serializer.write(encoder, value);
+        encoder.flush();
+        return bytes.toByteArray();
+    }
+
+    private static int stripeOf(long hash) {
+        return (int) (hash >>> (64 - STRIPE_BITS));
+    }
+
+    /**
+     * A 64 bit FNV-1a hash with a final avalanche step, so both the high bits selecting the stripe and the low bits selecting the slot are well distributed.
+     */
+    private static long hash(byte[] bytes) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : bytes) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash == EMPTY_SLOT ? 1 : hash;
+    }
+
+    private static class Index {
+        private final MappedByteBuffer buffer;
+        private final int slotsPerStripe;
+
+        Index(MappedByteBuffer buffer, int slotsPerStripe) {
+            this.buffer = buffer;
+            this.slotsPerStripe = slotsPerStripe;
+        }
+
+        int slotPosition(int stripe, int slot) {
+            return INDEX_HEADER_SIZE + (stripe * slotsPerStripe + slot) * SLOT_SIZE;
+        }
+
+        int getUsage(int stripe) {
+            return buffer.getInt(STRIPE_USAGE_POS + 4 * stripe);
+        }
+
+        void setUsage(int stripe, int usage) {
+            buffer.putInt(STRIPE_USAGE_POS + 4 * stripe, usage);
+        }
+
+        void incrementUsage(int stripe) {
+            setUsage(stripe, getUsage(stripe) + 1);
+        }
+    }
+
+    /**
+     * A data file mapped in fixed size segments, which are mapped on first access. Records may span segments.
+     */
+    private static class DataFile {
+        private final File file;
+        private final FileChannel channel;
+        private final int segmentSize;
+        private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+
+        private DataFile(File file, FileChannel channel, int segmentSize) {
+            this.file = file;
+            this.channel = channel;
+            this.segmentSize = segmentSize;
+        }
+
+        static DataFile open(File file, int segmentSize) throws IOException {
+            return new DataFile(file, new RandomAccessFile(file, "rw").getChannel(), segmentSize);
+        }
+
+        static DataFile create(File file, long generation, int segmentSize) throws IOException {
+            DataFile dataFile = open(file, segmentSize);
+            dataFile.channel.truncate(0);
+            byte[] header = new byte[DATA_HEADER_SIZE];
+            ByteBuffer.wrap(header).putInt(DATA_MAGIC).putInt(FORMAT_VERSION).putLong(generation);
+            dataFile.write(0, header);
+            return dataFile;
+        }
+
+        boolean hasHeader(long generation) throws IOException {
+            if (size() < DATA_HEADER_SIZE) {
+                return false;
+            }
+            ByteBuffer header = ByteBuffer.wrap(read(0, DATA_HEADER_SIZE));
+            return header.getInt() == DATA_MAGIC && header.getInt() == FORMAT_VERSION && header.getLong() == generation;
+        }
+
+        long size() throws IOException {
+            return channel.size();
+        }
+
+        int readInt(long position) throws IOException {
+            return ByteBuffer.wrap(read(position, 4)).getInt();
+        }
+
+        byte[] read(long position, int length) throws IOException {
+            byte[] bytes = new byte[length];
+            int done = 0;
+            while (done < length) {
+                long current = position + done;
+                ByteBuffer segment = segment((int) (current / segmentSize)).duplicate();
+                segment.position((int) (current % segmentSize));
+                int count = Math.min(length - done, segment.remaining());
+                segment.get(bytes, done, count);
+                done += count;
+            }
+            return bytes;
+        }
+
+        boolean keyMatches(long offset, byte[] keyBytes) throws IOException {
+            return readInt(offset) == keyBytes.length && Arrays.equals(read(offset + RECORD_HEADER_SIZE, keyBytes.length), keyBytes);
+        }
+
+        void write(long position, byte[] bytes) throws IOException {
+            int done = 0;
+            while (done < bytes.length) {
+                long current = position + done;
+                ByteBuffer segment = segment((int) (current / segmentSize)).duplicate();
+                segment.position((int) (current % segmentSize));
+                int count = Math.min(bytes.length - done, segment.remaining());
+                segment.put(bytes, done, count);
+                done += count;
+            }
+        }
+
+        private MappedByteBuffer segment(int index) throws IOException {
+            MappedByteBuffer[] current = segments;
+            if (index < current.length) {
+                return current[index];
+            }
+            return mapSegments(index);
+        }
+
+        private synchronized MappedByteBuffer mapSegments(int index) throws IOException {
+            MappedByteBuffer[] current = segments;
+            if (index < current.length) {
+                return current[index];
+            }
+            MappedByteBuffer[] extended = Arrays.copyOf(current, index + 1);
+            for (int i = current.length; i <= index; i++) {
+                extended[i] = channel.map(FileChannel.MapMode.READ_WRITE, (long) i * segmentSize, segmentSize);
+            }
+            segments = extended;
+            return extended[index];
+        }
+
+        void close() throws IOException {
+            MappedByteBuffer[] mapped = segments;
+            segments = new MappedByteBuffer[0];
+            for (MappedByteBuffer segment : mapped) {
+                MappedBuffers.unmap(segment);
+            }
+            channel.close();
+        }
+    }
+}
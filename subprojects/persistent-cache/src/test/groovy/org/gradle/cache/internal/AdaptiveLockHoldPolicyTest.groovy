@@ -0,0 +1,131 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.gradle.cache.internal
+
+import org.gradle.internal.time.Clock
+import spock.lang.Specification
+
+import static org.gradle.cache.internal.AdaptiveLockHoldPolicy.MAX_HOLD_TIME_MILLIS
+import static org.gradle.cache.internal.AdaptiveLockHoldPolicy.MIN_HOLD_TIME_MILLIS
+import static org.gradle.cache.internal.AdaptiveLockHoldPolicy.REACQUIRE_INTERVAL_MILLIS
+
+class AdaptiveLockHoldPolicyTest extends Specification {
+    long currentTime = 1000
+    def policy = new AdaptiveLockHoldPolicy({ currentTime } as Clock)
+
+    def "does not hold lock when lock is not contended"() {
+        when:
+        policy.lockAcquired()
+
+        then:
+        policy.holdTimeMillis == 0
+        policy.remainingHoldTimeMillis == 0
+    }
+
+    def "holds lock when lock is needed again soon after handing it off"() {
+        given:
+        policy.lockAcquired()
+        policy.lockHandedOff()
+        currentTime += 10
+
+        when:
+        policy.lockAcquired()
+
+        then:
+        policy.holdTimeMillis == MIN_HOLD_TIME_MILLIS
+        policy.remainingHoldTimeMillis == MIN_HOLD_TIME_MILLIS
+
+        when:
+        currentTime += 10
+
+        then:
+        policy.remainingHoldTimeMillis == MIN_HOLD_TIME_MILLIS - 10
+
+        when:
+        currentTime += MIN_HOLD_TIME_MILLIS
+
+        then:
+        policy.remainingHoldTimeMillis == 0
+    }
+
+    def "doubles hold time up to maximum while lock keeps being contended"() {
+        when:
+        policy.lockAcquired()
+        10.times {
+            policy.lockHandedOff()
+            currentTime += 10
+            policy.lockAcquired()
+        }
+
+        then:
+        policy.holdTimeMillis == MAX_HOLD_TIME_MILLIS
+
+        when:
+        policy.lockHandedOff()
+        currentTime += 10
+        policy.lockAcquired()
+
+        then:
+        policy.holdTimeMillis == MAX_HOLD_TIME_MILLIS
+    }
+
+    def "halves hold time when lock is not needed again soon after handing it off"() {
+        given:
+        policy.lockAcquired()
+        3.times {
+            policy.lockHandedOff()
+            currentTime += 10
+            policy.lockAcquired()
+        }
+        assert policy.holdTimeMillis == MIN_HOLD_TIME_MILLIS * 4
+
+        when:
+        policy.lockHandedOff()
+        currentTime += REACQUIRE_INTERVAL_MILLIS
+        policy.lockAcquired()
+
+        then:
+        policy.holdTimeMillis == MIN_HOLD_TIME_MILLIS * 2
+
+        when:
+        2.times {
+            policy.lockHandedOff()
+            currentTime += REACQUIRE_INTERVAL_MILLIS
+            policy.lockAcquired()
+        }
+
+        then:
+        policy.holdTimeMillis == 0
+        policy.remainingHoldTimeMillis == 0
+    }
+
+    def "hold time is not changed when lock is acquired without having been handed off"() {
+        given:
+        policy.lockAcquired()
+        policy.lockHandedOff()
+        currentTime += 10
+        policy.lockAcquired()
+
+        when:
+        currentTime += REACQUIRE_INTERVAL_MILLIS
+        policy.lockAcquired()
+
+        then:
+        policy.holdTimeMillis == MIN_HOLD_TIME_MILLIS
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.cache.internal
+
+import org.gradle.cache.AsyncCacheAccess
+import org.gradle.cache.MultiProcessSafePersistentIndexedCache
+import org.gradle.internal.Factory
+import org.gradle.test.fixtures.concurrent.ConcurrentSpec
+
+class AsyncCacheAccessDecoratedCacheTest extends ConcurrentSpec {
+    def queued = []
+    def asyncCacheAccess = new AsyncCacheAccess() {
+        @Override
+        synchronized void enqueue(Runnable task) {
+            queued << task
+        }
+
+        @Override
+        public <T> T read(Factory<T> task) {
+            runQueued()
+            return task.create()
+        }
+
+        @Override
+        void flush() {
+            runQueued()
+        }
+    }
+    def target = Mock(MultiProcessSafePersistentIndexedCache)
+    def cache = new AsyncCacheAccessDecoratedCache(asyncCacheAccess, target, 3)
+
+    def "coalesces updates submitted before the queued write runs"() {
+        def completion = Mock(Runnable)
+
+        when:
+        cache.putLater("a", "1", completion)
+        cache.putLater("b", "2", completion)
+        cache.removeLater("c", completion)
+        cache.putLater("a", "3", completion)
+
+        then:
+        queued.size() == 1
+        0 * _
+
+        when:
+        asyncCacheAccess.flush()
+
+        then:
+        1 * target.updateAll([a: "3", b: "2", c: null])
+
+        then:
+        4 * completion.run()
+        0 * _
+    }
+
+    def "queues another write for updates submitted after the write has started"() {
+        when:
+        cache.putLater("a", "1", Stub(Runnable))
+        asyncCacheAccess.flush()
+        cache.putLater("a", "2", Stub(Runnable))
+        asyncCacheAccess.flush()
+
+        then:
+        1 * target.updateAll([a: "1"])
+
+        then:
+        1 * target.updateAll([a: "2"])
+    }
+
+    def "reads see pending updates before they are written"() {
+        when:
+        cache.putLater("a", "1", Stub(Runnable))
+        cache.removeLater("b", Stub(Runnable))
+
+        then:
+        cache.get("a") == "1"
+        cache.get("b") == null
+        0 * target._
+
+        when:
+        asyncCacheAccess.flush()
+        def result = cache.get("a")
+
+        then:
+        1 * target.updateAll([a: "1", b: null])
+
+        then:
+        1 * target.get("a") >> "1"
+        result == "1"
+    }
+
+    def "runs completions when write fails"() {
+        def completion = Mock(Runnable)
+        def failure = new RuntimeException()
+
+        given:
+        cache.putLater("a", "1", completion)
+        cache.removeLater("b", completion)
+
+        when:
+        asyncCacheAccess.flush()
+
+        then:
+        def e = thrown(RuntimeException)
+        e == failure
+
+        and:
+        1 * target.updateAll(_) >> { throw failure }
+        2 * completion.run()
+    }
+
+    def "runs completion and rethrows when write cannot be queued"() {
+        def completion = Mock(Runnable)
+        def failure = new IllegalStateException()
+        def closedCacheAccess = Stub(AsyncCacheAccess) {
+            enqueue(_) >> { throw failure }
+        }
+        def cache = new AsyncCacheAccessDecoratedCache(closedCacheAccess, target, 3)
+
+        when:
+        cache.putLater("a", "1", completion)
+
+        then:
+        def e = thrown(IllegalStateException)
+        e == failure
+
+        and:
+        1 * completion.run()
+        0 * _
+
+        when:
+        cache.putLater("a", "2", completion)
+
+        then:
+        // The discarded update does not prevent queueing a write for the next one
+        thrown(IllegalStateException)
+        1 * completion.run()
+        0 * _
+    }
+
+    def "blocks submitting an update when the limit of pending updates is reached"() {
+        given:
+        cache.putLater("a", "1", Stub(Runnable))
+        cache.putLater("b", "2", Stub(Runnable))
+        cache.putLater("c", "3", Stub(Runnable))
+
+        when:
+        async {
+            start {
+                // Updates of pending keys do not need any more space
+                cache.putLater("a", "4", Stub(Runnable))
+                instant.blocked
+                cache.putLater("d", "5", Stub(Runnable))
+                instant.submitted
+            }
+            thread.blockUntil.blocked
+            thread.block()
+            instant.flushed
+            asyncCacheAccess.flush()
+            thread.blockUntil.submitted
+        }
+
+        then:
+        instant.submitted > instant.flushed
+
+        and:
+        1 * target.updateAll([a: "4", b: "2", c: "3"])
+    }
+
+    void runQueued() {
+        List<Runnable> tasks
+        synchronized (asyncCacheAccess) {
+            tasks = new ArrayList<Runnable>(queued)
+            queued.clear()
+        }
+        tasks.each { it.run() }
+    }
+}
@@ -697,6 +697,42 @@ class DefaultCacheAccessTest extends ConcurrentSpec {
         access?.close()
     }
 
+    def "throws InvalidCacheReuseException when cache backend differs"() {
+        def access = newAccess(None)
+
+        when:
+        access.newCache(PersistentIndexedCacheParameters.of('cache', String.class, Integer.class))
+        access.newCache(PersistentIndexedCacheParameters.of('cache', String.class, Integer.class).withBackend(PersistentIndexedCacheParameters.Backend.MEMORY_MAPPED))
+
+        then:
+        thrown(DefaultCacheAccess.InvalidCacheReuseException)
+
+        cleanup:
+        access?.close()
+    }
+
+    def "stores memory-mapped cache in its own index file"() {
+        def access = newAccess(None)
+
+        given:
+        lockManager.lock(lockFile, mode(Exclusive), "<display-name>", "", _) >> lock
+        lock.readFile(_) >> { Factory f -> f.create() }
+        lock.writeFile(_) >> { Runnable r -> r.run() }
+        access.open()
+        def cache = access.newCache(PersistentIndexedCacheParameters.of('cache', String.class, Integer.class).withBackend(PersistentIndexedCacheParameters.Backend.MEMORY_MAPPED))
+
+        when:
+        access.useCache { cache.put("key", 12) }
+
+        then:
+        access.useCache({ cache.get("key") } as Factory) == 12
+        new File(cacheDir, "cache.idx").file
+        !new File(cacheDir, "cache.bin").exists()
+
+        cleanup:
+        access?.close()
+    }
+
     def "throws InvalidCacheReuseException when cache decorator differs"() {
         def access = newAccess(None)
         def decorator = Mock(CacheDecorator)
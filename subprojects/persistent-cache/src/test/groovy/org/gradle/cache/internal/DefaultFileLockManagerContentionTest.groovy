@@ -117,6 +117,42 @@ class DefaultFileLockManagerContentionTest extends ConcurrentSpec {
         }
     }
 
+    def "records contention statistics of lock owner and requester"() {
+        given:
+        def statistics = new FileLockContentionStatistics()
+        def statistics2 = new FileLockContentionStatistics()
+        def manager = new DefaultFileLockManager(Stub(ProcessMetaDataProvider), 2000, contentionHandler, new LongIdGenerator(), statistics)
+        def manager2 = new DefaultFileLockManager(Stub(ProcessMetaDataProvider), 2000, contentionHandler2, new LongIdGenerator(), statistics2)
+        def file = tmpDir.file("lock-file.bin")
+        def action = Mock(Action)
+
+        def lock = createLock(Exclusive, file, manager, action)
+
+        when:
+        createLock(Exclusive, file, manager2)
+
+        then:
+        1 * action.execute(_) >> { FileLockReleasedSignal signal ->
+            lock.close()
+            signal.trigger()
+        }
+
+        and:
+        def ownerStatistics = statistics.statistics["foo"]
+        ownerStatistics.acquisitions == 1
+        ownerStatistics.contendedAcquisitions == 0
+        ownerStatistics.releaseRequestsReceived == 1
+        ownerStatistics.handOffs == 1
+
+        and:
+        def requesterStatistics = statistics2.statistics["foo"]
+        requesterStatistics.acquisitions == 1
+        requesterStatistics.contendedAcquisitions == 1
+        requesterStatistics.releaseRequestsSent >= 1
+        requesterStatistics.releaseRequestsReceived == 0
+        requesterStatistics.handOffs == 0
+    }
+
     FileLock createLock(FileLockManager.LockMode lockMode, File file, FileLockManager lockManager = manager, Action<FileLockReleasedSignal> whenContended = null) {
         def lock = lockManager.lock(file, LockOptionsBuilder.mode(lockMode), "foo", "operation", whenContended)
         openedLocks << lock
@@ -146,7 +146,7 @@ class InMemoryCacheDecoratorFactoryTest extends Specification {
         then:
         1 * crossProcessCacheAccess.acquireFileLock() >> lock
         1 * asyncCacheAccess.enqueue(_) >> { Runnable action -> action.run() }
-        1 * target.put("key", "new value")
+        1 * target.updateAll([key: "new value"])
         1 * lock.run()
         0 * _._
 
@@ -185,7 +185,7 @@ class InMemoryCacheDecoratorFactoryTest extends Specification {
         then:
         1 * crossProcessCacheAccess.acquireFileLock() >> lock
         1 * asyncCacheAccess.enqueue(_) >> { Runnable action -> action.run() }
-        1 * target.remove("key")
+        1 * target.updateAll([key: null])
         1 * lock.run()
         0 * _._
 
@@ -23,6 +23,7 @@ import org.gradle.cache.FileLockReleasedSignal
 import org.gradle.cache.LockOptions
 import org.gradle.cache.internal.filelock.LockOptionsBuilder
 import org.gradle.internal.Factory
+import org.gradle.internal.time.Clock
 import org.gradle.test.fixtures.concurrent.ConcurrentSpec
 import org.gradle.test.fixtures.file.TestFile
 
@@ -101,6 +102,47 @@ class LockOnDemandCrossProcessCacheAccessTest extends ConcurrentSpec {
         0 * _
     }
 
+    def "holds contended lock for a while when lock is needed again soon after releasing it"() {
+        def action = Mock(Factory)
+        def lock = Mock(FileLock)
+        def signal1 = Mock(FileLockReleasedSignal)
+        def signal2 = Mock(FileLockReleasedSignal)
+        def contendedAction
+        long currentTime = 0
+        def clock = { currentTime } as Clock
+        def cacheAccess = new LockOnDemandCrossProcessCacheAccess("<cache>", file, LockOptionsBuilder.mode(FileLockManager.LockMode.Exclusive), lockManager, new ReentrantLock(), Stub(CacheInitializationAction), Stub(Action), Stub(Action), clock)
+
+        given:
+        2 * lockManager.lock(file, _, _, _, _) >> {
+            File target, LockOptions options, String targetDisplayName, String operationDisplayName, Action<FileLockReleasedSignal> whenContended -> contendedAction = whenContended
+                return lock
+        }
+        cacheAccess.withFileLock(action)
+        contendedAction.execute(signal1)
+        currentTime = 100
+        cacheAccess.withFileLock(action)
+
+        when:
+        async {
+            start {
+                contendedAction.execute(signal2)
+                instant.released
+            }
+            thread.block()
+            instant.holdTimeElapsed
+            currentTime += AdaptiveLockHoldPolicy.MIN_HOLD_TIME_MILLIS
+            thread.blockUntil.released
+        }
+
+        then:
+        instant.released > instant.holdTimeElapsed
+
+        and:
+        1 * lock.close()
+        1 * signal2.trigger()
+        0 * _
+    }
+
     def "releases retained lock on close"() {
         def action = Mock(Factory)
         def lock = Mock(FileLock)
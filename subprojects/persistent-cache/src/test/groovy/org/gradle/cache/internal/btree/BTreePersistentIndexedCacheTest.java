@@ -280,6 +280,30 @@ public class BTreePersistentIndexedCacheTest {
         verifyAndCloseCache();
     }
 
+    @Test
+    public void persistsBatchOfUpdates() {
+        createCache();
+        cache.put("key_1", 1);
+        cache.put("key_2", 2);
+
+        Map<String, Integer> updates = new LinkedHashMap<String, Integer>();
+        for (int i = 3; i < 20; i++) {
+            updates.put(String.format("key_%d", i), i);
+        }
+        updates.put("key_1", 10);
+        updates.put("key_2", null);
+        cache.updateAll(updates);
+
+        cache.reset();
+
+        assertThat(cache.get("key_1"), equalTo(10));
+        assertNull(cache.get("key_2"));
+        for (int i = 3; i < 20; i++) {
+            assertThat(cache.get(String.format("key_%d", i)), equalTo(i));
+        }
+        verifyAndCloseCache();
+    }
+
     @Test
     public void removalRedistributesRemainingEntriesWithLeftSibling() {
         createCache();
@@ -0,0 +1,217 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.cache.internal.mapped
+
+import org.gradle.internal.serialize.BaseSerializerFactory
+import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
+import org.gradle.util.Requires
+import org.gradle.util.TestPrecondition
+import org.junit.Rule
+import spock.lang.Specification
+
+import java.util.concurrent.Executor
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+class MemoryMappedPersistentIndexedCacheTest extends Specification {
+    @Rule
+    final TestNameTestDirectoryProvider tmpDir = new TestNameTestDirectoryProvider()
+
+    def indexFile = tmpDir.file("cache.idx")
+    Executor compactionExecutor = { Runnable action -> action.run() } as Executor
+    MemoryMappedPersistentIndexedCache<String, String> cache
+
+    def setup() {
+        cache = createCache()
+    }
+
+    def cleanup() {
+        cache.close()
+    }
+
+    private MemoryMappedPersistentIndexedCache<String, String> createCache() {
+        new MemoryMappedPersistentIndexedCache<String, String>(indexFile, BaseSerializerFactory.STRING_SERIALIZER, BaseSerializerFactory.STRING_SERIALIZER, compactionExecutor, 4096, 16384)
+    }
+
+    def "returns null for unknown keys"() {
+        expect:
+        cache.get("unknown") == null
+    }
+
+    def "can add, replace and remove entries"() {
+        when:
+        cache.put("a", "1")
+        cache.put("b", "2")
+        cache.put("a", "3")
+        cache.remove("b")
+        cache.remove("unknown")
+
+        then:
+        cache.get("a") == "3"
+        cache.get("b") == null
+    }
+
+    def "applies batch of updates"() {
+        given:
+        cache.put("a", "1")
+        cache.put("b", "2")
+
+        when:
+        cache.updateAll([a: "3", b: null, c: "4"])
+
+        then:
+        cache.get("a") == "3"
+        cache.get("b") == null
+        cache.get("c") == "4"
+    }
+
+    def "persists entries"() {
+        given:
+        (0..<5000).each { cache.put("key $it", "value $it") }
+        cache.remove("key 17")
+
+        when:
+        cache.close()
+        cache = createCache()
+
+        then:
+        cache.get("key 17") == null
+        (0..<5000).findAll { it != 17 }.every { cache.get("key $it") == "value $it" }
+    }
+
+    def "stores values spanning multiple mapped segments"() {
+        def largeValue = "x" * 10000
+
+        when:
+        cache.put("small", "value")
+        cache.put("large", largeValue)
+        cache.close()
+        cache = createCache()
+
+        then:
+        cache.get("small") == "value"
+        cache.get("large") == largeValue
+    }
+
+    // Mapped files can't be deleted on Windows, so the old data file is only deleted on a later open
+    @Requires(TestPrecondition.NOT_WINDOWS)
+    def "compacts the data file when most of it is garbage"() {
+        when:
+        1000.times { iteration ->
+            (0..<10).each { cache.put("key $it", "value $it of iteration $iteration") }
+        }
+
+        then:
+        dataFiles().size() == 1
+        dataFiles()[0].name != "cache.1.data"
+        (0..<10).every { cache.get("key $it") == "value $it of iteration 999" }
+
+        when:
+        cache.close()
+        cache = createCache()
+
+        then:
+        (0..<10).every { cache.get("key $it") == "value $it of iteration 999" }
+    }
+
+    def "discards entries when the cache was not closed properly"() {
+        given:
+        cache.put("key", "value")
+
+        when:
+        def reopened = createCache()
+
+        then:
+        reopened.get("key") == null
+
+        cleanup:
+        reopened?.close()
+    }
+
+    def "can read entries concurrently with updates"() {
+        given:
+        (0..<100).each { cache.put("key $it", "initial") }
+
+        def executor = Executors.newFixedThreadPool(5)
+
+        when:
+        def readers = (0..<4).collect {
+            executor.submit {
+                10000.times { iteration ->
+                    def value = cache.get("key ${iteration % 100}")
+                    assert value == "initial" || value.startsWith("updated")
+                }
+            }
+        }
+        def writer = executor.submit {
+            10000.times { iteration ->
+                cache.put("key ${iteration % 100}", "updated $iteration")
+            }
+        }
+        (readers + writer)*.get(20, TimeUnit.SECONDS)
+
+        then:
+        (0..<100).every { cache.get("key $it").startsWith("updated") }
+
+        cleanup:
+        executor.shutdownNow()
+    }
+
+    def "keeps updates made while compacting in the background"() {
+        given:
+        def backgroundExecutor = Executors.newSingleThreadExecutor()
+        cache.close()
+        compactionExecutor = backgroundExecutor
+        cache = createCache()
+        def writerExecutor = Executors.newFixedThreadPool(3)
+
+        when:
+        def writers = (0..<3).collect { writer ->
+            writerExecutor.submit {
+                3000.times { iteration ->
+                    cache.put("key $writer-${iteration % 50}".toString(), "value $writer $iteration".toString())
+                    if (iteration % 7 == 0) {
+                        cache.remove("key $writer-${(iteration + 25) % 50}".toString())
+                    }
+                }
+            }
+        }
+        writers*.get(20, TimeUnit.SECONDS)
+        cache.close()
+        backgroundExecutor.shutdown()
+        backgroundExecutor.awaitTermination(20, TimeUnit.SECONDS)
+        cache = createCache()
+
+        then:
+        (0..<3).every { writer ->
+            (0..<50).every { key ->
+                def lastPut = (0..<3000).findAll { it % 50 == key }.max()
+                def lastRemove = (0..<3000).findAll { it % 7 == 0 && (it + 25) % 50 == key }.max()
+                def expected = lastRemove > lastPut ? null : "value $writer $lastPut".toString()
+                cache.get("key $writer-$key".toString()) == expected
+            }
+        }
+        !dataFiles().any { it.name == "cache.1.data" }
+
+        cleanup:
+        writerExecutor.shutdownNow()
+    }
+
+    private List<File> dataFiles() {
+        tmpDir.testDirectory.listFiles().findAll { it.name.endsWith(".data") }
+    }
+}
@@ -17,7 +17,11 @@
 package org.gradle.internal.resource.transport.http;
 
 import com.google.common.collect.Iterables;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpException;
 import org.apache.http.HttpHeaders;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpHead;
@@ -26,6 +30,7 @@ import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.protocol.BasicHttpContext;
 import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpRequestExecutor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -34,6 +39,7 @@ import java.io.IOException;
 import java.net.URI;
 import java.util.List;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.apache.http.client.protocol.HttpClientContext.REDIRECT_LOCATIONS;
 
@@ -55,6 +61,9 @@ public class HttpClientHelper implements Closeable {
      */
     private final ConcurrentLinkedQueue<HttpContext> sharedContext;
 
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong connectionCount = new AtomicLong();
+
     public HttpClientHelper(HttpSettings settings) {
         this.settings = settings;
         if (!settings.getAuthenticationSettings().isEmpty()) {
@@ -167,11 +176,26 @@ public class HttpClientHelper implements Closeable {
         if (client == null) {
             HttpClientBuilder builder = HttpClientBuilder.create();
             new HttpClientConfigurer(settings).configure(builder);
+            builder.setRequestExecutor(new ConnectionCountingRequestExecutor());
             this.client = builder.build();
         }
         return client;
     }
 
+    /**
+     * Returns the number of requests sent, including requests for authentication and proxy tunnels.
+     */
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * Returns the number of connections opened. All other requests reused an already open connection.
+     */
+    public long getConnectionCount() {
+        return connectionCount.get();
+    }
+
     @Override
     public synchronized void close() throws IOException {
         if (client != null) {
@@ -182,6 +206,17 @@ public class HttpClientHelper implements Closeable {
         }
     }
 
+    private class ConnectionCountingRequestExecutor extends HttpRequestExecutor {
+        @Override
+        public HttpResponse execute(HttpRequest request, HttpClientConnection connection, HttpContext context) throws IOException, HttpException {
+            requestCount.incrementAndGet();
+            if (connection.getMetrics().getRequestCount() == 0) {
+                connectionCount.incrementAndGet();
+            }
+            return super.execute(request, connection, context);
+        }
+    }
+
     private static class FailureFromRedirectLocation extends IOException {
         private final URI lastRedirectLocation;
 
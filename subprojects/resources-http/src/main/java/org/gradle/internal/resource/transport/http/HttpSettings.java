@@ -30,6 +30,11 @@ public interface HttpSettings {
 
     boolean isFollowRedirects();
 
+    /**
+     * The maximum number of connections kept open to the same host.
+     */
+    int getMaxConnections();
+
     Collection<Authentication> getAuthenticationSettings();
 
     SslContextFactory getSslContextFactory();
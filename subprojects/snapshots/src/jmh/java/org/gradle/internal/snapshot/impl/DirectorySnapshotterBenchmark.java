@@ -0,0 +1,162 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.snapshot.impl;
+
+import org.gradle.api.file.FileTreeElement;
+import org.gradle.api.internal.cache.StringInterner;
+import org.gradle.api.tasks.util.PatternSet;
+import org.gradle.internal.MutableBoolean;
+import org.gradle.internal.file.FileMetadataSnapshot;
+import org.gradle.internal.hash.FileHasher;
+import org.gradle.internal.hash.HashCode;
+import org.gradle.internal.hash.Hashing;
+import org.gradle.internal.hash.HashingOutputStream;
+import org.gradle.internal.nativeintegration.filesystem.FileSystem;
+import org.gradle.internal.nativeintegration.services.FileSystems;
+import org.gradle.internal.nativeintegration.services.NativeServices;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Compares snapshotting a directory tree on a single thread with snapshotting it on a fork-join pool.
+ */
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@State(Scope.Benchmark)
+public class DirectorySnapshotterBenchmark {
+    private static final int FILES_PER_DIRECTORY = 20;
+    private static final int DIRECTORIES_PER_DIRECTORY = 4;
+
+    Path tempDirPath;
+    Path rootPath;
+    ForkJoinPool pool;
+    DirectorySnapshotter sequentialSnapshotter;
+    DirectorySnapshotter parallelSnapshotter;
+    PatternSet patterns;
+
+    @Param({"3", "5"})
+    int depth;
+
+    @Param({"64", "16384"})
+    int fileSize;
+
+    @Param({"true", "false"})
+    boolean filtered;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        this.tempDirPath = Files.createTempDirectory("directory-snapshotting");
+        NativeServices.initialize(tempDirPath.resolve("native").toFile());
+        this.rootPath = tempDirPath.resolve("root");
+        generateTree(rootPath, depth, new byte[fileSize]);
+
+        FileSystem fileSystem = FileSystems.getDefault();
+        StringInterner stringInterner = new StringInterner();
+        this.pool = new ForkJoinPool();
+        this.sequentialSnapshotter = new DirectorySnapshotter(new ContentHasher(), fileSystem, stringInterner, null, new String[0]);
+        this.parallelSnapshotter = new DirectorySnapshotter(new ContentHasher(), fileSystem, stringInterner, pool, new String[0]);
+
+        this.patterns = new PatternSet();
+        if (filtered) {
+            patterns.include("**/*0.txt");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        pool.shutdown();
+        Files.walkFileTree(tempDirPath, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static void generateTree(Path dir, int depth, byte[] content) throws IOException {
+        Files.createDirectories(dir);
+        for (int i = 0; i < FILES_PER_DIRECTORY; i++) {
+            content[0] = (byte) i;
+            Files.write(dir.resolve("file" + i + ".txt"), content);
+        }
+        if (depth > 1) {
+            for (int i = 0; i < DIRECTORIES_PER_DIRECTORY; i++) {
+                generateTree(dir.resolve("dir" + i), depth - 1, content);
+            }
+        }
+    }
+
+    @Benchmark
+    public void sequential(Blackhole blackhole) {
+        blackhole.consume(sequentialSnapshotter.snapshot(rootPath.toString(), patterns, new MutableBoolean(false)));
+    }
+
+    @Benchmark
+    public void parallel(Blackhole blackhole) {
+        blackhole.consume(parallelSnapshotter.snapshot(rootPath.toString(), patterns, new MutableBoolean(false)));
+    }
+
+    private static class ContentHasher implements FileHasher {
+        @Override
+        public HashCode hash(File file) {
+            HashingOutputStream hashingStream = Hashing.primitiveStreamHasher();
+            try {
+                Files.copy(file.toPath(), hashingStream);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return hashingStream.hash();
+        }
+
+        @Override
+        public HashCode hash(FileTreeElement fileDetails) {
+            return hash(fileDetails.getFile());
+        }
+
+        @Override
+        public HashCode hash(File file, FileMetadataSnapshot fileDetails) {
+            return hash(file);
+        }
+    }
+}
@@ -22,19 +22,22 @@ import org.gradle.internal.snapshot.FileSystemMirror;
 import org.gradle.internal.snapshot.WellKnownFileLocations;
 
 import javax.annotation.Nullable;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
- * See {@link DefaultFileSystemSnapshotter} for some more details
+ * See {@link DefaultFileSystemSnapshotter} for some more details.
+ *
+ * State is kept in {@link FileSystemHierarchy} trees, so that a change to a location only discards the state for that location,
+ * the locations below it and the directories containing it.
  */
 public class DefaultFileSystemMirror implements FileSystemMirror {
     // Maps from interned absolute path for a file to metadata for the file.
-    private final Map<String, FileMetadataSnapshot> metadata = new ConcurrentHashMap<String, FileMetadataSnapshot>();
-    private final Map<String, FileMetadataSnapshot> cacheMetadata = new ConcurrentHashMap<String, FileMetadataSnapshot>();
+    private final AtomicReference<FileSystemHierarchy<FileMetadataSnapshot>> metadata = new AtomicReference<FileSystemHierarchy<FileMetadataSnapshot>>(FileSystemHierarchy.<FileMetadataSnapshot>empty());
+    private final AtomicReference<FileSystemHierarchy<FileMetadataSnapshot>> cacheMetadata = new AtomicReference<FileSystemHierarchy<FileMetadataSnapshot>>(FileSystemHierarchy.<FileMetadataSnapshot>empty());
     // Maps from interned absolute path for a file to snapshot for the file.
-    private final Map<String, FileSystemLocationSnapshot> files = new ConcurrentHashMap<String, FileSystemLocationSnapshot>();
-    private final Map<String, FileSystemLocationSnapshot> cacheFiles = new ConcurrentHashMap<String, FileSystemLocationSnapshot>();
+    private final AtomicReference<FileSystemHierarchy<FileSystemLocationSnapshot>> files = new AtomicReference<FileSystemHierarchy<FileSystemLocationSnapshot>>(FileSystemHierarchy.<FileSystemLocationSnapshot>empty());
+    private final AtomicReference<FileSystemHierarchy<FileSystemLocationSnapshot>> cacheFiles = new AtomicReference<FileSystemHierarchy<FileSystemLocationSnapshot>>(FileSystemHierarchy.<FileSystemLocationSnapshot>empty());
 
     private final WellKnownFileLocations wellKnownFileLocations;
 
@@ -48,59 +51,87 @@ public class DefaultFileSystemMirror implements FileSystemMirror {
         // Could potentially also look whether we have the details for an ancestor directory tree
         // Could possibly infer that the path refers to a directory, if we have details for a descendant path (and it's not a missing file)
         if (wellKnownFileLocations.isImmutable(absolutePath)) {
-            return cacheFiles.get(absolutePath);
+            return cacheFiles.get().get(absolutePath);
         }
-        return files.get(absolutePath);
+        return files.get().get(absolutePath);
     }
 
     @Override
     public void putSnapshot(FileSystemLocationSnapshot snapshot) {
         String absolutePath = snapshot.getAbsolutePath();
         if (wellKnownFileLocations.isImmutable(absolutePath)) {
-            cacheFiles.put(absolutePath, snapshot);
+            cacheFiles.updateAndGet(hierarchy -> hierarchy.put(absolutePath, snapshot));
         } else {
-            files.put(absolutePath, snapshot);
+            files.updateAndGet(hierarchy -> hierarchy.put(absolutePath, snapshot));
         }
     }
 
     @Override
     public FileMetadataSnapshot getMetadata(String absolutePath) {
         if (wellKnownFileLocations.isImmutable(absolutePath)) {
-            return cacheMetadata.get(absolutePath);
+            return cacheMetadata.get().get(absolutePath);
         }
-        return metadata.get(absolutePath);
+        return metadata.get().get(absolutePath);
     }
 
     @Override
     public void putMetadata(String absolutePath, FileMetadataSnapshot metadata) {
         if (wellKnownFileLocations.isImmutable(absolutePath)) {
-            cacheMetadata.put(absolutePath, metadata);
+            cacheMetadata.updateAndGet(hierarchy -> hierarchy.put(absolutePath, metadata));
         } else {
-            this.metadata.put(absolutePath, metadata);
+            this.metadata.updateAndGet(hierarchy -> hierarchy.put(absolutePath, metadata));
         }
     }
 
     public void beforeOutputChange() {
         // When the outputs are generated, throw away all state for files that do not live in an append-only cache.
-        // This is intentionally very simple, to be improved later
-        metadata.clear();
-        files.clear();
+        metadata.set(FileSystemHierarchy.empty());
+        files.set(FileSystemHierarchy.empty());
     }
 
     public void beforeBuildFinished() {
         // We throw away all state between builds
-        metadata.clear();
-        cacheMetadata.clear();
-        files.clear();
-        cacheFiles.clear();
+        metadata.set(FileSystemHierarchy.empty());
+        cacheMetadata.set(FileSystemHierarchy.empty());
+        files.set(FileSystemHierarchy.empty());
+        cacheFiles.set(FileSystemHierarchy.empty());
+    }
+
+    /**
+     * Throws away all state apart from the snapshots of locations which do not live in an append-only cache.
+     *
+     * The caller is responsible for making sure that the retained snapshots are invalidated when the locations change.
+     */
+    public void discardAllButSnapshots() {
+        metadata.set(FileSystemHierarchy.empty());
+        cacheMetadata.set(FileSystemHierarchy.empty());
+        cacheFiles.set(FileSystemHierarchy.empty());
+    }
+
+    /**
+     * Returns the snapshots of locations not living in an append-only cache which are not contained in any other snapshot.
+     */
+    public List<FileSystemLocationSnapshot> getRootSnapshots() {
+        return files.get().getRootValues();
     }
 
     public void beforeOutputChange(Iterable<String> affectedOutputPaths) {
-        for (String affectedOutputPath : affectedOutputPaths) {
-            metadata.remove(affectedOutputPath);
-            files.remove(affectedOutputPath);
-            cacheMetadata.remove(affectedOutputPath);
-            cacheFiles.remove(affectedOutputPath);
+        invalidate(affectedOutputPaths);
+    }
+
+    /**
+     * Throws away all state for the given locations, the locations below them and the directories containing them.
+     */
+    public void invalidate(Iterable<String> changedPaths) {
+        for (String changedPath : changedPaths) {
+            invalidate(metadata, changedPath);
+            invalidate(files, changedPath);
+            invalidate(cacheMetadata, changedPath);
+            invalidate(cacheFiles, changedPath);
         }
     }
+
+    private static <T> void invalidate(AtomicReference<FileSystemHierarchy<T>> hierarchy, String absolutePath) {
+        hierarchy.updateAndGet(current -> current.isEmpty() ? current : current.invalidate(absolutePath));
+    }
 }
@@ -20,6 +20,7 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
 import com.google.common.base.Predicates;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
@@ -46,32 +47,63 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
 import java.nio.file.FileSystemLoopException;
 import java.nio.file.FileVisitOption;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
 import java.util.EnumSet;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicReference;
 
+/**
+ * Snapshots directory trees.
+ *
+ * By default the tree is walked on the calling thread. When a {@link ForkJoinPool} is given, or when the
+ * {@value #PARALLEL_SNAPSHOTTING_PROPERTY} system property is set, every directory becomes a separate task so
+ * subdirectories are walked and files are hashed concurrently. Both modes produce the same snapshots.
+ */
 public class DirectorySnapshotter {
+    public static final String PARALLEL_SNAPSHOTTING_PROPERTY = "org.gradle.internal.snapshot.parallel";
+
+    /**
+     * Files of a single directory are hashed in batches of this size, so huge directories are split across workers.
+     */
+    private static final int FILE_BATCH_SIZE = 32;
+
     private final FileHasher hasher;
     private final FileSystem fileSystem;
     private final StringInterner stringInterner;
     private final DefaultExcludes defaultExcludes;
+    private final ForkJoinPool pool;
 
     public DirectorySnapshotter(FileHasher hasher, FileSystem fileSystem, StringInterner stringInterner, String... defaultExcludes) {
+        this(hasher, fileSystem, stringInterner, Boolean.getBoolean(PARALLEL_SNAPSHOTTING_PROPERTY) ? SharedPool.INSTANCE : null, defaultExcludes);
+    }
+
+    public DirectorySnapshotter(FileHasher hasher, FileSystem fileSystem, StringInterner stringInterner, @Nullable ForkJoinPool pool, String... defaultExcludes) {
         this.hasher = hasher;
         this.fileSystem = fileSystem;
         this.stringInterner = stringInterner;
         this.defaultExcludes = new DefaultExcludes(defaultExcludes);
+        this.pool = pool;
     }
 
     public FileSystemLocationSnapshot snapshot(String absolutePath, @Nullable PatternSet patterns, final MutableBoolean hasBeenFiltered) {
         Path rootPath = Paths.get(absolutePath);
         final Spec<FileTreeElement> spec = (patterns == null || patterns.isEmpty()) ? null : patterns.getAsSpec();
+        if (pool != null) {
+            return new ParallelWalk(spec, hasBeenFiltered).snapshot(rootPath);
+        }
         final MerkleDirectorySnapshotBuilder builder = MerkleDirectorySnapshotBuilder.sortingRequired();
 
         try {
@@ -79,7 +111,7 @@ public class DirectorySnapshotter {
                 @Override
                 public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
                     String name = stringInterner.intern(dir.getFileName().toString());
-                    if (builder.isRoot() || isAllowed(dir, name, true, attrs, builder.getRelativePath())) {
+                    if (builder.isRoot() || isAllowed(dir, name, true, attrs, builder.getRelativePath(), spec, hasBeenFiltered)) {
                         builder.preVisitDirectory(internedAbsolutePath(dir), name);
                         return FileVisitResult.CONTINUE;
                     } else {
@@ -90,15 +122,9 @@ public class DirectorySnapshotter {
                 @Override
                 public FileVisitResult visitFile(Path file, @Nullable BasicFileAttributes attrs) {
                     String name = stringInterner.intern(file.getFileName().toString());
-                    if (isAllowed(file, name, false, attrs, builder.getRelativePath())) {
-                        if (attrs == null) {
-                            throw new GradleException(String.format("Cannot read file '%s': not authorized.", file));
-                        }
-                        if (attrs.isSymbolicLink()) {
-                            // when FileVisitOption.FOLLOW_LINKS, we only get here when link couldn't be followed
-                            throw new GradleException(String.format("Could not list contents of '%s'. Couldn't follow symbolic link.", file));
-                        }
-                        addFileSnapshot(file, name, attrs);
+                    if (isAllowed(file, name, false, attrs, builder.getRelativePath(), spec, hasBeenFiltered)) {
+                        checkCanSnapshotFile(file, attrs);
+                        builder.visit(fileSnapshot(file, name, attrs));
                     }
                     return FileVisitResult.CONTINUE;
                 }
@@ -108,7 +134,7 @@ public class DirectorySnapshotter {
                     // File loop exceptions are ignored. When we encounter a loop (via symbolic links), we continue
                     // so we include all the other files apart from the loop.
                     // This way, we include each file only once.
-                    if (isNotFileSystemLoopException(exc) && isAllowed(file, file.getFileName().toString(), false, null, builder.getRelativePath())) {
+                    if (isNotFileSystemLoopException(exc) && isAllowed(file, file.getFileName().toString(), false, null, builder.getRelativePath(), spec, hasBeenFiltered)) {
                         throw new GradleException(String.format("Could not read path '%s'.", file), exc);
                     }
                     return FileVisitResult.CONTINUE;
@@ -129,41 +155,301 @@ public class DirectorySnapshotter {
                 private boolean isNotFileSystemLoopException(@Nullable IOException e) {
                     return e != null && !(e instanceof FileSystemLoopException);
                 }
+            });
+        } catch (IOException e) {
+            throw new GradleException(String.format("Could not list contents of directory '%s'.", rootPath), e);
+        }
+        return builder.getResult();
+    }
 
-                private void addFileSnapshot(Path file, String name, BasicFileAttributes attrs) {
-                    Preconditions.checkNotNull(attrs, "Unauthorized access to %", file);
-                    DefaultFileMetadata metadata = new DefaultFileMetadata(FileType.RegularFile, attrs.lastModifiedTime().toMillis(), attrs.size());
-                    HashCode hash = hasher.hash(file.toFile(), metadata);
-                    RegularFileSnapshot fileSnapshot = new RegularFileSnapshot(internedAbsolutePath(file), name, hash, metadata.getLastModified());
-                    builder.visit(fileSnapshot);
+    private static void checkCanSnapshotFile(Path file, @Nullable BasicFileAttributes attrs) {
+        if (attrs == null) {
+            throw new GradleException(String.format("Cannot read file '%s': not authorized.", file));
+        }
+        if (attrs.isSymbolicLink()) {
+            // when following links, we only get here when link couldn't be followed
+            throw new GradleException(String.format("Could not list contents of '%s'. Couldn't follow symbolic link.", file));
+        }
+    }
+
+    private RegularFileSnapshot fileSnapshot(Path file, String name, BasicFileAttributes attrs) {
+        Preconditions.checkNotNull(attrs, "Unauthorized access to %", file);
+        DefaultFileMetadata metadata = new DefaultFileMetadata(FileType.RegularFile, attrs.lastModifiedTime().toMillis(), attrs.size());
+        HashCode hash = hasher.hash(file.toFile(), metadata);
+        return new RegularFileSnapshot(internedAbsolutePath(file), name, hash, metadata.getLastModified());
+    }
+
+    private String internedAbsolutePath(Path file) {
+        return stringInterner.intern(file.toString());
+    }
+
+    private boolean isAllowed(Path path, String name, boolean isDirectory, @Nullable BasicFileAttributes attrs, Iterable<String> relativePath, @Nullable Spec<FileTreeElement> spec, MutableBoolean hasBeenFiltered) {
+        if (isDirectory) {
+            if (defaultExcludes.excludeDir(name)) {
+                return false;
+            }
+        } else if (defaultExcludes.excludeFile(name)) {
+            return false;
+        }
+        if (spec == null) {
+            return true;
+        }
+        boolean allowed = spec.isSatisfiedBy(new PathBackedFileTreeElement(path, name, isDirectory, attrs, relativePath, fileSystem));
+        if (!allowed) {
+            hasBeenFiltered.set(true);
+        }
+        return allowed;
+    }
+
+    /**
+     * Reads the attributes of a path following symbolic links, and falls back to the attributes of the link itself
+     * when the link cannot be followed. This is what {@link Files#walkFileTree(Path, java.util.Set, int, java.nio.file.FileVisitor)} does.
+     */
+    private static BasicFileAttributes readAttributes(Path path) throws IOException {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (IOException e) {
+            try {
+                return Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            } catch (IOException ignored) {
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * A single parallel walk of a directory tree.
+     *
+     * Each directory is snapshotted by its own task, which builds the directory snapshot from the results of its children
+     * with a fresh {@link MerkleDirectorySnapshotBuilder}. This way the snapshots are sorted and hashed exactly like in
+     * the sequential walk. The first failure cancels the remaining tasks and is rethrown on the calling thread as is.
+     */
+    private class ParallelWalk {
+        private final Spec<FileTreeElement> spec;
+        private final MutableBoolean hasBeenFiltered;
+        private final AtomicReference<RuntimeException> failure = new AtomicReference<RuntimeException>();
+
+        ParallelWalk(@Nullable Spec<FileTreeElement> spec, MutableBoolean hasBeenFiltered) {
+            this.spec = spec;
+            this.hasBeenFiltered = hasBeenFiltered;
+        }
+
+        @Nullable
+        FileSystemLocationSnapshot snapshot(Path rootPath) {
+            BasicFileAttributes rootAttributes;
+            try {
+                rootAttributes = readAttributes(rootPath);
+            } catch (IOException e) {
+                visitFailed(rootPath, ImmutableList.<String>of(), e);
+                return null;
+            }
+            String name = stringInterner.intern(rootPath.getFileName().toString());
+            if (!rootAttributes.isDirectory()) {
+                if (!isAllowed(rootPath, name, false, rootAttributes, ImmutableList.<String>of(), spec, hasBeenFiltered)) {
+                    return null;
+                }
+                checkCanSnapshotFile(rootPath, rootAttributes);
+                return fileSnapshot(rootPath, name, rootAttributes);
+            }
+            FileSystemLocationSnapshot result = pool.invoke(new DirectoryTask(null, rootPath, name, rootAttributes, ImmutableList.<String>of()));
+            RuntimeException e = failure.get();
+            if (e != null) {
+                throw e;
+            }
+            return result;
+        }
+
+        private void visitFailed(Path path, List<String> parentRelativePath, IOException e) {
+            // File loop exceptions are ignored, like in the sequential walk.
+            if (!(e instanceof FileSystemLoopException) && isAllowed(path, path.getFileName().toString(), false, null, parentRelativePath, spec, hasBeenFiltered)) {
+                throw new GradleException(String.format("Could not read path '%s'.", path), e);
+            }
+        }
+
+        private class DirectoryTask extends RecursiveTask<FileSystemLocationSnapshot> {
+            private final DirectoryTask parent;
+            private final Path dir;
+            private final String name;
+            private final BasicFileAttributes attributes;
+            private final List<String> relativePath;
+
+            DirectoryTask(@Nullable DirectoryTask parent, Path dir, String name, BasicFileAttributes attributes, List<String> relativePath) {
+                this.parent = parent;
+                this.dir = dir;
+                this.name = name;
+                this.attributes = attributes;
+                this.relativePath = relativePath;
+            }
+
+            @Override
+            protected FileSystemLocationSnapshot compute() {
+                if (failure.get() != null) {
+                    return null;
+                }
+                try {
+                    return snapshotDirectory();
+                } catch (RuntimeException e) {
+                    failure.compareAndSet(null, e);
+                    return null;
                 }
+            }
 
-                private String internedAbsolutePath(Path file) {
-                    return stringInterner.intern(file.toString());
+            @Nullable
+            private FileSystemLocationSnapshot snapshotDirectory() {
+                DirectoryStream<Path> entries;
+                try {
+                    entries = Files.newDirectoryStream(dir);
+                } catch (IOException e) {
+                    visitFailed(dir, parentRelativePath(), e);
+                    return null;
                 }
 
-                private boolean isAllowed(Path path, String name, boolean isDirectory, @Nullable BasicFileAttributes attrs, Iterable<String> relativePath) {
-                    if (isDirectory) {
-                        if (defaultExcludes.excludeDir(name)) {
-                            return false;
+                List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>();
+                List<FileSystemLocationSnapshot> fileSnapshots = new ArrayList<FileSystemLocationSnapshot>();
+                List<Path> files = new ArrayList<Path>();
+                List<String> fileNames = new ArrayList<String>();
+                List<BasicFileAttributes> fileAttributes = new ArrayList<BasicFileAttributes>();
+                try {
+                    if (parent != null && !isAllowed(dir, name, true, attributes, parentRelativePath(), spec, hasBeenFiltered)) {
+                        return null;
+                    }
+                    for (Path entry : entries) {
+                        String entryName = stringInterner.intern(entry.getFileName().toString());
+                        BasicFileAttributes attrs;
+                        try {
+                            attrs = readAttributes(entry);
+                        } catch (IOException e) {
+                            visitFailed(entry, relativePath, e);
+                            continue;
+                        }
+                        if (attrs.isDirectory()) {
+                            if (!isInLoop(entry, attrs)) {
+                                tasks.add(new DirectoryTask(this, entry, entryName, attrs, childRelativePath(entryName)));
+                            }
+                        } else if (isAllowed(entry, entryName, false, attrs, relativePath, spec, hasBeenFiltered)) {
+                            checkCanSnapshotFile(entry, attrs);
+                            files.add(entry);
+                            fileNames.add(entryName);
+                            fileAttributes.add(attrs);
                         }
-                    } else if (defaultExcludes.excludeFile(name)) {
-                        return false;
                     }
-                    if (spec == null) {
-                        return true;
+                } catch (DirectoryIteratorException e) {
+                    throw new GradleException(String.format("Could not read directory path '%s'.", dir), e.getCause());
+                } finally {
+                    closeEntries(entries);
+                }
+
+                boolean hashInBatches = files.size() > FILE_BATCH_SIZE;
+                if (hashInBatches) {
+                    for (int batchStart = 0; batchStart < files.size(); batchStart += FILE_BATCH_SIZE) {
+                        int batchEnd = Math.min(batchStart + FILE_BATCH_SIZE, files.size());
+                        tasks.add(new FileBatchTask(files.subList(batchStart, batchEnd), fileNames.subList(batchStart, batchEnd), fileAttributes.subList(batchStart, batchEnd)));
                     }
-                    boolean allowed = spec.isSatisfiedBy(new PathBackedFileTreeElement(path, name, isDirectory, attrs, relativePath, fileSystem));
-                    if (!allowed) {
-                        hasBeenFiltered.set(true);
+                }
+                for (ForkJoinTask<?> task : tasks) {
+                    task.fork();
+                }
+                if (!hashInBatches) {
+                    // Hash the files of this directory while the subdirectories are walked by other workers
+                    addFileSnapshots(files, fileNames, fileAttributes, fileSnapshots);
+                }
+
+                MerkleDirectorySnapshotBuilder builder = MerkleDirectorySnapshotBuilder.sortingRequired();
+                builder.preVisitDirectory(internedAbsolutePath(dir), name);
+                for (FileSystemLocationSnapshot fileSnapshot : fileSnapshots) {
+                    builder.visit(fileSnapshot);
+                }
+                for (ForkJoinTask<?> task : tasks) {
+                    Object result = task.join();
+                    if (result instanceof FileSystemLocationSnapshot) {
+                        builder.visit((FileSystemLocationSnapshot) result);
+                    } else if (result != null) {
+                        for (Object fileSnapshot : (List<?>) result) {
+                            builder.visit((FileSystemLocationSnapshot) fileSnapshot);
+                        }
                     }
-                    return allowed;
                 }
-            });
-        } catch (IOException e) {
-            throw new GradleException(String.format("Could not list contents of directory '%s'.", rootPath), e);
+                if (failure.get() != null) {
+                    return null;
+                }
+                builder.postVisitDirectory();
+                return builder.getResult();
+            }
+
+            private boolean isInLoop(Path entry, BasicFileAttributes attrs) {
+                Object entryKey = attrs.fileKey();
+                for (DirectoryTask ancestor = this; ancestor != null; ancestor = ancestor.parent) {
+                    Object ancestorKey = ancestor.attributes.fileKey();
+                    if (entryKey != null && ancestorKey != null) {
+                        if (entryKey.equals(ancestorKey)) {
+                            return true;
+                        }
+                    } else {
+                        try {
+                            if (Files.isSameFile(entry, ancestor.dir)) {
+                                return true;
+                            }
+                        } catch (IOException | SecurityException ignored) {
+                            // Same as in the sequential walk, assume there is no loop
+                        }
+                    }
+                }
+                return false;
+            }
+
+            private List<String> parentRelativePath() {
+                return parent == null ? ImmutableList.<String>of() : parent.relativePath;
+            }
+
+            private List<String> childRelativePath(String childName) {
+                return ImmutableList.<String>builderWithExpectedSize(relativePath.size() + 1).addAll(relativePath).add(childName).build();
+            }
+
+            private void closeEntries(DirectoryStream<Path> entries) {
+                try {
+                    entries.close();
+                } catch (IOException e) {
+                    throw new GradleException(String.format("Could not read directory path '%s'.", dir), e);
+                }
+            }
         }
-        return builder.getResult();
+
+        private class FileBatchTask extends RecursiveTask<List<FileSystemLocationSnapshot>> {
+            private final List<Path> files;
+            private final List<String> names;
+            private final List<BasicFileAttributes> attributes;
+
+            FileBatchTask(List<Path> files, List<String> names, List<BasicFileAttributes> attributes) {
+                this.files = files;
+                this.names = names;
+                this.attributes = attributes;
+            }
+
+            @Override
+            protected List<FileSystemLocationSnapshot> compute() {
+                if (failure.get() != null) {
+                    return null;
+                }
+                try {
+                    List<FileSystemLocationSnapshot> snapshots = new ArrayList<FileSystemLocationSnapshot>(files.size());
+                    addFileSnapshots(files, names, attributes, snapshots);
+                    return snapshots;
+                } catch (RuntimeException e) {
+                    failure.compareAndSet(null, e);
+                    return null;
+                }
+            }
+        }
+
+        private void addFileSnapshots(List<Path> files, List<String> names, List<BasicFileAttributes> attributes, List<FileSystemLocationSnapshot> snapshots) {
+            for (int i = 0; i < files.size(); i++) {
+                snapshots.add(fileSnapshot(files.get(i), names.get(i), attributes.get(i)));
+            }
+        }
+    }
+
+    private static class SharedPool {
+        private static final ForkJoinPool INSTANCE = new ForkJoinPool();
     }
 
     @VisibleForTesting
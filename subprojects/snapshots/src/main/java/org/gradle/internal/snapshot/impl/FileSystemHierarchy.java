@@ -0,0 +1,321 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.snapshot.impl;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An immutable, path-compressed tree which maps absolute paths to values.
+ *
+ * Each node stores the path segments leading to it from its parent, so a chain of directories without any
+ * values of their own collapses into a single node. Updates return a new hierarchy which shares all untouched
+ * nodes with the previous one, so readers never need to lock.
+ */
+@Immutable
+public final class FileSystemHierarchy<V> {
+    private static final char SEPARATOR = File.separatorChar;
+    private static final FileSystemHierarchy<Object> EMPTY = new FileSystemHierarchy<Object>(new Node<Object>("", null, Node.<Object>noChildren()));
+
+    private final Node<V> root;
+
+    private FileSystemHierarchy(Node<V> root) {
+        this.root = root;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <V> FileSystemHierarchy<V> empty() {
+        return (FileSystemHierarchy<V>) EMPTY;
+    }
+
+    public boolean isEmpty() {
+        return root.value == null && root.children.length == 0;
+    }
+
+    @Nullable
+    public V get(String absolutePath) {
+        String path = normalize(absolutePath);
+        Node<V> current = root;
+        int offset = 0;
+        while (offset < path.length()) {
+            int index = current.indexOfChild(path, offset);
+            if (index < 0) {
+                return null;
+            }
+            Node<V> child = current.children[index];
+            int commonPrefix = sizeOfCommonPrefix(child.prefix, path, offset);
+            if (commonPrefix != child.prefix.length()) {
+                return null;
+            }
+            current = child;
+            offset += commonPrefix + 1;
+        }
+        return current.value;
+    }
+
+    /**
+     * Returns the values which are not located below any other value in this hierarchy.
+     */
+    public List<V> getRootValues() {
+        List<V> rootValues = new ArrayList<V>();
+        collectRootValues(root, rootValues);
+        return rootValues;
+    }
+
+    private static <V> void collectRootValues(Node<V> node, List<V> rootValues) {
+        if (node.value != null) {
+            rootValues.add(node.value);
+            return;
+        }
+        for (Node<V> child : node.children) {
+            collectRootValues(child, rootValues);
+        }
+    }
+
+    /**
+     * Returns a hierarchy in which the given path is mapped to the given value.
+     */
+    public FileSystemHierarchy<V> put(String absolutePath, V value) {
+        return new FileSystemHierarchy<V>(put(root, normalize(absolutePath), 0, value));
+    }
+
+    /**
+     * Returns a hierarchy without any values for the given path, its descendants and its ancestors.
+     *
+     * Values of ancestors are removed as well, since they describe a tree which contains the invalidated path.
+     */
+    public FileSystemHierarchy<V> invalidate(String absolutePath) {
+        Node<V> newRoot = invalidate(root, normalize(absolutePath), 0);
+        return newRoot == null ? FileSystemHierarchy.<V>empty() : new FileSystemHierarchy<V>(newRoot);
+    }
+
+    private static <V> Node<V> put(Node<V> node, String path, int offset, V value) {
+        if (offset >= path.length()) {
+            return node.withValue(value);
+        }
+        int index = node.indexOfChild(path, offset);
+        if (index < 0) {
+            return node.withChildInserted(-index - 1, new Node<V>(path.substring(offset), value, Node.<V>noChildren()));
+        }
+        Node<V> child = node.children[index];
+        int commonPrefix = sizeOfCommonPrefix(child.prefix, path, offset);
+        if (commonPrefix == child.prefix.length()) {
+            return node.withChildReplaced(index, put(child, path, offset + commonPrefix + 1, value));
+        }
+        // The new path branches off in the middle of the child's prefix, so split the child
+        Node<V> remainderOfChild = new Node<V>(child.prefix.substring(commonPrefix + 1), child.value, child.children);
+        String sharedPrefix = child.prefix.substring(0, commonPrefix);
+        Node<V> split;
+        if (offset + commonPrefix == path.length()) {
+            split = new Node<V>(sharedPrefix, value, Node.singleChild(remainderOfChild));
+        } else {
+            Node<V> newChild = new Node<V>(path.substring(offset + commonPrefix + 1), value, Node.<V>noChildren());
+            split = new Node<V>(sharedPrefix, null, Node.sortedChildren(remainderOfChild, newChild));
+        }
+        return node.withChildReplaced(index, split);
+    }
+
+    @Nullable
+    private static <V> Node<V> invalidate(Node<V> node, String path, int offset) {
+        if (offset >= path.length()) {
+            return null;
+        }
+        Node<V>[] children = node.children;
+        int index = node.indexOfChild(path, offset);
+        if (index >= 0) {
+            Node<V> child = children[index];
+            int commonPrefix = sizeOfCommonPrefix(child.prefix, path, offset);
+            Node<V> newChild;
+            if (commonPrefix == child.prefix.length()) {
+                newChild = invalidate(child, path, offset + commonPrefix + 1);
+            } else if (offset + commonPrefix == path.length()) {
+                // The child is a descendant of the invalidated path
+                newChild = null;
+            } else {
+                newChild = child;
+            }
+            if (newChild == null) {
+                children = Node.withoutChild(children, index);
+            } else if (newChild != child) {
+                children = Node.withChildReplaced(children, index, newChild);
+            }
+        }
+        return node.compacted(children);
+    }
+
+    /**
+     * Returns the length of the longest common prefix of {@code prefix} and {@code path} starting at {@code offset} which ends on a segment boundary in both.
+     */
+    private static int sizeOfCommonPrefix(String prefix, String path, int offset) {
+        int maxPos = Math.min(prefix.length(), path.length() - offset);
+        int lastSeparator = 0;
+        for (int pos = 0; pos < maxPos; pos++) {
+            char current = prefix.charAt(pos);
+            if (current != path.charAt(offset + pos)) {
+                return lastSeparator;
+            }
+            if (current == SEPARATOR) {
+                lastSeparator = pos;
+            }
+        }
+        if (maxPos == prefix.length()) {
+            int endOfPrefixInPath = offset + maxPos;
+            return endOfPrefixInPath == path.length() || path.charAt(endOfPrefixInPath) == SEPARATOR ? maxPos : lastSeparator;
+        }
+        return prefix.charAt(maxPos) == SEPARATOR ? maxPos : lastSeparator;
+    }
+
+    /**
+     * Compares the first segment of {@code prefix} with the first segment of {@code path} starting at {@code offset}.
+     */
+    private static int compareFirstSegment(String prefix, String path, int offset) {
+        for (int pos = 0; ; pos++) {
+            boolean endOfPrefixSegment = pos == prefix.length() || prefix.charAt(pos) == SEPARATOR;
+            boolean endOfPathSegment = offset + pos == path.length() || path.charAt(offset + pos) == SEPARATOR;
+            if (endOfPrefixSegment) {
+                return endOfPathSegment ? 0 : -1;
+            }
+            if (endOfPathSegment) {
+                return 1;
+            }
+            int diff = prefix.charAt(pos) - path.charAt(offset + pos);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+    }
+
+    private static String normalize(String absolutePath) {
+        int start = 0;
+        int end = absolutePath.length();
+        while (start < end && absolutePath.charAt(start) == SEPARATOR) {
+            start++;
+        }
+        while (end > start && absolutePath.charAt(end - 1) == SEPARATOR) {
+            end--;
+        }
+        return absolutePath.substring(start, end);
+    }
+
+    private static final class Node<V> {
+        private static final Node<?>[] NO_CHILDREN = new Node<?>[0];
+
+        private final String prefix;
+        private final V value;
+        private final Node<V>[] children;
+
+        Node(String prefix, @Nullable V value, Node<V>[] children) {
+            this.prefix = prefix;
+            this.value = value;
+            this.children = children;
+        }
+
+        @SuppressWarnings("unchecked")
+        static <V> Node<V>[] noChildren() {
+            return (Node<V>[]) NO_CHILDREN;
+        }
+
+        @SuppressWarnings("unchecked")
+        static <V> Node<V>[] singleChild(Node<V> child) {
+            return new Node[]{child};
+        }
+
+        @SuppressWarnings("unchecked")
+        static <V> Node<V>[] sortedChildren(Node<V> first, Node<V> second) {
+            return compareFirstSegment(first.prefix, second.prefix, 0) < 0
+                ? new Node[]{first, second}
+                : new Node[]{second, first};
+        }
+
+        /**
+         * Binary search for the child whose first segment matches the first segment of the path starting at offset.
+         */
+        int indexOfChild(String path, int offset) {
+            int low = 0;
+            int high = children.length - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int comparison = compareFirstSegment(children[mid].prefix, path, offset);
+                if (comparison < 0) {
+                    low = mid + 1;
+                } else if (comparison > 0) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -(low + 1);
+        }
+
+        Node<V> withValue(V newValue) {
+            return new Node<V>(prefix, newValue, children);
+        }
+
+        Node<V> withChildReplaced(int index, Node<V> child) {
+            return new Node<V>(prefix, value, withChildReplaced(children, index, child));
+        }
+
+        @SuppressWarnings("unchecked")
+        Node<V> withChildInserted(int index, Node<V> child) {
+            Node<V>[] newChildren = new Node[children.length + 1];
+            System.arraycopy(children, 0, newChildren, 0, index);
+            newChildren[index] = child;
+            System.arraycopy(children, index, newChildren, index + 1, children.length - index);
+            return new Node<V>(prefix, value, newChildren);
+        }
+
+        /**
+         * Returns this node without a value and with the given children, merging it into its only child or dropping it when possible.
+         */
+        @Nullable
+        Node<V> compacted(Node<V>[] newChildren) {
+            boolean isRoot = prefix.isEmpty();
+            if (!isRoot && newChildren.length == 0) {
+                return null;
+            }
+            if (!isRoot && newChildren.length == 1) {
+                Node<V> onlyChild = newChildren[0];
+                return new Node<V>(prefix + SEPARATOR + onlyChild.prefix, onlyChild.value, onlyChild.children);
+            }
+            if (value == null && newChildren == children) {
+                return this;
+            }
+            return new Node<V>(prefix, null, newChildren);
+        }
+
+        static <V> Node<V>[] withChildReplaced(Node<V>[] children, int index, Node<V> child) {
+            Node<V>[] newChildren = Arrays.copyOf(children, children.length);
+            newChildren[index] = child;
+            return newChildren;
+        }
+
+        @SuppressWarnings("unchecked")
+        static <V> Node<V>[] withoutChild(Node<V>[] children, int index) {
+            if (children.length == 1) {
+                return noChildren();
+            }
+            Node<V>[] newChildren = new Node[children.length - 1];
+            System.arraycopy(children, 0, newChildren, 0, index);
+            System.arraycopy(children, index + 1, newChildren, index, children.length - index - 1);
+            return newChildren;
+        }
+    }
+}
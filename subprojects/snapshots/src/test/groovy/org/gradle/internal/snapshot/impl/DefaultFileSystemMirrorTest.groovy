@@ -132,4 +132,60 @@ class DefaultFileSystemMirrorTest extends Specification {
         mirror.getMetadata(file.path) == null
         mirror.getSnapshot(file.path) == null
     }
+
+    def "discards state about changed outputs, their descendants and their ancestors only"() {
+        def dir = tmpDir.file("dir")
+        def output = dir.file("output")
+        def outputChild = output.file("child")
+        def sibling = dir.file("sibling")
+
+        given:
+        [dir, output, outputChild, sibling].each { file ->
+            mirror.putMetadata(file.path, Stub(FileMetadataSnapshot))
+            mirror.putSnapshot(snapshotFor(file))
+        }
+
+        when:
+        mirror.beforeOutputChange([output.path])
+
+        then:
+        mirror.getMetadata(dir.path) == null
+        mirror.getSnapshot(dir.path) == null
+        mirror.getMetadata(output.path) == null
+        mirror.getSnapshot(output.path) == null
+        mirror.getMetadata(outputChild.path) == null
+        mirror.getSnapshot(outputChild.path) == null
+        mirror.getMetadata(sibling.path) != null
+        mirror.getSnapshot(sibling.path) != null
+    }
+
+    def "can retain snapshots of locations outside of the caches"() {
+        def dir = tmpDir.file("dir")
+        def file = dir.file("a")
+        def cacheFile = cacheDir.file("some/dir/a")
+        def dirSnapshot = snapshotFor(dir)
+        def metadata = Stub(FileMetadataSnapshot)
+
+        given:
+        mirror.putMetadata(file.path, metadata)
+        mirror.putSnapshot(dirSnapshot)
+        mirror.putSnapshot(snapshotFor(file))
+        mirror.putSnapshot(snapshotFor(cacheFile))
+
+        when:
+        mirror.discardAllButSnapshots()
+
+        then:
+        mirror.getMetadata(file.path) == null
+        mirror.getSnapshot(cacheFile.path) == null
+        mirror.getSnapshot(dir.path) == dirSnapshot
+        mirror.getSnapshot(file.path) != null
+        mirror.rootSnapshots == [dirSnapshot]
+    }
+
+    private FileSystemLocationSnapshot snapshotFor(File file) {
+        def snapshot = Stub(FileSystemLocationSnapshot)
+        _ * snapshot.absolutePath >> file.path
+        return snapshot
+    }
 }
@@ -17,6 +17,7 @@
 package org.gradle.internal.snapshot.impl
 
 import org.apache.tools.ant.DirectoryScanner
+import org.gradle.api.GradleException
 import org.gradle.api.internal.cache.StringInterner
 import org.gradle.api.internal.file.TestFiles
 import org.gradle.api.tasks.util.PatternSet
@@ -29,6 +30,9 @@ import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
 import org.gradle.util.UsesNativeServices
 import org.junit.Rule
 import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.util.concurrent.ForkJoinPool
 
 @UsesNativeServices
 class DirectorySnapshotterTest extends Specification {
@@ -132,6 +136,75 @@ class DirectorySnapshotterTest extends Specification {
         ] as Set
     }
 
+    @Unroll
+    def "parallel snapshotting produces the same snapshot (filtered: #filtered)"() {
+        given:
+        def rootDir = tmpDir.createDir("root")
+        (0..3).each { dir ->
+            (0..40).each { file ->
+                rootDir.file("dir$dir/file${file}.txt").text = "content $dir $file"
+                rootDir.file("dir$dir/nested/file${file}.html").text = "nested $dir $file"
+            }
+        }
+        rootDir.file("a.txt").createFile()
+        rootDir.file(".git/config").createFile()
+
+        def patterns = new PatternSet()
+        if (filtered) {
+            patterns.include("**/*.txt")
+            patterns.exclude("dir1/**")
+        }
+        def pool = new ForkJoinPool(4)
+        def parallelSnapshotter = new DirectorySnapshotter(fileHasher, TestFiles.fileSystem(), new StringInterner(), pool, DirectoryScanner.getDefaultExcludes())
+        def sequentialSnapshotter = new DirectorySnapshotter(fileHasher, TestFiles.fileSystem(), new StringInterner(), null, DirectoryScanner.getDefaultExcludes())
+
+        when:
+        def parallelFiltered = new MutableBoolean(false)
+        def parallelSnapshot = parallelSnapshotter.snapshot(rootDir.absolutePath, patterns, parallelFiltered)
+        def sequentialFiltered = new MutableBoolean(false)
+        def sequentialSnapshot = sequentialSnapshotter.snapshot(rootDir.absolutePath, patterns, sequentialFiltered)
+
+        then:
+        parallelSnapshot.hash == sequentialSnapshot.hash
+        visitedPaths(parallelSnapshot) == visitedPaths(sequentialSnapshot)
+        parallelFiltered.get() == filtered
+        sequentialFiltered.get() == filtered
+
+        cleanup:
+        pool.shutdown()
+
+        where:
+        filtered << [false, true]
+    }
+
+    def "parallel snapshotting reports failures of the walk"() {
+        given:
+        def rootDir = tmpDir.createDir("root")
+        def pool = new ForkJoinPool(2)
+        def parallelSnapshotter = new DirectorySnapshotter(fileHasher, TestFiles.fileSystem(), new StringInterner(), pool)
+
+        when:
+        parallelSnapshotter.snapshot(rootDir.file("missing").absolutePath, null, new MutableBoolean(false))
+
+        then:
+        def e = thrown(GradleException)
+        e.message == "Could not read path '${rootDir.file("missing")}'."
+
+        cleanup:
+        pool.shutdown()
+    }
+
+    private static List<String> visitedPaths(FileSystemLocationSnapshot snapshot) {
+        def visited = []
+        snapshot.accept(new RelativePathTrackingVisitor() {
+            @Override
+            void visit(String absolutePath, Deque<String> relativePath) {
+                visited << absolutePath
+            }
+        })
+        return visited
+    }
+
     def "default excludes are correctly parsed"() {
         def defaultExcludes = new DirectorySnapshotter.DefaultExcludes(DirectoryScanner.getDefaultExcludes())
 
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.snapshot.impl
+
+import spock.lang.Specification
+
+class FileSystemHierarchyTest extends Specification {
+    def hierarchy = FileSystemHierarchy.<String>empty()
+
+    def "can add and query values"() {
+        when:
+        hierarchy = hierarchy.put(path("some/dir/a"), "a")
+            .put(path("some/dir/b"), "b")
+            .put(path("some/other"), "other")
+            .put(path("some"), "some")
+
+        then:
+        hierarchy.get(path("some/dir/a")) == "a"
+        hierarchy.get(path("some/dir/b")) == "b"
+        hierarchy.get(path("some/other")) == "other"
+        hierarchy.get(path("some")) == "some"
+        hierarchy.get(path("some/dir")) == null
+        hierarchy.get(path("some/dir/a/child")) == null
+        hierarchy.get(path("some/di")) == null
+        hierarchy.get(path("some/dir/ab")) == null
+    }
+
+    def "updates leave the original hierarchy untouched"() {
+        def original = hierarchy.put(path("some/dir"), "dir")
+
+        when:
+        def updated = original.put(path("some/dir"), "new").put(path("some/dir/child"), "child")
+
+        then:
+        original.get(path("some/dir")) == "dir"
+        original.get(path("some/dir/child")) == null
+        updated.get(path("some/dir")) == "new"
+        updated.get(path("some/dir/child")) == "child"
+    }
+
+    def "invalidating a path removes the path, its descendants and its ancestors"() {
+        given:
+        hierarchy = hierarchy.put(path("root"), "root")
+            .put(path("root/dir"), "dir")
+            .put(path("root/dir/output"), "output")
+            .put(path("root/dir/output/nested/file"), "file")
+            .put(path("root/dir/outputs"), "outputs")
+            .put(path("root/sibling"), "sibling")
+
+        when:
+        hierarchy = hierarchy.invalidate(path("root/dir/output"))
+
+        then:
+        hierarchy.get(path("root")) == null
+        hierarchy.get(path("root/dir")) == null
+        hierarchy.get(path("root/dir/output")) == null
+        hierarchy.get(path("root/dir/output/nested/file")) == null
+        hierarchy.get(path("root/dir/outputs")) == "outputs"
+        hierarchy.get(path("root/sibling")) == "sibling"
+    }
+
+    def "invalidating a path in the middle of a compressed node removes the descendants"() {
+        given:
+        hierarchy = hierarchy.put(path("root/a/b/c/d"), "d")
+            .put(path("root/e"), "e")
+
+        when:
+        hierarchy = hierarchy.invalidate(path("root/a/b"))
+
+        then:
+        hierarchy.get(path("root/a/b/c/d")) == null
+        hierarchy.get(path("root/e")) == "e"
+    }
+
+    def "invalidating the file system root empties the hierarchy"() {
+        given:
+        hierarchy = hierarchy.put(path("some/dir"), "dir")
+
+        when:
+        hierarchy = hierarchy.invalidate(File.separator)
+
+        then:
+        hierarchy.empty
+        hierarchy.get(path("some/dir")) == null
+    }
+
+    private static String path(String relativePath) {
+        return File.separator + relativePath.replace('/', File.separator)
+    }
+}